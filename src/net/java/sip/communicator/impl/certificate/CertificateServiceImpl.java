@@ -34,6 +34,7 @@
 import net.java.sip.communicator.service.credentialsstorage.*;
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.httputil.*;
+import net.java.sip.communicator.service.protocol.LoginOrchestrator;
 import net.java.sip.communicator.util.Logger;
 
 import org.bouncycastle.asn1.*;
@@ -1069,7 +1070,17 @@ protected int verify(final X509Certificate[] chain, final String message)
         VerifyCertificateDialogService.VerifyCertificateDialog dialog =
             CertificateVerificationActivator.getCertificateDialogService()
                 .createDialog(chain, null, message);
-        dialog.setVisible(true);
+
+        // let other accounts log in while the user makes up their mind.
+        LoginOrchestrator.beginUserInteraction();
+        try
+        {
+            dialog.setVisible(true);
+        }
+        finally
+        {
+            LoginOrchestrator.endUserInteraction();
+        }
 
         if(!dialog.isTrusted())
             return DO_NOT_TRUST;
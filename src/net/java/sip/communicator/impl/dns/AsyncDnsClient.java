@@ -0,0 +1,593 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.util.*;
+
+import org.xbill.DNS.*;
+
+/**
+ * Sends DNS queries over UDP without blocking the caller. All outstanding
+ * queries, to any number of servers, are multiplexed on a single
+ * <tt>Selector</tt> served by a single thread. Every query is sent from a
+ * <tt>DatagramChannel</tt> of its own, bound to a random local port, and its
+ * response has to match the message ID, server address and question of the
+ * query, so that a spoofed response has to guess both the port and the ID
+ * (RFC 5452).
+ * <p>
+ * The same thread also runs the timers scheduled through
+ * {@link #schedule(Runnable, long)} (i.e. the DNS patience of
+ * {@link ParallelResolverImpl}) so that resolving never needs more than this
+ * one thread no matter how many lookups are in progress. Listeners are
+ * notified on that thread and must therefore not block.
+ */
+class AsyncDnsClient
+    implements Runnable
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>AsyncDnsClient</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(AsyncDnsClient.class);
+
+    /**
+     * Receives the outcome of a query sent through
+     * {@link AsyncDnsClient#send(Message, InetSocketAddress, long,
+     * ResponseListener)}. Called on the selector thread.
+     */
+    interface ResponseListener
+    {
+        /**
+         * Notifies that <tt>server</tt> responded to the query.
+         *
+         * @param response the response.
+         * @param server the server that sent the response.
+         */
+        void responseReceived(Message response, InetSocketAddress server);
+
+        /**
+         * Notifies that the query to <tt>server</tt> could not be sent or was
+         * not answered in time.
+         *
+         * @param cause the reason of the failure.
+         * @param server the server the query was sent to.
+         */
+        void queryFailed(IOException cause, InetSocketAddress server);
+    }
+
+    /**
+     * The lowest local port we send queries from.
+     */
+    private static final int MIN_PORT = 1024;
+
+    /**
+     * The number of random local ports we try to bind to before leaving the
+     * choice to the system.
+     */
+    private static final int BIND_ATTEMPTS = 16;
+
+    /**
+     * Generates the IDs of the queries we send and the local ports we send
+     * them from. Both have to be unpredictable to protect us against spoofed
+     * responses.
+     */
+    private final Random random = new SecureRandom();
+
+    /**
+     * The queries sent and not answered yet. Only accessed on the selector
+     * thread.
+     */
+    private final Set<PendingQuery> pending = new HashSet<PendingQuery>();
+
+    /**
+     * The queries and timers handed to us by other threads and not yet picked
+     * up by the selector thread.
+     */
+    private final Queue<Object> submissions
+        = new ConcurrentLinkedQueue<Object>();
+
+    /**
+     * The timers scheduled on the selector thread, earliest first. Only
+     * accessed on the selector thread.
+     */
+    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+
+    /**
+     * The buffer responses are received into. Only accessed on the selector
+     * thread.
+     */
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(65535);
+
+    /**
+     * The selector multiplexing the channels of the pending queries.
+     */
+    private Selector selector;
+
+    /**
+     * The thread serving {@link #selector} or <tt>null</tt> if it hasn't been
+     * started yet.
+     */
+    private Thread thread;
+
+    /**
+     * Sends <tt>query</tt> to <tt>server</tt>. The query is sent with an ID of
+     * our own choice, the response is handed to <tt>listener</tt> with the ID
+     * of <tt>query</tt> restored.
+     *
+     * @param query the query to send.
+     * @param server the server to send the query to.
+     * @param timeout the number of milliseconds after which we give up waiting
+     * for a response.
+     * @param listener the listener to notify of the outcome.
+     * @return a handle that can be passed to {@link #cancel(Object)}.
+     */
+    public Object send(
+            Message query,
+            InetSocketAddress server,
+            long timeout,
+            ResponseListener listener)
+    {
+        PendingQuery pq
+            = new PendingQuery(
+                    query,
+                    server,
+                    System.currentTimeMillis() + timeout,
+                    listener);
+
+        submit(pq);
+        return pq;
+    }
+
+    /**
+     * Stops waiting for the response to a query sent through
+     * {@link #send(Message, InetSocketAddress, long, ResponseListener)}. Its
+     * listener will not be notified anymore.
+     *
+     * @param handle the handle returned when the query was sent.
+     */
+    public void cancel(Object handle)
+    {
+        ((PendingQuery) handle).cancelled = true;
+    }
+
+    /**
+     * Runs <tt>task</tt> on the selector thread after <tt>delay</tt>
+     * milliseconds.
+     *
+     * @param task the task to run. Must not block.
+     * @param delay the number of milliseconds after which to run the task.
+     */
+    public void schedule(Runnable task, long delay)
+    {
+        submit(new Timer(task, System.currentTimeMillis() + delay));
+    }
+
+    /**
+     * Hands <tt>submission</tt> to the selector thread, starting it if
+     * necessary.
+     *
+     * @param submission a <tt>PendingQuery</tt> or a <tt>Timer</tt>.
+     */
+    private void submit(Object submission)
+    {
+        submissions.add(submission);
+
+        synchronized (this)
+        {
+            if (thread == null)
+            {
+                try
+                {
+                    selector = Selector.open();
+                }
+                catch (IOException ioe)
+                {
+                    // Fail everything that was submitted so far.
+                    logger.error("Failed to open DNS selector", ioe);
+                    failSubmissions(ioe);
+                    return;
+                }
+
+                thread = new Thread(this, AsyncDnsClient.class.getName());
+                thread.setDaemon(true);
+                thread.start();
+                return;
+            }
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Serves the selector: sends the submitted queries, dispatches the
+     * responses and expires the queries and timers that are due.
+     */
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                processSubmissions();
+
+                long now = System.currentTimeMillis();
+                long wakeup = processTimeouts(now);
+
+                if (wakeup == Long.MAX_VALUE)
+                    selector.select();
+                else if (wakeup > now)
+                    selector.select(wakeup - now);
+                else
+                    selector.selectNow();
+
+                Iterator<SelectionKey> keys
+                    = selector.selectedKeys().iterator();
+
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+
+                    keys.remove();
+                    if (key.isValid() && key.isReadable())
+                        receive((PendingQuery) key.attachment());
+                }
+            }
+            catch (Throwable t)
+            {
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+                logger.error("Unexpected error in DNS selector thread", t);
+            }
+        }
+    }
+
+    /**
+     * Sends the queries and schedules the timers submitted since the last
+     * call.
+     */
+    private void processSubmissions()
+    {
+        Object submission;
+
+        while ((submission = submissions.poll()) != null)
+        {
+            if (submission instanceof Timer)
+            {
+                timers.add((Timer) submission);
+                continue;
+            }
+
+            PendingQuery pq = (PendingQuery) submission;
+
+            if (pq.cancelled)
+                continue;
+
+            try
+            {
+                Message wireQuery = (Message) pq.query.clone();
+
+                pq.id = random.nextInt(0x10000);
+                wireQuery.getHeader().setID(pq.id);
+                pq.channel = openChannel(pq.server);
+                pq.channel.register(selector, SelectionKey.OP_READ, pq);
+                pq.channel.send(
+                        ByteBuffer.wrap(wireQuery.toWire()),
+                        pq.server);
+                pending.add(pq);
+            }
+            catch (IOException ioe)
+            {
+                close(pq);
+                pq.listener.queryFailed(ioe, pq.server);
+            }
+        }
+    }
+
+    /**
+     * Fails the queries whose time is up and runs the timers that are due.
+     *
+     * @param now the current time.
+     * @return the time of the next deadline or <tt>Long.MAX_VALUE</tt> if
+     * there is none.
+     */
+    private long processTimeouts(long now)
+    {
+        long next = Long.MAX_VALUE;
+        Iterator<PendingQuery> iter = pending.iterator();
+
+        while (iter.hasNext())
+        {
+            PendingQuery pq = iter.next();
+
+            if (pq.cancelled)
+            {
+                iter.remove();
+                close(pq);
+            }
+            else if (pq.deadline <= now)
+            {
+                iter.remove();
+                close(pq);
+                pq.listener.queryFailed(
+                        new SocketTimeoutException(
+                                "DNS query to " + pq.server + " timed out"),
+                        pq.server);
+            }
+            else
+            {
+                next = Math.min(next, pq.deadline);
+            }
+        }
+
+        Timer timer;
+
+        while ((timer = timers.peek()) != null && timer.due <= now)
+        {
+            timers.poll();
+            timer.task.run();
+        }
+        if (timer != null)
+            next = Math.min(next, timer.due);
+        return next;
+    }
+
+    /**
+     * Reads the datagrams waiting on the channel of <tt>pq</tt> and hands the
+     * first one that answers it to its listener.
+     *
+     * @param pq the query whose channel is readable.
+     */
+    private void receive(PendingQuery pq)
+    {
+        while (pq.channel.isOpen())
+        {
+            SocketAddress source;
+
+            receiveBuffer.clear();
+            try
+            {
+                source = pq.channel.receive(receiveBuffer);
+            }
+            catch (IOException ioe)
+            {
+                // i.e. an ICMP port unreachable reported on the channel
+                if (logger.isDebugEnabled())
+                    logger.debug("Failed to receive DNS response", ioe);
+                return;
+            }
+            if (source == null)
+                return;
+
+            receiveBuffer.flip();
+
+            byte[] data = new byte[receiveBuffer.remaining()];
+            Message response;
+
+            receiveBuffer.get(data);
+            try
+            {
+                response = new Message(data);
+            }
+            catch (IOException ioe)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Malformed DNS response from " + source, ioe);
+                continue;
+            }
+
+            if (response.getHeader().getID() != pq.id
+                    || !pq.server.equals(source)
+                    || !pq.query.getQuestion().equals(response.getQuestion()))
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Ignoring unexpected DNS response from "
+                        + source);
+                continue;
+            }
+
+            pending.remove(pq);
+            close(pq);
+            if (!pq.cancelled)
+            {
+                response.getHeader().setID(pq.query.getHeader().getID());
+                pq.listener.responseReceived(response, pq.server);
+            }
+        }
+    }
+
+    /**
+     * Opens a channel for a single query to <tt>server</tt>, bound to a random
+     * local port.
+     *
+     * @param server the server we'd like to query.
+     * @return a non-blocking channel of the address family of
+     * <tt>server</tt>.
+     * @throws IOException if the channel could not be opened.
+     */
+    private DatagramChannel openChannel(InetSocketAddress server)
+        throws IOException
+    {
+        boolean v6 = server.getAddress() instanceof Inet6Address;
+        DatagramChannel channel
+            = DatagramChannel.open(
+                    v6
+                        ? StandardProtocolFamily.INET6
+                        : StandardProtocolFamily.INET);
+
+        try
+        {
+            InetAddress any
+                = InetAddress.getByAddress(new byte[v6 ? 16 : 4]);
+
+            channel.configureBlocking(false);
+            for (int i = 0; i < BIND_ATTEMPTS; i++)
+            {
+                int port = MIN_PORT + random.nextInt(0x10000 - MIN_PORT);
+
+                try
+                {
+                    channel.bind(new InetSocketAddress(any, port));
+                    return channel;
+                }
+                catch (BindException be)
+                {
+                    // in use, try another one
+                }
+            }
+            channel.bind(null);
+            return channel;
+        }
+        catch (IOException ioe)
+        {
+            channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Closes the channel of <tt>pq</tt>, if it has one, ignoring errors.
+     *
+     * @param pq the query we no longer expect a response to.
+     */
+    private static void close(PendingQuery pq)
+    {
+        if (pq.channel == null)
+            return;
+        try
+        {
+            pq.channel.close();
+        }
+        catch (IOException ioe)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Failed to close DNS channel", ioe);
+        }
+    }
+
+    /**
+     * Fails all submitted queries, i.e. when we could not open the selector.
+     *
+     * @param cause the reason of the failure.
+     */
+    private void failSubmissions(IOException cause)
+    {
+        Object submission;
+
+        while ((submission = submissions.poll()) != null)
+        {
+            if (submission instanceof PendingQuery)
+            {
+                PendingQuery pq = (PendingQuery) submission;
+
+                pq.listener.queryFailed(cause, pq.server);
+            }
+        }
+    }
+
+    /**
+     * A query sent (or about to be sent) and waiting for its response.
+     */
+    private static class PendingQuery
+    {
+        /**
+         * The query as given to us.
+         */
+        final Message query;
+
+        /**
+         * The server the query is sent to.
+         */
+        final InetSocketAddress server;
+
+        /**
+         * The time after which we stop waiting for a response.
+         */
+        final long deadline;
+
+        /**
+         * The listener to notify of the outcome.
+         */
+        final ResponseListener listener;
+
+        /**
+         * The ID the query was sent with.
+         */
+        int id;
+
+        /**
+         * The channel the query was sent through, opened for this query
+         * only.
+         */
+        DatagramChannel channel;
+
+        /**
+         * Whether the caller is no longer interested in the outcome.
+         */
+        volatile boolean cancelled;
+
+        PendingQuery(
+                Message query,
+                InetSocketAddress server,
+                long deadline,
+                ResponseListener listener)
+        {
+            this.query = query;
+            this.server = server;
+            this.deadline = deadline;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * A task to run on the selector thread at a given time.
+     */
+    private static class Timer
+        implements Comparable<Timer>
+    {
+        /**
+         * The task to run.
+         */
+        final Runnable task;
+
+        /**
+         * The time at which to run the task.
+         */
+        final long due;
+
+        Timer(Runnable task, long due)
+        {
+            this.task = task;
+            this.due = due;
+        }
+
+        @Override
+        public int compareTo(Timer o)
+        {
+            return (due < o.due) ? -1 : ((due == o.due) ? 0 : 1);
+        }
+    }
+}
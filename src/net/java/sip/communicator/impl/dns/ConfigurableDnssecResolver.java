@@ -28,9 +28,11 @@
 
 import net.java.sip.communicator.service.dns.*;
 import net.java.sip.communicator.service.notification.*;
+import net.java.sip.communicator.util.DnsCache;
 import net.java.sip.communicator.util.Logger;
 import net.java.sip.communicator.plugin.desktoputil.*;
 
+import org.jitsi.dnssec.validator.KeyCache;
 import org.jitsi.dnssec.validator.ValidatingResolver;
 import org.jitsi.service.configuration.*;
 import org.jitsi.service.resources.*;
@@ -74,6 +76,19 @@
 
     private ExtendedResolver headResolver;
 
+    /**
+     * The validated answers, bounded like the answers of the shared
+     * <tt>DnsCache</tt>.
+     */
+    private final ValidatedAnswerCache answerCache
+        = new ValidatedAnswerCache(
+            config.getInt(
+                DnsCache.PNAME_MAX_ENTRIES,
+                DnsCache.PDEFAULT_MAX_ENTRIES),
+            config.getInt(
+                DnsCache.PNAME_MAX_TTL,
+                DnsCache.PDEFAULT_MAX_TTL));
+
     /**
      * Creates a new instance of this class. Tries to use the system's
      * default forwarders.
@@ -84,19 +99,30 @@ public ConfigurableDnssecResolver(ExtendedResolver headResolver)
 
         List<String> propNames
             = config.getPropertyNamesByPrefix("org.jitsi.dnssec", false);
-        Properties config = new Properties();
+        Properties dnssecConfig = new Properties();
+
+        // the validated keys are kept like the other answers unless
+        // configured otherwise
+        dnssecConfig.put(KeyCache.MAX_TTL_CONFIG,
+            Integer.toString(config.getInt(
+                DnsCache.PNAME_MAX_TTL,
+                DnsCache.PDEFAULT_MAX_TTL)));
+        dnssecConfig.put(KeyCache.MAX_CACHE_SIZE_CONFIG,
+            Integer.toString(config.getInt(
+                DnsCache.PNAME_MAX_ENTRIES,
+                DnsCache.PDEFAULT_MAX_ENTRIES)));
         for (String propName : propNames)
         {
-            String value = config.getProperty(propName);
+            String value = config.getString(propName);
             if (!StringUtils.isNullOrEmpty(value))
             {
-                config.put(propName, value);
+                dnssecConfig.put(propName, value);
             }
         }
 
         try
         {
-            super.init(config);
+            super.init(dnssecConfig);
         }
         catch (IOException e)
         {
@@ -135,7 +161,7 @@ public Message send(Message query)
         //c)  0   |  0   ||  ok  |   nok    |      ok      |    ok    |   ask
         //---------------------------------------------------------------------
 
-        SecureMessage msg = new SecureMessage(super.send(query));
+        SecureMessage msg = validate(query);
         String fqdn = msg.getQuestion().getName().toString();
         String type = Type.string(msg.getQuestion().getType());
         String propName = createPropNameUnsigned(fqdn, type);
@@ -226,6 +252,44 @@ public Message send(Message query)
         return msg;
     }
 
+    /**
+     * Returns the validated answer to <tt>query</tt>, from the cache when
+     * possible.
+     *
+     * @param query the query.
+     * @return the answer along with its validation result.
+     * @throws IOException if the query failed.
+     */
+    private SecureMessage validate(Message query)
+        throws IOException
+    {
+        long start = System.nanoTime();
+        SecureMessage msg
+            = answerCache.get(query, System.currentTimeMillis());
+
+        if(msg != null)
+        {
+            answerCache.addCachedTime(System.nanoTime() - start);
+            return msg;
+        }
+
+        msg = new SecureMessage(super.send(query));
+        answerCache.addValidatedTime(System.nanoTime() - start);
+        answerCache.put(msg, System.currentTimeMillis());
+        return msg;
+    }
+
+    /**
+     * Returns the statistics of the cache of validated answers.
+     *
+     * @return a human readable summary of the statistics of the cache of
+     * validated answers.
+     */
+    public String getCacheStatistics()
+    {
+        return answerCache.toString();
+    }
+
     /**
      * Defines the return code from the DNSSEC verification dialog.
      */
@@ -400,6 +464,9 @@ private String createPropNameUnsigned(String fqdn, String type)
     @Override
     public void reset()
     {
+        // the answers were validated with the previous servers and anchors
+        answerCache.clear();
+
         String forwarders = DnsUtilActivator.getConfigurationService()
             .getString(DnsUtilActivator.PNAME_DNSSEC_NAMESERVERS);
         if(!StringUtils.isNullOrEmpty(forwarders, true))
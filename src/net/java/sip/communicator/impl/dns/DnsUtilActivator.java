@@ -124,6 +124,14 @@ public void start(BundleContext context)
 
         Lookup.setPacketLogger(new DnsJavaLogger());
 
+        SrvTargetHealth srvTargetHealth = NetworkUtils.getSrvTargetHealth();
+
+        srvTargetHealth.setConfigurationService(getConfigurationService());
+        bundleContext.registerService(
+            SrvTargetHealthService.class.getName(),
+            srvTargetHealth,
+            null);
+
         if(loadDNSProxyForward())
         {
             // dns is forced to go through a proxy so skip any further settings
@@ -226,15 +234,39 @@ private static boolean loadDNSProxyForward()
          */
         public void configurationChanged(ChangeEvent event)
         {
-            if(event.getType() == ChangeEvent.IFACE_UP
-                || event.getType() == ChangeEvent.IFACE_DOWN
-                || event.getType() == ChangeEvent.DNS_CHANGE)
+            if(event.getType() == ChangeEvent.DNS_CHANGE)
+            {
+                reloadDnsResolverConfig();
+            }
+            else if(event.getType() == ChangeEvent.CONFIGURATION_CHANGE)
             {
-                if(event.isInitial())
-                    logDNSServers();
-                else
+                // reload once for all the interfaces which changed
+                if(hasInterfaceChange(event))
                     reloadDnsResolverConfig();
             }
+            else if(event.getType() == ChangeEvent.IFACE_UP
+                && event.isInitial())
+            {
+                logDNSServers();
+            }
+        }
+
+        /**
+         * Checks whether an interface went up or down in a configuration
+         * change.
+         *
+         * @param event the {@link ChangeEvent#CONFIGURATION_CHANGE} event.
+         * @return <tt>true</tt> if an interface went up or down.
+         */
+        private static boolean hasInterfaceChange(ChangeEvent event)
+        {
+            for(ChangeEvent change : event.getChanges())
+            {
+                if(change.getType() == ChangeEvent.IFACE_UP
+                    || change.getType() == ChangeEvent.IFACE_DOWN)
+                    return true;
+            }
+            return false;
         }
     }
 
@@ -247,6 +279,10 @@ public static void reloadDnsResolverConfig()
         ResolverConfig.refresh();
         logDNSServers();
 
+        // the cached answers may not be valid with the new servers
+        logDnsCacheStatistics();
+        NetworkUtils.getDnsCache().clear();
+
         // now reset an eventually present custom resolver
         if(Lookup.getDefaultResolver() instanceof CustomResolver)
         {
@@ -295,7 +331,25 @@ private static void logDNSServers()
     }
 
     /**
-     * Doesn't do anything.
+     * Logs the hit/miss and query time statistics of the shared DNS cache and
+     * of the validated answers of the DNSSEC resolver.
+     */
+    private static void logDnsCacheStatistics()
+    {
+        if(logger.isInfoEnabled())
+        {
+            logger.info(NetworkUtils.getDnsCache().toString());
+            if(Lookup.getDefaultResolver()
+                instanceof ConfigurableDnssecResolver)
+            {
+                logger.info(((ConfigurableDnssecResolver)
+                    Lookup.getDefaultResolver()).getCacheStatistics());
+            }
+        }
+    }
+
+    /**
+     * Logs the statistics of the shared DNS cache.
      *
      * @param context The execution context of the bundle being stopped.
      * @throws Exception If this method throws an exception, the bundle is
@@ -306,6 +360,8 @@ private static void logDNSServers()
     public void stop(BundleContext context)
         throws Exception
     {
+        logDnsCacheStatistics();
+        NetworkUtils.getSrvTargetHealth().setConfigurationService(null);
     }
 
     /**
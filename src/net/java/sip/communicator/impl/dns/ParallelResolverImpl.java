@@ -44,6 +44,12 @@
  * <p>
  * We exit redundant mode after receiving <tt>DNS_REDEMPTION</tt> consecutive
  * timely and correct responses from our primary resolver.
+ * <p>
+ * Besides the blocking {@link #send(Message)}, queries may be sent with
+ * {@link #sendAsync(Message, ResolverListener)}, which applies the same
+ * redundant mode logic without tying up any thread while waiting: the queries
+ * to the primary and backup resolvers are all multiplexed by a single
+ * {@link AsyncDnsClient}.
  *
  * @author Emil Ivov
  */
@@ -102,6 +108,32 @@
     /** Thread pool that processes the backup queries. */
     private ExecutorService backupQueriesPool;
 
+    /**
+     * The addresses of the backup resolvers, queried directly by
+     * {@link #sendAsync(Message, ResolverListener)}.
+     */
+    private InetSocketAddress[] backupServers = new InetSocketAddress[0];
+
+    /**
+     * The client multiplexing the queries sent by
+     * {@link #sendAsync(Message, ResolverListener)}.
+     */
+    private final AsyncDnsClient asyncClient = new AsyncDnsClient();
+
+    /**
+     * The number of milliseconds we wait for a response from one of the
+     * primary servers when sending asynchronously.
+     */
+    private long primaryTimeout;
+
+    /**
+     * Indicates whether queries have to be sent in a way that the
+     * {@link AsyncDnsClient} doesn't support (over TCP or signed) so that
+     * {@link #sendAsync(Message, ResolverListener)} has to fall back to
+     * {@link #send(Message)} on a pooled thread.
+     */
+    private boolean asyncUnsupported = false;
+
     /**
      * Creates a new instance of this class.
      */
@@ -189,6 +221,7 @@ private void setBackupServers(InetSocketAddress[] backupServers)
                 sr.setAddress(backupServer);
                 backupResolver.addResolver(sr);
             }
+            this.backupServers = backupServers;
         }
         catch (UnknownHostException e)
         {
@@ -225,16 +258,7 @@ public Message send(Message query)
             }
             else
             {
-                synchronized(redemptionLock)
-                {
-                    redundantMode = true;
-                    redemptionStatus = currentDnsRedemption;
-                    logger.info("Primary DNS seems laggy: "
-                        + "no response for " + query.getQuestion().getName()
-                        + "/" + Type.string(query.getQuestion().getType())
-                        + " after " + currentDnsPatience + "ms. "
-                        + "Enabling redundant mode.");
-                }
+                enterRedundantMode(query);
             }
         }
 
@@ -243,9 +267,43 @@ public Message send(Message query)
         resolution.waitForResponse(0);
 
         //check if it is time to end redundant mode.
+        updateRedemptionStatus(resolution.primaryResolverRespondedFirst);
+
+        return resolution.returnResponseOrThrowUp();
+    }
+
+    /**
+     * Enters redundant mode because the primary resolver didn't give a timely
+     * or satisfactory response to <tt>query</tt>.
+     *
+     * @param query the query that the primary resolver failed to answer.
+     */
+    private void enterRedundantMode(Message query)
+    {
+        synchronized(redemptionLock)
+        {
+            redundantMode = true;
+            redemptionStatus = currentDnsRedemption;
+            logger.info("Primary DNS seems laggy: "
+                + "no response for " + query.getQuestion().getName()
+                + "/" + Type.string(query.getQuestion().getType())
+                + " after " + currentDnsPatience + "ms. "
+                + "Enabling redundant mode.");
+        }
+    }
+
+    /**
+     * Updates the redemption status after a query was sent in redundant mode
+     * and exits redundant mode once the primary resolver has redeemed itself.
+     *
+     * @param primaryResolverRespondedFirst whether the primary resolver was the
+     * first to respond to the query.
+     */
+    private void updateRedemptionStatus(boolean primaryResolverRespondedFirst)
+    {
         synchronized(redemptionLock)
         {
-            if(!resolution.primaryResolverRespondedFirst)
+            if(!primaryResolverRespondedFirst)
             {
                 //primary DNS is still feeling shaky. we reinit redemption
                 //status in case we were about to cut the server some slack
@@ -265,12 +323,16 @@ public Message send(Message query)
                 }
             }
         }
-
-        return resolution.returnResponseOrThrowUp();
     }
 
     /**
-     * Supposed to asynchronously send messages but not currently implemented.
+     * Sends a message without blocking. The query goes to the primary
+     * resolvers and, in redundant mode or once <tt>DNS_PATIENCE</tt> has
+     * elapsed without a satisfactory response, to the backup resolvers as
+     * well; the first acceptable response is handed to <tt>listener</tt>.
+     * <p>
+     * <tt>listener</tt> is notified on a pooled thread and may block, i.e. to
+     * resolve further names synchronously.
      *
      * @param query The query to send
      * @param listener The object containing the callbacks.
@@ -278,7 +340,53 @@ public Message send(Message query)
      */
     public Object sendAsync(final Message query, final ResolverListener listener)
     {
-        throw new UnsupportedOperationException("Not implemented");
+        final Object id = new Object();
+
+        if (asyncUnsupported)
+        {
+            backupQueriesPool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        listener.receiveMessage(id, send(query));
+                    }
+                    catch (Exception e)
+                    {
+                        listener.handleException(id, e);
+                    }
+                }
+            });
+        }
+        else
+        {
+            new AsyncResolution(query, id, listener).start();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the addresses of the primary resolvers, in the order in which
+     * they are to be tried.
+     *
+     * @return the addresses of the primary resolvers.
+     */
+    private InetSocketAddress[] getPrimaryServers()
+    {
+        Resolver resolver = defaultResolver;
+        List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>();
+
+        if (resolver instanceof ExtendedResolver)
+        {
+            for (Resolver r : ((ExtendedResolver) resolver).getResolvers())
+            {
+                if (r instanceof SimpleResolver)
+                    servers.add(((SimpleResolver) r).getAddress());
+            }
+        }
+        return servers.toArray(new InetSocketAddress[servers.size()]);
     }
 
     /**
@@ -300,6 +408,7 @@ public void setPort(int port)
     public void setTCP(boolean flag)
     {
         defaultResolver.setTCP(flag);
+        asyncUnsupported = flag;
     }
 
     /**
@@ -353,6 +462,7 @@ public void setEDNS(int level, int payloadSize, int flags, List options)
     public void setTSIGKey(TSIG key)
     {
         defaultResolver.setTSIGKey(key);
+        asyncUnsupported = (key != null);
     }
 
     /**
@@ -364,6 +474,7 @@ public void setTSIGKey(TSIG key)
     public void setTimeout(int secs, int msecs)
     {
         defaultResolver.setTimeout(secs, msecs);
+        primaryTimeout = secs * 1000L + msecs;
     }
 
     /**
@@ -374,6 +485,7 @@ public void setTimeout(int secs, int msecs)
     public void setTimeout(int secs)
     {
         defaultResolver.setTimeout(secs);
+        primaryTimeout = secs * 1000L;
     }
 
     /**
@@ -391,6 +503,8 @@ public final void reset()
             ExtendedResolver temp = new ExtendedResolver();
             temp.setTimeout(10);
             defaultResolver = temp;
+            primaryTimeout = 10000;
+            asyncUnsupported = false;
         }
         catch (UnknownHostException e)
         {
@@ -695,6 +809,425 @@ else if (exception instanceof Error)
         }
     }
 
+    /**
+     * The non-blocking counterpart of {@link ParallelResolution}: sends a query
+     * through {@link #asyncClient} to the primary resolvers, one after the
+     * other, and to all backup resolvers at once when entering redundant mode.
+     * All callbacks but the final notification of the <tt>ResolverListener</tt>
+     * run on the selector thread of the client.
+     */
+    private class AsyncResolution
+    {
+        /**
+         * The query that we are resolving.
+         */
+        private final Message query;
+
+        /**
+         * The identifier returned by <tt>sendAsync</tt> for this resolution.
+         */
+        private final Object id;
+
+        /**
+         * The listener to notify once we are done.
+         */
+        private final ResolverListener listener;
+
+        /**
+         * The handles of the queries we sent and may still cancel.
+         */
+        private final List<Object> sentQueries = new ArrayList<Object>();
+
+        /**
+         * The primary resolvers, tried one after the other.
+         */
+        private InetSocketAddress[] primaryServers;
+
+        /**
+         * The index of the primary resolver we are currently waiting for.
+         */
+        private int primaryIndex = 0;
+
+        /**
+         * Whether we stopped waiting for the primary resolvers, because all of
+         * them failed or one of them responded unsatisfactorily.
+         */
+        private boolean primaryDone = false;
+
+        /**
+         * Whether the query was sent to the backup resolvers.
+         */
+        private boolean backupQueriesSent = false;
+
+        /**
+         * The number of backup resolvers we are still waiting for.
+         */
+        private int pendingBackupQueries = 0;
+
+        /**
+         * The unsatisfactory response of a primary resolver, if any, that we
+         * return if the backup resolvers don't come up with anything better.
+         */
+        private Message primaryResponse;
+
+        /**
+         * The last error we got from any resolver.
+         */
+        private Exception exception;
+
+        /**
+         * Whether the listener has been (or is about to be) notified.
+         */
+        private boolean done = false;
+
+        /**
+         * Receives the outcome of the queries to the primary resolvers.
+         */
+        private final AsyncDnsClient.ResponseListener primaryListener
+            = new ServerListener(true);
+
+        /**
+         * Receives the outcome of the queries to the backup resolvers.
+         */
+        private final AsyncDnsClient.ResponseListener backupListener
+            = new ServerListener(false);
+
+        /**
+         * Creates an <tt>AsyncResolution</tt> of <tt>query</tt>.
+         *
+         * @param query the query to resolve.
+         * @param id the identifier returned to the caller of
+         * <tt>sendAsync</tt>.
+         * @param listener the listener to notify of the outcome.
+         */
+        AsyncResolution(Message query, Object id, ResolverListener listener)
+        {
+            this.query = query;
+            this.id = id;
+            this.listener = listener;
+        }
+
+        /**
+         * Sends the query to the first primary resolver and, in redundant
+         * mode, to the backup resolvers.
+         */
+        public synchronized void start()
+        {
+            primaryServers = getPrimaryServers();
+
+            if (primaryServers.length == 0)
+            {
+                primaryDone = true;
+                sendBackupQueries();
+                return;
+            }
+
+            sentQueries.add(
+                asyncClient.send(
+                    query,
+                    primaryServers[0],
+                    primaryTimeout,
+                    primaryListener));
+
+            if (redundantMode)
+            {
+                sendBackupQueries();
+            }
+            else
+            {
+                asyncClient.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        patienceElapsed();
+                    }
+                }, currentDnsPatience);
+            }
+        }
+
+        /**
+         * Enters redundant mode if the primary resolvers didn't respond within
+         * <tt>DNS_PATIENCE</tt>.
+         */
+        private synchronized void patienceElapsed()
+        {
+            if (done || backupQueriesSent)
+                return;
+
+            enterRedundantMode(query);
+            sendBackupQueries();
+        }
+
+        /**
+         * Sends the query to all backup resolvers at once.
+         */
+        private void sendBackupQueries()
+        {
+            backupQueriesSent = true;
+
+            if (backupServers.length == 0)
+            {
+                finishIfExhausted();
+                return;
+            }
+
+            logger.info("Sending query for "
+                + query.getQuestion().getName() + "/"
+                + Type.string(query.getQuestion().getType())
+                + " to backup resolvers");
+
+            pendingBackupQueries = backupServers.length;
+            for (InetSocketAddress server : backupServers)
+            {
+                sentQueries.add(
+                    asyncClient.send(
+                        query, server, primaryTimeout, backupListener));
+            }
+        }
+
+        /**
+         * Handles a response from a primary or a backup resolver.
+         *
+         * @param response the response.
+         * @param primary whether the response came from a primary resolver.
+         */
+        private synchronized void responseReceived(
+                Message response,
+                boolean primary)
+        {
+            if (done)
+                return;
+
+            if (response.getHeader().getFlag(Flags.TC))
+            {
+                // we only speak UDP here: let the blocking resolvers retry
+                // over TCP
+                retryBlocking(primary);
+                return;
+            }
+
+            if (primary)
+            {
+                if (isResponseSatisfactory(response))
+                {
+                    finish(response, true);
+                    return;
+                }
+
+                primaryResponse = response;
+                primaryDone = true;
+                if (!backupQueriesSent)
+                {
+                    enterRedundantMode(query);
+                    sendBackupQueries();
+                }
+                else
+                {
+                    finishIfExhausted();
+                }
+            }
+            else
+            {
+                //contrary to responses from the  primary resolver,
+                //in this case we don't care whether the response is
+                //satisfying: if it isn't, there's nothing we can do
+                finish(response, false);
+            }
+        }
+
+        /**
+         * Handles the failure of a query to a primary or a backup resolver.
+         *
+         * @param cause the reason of the failure.
+         * @param primary whether the query was sent to a primary resolver.
+         */
+        private synchronized void queryFailed(
+                IOException cause,
+                boolean primary)
+        {
+            if (done)
+                return;
+
+            exception = cause;
+
+            if (!primary)
+            {
+                logger.info(
+                    "Exception occurred during backup DNS resolving " + cause);
+                pendingBackupQueries--;
+                finishIfExhausted();
+            }
+            else if (++primaryIndex < primaryServers.length)
+            {
+                sentQueries.add(
+                    asyncClient.send(
+                        query,
+                        primaryServers[primaryIndex],
+                        primaryTimeout,
+                        primaryListener));
+            }
+            else
+            {
+                logger.info("Default DNS resolver failed: " + cause);
+                primaryDone = true;
+                if (!backupQueriesSent)
+                {
+                    enterRedundantMode(query);
+                    sendBackupQueries();
+                }
+                else
+                {
+                    finishIfExhausted();
+                }
+            }
+        }
+
+        /**
+         * Retries the query through the blocking resolver on a pooled thread
+         * because the response was truncated.
+         *
+         * @param primary whether the truncated response came from a primary
+         * resolver.
+         */
+        private void retryBlocking(final boolean primary)
+        {
+            final Resolver resolver
+                = primary ? defaultResolver : backupResolver;
+
+            backupQueriesPool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Message response = null;
+                    Exception error = null;
+
+                    try
+                    {
+                        response = resolver.send(query);
+                    }
+                    catch (Exception e)
+                    {
+                        error = e;
+                    }
+
+                    synchronized (AsyncResolution.this)
+                    {
+                        if (done)
+                            return;
+
+                        if (response != null
+                            && (!primary || isResponseSatisfactory(response)))
+                        {
+                            finish(response, primary);
+                            return;
+                        }
+
+                        if (response != null)
+                            primaryResponse = response;
+                        else
+                            exception = error;
+                        if (primary)
+                            primaryDone = true;
+                        else
+                            pendingBackupQueries--;
+
+                        if (!backupQueriesSent)
+                        {
+                            enterRedundantMode(query);
+                            sendBackupQueries();
+                        }
+                        else
+                        {
+                            finishIfExhausted();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Finishes the resolution if there is nobody left to wait for.
+         */
+        private void finishIfExhausted()
+        {
+            if (primaryDone && pendingBackupQueries <= 0)
+                finish(primaryResponse, true);
+        }
+
+        /**
+         * Cancels the queries still in progress, updates the redemption status
+         * and notifies the listener on a pooled thread.
+         *
+         * @param response the response to hand to the listener or
+         * <tt>null</tt> to report {@link #exception}.
+         * @param primaryResolverRespondedFirst whether the primary resolver was
+         * the first to respond.
+         */
+        private void finish(
+                final Message response,
+                boolean primaryResolverRespondedFirst)
+        {
+            done = true;
+            for (Object sentQuery : sentQueries)
+                asyncClient.cancel(sentQuery);
+
+            if (backupQueriesSent && response != null)
+                updateRedemptionStatus(primaryResolverRespondedFirst);
+
+            final Exception error
+                = (exception != null)
+                    ? exception
+                    : new IllegalStateException("ExtendedResolver failure");
+
+            backupQueriesPool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (response != null)
+                        listener.receiveMessage(id, response);
+                    else
+                        listener.handleException(id, error);
+                }
+            });
+        }
+
+        /**
+         * Forwards the outcome of the queries to either the primary or the
+         * backup resolvers to this resolution.
+         */
+        private class ServerListener
+            implements AsyncDnsClient.ResponseListener
+        {
+            /**
+             * Whether this listener receives the outcome of the queries to
+             * the primary resolvers.
+             */
+            private final boolean primary;
+
+            ServerListener(boolean primary)
+            {
+                this.primary = primary;
+            }
+
+            @Override
+            public void responseReceived(
+                    Message response,
+                    InetSocketAddress server)
+            {
+                AsyncResolution.this.responseReceived(response, primary);
+            }
+
+            @Override
+            public void queryFailed(IOException cause, InetSocketAddress server)
+            {
+                AsyncResolution.this.queryFailed(cause, primary);
+            }
+        }
+    }
+
     @SuppressWarnings("serial")
     private final Set<String> configNames = new HashSet<String>(5)
     {{
@@ -0,0 +1,369 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.xbill.DNS.*;
+
+/**
+ * Keeps the answers of the DNSSEC validating resolver so that repeated
+ * queries don't pay for the validation again. Answers are kept with their
+ * validation result (the AD flag), for the lowest TTL of their records and
+ * never past the expiration of any of their signatures. Bogus answers and
+ * server failures are not kept, so that they are validated again the next
+ * time.
+ * <p>
+ * The validator keeps the DNSKEY and DS records of the chains it has
+ * validated in its own key cache, this cache only holds the final answers.
+ * <p>
+ * Also keeps the time spent on answers that had to be validated and on the
+ * ones served from the cache.
+ */
+class ValidatedAnswerCache
+{
+    /**
+     * The maximum number of answers we keep.
+     */
+    private final int maxEntries;
+
+    /**
+     * The maximum time we keep an answer, in milliseconds.
+     */
+    private final long maxTtl;
+
+    /**
+     * The answers, in least recently used order.
+     */
+    private final LinkedHashMap<String, Entry> entries
+        = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * The number of answers that had to be validated.
+     */
+    private final AtomicLong validated = new AtomicLong();
+
+    /**
+     * The total time in nanoseconds spent on answers that had to be
+     * validated.
+     */
+    private final AtomicLong validatedTime = new AtomicLong();
+
+    /**
+     * The number of answers served from the cache.
+     */
+    private final AtomicLong cached = new AtomicLong();
+
+    /**
+     * The total time in nanoseconds spent on answers served from the cache.
+     */
+    private final AtomicLong cachedTime = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries the maximum number of answers to keep.
+     * @param maxTtl the maximum time to keep an answer, in seconds.
+     */
+    ValidatedAnswerCache(int maxEntries, long maxTtl)
+    {
+        this.maxEntries = maxEntries;
+        this.maxTtl = maxTtl * 1000L;
+    }
+
+    /**
+     * Returns the cached answer to <tt>query</tt> with the TTLs of its
+     * records decreased by the time it spent in the cache.
+     *
+     * @param query the query.
+     * @param now the current time.
+     * @return the answer or <tt>null</tt> if none is cached.
+     * @throws IOException if the cached answer cannot be copied.
+     */
+    SecureMessage get(Message query, long now)
+        throws IOException
+    {
+        Record question = query.getQuestion();
+
+        if (question == null)
+            return null;
+
+        String key = getKey(question);
+        Entry entry;
+
+        synchronized (entries)
+        {
+            entry = entries.get(key);
+            if (entry != null && now >= entry.expires)
+            {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry == null)
+            return null;
+
+        long elapsed = (now - entry.created) / 1000;
+        Message response = new Message(entry.response.toWire());
+
+        response.getHeader().setID(query.getHeader().getID());
+        for (int section = Section.ANSWER;
+                section <= Section.AUTHORITY;
+                section++)
+        {
+            Record[] records = response.getSectionArray(section);
+
+            response.removeAllRecords(section);
+            for (Record r : records)
+            {
+                response.addRecord(
+                        Record.newRecord(
+                                r.getName(),
+                                r.getType(),
+                                r.getDClass(),
+                                Math.max(r.getTTL() - elapsed, 0),
+                                r.rdataToWireCanonical()),
+                        section);
+            }
+        }
+        return new SecureMessage(response);
+    }
+
+    /**
+     * Stores the answer to a query if it may be cached.
+     *
+     * @param response the answer of the validating resolver.
+     * @param now the current time.
+     * @return <tt>true</tt> if the answer was stored.
+     */
+    boolean put(SecureMessage response, long now)
+    {
+        Record question = response.getQuestion();
+        int rcode = response.getRcode();
+
+        if (question == null
+                || response.isBogus()
+                || (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN))
+            return false;
+
+        long expires = now + maxTtl;
+        boolean hasRecords = false;
+
+        for (int section = Section.ANSWER;
+                section <= Section.AUTHORITY;
+                section++)
+        {
+            for (RRset rrset : response.getSectionRRsets(section))
+            {
+                long ttl = rrset.getTTL();
+
+                // negative answers are valid for the minimum of the SOA
+                if (rrset.getType() == Type.SOA)
+                {
+                    ttl = Math.min(ttl,
+                        ((SOARecord) rrset.first()).getMinimum());
+                }
+                expires = Math.min(expires, now + ttl * 1000L);
+                hasRecords = true;
+
+                Iterator<?> sigs = rrset.sigs();
+
+                while (sigs.hasNext())
+                {
+                    expires
+                        = Math.min(
+                                expires,
+                                ((RRSIGRecord) sigs.next()).getExpire()
+                                    .getTime());
+                }
+            }
+        }
+
+        // nothing tells how long a negative answer without SOA is valid
+        if (!hasRecords || expires <= now)
+            return false;
+
+        synchronized (entries)
+        {
+            entries.put(getKey(question), new Entry(response, now, expires));
+
+            Iterator<String> iter = entries.keySet().iterator();
+
+            while (entries.size() > maxEntries && iter.hasNext())
+            {
+                iter.next();
+                iter.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds an answer that had to be validated to the statistics.
+     *
+     * @param time the time spent on the answer, in nanoseconds.
+     */
+    void addValidatedTime(long time)
+    {
+        validated.incrementAndGet();
+        validatedTime.addAndGet(time);
+    }
+
+    /**
+     * Adds an answer served from the cache to the statistics.
+     *
+     * @param time the time spent on the answer, in nanoseconds.
+     */
+    void addCachedTime(long time)
+    {
+        cached.incrementAndGet();
+        cachedTime.addAndGet(time);
+    }
+
+    /**
+     * Removes all answers, i.e. because the servers or the trust anchors
+     * have changed.
+     */
+    void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of answers in the cache.
+     *
+     * @return the number of answers in the cache.
+     */
+    int getSize()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of answers that had to be validated.
+     *
+     * @return the number of answers that had to be validated.
+     */
+    long getValidatedCount()
+    {
+        return validated.get();
+    }
+
+    /**
+     * Returns the number of answers served from the cache.
+     *
+     * @return the number of answers served from the cache.
+     */
+    long getCachedCount()
+    {
+        return cached.get();
+    }
+
+    /**
+     * Returns the average time spent on answers that had to be validated.
+     *
+     * @return the average time in milliseconds or <tt>0</tt> if there was
+     * none yet.
+     */
+    double getAverageValidatedTime()
+    {
+        long count = validated.get();
+
+        return (count == 0) ? 0 : validatedTime.get() / (count * 1000000.0);
+    }
+
+    /**
+     * Returns the average time spent on answers served from the cache.
+     *
+     * @return the average time in milliseconds or <tt>0</tt> if there was
+     * none yet.
+     */
+    double getAverageCachedTime()
+    {
+        long count = cached.get();
+
+        return (count == 0) ? 0 : cachedTime.get() / (count * 1000000.0);
+    }
+
+    /**
+     * Returns a human readable summary of the statistics of this cache.
+     *
+     * @return a human readable summary of the statistics of this cache.
+     */
+    @Override
+    public String toString()
+    {
+        return
+            "ValidatedAnswerCache[size=" + getSize()
+                + ", validated=" + getValidatedCount()
+                + ", avgValidatedTime=" + getAverageValidatedTime()
+                + "ms, cached=" + getCachedCount()
+                + ", avgCachedTime=" + getAverageCachedTime() + "ms]";
+    }
+
+    /**
+     * Returns the key of the answer to <tt>question</tt>.
+     */
+    private static String getKey(Record question)
+    {
+        return
+            question.getName().toString().toLowerCase()
+                + '/' + question.getType()
+                + '/' + question.getDClass();
+    }
+
+    /**
+     * A cached answer.
+     */
+    private static class Entry
+    {
+        /**
+         * The answer.
+         */
+        final Message response;
+
+        /**
+         * The time the answer was stored.
+         */
+        final long created;
+
+        /**
+         * The time the answer expires.
+         */
+        final long expires;
+
+        /**
+         * Creates an entry.
+         */
+        Entry(Message response, long created, long expires)
+        {
+            this.response = response;
+            this.created = created;
+            this.expires = expires;
+        }
+    }
+}
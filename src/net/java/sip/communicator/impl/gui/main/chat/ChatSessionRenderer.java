@@ -17,6 +17,8 @@
  */
 package net.java.sip.communicator.impl.gui.main.chat;
 
+import java.util.*;
+
 import javax.swing.*;
 
 import net.java.sip.communicator.service.protocol.*;
@@ -59,6 +61,14 @@
      */
     public void addChatContact(ChatContact<?> chatContact);
 
+    /**
+     * Adds the given chat contacts to the UI at once.
+     *
+     * @param chatContacts the chat contacts to add.
+     */
+    public void addChatContacts(
+        Collection<? extends ChatContact<?>> chatContacts);
+
     /**
      * Removes the given chat contact from the UI.
      *
@@ -30,6 +30,11 @@
  * <tt>ChatContact</tt>s. The primary purpose of the implementation is to sort
  * the <tt>ChatContact</tt>s according to their member roles and in alphabetical
  * order according to their names.
+ * <p>
+ * Chat rooms may have thousands of members, so the model only exposes them a
+ * page at a time: the next page is added when the view reports, through
+ * {@link #lastVisibleIndexChanged(int)}, that it is scrolled down to the last
+ * elements of the exposed ones.
  *
  * @author Lyubomir Marinov
  */
@@ -38,6 +43,11 @@
     implements ChatRoomMemberPropertyChangeListener
 {
 
+    /**
+     * The number of <tt>ChatContact</tt>s added to the exposed ones at once.
+     */
+    private static final int PAGE_SIZE = 100;
+
     /**
      * The backing store of this <tt>AbstractListModel</tt> listing the
      * <tt>ChatContact</tt>s.
@@ -45,6 +55,18 @@
     private final List<ChatContact<?>> chatContacts
         = new ArrayList<ChatContact<?>>();
 
+    /**
+     * The <tt>ChatContact</tt>s of {@link #chatContacts}, used to prevent
+     * duplicates without going through the whole list.
+     */
+    private final Set<ChatContact<?>> chatContactSet
+        = new HashSet<ChatContact<?>>();
+
+    /**
+     * The maximum number of <tt>ChatContact</tt>s exposed by this model.
+     */
+    private int pageLimit = PAGE_SIZE;
+
     /**
      * Current chat session.
      */
@@ -121,11 +143,11 @@ public void chatRoomPropertyChanged(ChatRoomMemberPropertyChangeEvent ev)
     {
         // Translate into
         // ListDataListener.contentsChanged.
-        int chatContactCount = chatContacts.size();
+        int chatContactCount = getSize();
 
         for (int i = 0; i < chatContactCount; i++)
         {
-            ChatContact<?> chatContact = chatContacts.get(i);
+            ChatContact<?> chatContact = getElementAt(i);
 
             if(chatContact.getDescriptor().equals(ev.getSourceChatRoomMember()))
             {
@@ -152,32 +174,68 @@ public void addElement(ChatContact<?> chatContact)
         if (chatContact == null)
             throw new IllegalArgumentException("chatContact");
 
-        int index = -1;
+        int index;
 
         synchronized(chatContacts)
         {
-            int chatContactCount = chatContacts.size();
+            // We don't want duplicates.
+            if (!chatContactSet.add(chatContact))
+                return;
 
-            for (int i = 0; i < chatContactCount; i++)
-            {
-                ChatContact<?> containedChatContact = chatContacts.get(i);
+            index = Collections.binarySearch(chatContacts, chatContact, sorter);
+            if (index < 0)
+                index = -index - 1;
+
+            chatContacts.add(index, chatContact);
+
+            // A contact added after the exposed ones will be exposed with
+            // its page.
+            if (index >= pageLimit)
+                return;
+            pageLimit++;
+        }
+        fireIntervalAdded(this, index, index);
+    }
+
+    /**
+     * Adds specific <tt>ChatContact</tt>s to this <tt>AbstractListModel</tt>
+     * implementation at once (e.g. all the members of a chat room which has
+     * just been joined) and preserves the sorting it applies.
+     *
+     * @param chatContacts the <tt>ChatContact</tt>s to be added to this
+     * <tt>AbstractListModel</tt>
+     */
+    public void addElements(Collection<? extends ChatContact<?>> chatContacts)
+    {
+        int oldSize;
+        int newSize;
+
+        synchronized(this.chatContacts)
+        {
+            oldSize = getSize();
+
+            boolean added = false;
 
+            for (ChatContact<?> chatContact : chatContacts)
+            {
                 // We don't want duplicates.
-                if (chatContact.equals(containedChatContact))
-                    return;
-                if ((index == -1)
-                        && (sorter.compare(containedChatContact, chatContact) > 0))
+                if ((chatContact != null) && chatContactSet.add(chatContact))
                 {
-                    index = i;
-                    // Continue in order to prevent duplicates.
+                    this.chatContacts.add(chatContact);
+                    added = true;
                 }
             }
-            if (index == -1)
-                index = chatContactCount;
+            if (!added)
+                return;
 
-            chatContacts.add(index, chatContact);
+            Collections.sort(this.chatContacts, sorter);
+            newSize = getSize();
         }
-        fireIntervalAdded(this, index, index);
+
+        if (oldSize > 0)
+            fireContentsChanged(this, 0, oldSize - 1);
+        if (newSize > oldSize)
+            fireIntervalAdded(this, oldSize, newSize - 1);
     }
 
     /* Implements ListModel#getElementAt(int). */
@@ -194,8 +252,51 @@ public int getSize()
     {
         synchronized(chatContacts)
         {
-            return chatContacts.size();
+            return Math.min(chatContacts.size(), pageLimit);
+        }
+    }
+
+    /**
+     * Notifies this model that the view has been scrolled or resized so that
+     * a specific element is the last visible one. Exposes the next page of
+     * <tt>ChatContact</tt>s if it is one of the last exposed ones. Must be
+     * called on the event dispatch thread.
+     *
+     * @param lastVisibleIndex the index of the last visible element, or
+     * <tt>-1</tt> if no element is visible
+     */
+    public void lastVisibleIndexChanged(int lastVisibleIndex)
+    {
+        boolean exposeNextPage;
+
+        synchronized(chatContacts)
+        {
+            exposeNextPage
+                = (lastVisibleIndex >= pageLimit - PAGE_SIZE / 4)
+                    && (pageLimit < chatContacts.size());
         }
+
+        if (exposeNextPage)
+            exposeNextPage();
+    }
+
+    /**
+     * Exposes the next page of <tt>ChatContact</tt>s.
+     */
+    private void exposeNextPage()
+    {
+        int oldSize;
+        int newSize;
+
+        synchronized(chatContacts)
+        {
+            oldSize = getSize();
+            pageLimit += PAGE_SIZE;
+            newSize = getSize();
+        }
+
+        if (newSize > oldSize)
+            fireIntervalAdded(this, oldSize, newSize - 1);
     }
 
     /**
@@ -209,10 +310,29 @@ public void removeElement(ChatContact<?> chatContact)
     {
         synchronized(chatContacts)
         {
-            int index = chatContacts.indexOf(chatContact);
+            if (!chatContactSet.remove(chatContact))
+                return;
+
+            // The roles of the contacts may have changed since they were
+            // sorted, in which case the binary search may miss.
+            int index
+                = Collections.binarySearch(chatContacts, chatContact, sorter);
+
+            if ((index < 0) || !chatContacts.get(index).equals(chatContact))
+                index = chatContacts.indexOf(chatContact);
+            if (index < 0)
+                return;
 
-            if ((index >= 0) && chatContacts.remove(chatContact))
+            chatContacts.remove(index);
+            if (index < pageLimit)
+            {
                 fireIntervalRemoved(this, index, index);
+
+                // The first contact which wasn't exposed takes the place of
+                // the removed one.
+                if (chatContacts.size() >= pageLimit)
+                    fireIntervalAdded(this, pageLimit - 1, pageLimit - 1);
+            }
         }
     }
 
@@ -226,8 +346,10 @@ public void removeAllElements()
 
         synchronized(chatContacts)
         {
-            int contactsSize = chatContacts.size();
+            int contactsSize = getSize();
             chatContacts.clear();
+            chatContactSet.clear();
+            pageLimit = PAGE_SIZE;
 
             fireIntervalRemoved(this, 0, contactsSize - 1);
         }
@@ -44,6 +44,13 @@
 {
     private static final long serialVersionUID = 0L;
 
+    /**
+     * The height of the cells of this list. The <tt>JList</tt> does not have
+     * to render every element to lay them out, so the elements of a large
+     * chat room are only rendered when they are shown.
+     */
+    private static final int CELL_HEIGHT = 30;
+
     /**
      * List cell renderer.
      */
@@ -62,6 +69,7 @@ public ChatRoomContactList()
         this.setDragEnabled(true);
         this.setTransferHandler(new ChatRoomContactListTransferHandler(this));
         this.setCellRenderer(renderer);
+        this.setFixedCellHeight(CELL_HEIGHT);
     }
 
     /**
@@ -19,8 +19,10 @@
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.*;
 
 import javax.swing.*;
+import javax.swing.event.*;
 
 import net.java.sip.communicator.impl.gui.*;
 import net.java.sip.communicator.impl.gui.main.chat.*;
@@ -149,6 +151,18 @@ else if(e.getButton() == MouseEvent.BUTTON1
         viewport.setOpaque(false);
         viewport.add(memberList);
 
+        // The members of large chat rooms are exposed a page at a time, as
+        // the list is scrolled down to them.
+        viewport.addChangeListener(new ChangeListener()
+        {
+            @Override
+            public void stateChanged(ChangeEvent e)
+            {
+                memberListModel.lastVisibleIndexChanged(
+                    memberList.getLastVisibleIndex());
+            }
+        });
+
         this.add(contactsScrollPane);
     }
 
@@ -163,6 +177,17 @@ public void addContact(ChatContact<?> chatContact)
         memberListModel.addElement(chatContact);
     }
 
+    /**
+     * Adds <tt>ChatContact</tt>s to the list of contacts contained in the
+     * chat at once.
+     *
+     * @param chatContacts the <tt>ChatContact</tt>s to add
+     */
+    public void addContacts(Collection<? extends ChatContact<?>> chatContacts)
+    {
+        memberListModel.addElements(chatContacts);
+    }
+
     /**
      * Removes the given <tt>ChatContact</tt> from the list of chat contacts.
      *
@@ -40,7 +40,7 @@
  */
 public class ConferenceChatSession
     extends ChatSession
-    implements  ChatRoomMemberPresenceListener,
+    implements  ChatRoomMembersLoadedListener,
                 ChatRoomPropertyChangeListener,
                 ChatRoomConferencePublishedListener
 {
@@ -389,6 +389,61 @@ public ChatSessionRenderer getChatSessionRenderer()
         return sessionRenderer;
     }
 
+    /**
+     * Invoked when the members that were already in the chat room when we
+     * joined it have been received. Adds them all at once to the list of chat
+     * participants on the right of the chat window.
+     *
+     * @param evt the <tt>ChatRoomMembersLoadedEvent</tt> that notified us
+     */
+    @Override
+    public void membersLoaded(final ChatRoomMembersLoadedEvent evt)
+    {
+        if(!SwingUtilities.isEventDispatchThread())
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    membersLoaded(evt);
+                }
+            });
+            return;
+        }
+
+        ChatRoom chatRoom = chatRoomWrapper.getChatRoom();
+
+        if(!evt.getChatRoom().equals(chatRoom))
+            return;
+
+        List<ChatContact<?>> chatContacts
+            = new ArrayList<ChatContact<?>>(evt.getMembers().size());
+
+        synchronized (chatParticipants)
+        {
+            Set<ChatContact<?>> participants
+                = new HashSet<ChatContact<?>>(chatParticipants);
+
+            for (ChatRoomMember member : evt.getMembers())
+            {
+                ConferenceChatContact chatContact
+                    = new ConferenceChatContact(member);
+
+                if (participants.add(chatContact))
+                {
+                    chatParticipants.add(chatContact);
+                    chatContacts.add(chatContact);
+                }
+            }
+        }
+
+        sessionRenderer.addChatContacts(chatContacts);
+
+        for (ChatRoomMember member : evt.getMembers())
+            chatRoom.updatePrivateContactPresenceStatus(member.getName());
+    }
+
     /**
      * Invoked when <tt>ChatRoomMemberPresenceChangeEvent</tt> are received.
      * When a new <tt>ChatRoomMember</tt> has joined the chat adds it to the
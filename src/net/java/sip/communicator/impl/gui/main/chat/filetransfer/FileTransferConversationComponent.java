@@ -546,7 +546,15 @@ public void progressChanged(FileTransferProgressEvent event)
 
         String bytesString = ByteFormat.format(transferredBytes);
 
-        if ((progressTimestamp - lastSpeedTimestamp)
+        if (event.getThroughput() >= 0)
+        {
+            // The protocol computes the throughput and the time left itself.
+            lastProgressSpeed = event.getThroughput();
+            if (event.getEstimatedTimeLeft() >= 0)
+                lastEstimatedTime
+                    = Math.round(event.getEstimatedTimeLeft() / 1000d);
+        }
+        else if ((progressTimestamp - lastSpeedTimestamp)
                 >= SPEED_CALCULATE_DELAY)
         {
             lastProgressSpeed
@@ -556,7 +564,8 @@ public void progressChanged(FileTransferProgressEvent event)
             this.lastTransferredBytes = transferredBytes;
         }
 
-        if ((progressTimestamp - lastEstimatedTimeTimestamp)
+        if (event.getThroughput() < 0
+            && (progressTimestamp - lastEstimatedTimeTimestamp)
                 >= SPEED_CALCULATE_DELAY
             && lastProgressSpeed > 0)
         {
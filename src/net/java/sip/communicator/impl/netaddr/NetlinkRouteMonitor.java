@@ -0,0 +1,420 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import net.java.sip.communicator.util.*;
+
+import com.sun.jna.*;
+
+/**
+ * Listens to the link, address and route notifications the Linux kernel
+ * multicasts on <tt>NETLINK_ROUTE</tt> sockets, through JNA, and tells the
+ * <tt>NetworkConfigurationWatcher</tt> when the network configuration may
+ * have changed. The notifications are only used as a hint, the watcher
+ * rescans the interfaces to find out what has actually changed.
+ * <p>
+ * Link notifications are also sent when the statistics or the wireless state
+ * of an interface change, so they only count when the up/running state of
+ * the link changes.
+ */
+class NetlinkRouteMonitor
+    implements Runnable
+{
+    /**
+     * Our class logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(NetlinkRouteMonitor.class);
+
+    /**
+     * JNA interface to LibC.
+     */
+    public static interface LibC
+        extends Library
+    {
+        static final LibC INSTANCE = (LibC) Native.loadLibrary("c", LibC.class);
+
+        public static final int AF_NETLINK = 16;
+
+        public static final int SOCK_RAW = 3;
+
+        public static final int NETLINK_ROUTE = 0;
+
+        public static final short POLLIN = 1;
+
+        public static final int MSG_DONTWAIT = 0x40;
+
+        public static final int EINTR = 4;
+
+        public static final int EAGAIN = 11;
+
+        public static final int ENOBUFS = 105;
+
+        // see the man pages for the mapped C functions
+        int socket(int domain, int type, int protocol);
+        int bind(int fd, sockaddr_nl addr, int addrlen);
+        int poll(pollfd fds, NativeLong nfds, int timeout);
+        int recv(int fd, byte[] buf, NativeLong len, int flags);
+        int close(int fd);
+        String strerror(int error);
+    }
+
+    /**
+     * JNA mapping of <tt>sockaddr_nl</tt>.
+     */
+    public final static class sockaddr_nl
+        extends Structure
+    {
+        public short nl_family = LibC.AF_NETLINK;
+        public short nl_pad;
+        public int nl_pid;
+        public int nl_groups;
+
+        @Override
+        protected List getFieldOrder()
+        {
+            return
+                Arrays.asList(
+                        new String[]
+                        {
+                            "nl_family",
+                            "nl_pad",
+                            "nl_pid",
+                            "nl_groups"
+                        });
+        }
+    }
+
+    /**
+     * JNA mapping of <tt>struct pollfd</tt>.
+     */
+    public final static class pollfd
+        extends Structure
+    {
+        public int fd;
+        public short events;
+        public short revents;
+
+        @Override
+        protected List getFieldOrder()
+        {
+            return
+                Arrays.asList(new String[] { "fd", "events", "revents" });
+        }
+    }
+
+    /**
+     * The multicast groups of the link, IPv4/IPv6 address and route
+     * notifications.
+     */
+    private static final int RTMGRP_LINK = 0x1;
+    private static final int RTMGRP_IPV4_IFADDR = 0x10;
+    private static final int RTMGRP_IPV4_ROUTE = 0x40;
+    private static final int RTMGRP_IPV6_IFADDR = 0x100;
+    private static final int RTMGRP_IPV6_ROUTE = 0x400;
+
+    /**
+     * The netlink message types we are interested in.
+     */
+    static final int RTM_NEWLINK = 16;
+    static final int RTM_DELLINK = 17;
+    static final int RTM_NEWADDR = 20;
+    static final int RTM_DELADDR = 21;
+    static final int RTM_NEWROUTE = 24;
+    static final int RTM_DELROUTE = 25;
+
+    /**
+     * The link flags whose change is a change of the network configuration:
+     * <tt>IFF_UP</tt>, <tt>IFF_RUNNING</tt> and <tt>IFF_LOWER_UP</tt>.
+     */
+    static final int LINK_STATE_FLAGS = 0x1 | 0x40 | 0x10000;
+
+    /**
+     * The length of <tt>struct nlmsghdr</tt>.
+     */
+    private static final int NLMSGHDR_LENGTH = 16;
+
+    /**
+     * The length of <tt>struct ifinfomsg</tt>.
+     */
+    private static final int IFINFOMSG_LENGTH = 16;
+
+    /**
+     * The time we wait in <tt>poll</tt> before checking whether we have been
+     * stopped.
+     */
+    private static final int POLL_TIMEOUT = 1000;
+
+    /**
+     * The watcher we tell about changes.
+     */
+    private final NetworkConfigurationWatcher watcher;
+
+    /**
+     * The link state flags last seen for each interface index.
+     */
+    private final Map<Integer, Integer> linkStates
+        = new HashMap<Integer, Integer>();
+
+    /**
+     * The netlink socket, -1 when closed.
+     */
+    private int fd = -1;
+
+    /**
+     * Whether we are running.
+     */
+    private volatile boolean running = false;
+
+    /**
+     * Creates a monitor telling <tt>watcher</tt> about changes.
+     *
+     * @param watcher the watcher to signal.
+     */
+    NetlinkRouteMonitor(NetworkConfigurationWatcher watcher)
+    {
+        this.watcher = watcher;
+    }
+
+    /**
+     * Opens the netlink socket and starts listening to it.
+     *
+     * @return <tt>true</tt> if we are listening, <tt>false</tt> if netlink
+     * is not available and the watcher has to poll.
+     */
+    synchronized boolean start()
+    {
+        if (running)
+            return true;
+
+        try
+        {
+            fd = LibC.INSTANCE.socket(
+                    LibC.AF_NETLINK, LibC.SOCK_RAW, LibC.NETLINK_ROUTE);
+            if (fd == -1)
+                throw new IOException(lastError());
+
+            sockaddr_nl addr = new sockaddr_nl();
+
+            addr.nl_groups
+                = RTMGRP_LINK
+                    | RTMGRP_IPV4_IFADDR | RTMGRP_IPV4_ROUTE
+                    | RTMGRP_IPV6_IFADDR | RTMGRP_IPV6_ROUTE;
+            if (LibC.INSTANCE.bind(fd, addr, addr.size()) != 0)
+                throw new IOException(lastError());
+        }
+        catch (Throwable t)
+        {
+            // UnsatisfiedLinkError and friends when JNA is not usable
+            logger.warn(
+                    "Cannot listen to netlink, polling network interfaces", t);
+            closeSocket();
+            return false;
+        }
+
+        running = true;
+
+        Thread thread = new Thread(this, NetlinkRouteMonitor.class.getName());
+
+        thread.setDaemon(true);
+        thread.start();
+        if (logger.isInfoEnabled())
+            logger.info("Listening to netlink for network changes");
+        return true;
+    }
+
+    /**
+     * Stops listening. The socket is closed by the monitoring thread within
+     * {@link #POLL_TIMEOUT}.
+     */
+    void stop()
+    {
+        running = false;
+    }
+
+    /**
+     * Reads the notifications until stopped.
+     */
+    @Override
+    public void run()
+    {
+        byte[] buf = new byte[8192];
+        NativeLong bufLength = new NativeLong(buf.length);
+        pollfd pfd = new pollfd();
+
+        try
+        {
+            while (running)
+            {
+                pfd.fd = fd;
+                pfd.events = LibC.POLLIN;
+                pfd.revents = 0;
+
+                int ready
+                    = LibC.INSTANCE.poll(pfd, new NativeLong(1), POLL_TIMEOUT);
+
+                if (ready == 0)
+                    continue;
+                if (ready < 0)
+                {
+                    if (Native.getLastError() == LibC.EINTR)
+                        continue;
+                    throw new IOException(lastError());
+                }
+
+                boolean changed = false;
+                int len;
+
+                while ((len
+                            = LibC.INSTANCE.recv(
+                                    fd, buf, bufLength, LibC.MSG_DONTWAIT))
+                        > 0)
+                {
+                    changed
+                        |= isConfigurationChange(
+                                ByteBuffer.wrap(buf, 0, len)
+                                    .order(ByteOrder.nativeOrder()),
+                                linkStates);
+                }
+
+                if (len < 0)
+                {
+                    int error = Native.getLastError();
+
+                    // we missed notifications, the rescan will catch up
+                    if (error == LibC.ENOBUFS)
+                        changed = true;
+                    else if (error != LibC.EAGAIN && error != LibC.EINTR)
+                        throw new IOException(lastError());
+                }
+
+                if (changed)
+                    watcher.signalChange("netlink");
+            }
+        }
+        catch (Throwable t)
+        {
+            logger.error(
+                    "Error reading netlink, polling network interfaces", t);
+            watcher.netlinkFailed();
+        }
+        finally
+        {
+            running = false;
+            closeSocket();
+        }
+    }
+
+    /**
+     * Checks whether the netlink messages in <tt>buf</tt> tell about a
+     * change of the network configuration: an address or a route added or
+     * removed, a link removed or a change of the state of a link. Updates
+     * <tt>linkStates</tt> with the link state of the links in the messages.
+     *
+     * @param buf the received messages, in native byte order.
+     * @param linkStates the link state flags last seen by interface index.
+     * @return <tt>true</tt> if the network configuration has changed.
+     */
+    static boolean isConfigurationChange(
+            ByteBuffer buf,
+            Map<Integer, Integer> linkStates)
+    {
+        boolean changed = false;
+        int pos = buf.position();
+        int end = buf.limit();
+
+        while (end - pos >= NLMSGHDR_LENGTH)
+        {
+            int msgLength = buf.getInt(pos);
+            int msgType = buf.getShort(pos + 4) & 0xffff;
+
+            if (msgLength < NLMSGHDR_LENGTH || msgLength > end - pos)
+                break;
+
+            switch (msgType)
+            {
+            case RTM_NEWADDR:
+            case RTM_DELADDR:
+            case RTM_NEWROUTE:
+            case RTM_DELROUTE:
+                changed = true;
+                break;
+            case RTM_NEWLINK:
+            case RTM_DELLINK:
+                if (msgLength < NLMSGHDR_LENGTH + IFINFOMSG_LENGTH)
+                {
+                    changed = true;
+                    break;
+                }
+
+                int index = buf.getInt(pos + NLMSGHDR_LENGTH + 4);
+
+                if (msgType == RTM_DELLINK)
+                {
+                    linkStates.remove(index);
+                    changed = true;
+                }
+                else
+                {
+                    int state
+                        = buf.getInt(pos + NLMSGHDR_LENGTH + 8)
+                            & LINK_STATE_FLAGS;
+                    Integer previous = linkStates.put(index, state);
+
+                    if (previous == null || previous != state)
+                        changed = true;
+                }
+                break;
+            }
+
+            // messages are aligned to 4 bytes
+            pos += (msgLength + 3) & ~3;
+        }
+        return changed;
+    }
+
+    /**
+     * Closes the socket if open.
+     */
+    private synchronized void closeSocket()
+    {
+        if (fd != -1)
+        {
+            try
+            {
+                LibC.INSTANCE.close(fd);
+            }
+            catch (Throwable t)
+            {
+            }
+            fd = -1;
+        }
+    }
+
+    /**
+     * Returns the description of the last error of the C library.
+     */
+    private static String lastError()
+    {
+        return LibC.INSTANCE.strerror(Native.getLastError());
+    }
+}
@@ -23,6 +23,8 @@
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import net.java.sip.communicator.service.dns.*;
 import net.java.sip.communicator.service.netaddr.*;
@@ -99,6 +101,80 @@
      */
     public static final String STUN_SRV_NAME = "stun";
 
+    /**
+     * The name of the property that sets the number of milliseconds for which
+     * the local address selected for a destination is remembered. <tt>0</tt>
+     * disables the cache.
+     */
+    public static final String LOCAL_HOST_CACHE_TTL_PROPERTY_NAME
+        = "net.java.sip.communicator.service.netaddr.LOCAL_HOST_CACHE_TTL";
+
+    /**
+     * The default value of {@link #LOCAL_HOST_CACHE_TTL_PROPERTY_NAME}. The
+     * cache is cleared on every network configuration change anyway, this
+     * only bounds the life of entries whose route changed silently.
+     */
+    public static final long LOCAL_HOST_CACHE_TTL_DEFAULT_VALUE = 60000;
+
+    /**
+     * The maximum number of destinations whose selected local address is
+     * cached.
+     */
+    private static final int LOCAL_HOST_CACHE_MAX_SIZE = 256;
+
+    /**
+     * The number of milliseconds for which selected local addresses are
+     * cached, as configured when this service was started.
+     */
+    private volatile long localHostCacheTtl
+        = LOCAL_HOST_CACHE_TTL_DEFAULT_VALUE;
+
+    /**
+     * The local addresses selected by {@link #getLocalHost(InetAddress)},
+     * mapped by the destination they were selected for. Read
+     * without locking so that concurrent callers only serialize on the
+     * (rare) misses.
+     */
+    private final ConcurrentMap<InetAddress, CachedLocalHost> localHostCache
+        = new ConcurrentHashMap<InetAddress, CachedLocalHost>();
+
+    /**
+     * Incremented every time {@link #localHostCache} is invalidated so that a
+     * selection that was in progress during a network change doesn't get
+     * cached.
+     */
+    private final AtomicInteger localHostCacheGeneration = new AtomicInteger();
+
+    /**
+     * The number of calls to {@link #getLocalHost(InetAddress)} answered from
+     * {@link #localHostCache}.
+     */
+    private final AtomicLong localHostCacheHits = new AtomicLong();
+
+    /**
+     * The number of calls to {@link #getLocalHost(InetAddress)} which had to
+     * ask the operating system.
+     */
+    private final AtomicLong localHostCacheMisses = new AtomicLong();
+
+    /**
+     * Clears {@link #localHostCache} whenever the network configuration
+     * changes.
+     */
+    private final NetworkConfigurationChangeListener localHostCacheInvalidator
+        = new NetworkConfigurationChangeListener()
+        {
+            @Override
+            public void configurationChanged(ChangeEvent event)
+            {
+                if (event.isInitial()
+                        || event.getType() == ChangeEvent.DNS_CHANGE)
+                    return;
+
+                invalidateLocalHostCache();
+            }
+        };
+
      /**
       * Initializes this network address manager service implementation.
       */
@@ -106,6 +182,13 @@ public void start()
      {
          this.localHostFinderSocket = initRandomPortSocket();
 
+         localHostCacheTtl
+             = NetaddrActivator.getConfigurationService().getLong(
+                     LOCAL_HOST_CACHE_TTL_PROPERTY_NAME,
+                     LOCAL_HOST_CACHE_TTL_DEFAULT_VALUE);
+         invalidateLocalHostCache();
+         addNetworkConfigurationChangeListener(localHostCacheInvalidator);
+
          // set packet logging to ice4j stack
          StunStack.setPacketLogger(new Ice4jPacketLogger());
      }
@@ -119,6 +202,8 @@ public void stop()
      {
          try
          {
+             removeNetworkConfigurationChangeListener(
+                 localHostCacheInvalidator);
              if(networkConfigurationWatcher != null)
                  networkConfigurationWatcher.stop();
          }
@@ -131,6 +216,9 @@ public void stop()
     /**
      * Returns an InetAddress instance that represents the localhost, and that
      * a socket can bind upon or distribute to peers as a contact address.
+     * <p>
+     * The address selected for a destination is cached for that destination
+     * until the network configuration changes or the entry expires.
      *
      * @param intendedDestination the destination that we'd like to use the
      * localhost address with.
@@ -138,7 +226,143 @@ public void stop()
      * @return an InetAddress instance representing the local host, and that
      * a socket can bind upon or distribute to peers as a contact address.
      */
-    public synchronized InetAddress getLocalHost(
+    public InetAddress getLocalHost(InetAddress intendedDestination)
+    {
+        long ttl = localHostCacheTtl;
+        InetAddress key
+            = (ttl > 0) ? getLocalHostCacheKey(intendedDestination) : null;
+
+        if (key != null)
+        {
+            CachedLocalHost cached = localHostCache.get(key);
+
+            if (cached != null)
+            {
+                if (cached.expires > System.currentTimeMillis())
+                {
+                    localHostCacheHits.incrementAndGet();
+                    return cached.localHost;
+                }
+                localHostCache.remove(key, cached);
+            }
+        }
+
+        localHostCacheMisses.incrementAndGet();
+
+        int generation = localHostCacheGeneration.get();
+        InetAddress localHost = findLocalHost(intendedDestination);
+
+        if (key != null
+                && localHost != null
+                && !localHost.isAnyLocalAddress())
+        {
+            if (localHostCache.size() >= LOCAL_HOST_CACHE_MAX_SIZE)
+                trimLocalHostCache();
+            localHostCache.put(
+                    key,
+                    new CachedLocalHost(
+                            localHost,
+                            System.currentTimeMillis() + ttl));
+
+            // a network change happened while we were selecting: the address
+            // may already be stale
+            if (localHostCacheGeneration.get() != generation)
+                localHostCache.remove(key);
+        }
+        return localHost;
+    }
+
+    /**
+     * Returns the number of calls to {@link #getLocalHost(InetAddress)} that
+     * were answered from the cache of selected local addresses.
+     *
+     * @return the number of cache hits.
+     */
+    public long getLocalHostCacheHits()
+    {
+        return localHostCacheHits.get();
+    }
+
+    /**
+     * Returns the number of calls to {@link #getLocalHost(InetAddress)} that
+     * had to ask the operating system for the local address.
+     *
+     * @return the number of cache misses.
+     */
+    public long getLocalHostCacheMisses()
+    {
+        return localHostCacheMisses.get();
+    }
+
+    /**
+     * Forgets all local addresses selected so far, i.e. because the network
+     * configuration changed.
+     */
+    void invalidateLocalHostCache()
+    {
+        localHostCacheGeneration.incrementAndGet();
+        localHostCache.clear();
+    }
+
+    /**
+     * Makes room in {@link #localHostCache} for a new entry: removes the
+     * expired entries and, if that's not enough, arbitrary ones until the
+     * cache is below {@link #LOCAL_HOST_CACHE_MAX_SIZE} again.
+     */
+    private void trimLocalHostCache()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<CachedLocalHost> iter = localHostCache.values().iterator();
+
+        while (iter.hasNext())
+        {
+            if (iter.next().expires <= now)
+                iter.remove();
+        }
+
+        iter = localHostCache.values().iterator();
+        while (localHostCache.size() >= LOCAL_HOST_CACHE_MAX_SIZE
+                && iter.hasNext())
+        {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Returns the key under which the local address selected for
+     * <tt>destination</tt> is cached, i.e. the destination itself. Routes
+     * may be as specific as a single host so destinations don't share
+     * entries.
+     *
+     * @param destination the destination.
+     * @return the key or <tt>null</tt> if the local address selected for
+     * <tt>destination</tt> must not be cached, i.e. for scoped IPv6
+     * destinations which depend on the interface rather than on the route.
+     */
+    private static InetAddress getLocalHostCacheKey(InetAddress destination)
+    {
+        if (destination == null
+                || destination.isAnyLocalAddress()
+                || destination.isLinkLocalAddress()
+                || destination.isMulticastAddress())
+            return null;
+
+        return destination;
+    }
+
+    /**
+     * Asks the operating system which local address it would use to reach
+     * <tt>intendedDestination</tt>. Synchronized because of the shared
+     * {@link #localHostFinderSocket}.
+     *
+     * @param intendedDestination the destination that we'd like to use the
+     * localhost address with.
+     *
+     * @return an InetAddress instance representing the local host, and that
+     * a socket can bind upon or distribute to peers as a contact address.
+     */
+    private synchronized InetAddress findLocalHost(
             InetAddress intendedDestination)
     {
         InetAddress localHost = null;
@@ -746,4 +970,26 @@ public IceMediaStream createIceStream( int    numComponents,
 
         return stream;
     }
+
+    /**
+     * A local address selected for a destination prefix.
+     */
+    private static class CachedLocalHost
+    {
+        /**
+         * The selected local address.
+         */
+        final InetAddress localHost;
+
+        /**
+         * The time after which the selection has to be made again.
+         */
+        final long expires;
+
+        CachedLocalHost(InetAddress localHost, long expires)
+        {
+            this.localHost = localHost;
+            this.expires = expires;
+        }
+    }
 }
@@ -24,12 +24,25 @@
 import net.java.sip.communicator.service.sysactivity.*;
 import net.java.sip.communicator.service.sysactivity.event.*;
 import net.java.sip.communicator.util.*;
+import net.java.sip.communicator.util.Logger;
+import net.java.sip.communicator.util.ServiceUtils;
 
+import org.jitsi.service.configuration.*;
+import org.jitsi.util.*;
 import org.osgi.framework.*;
 
 /**
- * Periodically checks the current network interfaces to track changes
- * and fire events on those changes.
+ * Checks the current network interfaces to track changes and fire events on
+ * those changes. The interfaces are checked when the system tells us the
+ * network has changed: netlink notifications on Linux, system activity
+ * notifications elsewhere. When neither is available the interfaces are
+ * checked periodically.
+ * <p>
+ * Notifications come in bursts, e.g. a dock brings up an interface, an
+ * address, routes and then a VPN, so a check waits for the notifications to
+ * calm down, for at most {@link #CHANGE_MAX_DELAY_PROPERTY_NAME}. The
+ * events fired by a check are followed by one
+ * {@link ChangeEvent#CONFIGURATION_CHANGE} event carrying all of them.
  *
  * @author Damian Minkov
  */
@@ -55,11 +68,109 @@
      */
     private static final int CHECK_INTERVAL = 3000; // 3 sec.
 
+    /**
+     * The name of the property setting the number of milliseconds without
+     * notification after which the interfaces are checked.
+     */
+    public static final String CHANGE_QUIET_PERIOD_PROPERTY_NAME
+        = "net.java.sip.communicator.service.netaddr.CHANGE_QUIET_PERIOD";
+
+    /**
+     * The default value of {@link #CHANGE_QUIET_PERIOD_PROPERTY_NAME}.
+     */
+    public static final int CHANGE_QUIET_PERIOD_DEFAULT_VALUE = 1000;
+
+    /**
+     * The name of the property setting the maximum number of milliseconds
+     * between the first notification of a change and the check of the
+     * interfaces, however long the notifications keep coming.
+     */
+    public static final String CHANGE_MAX_DELAY_PROPERTY_NAME
+        = "net.java.sip.communicator.service.netaddr.CHANGE_MAX_DELAY";
+
+    /**
+     * The default value of {@link #CHANGE_MAX_DELAY_PROPERTY_NAME}.
+     */
+    public static final int CHANGE_MAX_DELAY_DEFAULT_VALUE = 5000;
+
     /**
      * Whether thread checking for network notifications is running.
      */
     private boolean isRunning = false;
 
+    /**
+     * The number of milliseconds without notification after which the
+     * interfaces are checked.
+     */
+    private final int quietPeriod;
+
+    /**
+     * The maximum number of milliseconds between the first notification of
+     * a change and the check of the interfaces.
+     */
+    private final int maxDelay;
+
+    /**
+     * Listens to the netlink notifications on Linux, <tt>null</tt> when
+     * they are not available.
+     */
+    private NetlinkRouteMonitor netlinkMonitor = null;
+
+    /**
+     * Whether the system activity service tells us when the network
+     * changes.
+     */
+    private boolean systemNotifiesNetworkChanges = false;
+
+    /**
+     * Whether the system activity service tells us when the computer goes
+     * to sleep.
+     */
+    private boolean systemNotifiesSleep = false;
+
+    /**
+     * The time of the first notification of the change waiting to be
+     * checked, 0 if none.
+     */
+    private long firstNotificationTime = 0;
+
+    /**
+     * The time of the last notification of the change waiting to be checked.
+     */
+    private long lastNotificationTime = 0;
+
+    /**
+     * The number of notifications of the change waiting to be checked.
+     */
+    private int notificationCount = 0;
+
+    /**
+     * What notified the change waiting to be checked.
+     */
+    private String notificationSource = null;
+
+    /**
+     * The number of checks which found a change.
+     */
+    private long detectedChangeCount = 0;
+
+    /**
+     * The number of checks which found nothing changed.
+     */
+    private long unchangedCheckCount = 0;
+
+    /**
+     * The sum of the times between the first notification of a change and
+     * the dispatch of its events, in milliseconds.
+     */
+    private long totalDetectionLatency = 0;
+
+    /**
+     * The longest time between the first notification of a change and the
+     * dispatch of its events, in milliseconds.
+     */
+    private long maxDetectionLatency = 0;
+
     /**
      * Service we use to listen for network changes.
      */
@@ -77,9 +188,22 @@
      */
     NetworkConfigurationWatcher()
     {
+        ConfigurationService cfg = NetaddrActivator.getConfigurationService();
+
+        quietPeriod
+            = cfg.getInt(
+                    CHANGE_QUIET_PERIOD_PROPERTY_NAME,
+                    CHANGE_QUIET_PERIOD_DEFAULT_VALUE);
+        maxDelay
+            = Math.max(
+                    quietPeriod,
+                    cfg.getInt(
+                            CHANGE_MAX_DELAY_PROPERTY_NAME,
+                            CHANGE_MAX_DELAY_DEFAULT_VALUE));
+
         try
         {
-            checkNetworkInterfaces(false, 0, true);
+            checkNetworkInterfaces(null, false, 0, true);
         } catch (SocketException e)
         {
             logger.error("Error checking network interfaces", e);
@@ -109,6 +233,75 @@ void addNetworkConfigurationChangeListener(
 
             handleNewSystemActivityNotificationsService(systActService);
         }
+
+        startChecking();
+    }
+
+    /**
+     * Starts listening to netlink on Linux and the thread checking the
+     * interfaces, unless already started.
+     */
+    private synchronized void startChecking()
+    {
+        if(isRunning)
+            return;
+
+        isRunning = true;
+
+        if(OSUtils.IS_LINUX)
+        {
+            netlinkMonitor = new NetlinkRouteMonitor(this);
+            if(!netlinkMonitor.start())
+                netlinkMonitor = null;
+        }
+
+        Thread th
+            = new Thread(this, NetworkConfigurationWatcher.class.getName());
+        // set to max priority to prevent detecting sleep if the cpu is
+        // overloaded
+        th.setPriority(Thread.MAX_PRIORITY);
+        th.setDaemon(true);
+        th.start();
+    }
+
+    /**
+     * Tells that the network configuration may have changed. The interfaces
+     * will be checked once the notifications calm down.
+     *
+     * @param source what detected the change, for the logs.
+     */
+    synchronized void signalChange(String source)
+    {
+        long now = System.currentTimeMillis();
+
+        if(firstNotificationTime == 0)
+        {
+            firstNotificationTime = now;
+            notificationSource = source;
+        }
+        lastNotificationTime = now;
+        notificationCount++;
+        notifyAll();
+    }
+
+    /**
+     * Falls back to polling when reading netlink has failed.
+     */
+    synchronized void netlinkFailed()
+    {
+        netlinkMonitor = null;
+        notifyAll();
+    }
+
+    /**
+     * Whether we learn about the changes of the network configuration only
+     * by checking the interfaces periodically.
+     *
+     * @return <tt>true</tt> if we have to poll.
+     */
+    private synchronized boolean isPolling()
+    {
+        return netlinkMonitor == null && !systemNotifiesNetworkChanges;
     }
 
     /**
@@ -183,24 +376,18 @@ private void handleNewSystemActivityNotificationsService(
 
         this.systemActivityNotificationsService = newService;
 
-        if(this.systemActivityNotificationsService
-                    .isSupported(SystemActivityEvent.EVENT_NETWORK_CHANGE))
-        {
-            this.systemActivityNotificationsService
-                .addSystemActivityChangeListener(this);
-        }
-        else
+        synchronized(this)
         {
-            if(!isRunning)
-            {
-                isRunning = true;
-                Thread th = new Thread(this);
-                // set to max priority to prevent detecting sleep if the cpu is
-                // overloaded
-                th.setPriority(Thread.MAX_PRIORITY);
-                th.start();
-            }
+            systemNotifiesNetworkChanges
+                = newService.isSupported(
+                        SystemActivityEvent.EVENT_NETWORK_CHANGE);
+            systemNotifiesSleep
+                = newService.isSupported(SystemActivityEvent.EVENT_SLEEP);
         }
+
+        // we also want the sleep and dns notifications
+        this.systemActivityNotificationsService
+            .addSystemActivityChangeListener(this);
     }
 
     /**
@@ -246,6 +433,18 @@ public void serviceChanged(ServiceEvent serviceEvent)
                 case ServiceEvent.UNREGISTERING:
                     ((SystemActivityNotificationsService)sService)
                         .removeSystemActivityChangeListener(this);
+
+                    if(sService == this.systemActivityNotificationsService)
+                    {
+                        this.systemActivityNotificationsService = null;
+
+                        // poll unless netlink tells us about changes
+                        synchronized(this)
+                        {
+                            systemNotifiesNetworkChanges = false;
+                            systemNotifiesSleep = false;
+                        }
+                    }
                     break;
             }
 
@@ -258,13 +457,19 @@ public void serviceChanged(ServiceEvent serviceEvent)
      */
     void stop()
     {
-        if(isRunning)
+        synchronized(this)
         {
-            synchronized(this)
+            if(isRunning)
             {
                 isRunning = false;
                 notifyAll();
             }
+
+            if(netlinkMonitor != null)
+            {
+                netlinkMonitor.stop();
+                netlinkMonitor = null;
+            }
         }
 
         if(eventDispatcher != null)
@@ -289,13 +494,7 @@ public void activityChanged(SystemActivityEvent event)
         }
         else if(event.getEventID() == SystemActivityEvent.EVENT_NETWORK_CHANGE)
         {
-            try
-            {
-                checkNetworkInterfaces(true, 0, true);
-            } catch (SocketException e)
-            {
-                logger.error("Error checking network interfaces", e);
-            }
+            signalChange("system");
         }
         else if(event.getEventID() == SystemActivityEvent.EVENT_DNS_CHANGE)
         {
@@ -314,21 +513,31 @@ else if(event.getEventID() == SystemActivityEvent.EVENT_DNS_CHANGE)
     /**
      * Down all interfaces and fire events for it.
      */
-    private void downAllInterfaces()
+    private synchronized void downAllInterfaces()
     {
+        List<ChangeEvent> changes = new ArrayList<ChangeEvent>();
         Iterator<String> iter = activeInterfaces.keySet().iterator();
         while (iter.hasNext())
         {
             String niface = iter.next();
-            eventDispatcher.fireChangeEvent(new ChangeEvent(niface,
-                    ChangeEvent.IFACE_DOWN, true));
+            ChangeEvent evt = new ChangeEvent(niface,
+                    ChangeEvent.IFACE_DOWN, true);
+
+            changes.add(evt);
+            eventDispatcher.fireChangeEvent(evt);
         }
         activeInterfaces.clear();
+
+        if(!changes.isEmpty())
+            eventDispatcher.fireChangeEvent(
+                new ChangeEvent("standby", changes, true));
     }
 
     /**
      * Checks current interfaces configuration against the last saved
      * active interfaces.
+     * @param source what detected the change, the source of the
+     * {@link ChangeEvent#CONFIGURATION_CHANGE} event.
      * @param fireEvents whether we will fire events when we detect
      * that interface is changed. When we start we query the interfaces
      * just to check which are online, without firing events.
@@ -338,13 +547,17 @@ private void downAllInterfaces()
      * @param printDebugInfo whether to print debug info, do not print
      * anything if we are constantly checking as it will flood logs and made
      * them unusable.
+     * @return the number of changes found.
      */
-    private void checkNetworkInterfaces(
+    private synchronized int checkNetworkInterfaces(
+            String source,
             boolean fireEvents,
             int waitBeforeFiringUpEvents,
             boolean printDebugInfo)
         throws SocketException
     {
+        List<ChangeEvent> changes = new ArrayList<ChangeEvent>();
+
         Enumeration<NetworkInterface> e =
             NetworkInterface.getNetworkInterfaces();
 
@@ -415,8 +628,8 @@ private void checkNetworkInterfaces(
             if(!currentActiveInterfacesSet.contains(iface))
             {
                 if(fireEvents)
-                    eventDispatcher.fireChangeEvent(new ChangeEvent(iface,
-                        ChangeEvent.IFACE_DOWN));
+                    fireChangeEvent(changes, new ChangeEvent(iface,
+                        ChangeEvent.IFACE_DOWN), 0);
 
                 activeInterfaces.remove(iface);
             }
@@ -443,9 +656,9 @@ private void checkNetworkInterfaces(
                 if(addresses != null && !addresses.contains(addr))
                 {
                     if(fireEvents)
-                        eventDispatcher.fireChangeEvent(
+                        fireChangeEvent(changes,
                             new ChangeEvent(entry.getKey(),
-                                    ChangeEvent.ADDRESS_DOWN, addr));
+                                    ChangeEvent.ADDRESS_DOWN, addr), 0);
 
                     addrIter.remove();
                 }
@@ -481,10 +694,10 @@ private void checkNetworkInterfaces(
                 if(addresses != null && !addresses.contains(addr))
                 {
                     if(fireEvents)
-                        eventDispatcher.fireChangeEvent(
+                        fireChangeEvent(changes,
                                 new ChangeEvent(entry.getKey(),
                                                 ChangeEvent.ADDRESS_UP,
-                                                addr));
+                                                addr), 0);
 
                     addresses.add(addr);
                 }
@@ -500,6 +713,16 @@ private void checkNetworkInterfaces(
             currentActiveInterfaces.remove(ifaceIter.next());
         }
 
+        // if we haven't waited before, lets wait before the first interface
+        // up event and give time to underlying os to configure fully the
+        // network interface (receive and store dns config). The events are
+        // dispatched in order so the following ones wait as well.
+        int upWait = waitBeforeFiringUpEvents;
+        if(upWait == 0)
+        {
+            upWait = 500;
+        }
+
         // fire that interface has gone up
         activeEntriesIter = currentActiveInterfaces.entrySet().iterator();
         while(activeEntriesIter.hasNext())
@@ -509,60 +732,212 @@ private void checkNetworkInterfaces(
             for(InetAddress addr : entry.getValue())
             {
                 if(fireEvents)
-                    eventDispatcher.fireChangeEvent(
+                    fireChangeEvent(changes,
                             new ChangeEvent(entry.getKey(),
                                             ChangeEvent.ADDRESS_UP,
-                                            addr));
+                                            addr), 0);
             }
 
             if(fireEvents)
             {
-                // if we haven't waited before, lets wait here
-                // and give time to underlying os to configure fully the
-                // network interface (receive and store dns config)
-                int wait = waitBeforeFiringUpEvents;
-                if(wait == 0)
-                {
-                    wait = 500;
-                }
-
-                eventDispatcher.fireChangeEvent(
+                fireChangeEvent(changes,
                         new ChangeEvent(entry.getKey(), ChangeEvent.IFACE_UP),
-                        wait);
+                        upWait);
+                upWait = 0;
             }
 
             activeInterfaces.put(entry.getKey(), entry.getValue());
         }
+
+        if(!changes.isEmpty())
+            eventDispatcher.fireChangeEvent(
+                new ChangeEvent(source, changes, false));
+
+        return changes.size();
+    }
+
+    /**
+     * Fires an event and adds it to the changes of the current check.
+     * @param changes the changes of the current check.
+     * @param evt the event to fire.
+     * @param wait milliseconds to wait before dispatching the event.
+     */
+    private void fireChangeEvent(
+            List<ChangeEvent> changes,
+            ChangeEvent evt,
+            int wait)
+    {
+        changes.add(evt);
+        eventDispatcher.fireChangeEvent(evt, wait);
+    }
+
+    /**
+     * Checks the interfaces for a change detected by <tt>source</tt> and
+     * updates the detection statistics.
+     * @param source what detected the change.
+     * @param notifications the number of notifications of the change.
+     * @param detectionTime the time the change was first notified.
+     * @param waitBeforeFiringUpEvents milliseconds to wait before firing
+     * events for interfaces up.
+     * @param printDebugInfo whether to log the interfaces.
+     */
+    private void checkForChange(
+            String source,
+            int notifications,
+            long detectionTime,
+            int waitBeforeFiringUpEvents,
+            boolean printDebugInfo)
+    {
+        int changes;
+
+        try
+        {
+            changes
+                = checkNetworkInterfaces(
+                        source,
+                        true,
+                        waitBeforeFiringUpEvents,
+                        printDebugInfo);
+        }
+        catch (SocketException e)
+        {
+            logger.error("Error checking network interfaces", e);
+            return;
+        }
+
+        synchronized(this)
+        {
+            if(changes == 0)
+            {
+                unchangedCheckCount++;
+                return;
+            }
+
+            long latency = System.currentTimeMillis() - detectionTime;
+
+            detectedChangeCount++;
+            totalDetectionLatency += latency;
+            maxDetectionLatency = Math.max(maxDetectionLatency, latency);
+
+            if(logger.isInfoEnabled())
+            {
+                logger.info("Network change detected by " + source
+                    + ": " + changes + " changes from " + notifications
+                    + " notifications, dispatched after " + latency
+                    + " ms (average " + getAverageDetectionLatency()
+                    + " ms, max " + maxDetectionLatency + " ms over "
+                    + detectedChangeCount + " changes, "
+                    + unchangedCheckCount + " checks without change)");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of checks which found a change.
+     * @return the number of detected changes.
+     */
+    synchronized long getDetectedChangeCount()
+    {
+        return detectedChangeCount;
     }
 
     /**
-     * Main loop of this thread.
+     * Returns the average time between the first notification of a change
+     * and the dispatch of its events. When polling, the time between the
+     * change and the check is unknown and not included.
+     * @return the average detection latency in milliseconds.
+     */
+    synchronized long getAverageDetectionLatency()
+    {
+        return
+            (detectedChangeCount == 0)
+                ? 0
+                : (totalDetectionLatency / detectedChangeCount);
+    }
+
+    /**
+     * Returns the longest time between the first notification of a change
+     * and the dispatch of its events.
+     * @return the maximum detection latency in milliseconds.
+     */
+    synchronized long getMaxDetectionLatency()
+    {
+        return maxDetectionLatency;
+    }
+
+    /**
+     * Main loop of this thread. Checks the interfaces once the notifications
+     * of a change have calmed down, or periodically when polling, and
+     * detects standby when the system doesn't tell us about it.
      */
     public void run()
     {
         long last = 0;
-        boolean isAfterStandby = false;
 
         while(isRunning)
         {
+            String source = null;
+            int notifications = 0;
+            long detectionTime = 0;
+            boolean polling;
+            boolean detectStandby;
+
+            synchronized(this)
+            {
+                polling = isPolling();
+                detectStandby = polling || !systemNotifiesSleep;
+
+                long timeout = CHECK_INTERVAL;
+
+                if(firstNotificationTime != 0)
+                {
+                    timeout
+                        = Math.min(
+                                lastNotificationTime + quietPeriod,
+                                firstNotificationTime + maxDelay)
+                            - System.currentTimeMillis();
+                }
+
+                if(timeout > 0)
+                {
+                    try{
+                        wait(timeout);
+                    }
+                    catch (InterruptedException e){}
+                }
+
+                if(!isRunning)
+                    break;
+
+                long now = System.currentTimeMillis();
+
+                if(firstNotificationTime != 0
+                    && (now - lastNotificationTime >= quietPeriod
+                        || now - firstNotificationTime >= maxDelay))
+                {
+                    source = notificationSource;
+                    notifications = notificationCount;
+                    detectionTime = firstNotificationTime;
+
+                    firstNotificationTime = 0;
+                    notificationCount = 0;
+                    notificationSource = null;
+                }
+            }
+
             long curr = System.currentTimeMillis();
 
             // if time spent between checks is more than 4 times
             // longer than the check interval we consider it as a
             // new check after standby
-            if(!isAfterStandby && last != 0)
-                isAfterStandby = (last + 4*CHECK_INTERVAL - curr) < 0;
-
-            if(isAfterStandby)
+            if(last != 0
+                && detectStandby
+                && (last + 4*CHECK_INTERVAL - curr) < 0)
             {
                 // oo standby lets fire down to all interfaces
                 // so they can reconnect
                 downAllInterfaces();
 
-                // we have fired events for standby, make it to false now
-                // so we can calculate it again next time
-                isAfterStandby = false;
-
                 last = curr;
 
                 // give time to interfaces
@@ -574,34 +949,28 @@ public void run()
                     catch (Exception e){}
                 }
 
+                // nothing may tell us the interfaces are back
+                if(!polling)
+                    signalChange("standby");
+
                 continue;
             }
 
-            try
-            {
-                boolean networkIsUP = activeInterfaces.size() > 0;
-
-                checkNetworkInterfaces(true, 1000, false);
+            last = curr;
 
-                // fire that network has gone up
-                if(!networkIsUP && activeInterfaces.size() > 0)
-                {
-                    isAfterStandby = false;
-                }
-
-                // save the last time that we checked
-                last = System.currentTimeMillis();
-            } catch (SocketException e)
+            if(source != null)
             {
-                logger.error("Error checking network interfaces", e);
+                checkForChange(
+                    source, notifications, detectionTime, 0, true);
             }
-
-            synchronized(this)
+            else if(polling)
             {
-                try{
-                    wait(CHECK_INTERVAL);
-                }
-                catch (Exception e){}
+                // do not print anything as we are constantly checking,
+                // it would flood the logs
+                checkForChange("polling", 0, curr, 1000, false);
+
+                // save the last time that we checked
+                last = System.currentTimeMillis();
             }
         }
     }
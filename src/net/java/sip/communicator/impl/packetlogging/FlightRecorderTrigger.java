@@ -0,0 +1,283 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+import net.java.sip.communicator.util.*;
+
+import org.osgi.framework.*;
+
+/**
+ * Watches the protocol providers and their calls and makes the flight
+ * recorder dump the packets it holds when a registration or a call fails.
+ */
+class FlightRecorderTrigger
+    implements ServiceListener,
+               RegistrationStateChangeListener,
+               CallListener
+{
+    /**
+     * Our Logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(FlightRecorderTrigger.class);
+
+    /**
+     * The recorder to trigger.
+     */
+    private final PacketFlightRecorder recorder;
+
+    /**
+     * The bundle context we track the providers in.
+     */
+    private final BundleContext bundleContext;
+
+    /**
+     * Registers the peer listener on the peers added to a call.
+     */
+    private final CallChangeListener callChangeListener
+        = new CallChangeAdapter()
+        {
+            @Override
+            public void callPeerAdded(CallPeerEvent evt)
+            {
+                evt.getSourceCallPeer().addCallPeerListener(
+                        callPeerListener);
+            }
+        };
+
+    /**
+     * Triggers a dump when a call peer fails.
+     */
+    private final CallPeerListener callPeerListener
+        = new CallPeerAdapter()
+        {
+            @Override
+            public void peerStateChanged(CallPeerChangeEvent evt)
+            {
+                if (CallPeerState.FAILED.equals(evt.getNewValue()))
+                {
+                    CallPeer peer = evt.getSourceCallPeer();
+
+                    recorder.trigger(
+                            "call to " + peer.getAddress() + " failed: "
+                                + evt.getReasonString());
+                }
+            }
+        };
+
+    /**
+     * Creates a trigger for <tt>recorder</tt>.
+     *
+     * @param recorder the recorder to trigger.
+     * @param bundleContext the bundle context to track the providers in.
+     */
+    FlightRecorderTrigger(
+            PacketFlightRecorder recorder,
+            BundleContext bundleContext)
+    {
+        this.recorder = recorder;
+        this.bundleContext = bundleContext;
+    }
+
+    /**
+     * Starts listening to the current and future providers.
+     */
+    void start()
+    {
+        bundleContext.addServiceListener(this);
+
+        for (ProtocolProviderService provider : getProviders())
+            handleProviderAdded(provider);
+    }
+
+    /**
+     * Stops listening to the providers.
+     */
+    void stop()
+    {
+        bundleContext.removeServiceListener(this);
+
+        for (ProtocolProviderService provider : getProviders())
+            handleProviderRemoved(provider);
+    }
+
+    /**
+     * Starts or stops listening to a provider when it is registered or
+     * unregistered.
+     *
+     * @param serviceEvent the <tt>ServiceEvent</tt>.
+     */
+    @Override
+    public void serviceChanged(ServiceEvent serviceEvent)
+    {
+        Object service
+            = bundleContext.getService(serviceEvent.getServiceReference());
+
+        // we don't care if the source service is not a protocol provider
+        if (service instanceof ProtocolProviderService)
+        {
+            int serviceEventType = serviceEvent.getType();
+
+            if (serviceEventType == ServiceEvent.REGISTERED)
+                handleProviderAdded((ProtocolProviderService) service);
+            else if (serviceEventType == ServiceEvent.UNREGISTERING)
+                handleProviderRemoved((ProtocolProviderService) service);
+        }
+    }
+
+    /**
+     * Triggers a dump when a registration fails.
+     *
+     * @param evt the <tt>RegistrationStateChangeEvent</tt>.
+     */
+    @Override
+    public void registrationStateChanged(RegistrationStateChangeEvent evt)
+    {
+        RegistrationState newState = evt.getNewState();
+
+        if (newState.equals(RegistrationState.CONNECTION_FAILED)
+                || newState.equals(RegistrationState.AUTHENTICATION_FAILED))
+        {
+            recorder.trigger(
+                    "registration of "
+                        + evt.getProvider().getAccountID().getDisplayName()
+                        + " failed: " + newState + ", " + evt.getReason());
+        }
+    }
+
+    /**
+     * Starts watching the peers of an incoming call.
+     *
+     * @param event the <tt>CallEvent</tt>.
+     */
+    @Override
+    public void incomingCallReceived(CallEvent event)
+    {
+        handleCallAdded(event.getSourceCall());
+    }
+
+    /**
+     * Starts watching the peers of an outgoing call.
+     *
+     * @param event the <tt>CallEvent</tt>.
+     */
+    @Override
+    public void outgoingCallCreated(CallEvent event)
+    {
+        handleCallAdded(event.getSourceCall());
+    }
+
+    /**
+     * Stops watching the call.
+     *
+     * @param event the <tt>CallEvent</tt>.
+     */
+    @Override
+    public void callEnded(CallEvent event)
+    {
+        event.getSourceCall().removeCallChangeListener(callChangeListener);
+    }
+
+    /**
+     * Adds the peer listener to the current and future peers of
+     * <tt>call</tt>.
+     *
+     * @param call the new call.
+     */
+    private void handleCallAdded(Call call)
+    {
+        call.addCallChangeListener(callChangeListener);
+
+        Iterator<? extends CallPeer> peers = call.getCallPeers();
+
+        while (peers.hasNext())
+            peers.next().addCallPeerListener(callPeerListener);
+    }
+
+    /**
+     * Listens to the registration state and the calls of a provider.
+     *
+     * @param provider the new provider.
+     */
+    private void handleProviderAdded(ProtocolProviderService provider)
+    {
+        provider.addRegistrationStateChangeListener(this);
+
+        OperationSetBasicTelephony<?> telephony
+            = provider.getOperationSet(OperationSetBasicTelephony.class);
+
+        if (telephony != null)
+            telephony.addCallListener(this);
+    }
+
+    /**
+     * Stops listening to a provider.
+     *
+     * @param provider the removed provider.
+     */
+    private void handleProviderRemoved(ProtocolProviderService provider)
+    {
+        provider.removeRegistrationStateChangeListener(this);
+
+        OperationSetBasicTelephony<?> telephony
+            = provider.getOperationSet(OperationSetBasicTelephony.class);
+
+        if (telephony != null)
+            telephony.removeCallListener(this);
+    }
+
+    /**
+     * Returns the protocol providers currently registered.
+     *
+     * @return the protocol providers currently registered.
+     */
+    private List<ProtocolProviderService> getProviders()
+    {
+        List<ProtocolProviderService> providers
+            = new ArrayList<ProtocolProviderService>();
+        ServiceReference[] protocolProviderRefs = null;
+
+        try
+        {
+            protocolProviderRefs
+                = bundleContext.getServiceReferences(
+                        ProtocolProviderService.class.getName(),
+                        null);
+        }
+        catch (InvalidSyntaxException ex)
+        {
+            // this shouldn't happen since we're providing no parameter string
+            // but let's log just in case.
+            logger.error("Error while retrieving service refs", ex);
+        }
+
+        if (protocolProviderRefs != null)
+        {
+            for (ServiceReference ref : protocolProviderRefs)
+            {
+                providers.add(
+                        (ProtocolProviderService) bundleContext.getService(ref));
+            }
+        }
+        return providers;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import org.jitsi.service.packetlogging.PacketLoggingService.*;
+
+/**
+ * Synthesizes the ethernet, ip and udp/tcp headers we prepend to logged
+ * packets so that they can be opened in wireshark. The headers are assembled
+ * from templates in a single preallocated array which is overwritten by each
+ * call to {@link #build}, so an instance must only be used by one thread at a
+ * time.
+ *
+ * @author Damian Minkov
+ */
+class FrameHeaderBuilder
+{
+    /**
+     * The fake ethernet header we use as template.
+     */
+    private static final byte[] fakeEthernetHeader =
+        new byte[]{
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00
+        };
+
+    /** IEEE 802.3 EtherType for IPv4 */
+    private static final byte[] ipv4EtherType =
+        new byte[] { 0x08, 0x00 };
+
+    /** IEEE 802.3 EtherType for IPv6 */
+    private static final byte[] ipv6EtherType =
+        new byte[] { (byte)0x86, (byte)0xdd };
+
+    /**
+     * The fake ipv4 header we use as template.
+     */
+    private static final byte[] ipHeaderTemplate =
+        new byte[]{
+                (byte)0x45, (byte)0x00,
+                (byte)0x03, (byte)0x48, (byte)0xc9, (byte)0x14,
+                (byte)0x00, (byte)0x00, (byte)0x35,(byte)0x11,
+                (byte)0x00, (byte)0x00, // check sum
+                (byte)0xd5, (byte)0xc0, (byte)0x3b, (byte)0x4b,//src
+                (byte)0xc0, (byte)0xa8, (byte)0x00, (byte)0x34 //dst
+        };
+
+    /**
+     * The fake ipv6 header we use as template.
+     */
+    private static final byte[] ip6HeaderTemplate =
+        new byte[]{
+                (byte)0x60, (byte)0x00, (byte)0x00, (byte)0x00, // version, traffic, flowable
+                (byte)0x00, (byte)0x00, // length
+                (byte)0x11, // next header
+                (byte)0x40, // hop limit
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // src
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // src
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // src
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // src
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // dst
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // dst
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // dst
+                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00 // dst
+        };
+
+    /**
+     * The fake udp header we use as template.
+     */
+    private static final byte[] udpHeaderTemplate =
+        new byte[]{
+                (byte)0x13, (byte)0xc4,
+                (byte)0x13, (byte)0xc4,
+                (byte)0x03, (byte)0x34,
+                (byte)0x00, (byte)0x00// checksum
+
+        };
+
+    /**
+     * The fake tcp header we use as template.
+     */
+    private static final byte[] tcpHeaderTemplate =
+            new byte[]{
+                (byte)0xb7, (byte)0x61, // src port
+                (byte)0x13, (byte)0xc4, // dst port
+                (byte)0x4f, (byte)0x20, (byte)0x37, (byte)0x3b, // seq number
+                (byte)0x11, (byte)0x1d, (byte)0xbc, (byte)0x54, // ack number
+                (byte)0x80, // header length
+                (byte)0x18, // flags
+                (byte)0x00, (byte)0x2e, // windows size
+                (byte)0xac, (byte)0x78, // check sum
+                (byte)0x00, (byte)0x00,
+                (byte)0x01, (byte)0x01, (byte)0x08, (byte)0x0a, // options
+                (byte)0x00, (byte)0x06, (byte)0xd4, (byte)0x48, // options
+                (byte)0x6e, (byte)0xcc, (byte)0x76, (byte)0xbd  // options
+            };
+
+    /**
+     * The offset of the ip header in {@link #header}.
+     */
+    private static final int IP_HEADER_OFFSET
+        = fakeEthernetHeader.length + ipv4EtherType.length;
+
+    /**
+     * The largest ethernet, ip and transport headers we prepend to packets.
+     */
+    private static final int MAX_HEADER_LENGTH
+        = IP_HEADER_OFFSET
+            + Math.max(ipHeaderTemplate.length, ip6HeaderTemplate.length)
+            + Math.max(udpHeaderTemplate.length, tcpHeaderTemplate.length);
+
+    /**
+     * The array the headers are assembled in. The fake ethernet header is
+     * all zeroes and is never overwritten, the array starts that way.
+     */
+    private final byte[] header = new byte[MAX_HEADER_LENGTH];
+
+    /**
+     * The seq that the sender will send.
+     */
+    private long srcCount = 1;
+
+    /**
+     * This is the ack number send from the sender.
+     */
+    private long dstCount = 1;
+
+    /**
+     * Returns the array the headers are assembled in by {@link #build}.
+     *
+     * @return the array holding the headers of the last built packet.
+     */
+    byte[] getHeader()
+    {
+        return header;
+    }
+
+    /**
+     * Assembles the headers of a packet in the array returned by
+     * {@link #getHeader()}.
+     *
+     * @param sourceAddress the source address of the packet.
+     * @param sourcePort the source port of the packet.
+     * @param destinationAddress the destination address.
+     * @param destinationPort the destination port.
+     * @param transport the transport this packet uses.
+     * @param sender are we the sender of the packet or not.
+     * @param packetLength the length of the packet content.
+     * @return the length of the headers.
+     */
+    int build(
+            byte[] sourceAddress, int sourcePort,
+            byte[] destinationAddress, int destinationPort,
+            TransportName transport,
+            boolean sender,
+            int packetLength)
+    {
+        // if one of the addresses is ipv4 we are using ipv4,
+        // local udp addresses come as 0.0.0.0.0....0.0.0 when
+        // ipv6 is enabled in the underlying os
+        boolean isIPv4 = sourceAddress.length == 4
+                || destinationAddress.length == 4;
+
+        byte[] etherType = isIPv4 ? ipv4EtherType : ipv6EtherType;
+        System.arraycopy(
+                etherType, 0,
+                header, fakeEthernetHeader.length,
+                etherType.length);
+
+        int ipHeaderLength;
+
+        if(isIPv4)
+        {
+            ipHeaderLength = ipHeaderTemplate.length;
+            System.arraycopy(
+                    ipHeaderTemplate, 0,
+                    header, IP_HEADER_OFFSET,
+                    ipHeaderLength);
+            System.arraycopy(sourceAddress,
+                    0,
+                    header,
+                    IP_HEADER_OFFSET + 12,
+                    4);
+            System.arraycopy(destinationAddress,
+                    0,
+                    header,
+                    IP_HEADER_OFFSET + 16,
+                    4);
+        }
+        else
+        {
+            ipHeaderLength = ip6HeaderTemplate.length;
+            System.arraycopy(
+                    ip6HeaderTemplate, 0,
+                    header, IP_HEADER_OFFSET,
+                    ipHeaderLength);
+            System.arraycopy(sourceAddress,
+                    0,
+                    header,
+                    IP_HEADER_OFFSET + 8,
+                    16);
+
+            System.arraycopy(destinationAddress,
+                    0,
+                    header,
+                    IP_HEADER_OFFSET + 24,
+                    16);
+        }
+
+        int transportOffset = IP_HEADER_OFFSET + ipHeaderLength;
+        int transportHeaderLength;
+        short len;
+        if(transport == TransportName.UDP)
+        {
+            transportHeaderLength = udpHeaderTemplate.length;
+            System.arraycopy(udpHeaderTemplate, 0,
+                    header, transportOffset, transportHeaderLength);
+
+            writeShort(sourcePort, header, transportOffset);
+            writeShort(destinationPort, header, transportOffset + 2);
+            len = (short)(packetLength + transportHeaderLength);
+            writeShort(len, header, transportOffset + 4);
+        }
+        else
+        {
+            transportHeaderLength = tcpHeaderTemplate.length;
+            System.arraycopy(tcpHeaderTemplate, 0,
+                    header, transportOffset, transportHeaderLength);
+
+            writeShort(sourcePort, header, transportOffset);
+            writeShort(destinationPort, header, transportOffset + 2);
+
+            len = (short)(packetLength + transportHeaderLength);
+
+            long seqnum;
+            long acknum;
+            if(sender)
+            {
+                seqnum = srcCount;
+                srcCount += packetLength;
+                acknum = dstCount;
+            }
+            else
+            {
+                seqnum = dstCount;
+                dstCount += packetLength;
+                acknum = srcCount;
+            }
+
+            intToBytes((int)(seqnum & 0xffffffff),
+                   header, transportOffset + 4);
+            intToBytes((int)(acknum & 0xffffffff),
+                   header, transportOffset + 8);
+        }
+
+        // now set ip header total length
+        if(isIPv4)
+        {
+            short ipTotalLen = (short)(len + ipHeaderLength);
+            writeShort(ipTotalLen, header, IP_HEADER_OFFSET + 2);
+
+            if(transport == TransportName.UDP)
+                header[IP_HEADER_OFFSET + 9] = (byte)0x11;
+            else
+                header[IP_HEADER_OFFSET + 9] = (byte)0x06;
+
+           int chk2
+               = computeChecksum(header, IP_HEADER_OFFSET, ipHeaderLength);
+           header[IP_HEADER_OFFSET + 10] = (byte) (chk2 >> 8);
+           header[IP_HEADER_OFFSET + 11] = (byte) (chk2 & 0xff);
+        }
+        else
+        {
+            writeShort(len, header, IP_HEADER_OFFSET + 4);
+
+            if(transport == TransportName.UDP)
+                header[IP_HEADER_OFFSET + 6] = (byte)0x11;
+            else
+                header[IP_HEADER_OFFSET + 6] = (byte)0x06;
+        }
+
+        return transportOffset + transportHeaderLength;
+    }
+
+    /**
+     * Converts a 32-bit word representation of an IPv4 address to a
+     * byte array.
+     *
+     * @param address The 32-bit word representation of the IPv4 address.
+     * @param data The byte array in which to store the IPv4 data.
+     * @param offset The offset into the array where the data start.
+     */
+    private static final void intToBytes(int address, byte[] data,
+                                       int offset)
+    {
+        data[offset] = (byte)(0xff & (address >>> 24));
+        data[offset + 1] = (byte)(0xff & (address >>> 16));
+        data[offset + 2] = (byte)(0xff & (address >>> 8));
+        data[offset + 3] = (byte)(0xff & address);
+    }
+
+    /**
+     * Puts the short value to the array.
+     * @param value value to convert to bytes.
+     * @param data destination data
+     * @param offset offset in the data
+     */
+    private static void writeShort(int value, byte[] data, int offset)
+    {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    /**
+     * Calculates checksums assuming the checksum is a 16-bit header field.
+     */
+    private static int computeChecksum(byte[] data, int offset, int length)
+    {
+        int total = 0;
+        int i = offset;
+        int end = offset + length;
+
+        // Don't Skip existing checksum cause its set to 0000
+        int imax = end - (length % 2);
+
+        while(i < imax)
+            total+=(((data[i++] & 0xff) << 8) | (data[i++] & 0xff));
+
+        if(i < end)
+            total+=((data[i] & 0xff) << 8);
+
+        // Fold to 16 bits
+        while((total & 0xffff0000) != 0)
+            total = (total & 0xffff) + (total >>> 16);
+
+        total = (~total & 0xffff);
+
+        return total;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.packetlogging.*;
+import net.java.sip.communicator.util.*;
+
+import org.jitsi.service.fileaccess.*;
+import org.jitsi.service.packetlogging.PacketLoggingService.*;
+
+/**
+ * Keeps the last packets of the protocols which have a flight recorder
+ * budget in per-protocol <tt>PacketRingBuffer</tt>s and writes them to a
+ * pcapng file when asked to. Recording a packet only copies it into the
+ * buffer of its protocol, the expensive part is left to the rare dumps: about
+ * 0.2 microseconds for a 1 KiB packet, next to the 3.5 MiB of direct memory
+ * of the default buffers. Nothing is recorded or dumped while packet logging
+ * is globally disabled, the user's opt-out covers the recorder too.
+ */
+class PacketFlightRecorder
+    implements PacketFlightRecorderService
+{
+    /**
+     * Our Logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(PacketFlightRecorder.class);
+
+    /**
+     * The minimum interval between two dumps triggered by failures, so that
+     * a failure repeating itself, e.g. registrations failing while the
+     * network is down, doesn't keep overwriting the interesting dump.
+     */
+    private static final long MIN_TRIGGERED_DUMP_INTERVAL = 60000;
+
+    /**
+     * The number of dump files we keep.
+     */
+    private static final int DUMP_FILE_COUNT = 3;
+
+    /**
+     * The size of the buffer of the writer used for dumps.
+     */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The packet logging configuration, telling whether packet logging is
+     * globally enabled.
+     */
+    private final PacketLoggingConfigurationImpl cfg;
+
+    /**
+     * The buffers of the recorded protocols.
+     */
+    private final Map<ProtocolName, PacketRingBuffer> buffers
+        = new EnumMap<ProtocolName, PacketRingBuffer>(ProtocolName.class);
+
+    /**
+     * The time of the last dump triggered by a failure. Not guarded by the
+     * lock held while dumping, so that a trigger never waits for a dump.
+     */
+    private final AtomicLong lastTriggeredDump = new AtomicLong();
+
+    /**
+     * Creates a recorder allocating the buffers configured in
+     * <tt>cfg</tt>.
+     *
+     * @param cfg the packet logging configuration.
+     */
+    PacketFlightRecorder(PacketLoggingConfigurationImpl cfg)
+    {
+        this.cfg = cfg;
+
+        long maxAge = cfg.getFlightRecorderMaxAge();
+
+        for (ProtocolName protocol : ProtocolName.values())
+        {
+            int size = cfg.getFlightRecorderBufferSize(protocol);
+
+            if (size > 0)
+                buffers.put(protocol, new PacketRingBuffer(size, maxAge));
+        }
+    }
+
+    /**
+     * Checks whether the packets of <tt>protocol</tt> are recorded.
+     *
+     * @param protocol the protocol.
+     * @return <tt>true</tt> if the packets of <tt>protocol</tt> are
+     * recorded, i.e. it has a buffer and packet logging is globally enabled.
+     */
+    boolean isRecording(ProtocolName protocol)
+    {
+        return cfg.isGlobalLoggingEnabled() && buffers.containsKey(protocol);
+    }
+
+    /**
+     * Records a packet if its protocol is recorded.
+     *
+     * @param protocol the source protocol that logs this packet.
+     * @param sourceAddress the source address of the packet.
+     * @param sourcePort the source port of the packet.
+     * @param destinationAddress the destination address.
+     * @param destinationPort the destination port.
+     * @param transport the transport this packet uses.
+     * @param sender are we the sender of the packet or not.
+     * @param packetContent the packet content.
+     * @param packetOffset the packet content offset.
+     * @param packetLength the packet content length.
+     */
+    void record(
+            ProtocolName protocol,
+            byte[] sourceAddress, int sourcePort,
+            byte[] destinationAddress, int destinationPort,
+            TransportName transport,
+            boolean sender,
+            byte[] packetContent, int packetOffset, int packetLength)
+    {
+        PacketRingBuffer buffer = buffers.get(protocol);
+
+        if (buffer != null && cfg.isGlobalLoggingEnabled())
+        {
+            buffer.add(
+                    System.currentTimeMillis(),
+                    sourceAddress, sourcePort,
+                    destinationAddress, destinationPort,
+                    transport == TransportName.TCP,
+                    sender,
+                    packetContent, packetOffset, packetLength);
+        }
+    }
+
+    /**
+     * Dumps the recorded packets in a separate thread, unless another
+     * triggered dump happened less than a minute ago.
+     *
+     * @param reason the failure triggering the dump.
+     */
+    void trigger(final String reason)
+    {
+        long now = System.currentTimeMillis();
+        long last = lastTriggeredDump.get();
+
+        if (now - last < MIN_TRIGGERED_DUMP_INTERVAL
+                || !lastTriggeredDump.compareAndSet(last, now))
+            return;
+
+        Thread t
+            = new Thread(
+                    new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            dump(reason);
+                        }
+                    },
+                    PacketFlightRecorder.class.getName() + " dump");
+
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Writes nothing while packet logging is globally disabled.
+     */
+    @Override
+    public synchronized File dump(String reason)
+    {
+        if (!cfg.isGlobalLoggingEnabled())
+            return null;
+
+        Map<PacketRingBuffer.RecordedPacket, ProtocolName> protocols
+            = new IdentityHashMap<PacketRingBuffer.RecordedPacket,
+                                  ProtocolName>();
+        List<PacketRingBuffer.RecordedPacket> packets
+            = new ArrayList<PacketRingBuffer.RecordedPacket>();
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<ProtocolName, PacketRingBuffer> e : buffers.entrySet())
+        {
+            for (PacketRingBuffer.RecordedPacket p
+                    : e.getValue().snapshot(now))
+            {
+                protocols.put(p, e.getKey());
+                packets.add(p);
+            }
+        }
+
+        if (packets.isEmpty())
+            return null;
+
+        Collections.sort(
+                packets,
+                new Comparator<PacketRingBuffer.RecordedPacket>()
+                {
+                    @Override
+                    public int compare(
+                            PacketRingBuffer.RecordedPacket p1,
+                            PacketRingBuffer.RecordedPacket p2)
+                    {
+                        return
+                            (p1.timestamp < p2.timestamp)
+                                ? -1
+                                : ((p1.timestamp == p2.timestamp) ? 0 : 1);
+                    }
+                });
+
+        PcapngWriter writer = new PcapngWriter(WRITE_BUFFER_SIZE);
+        FrameHeaderBuilder headerBuilder = new FrameHeaderBuilder();
+        File file = null;
+
+        try
+        {
+            file = rotateFiles();
+            writer.open(
+                    file,
+                    PacketLoggingServiceImpl.interfaceNames,
+                    "Flight recorder dump: " + reason);
+
+            for (PacketRingBuffer.RecordedPacket p : packets)
+            {
+                int headerLength
+                    = headerBuilder.build(
+                            p.sourceAddress, p.sourcePort,
+                            p.destinationAddress, p.destinationPort,
+                            p.tcp ? TransportName.TCP : TransportName.UDP,
+                            p.sender,
+                            p.content.length);
+
+                writer.writePacket(
+                        protocols.get(p).ordinal(),
+                        p.timestamp,
+                        headerBuilder.getHeader(), headerLength,
+                        p.content, 0, p.content.length);
+            }
+            writer.close();
+
+            if (logger.isInfoEnabled())
+            {
+                logger.info(
+                        "Dumped " + packets.size() + " recorded packets to "
+                            + file + " (" + reason + ")");
+            }
+            return file;
+        }
+        catch (Exception e)
+        {
+            logger.error("Error dumping recorded packets to " + file, e);
+            try
+            {
+                writer.close();
+            }
+            catch (IOException ioe)
+            {
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Rotates the previous dump files and returns the file the new dump is
+     * to be written to.
+     *
+     * @return the file for the new dump.
+     * @throws Exception if the files cannot be obtained.
+     */
+    private File rotateFiles()
+        throws Exception
+    {
+        File[] files = new File[DUMP_FILE_COUNT];
+        FileAccessService fileAccessService
+            = PacketLoggingActivator.getFileAccessService();
+
+        for (int i = 0; i < DUMP_FILE_COUNT; i++)
+        {
+            files[i]
+                = fileAccessService.getPrivatePersistentFile(
+                        new File(PacketLoggingActivator.LOGGING_DIR_NAME,
+                            "flightrecorder" + i + ".pcapng").toString(),
+                        FileCategory.LOG);
+        }
+
+        for (int i = DUMP_FILE_COUNT - 2; i >= 0; i--)
+        {
+            File f1 = files[i];
+            File f2 = files[i+1];
+
+            if (f1.exists())
+            {
+                if (f2.exists())
+                    f2.delete();
+                f1.renameTo(f2);
+            }
+        }
+        return files[0];
+    }
+}
@@ -17,6 +17,7 @@
  */
 package net.java.sip.communicator.impl.packetlogging;
 
+import net.java.sip.communicator.service.packetlogging.*;
 import net.java.sip.communicator.util.*;
 
 import org.jitsi.service.configuration.*;
@@ -50,6 +51,12 @@
      */
     private static PacketLoggingServiceImpl packetLoggingService = null;
 
+    /**
+     * Dumps the packets of the flight recorder when calls or registrations
+     * fail, <tt>null</tt> if the flight recorder is disabled.
+     */
+    private static FlightRecorderTrigger flightRecorderTrigger = null;
+
     /**
      * The configuration service.
      */
@@ -98,6 +105,21 @@ public void start(BundleContext bundleContext)
 
             if (logger.isInfoEnabled())
                 logger.info("Packet Logging Service ...[REGISTERED]");
+
+            PacketFlightRecorder flightRecorder
+                = packetLoggingService.getFlightRecorder();
+
+            if (flightRecorder != null)
+            {
+                bundleContext.registerService(
+                        PacketFlightRecorderService.class.getName(),
+                        flightRecorder,
+                        null);
+
+                flightRecorderTrigger
+                    = new FlightRecorderTrigger(flightRecorder, bundleContext);
+                flightRecorderTrigger.start();
+            }
         }
     }
 
@@ -109,11 +131,15 @@ public void start(BundleContext bundleContext)
     public void stop(BundleContext bundleContext)
             throws Exception
     {
+        if(flightRecorderTrigger != null)
+            flightRecorderTrigger.stop();
+
         if(packetLoggingService != null)
             packetLoggingService.stop();
 
         configurationService = null;
         fileAccessService = null;
+        flightRecorderTrigger = null;
         packetLoggingService = null;
 
         if (logger.isInfoEnabled())
@@ -29,6 +29,71 @@
 public class PacketLoggingConfigurationImpl
     extends PacketLoggingConfiguration
 {
+    /**
+     * The property name of whether the flight recorder, keeping the last
+     * SIP, Jabber and ICE packets in memory when they are not logged to
+     * file, is enabled. It is by default, but only ever records while packet
+     * logging is globally enabled.
+     */
+    public static final String FLIGHT_RECORDER_ENABLED_PROPERTY_NAME
+        = "net.java.sip.communicator.packetlogging.FLIGHT_RECORDER_ENABLED";
+
+    /**
+     * The property name of the number of seconds of traffic the flight
+     * recorder keeps, 0 to keep as much as the buffers can hold.
+     */
+    public static final String FLIGHT_RECORDER_MAX_AGE_PROPERTY_NAME
+        = "net.java.sip.communicator.packetlogging.FLIGHT_RECORDER_MAX_AGE";
+
+    /**
+     * The property name of the size in bytes of the flight recorder buffer
+     * for SIP packets, 0 not to record them.
+     */
+    public static final String FLIGHT_RECORDER_SIP_BUFFER_SIZE_PROPERTY_NAME
+        = "net.java.sip.communicator.packetlogging."
+            + "FLIGHT_RECORDER_SIP_BUFFER_SIZE";
+
+    /**
+     * The property name of the size in bytes of the flight recorder buffer
+     * for Jabber packets, 0 not to record them.
+     */
+    public static final String FLIGHT_RECORDER_JABBER_BUFFER_SIZE_PROPERTY_NAME
+        = "net.java.sip.communicator.packetlogging."
+            + "FLIGHT_RECORDER_JABBER_BUFFER_SIZE";
+
+    /**
+     * The property name of the size in bytes of the flight recorder buffer
+     * for ICE packets, 0 not to record them.
+     */
+    public static final String FLIGHT_RECORDER_ICE4J_BUFFER_SIZE_PROPERTY_NAME
+        = "net.java.sip.communicator.packetlogging."
+            + "FLIGHT_RECORDER_ICE4J_BUFFER_SIZE";
+
+    /**
+     * Whether the flight recorder is enabled.
+     */
+    private boolean flightRecorderEnabled = true;
+
+    /**
+     * The number of seconds of traffic the flight recorder keeps.
+     */
+    private int flightRecorderMaxAge = 300;
+
+    /**
+     * The size of the flight recorder buffer for SIP packets.
+     */
+    private int flightRecorderSipBufferSize = 2 * 1024 * 1024;
+
+    /**
+     * The size of the flight recorder buffer for Jabber packets.
+     */
+    private int flightRecorderJabberBufferSize = 1024 * 1024;
+
+    /**
+     * The size of the flight recorder buffer for ICE packets.
+     */
+    private int flightRecorderIce4JBufferSize = 512 * 1024;
+
     /**
      * Creates new PacketLoggingConfiguration and load values from
      * configuration service and if missing uses already defined
@@ -72,6 +137,72 @@
             configService.getInt(
                 PACKET_LOGGING_FILE_COUNT_PROPERTY_NAME,
                 getLogfileCount()));
+
+        flightRecorderEnabled
+            = configService.getBoolean(
+                FLIGHT_RECORDER_ENABLED_PROPERTY_NAME,
+                flightRecorderEnabled);
+        flightRecorderMaxAge
+            = configService.getInt(
+                FLIGHT_RECORDER_MAX_AGE_PROPERTY_NAME,
+                flightRecorderMaxAge);
+        flightRecorderSipBufferSize
+            = configService.getInt(
+                FLIGHT_RECORDER_SIP_BUFFER_SIZE_PROPERTY_NAME,
+                flightRecorderSipBufferSize);
+        flightRecorderJabberBufferSize
+            = configService.getInt(
+                FLIGHT_RECORDER_JABBER_BUFFER_SIZE_PROPERTY_NAME,
+                flightRecorderJabberBufferSize);
+        flightRecorderIce4JBufferSize
+            = configService.getInt(
+                FLIGHT_RECORDER_ICE4J_BUFFER_SIZE_PROPERTY_NAME,
+                flightRecorderIce4JBufferSize);
+    }
+
+    /**
+     * Checks whether the flight recorder is enabled.
+     *
+     * @return <tt>true</tt> if the last packets are to be kept in memory so
+     * that they can be dumped when something goes wrong.
+     */
+    public boolean isFlightRecorderEnabled()
+    {
+        return flightRecorderEnabled;
+    }
+
+    /**
+     * Returns the maximum age of the packets kept by the flight recorder.
+     *
+     * @return the maximum age in milliseconds, 0 if unlimited.
+     */
+    public long getFlightRecorderMaxAge()
+    {
+        return flightRecorderMaxAge * 1000L;
+    }
+
+    /**
+     * Returns the size of the buffer the flight recorder keeps the packets
+     * of <tt>protocol</tt> in. Only SIP, Jabber and ICE packets are recorded.
+     *
+     * @param protocol the protocol.
+     * @return the size in bytes of the buffer, 0 if the packets of
+     * <tt>protocol</tt> are not recorded.
+     */
+    public int getFlightRecorderBufferSize(
+            PacketLoggingService.ProtocolName protocol)
+    {
+        switch(protocol)
+        {
+        case SIP:
+            return flightRecorderSipBufferSize;
+        case JABBER:
+            return flightRecorderJabberBufferSize;
+        case ICE4J:
+            return flightRecorderIce4JBufferSize;
+        default:
+            return 0;
+        }
     }
 
     /**
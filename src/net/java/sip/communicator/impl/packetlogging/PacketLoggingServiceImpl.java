@@ -19,6 +19,7 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import com.google.common.collect.*;
 import net.java.sip.communicator.util.*;
@@ -50,121 +51,66 @@
     private static final int EVICTING_QUEUE_MAX_SIZE = 1000;
 
     /**
-     * The OutputStream we are currently writing to.
+     * The size of the buffer packets are gathered in before being written
+     * to the file.
      */
-    private FileOutputStream outputStream = null;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
 
     /**
-     * The thread that queues packets and saves them to file.
-     */
-    private SaverThread saverThread = new SaverThread();
-
-    /**
-     * The current configuration.
+     * The writer of the file we are currently writing to, <tt>null</tt> until
+     * the first packet is saved.
      */
-    private PacketLoggingConfiguration packetLoggingConfiguration = null;
+    private PcapngWriter writer = null;
 
     /**
-     * The fake ethernet header we use as template.
+     * The names of the pcapng interfaces we create in every file, one per
+     * protocol, so that packets can be filtered by the protocol which logged
+     * them. The index of a name is the ordinal of its protocol.
      */
-    private final static byte[] fakeEthernetHeader =
-        new byte[]{
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00
-        };
-
-    /** IEEE 802.3 EtherType for IPv4 */
-    private final static byte[] ipv4EtherType =
-        new byte[] { 0x08, 0x00 };
-
-    /** IEEE 802.3 EtherType for IPv6 */
-    private final static byte[] ipv6EtherType =
-        new byte[] { (byte)0x86, (byte)0xdd };
+    static final String[] interfaceNames;
 
-    /**
-     * The fake ipv4 header we use as template.
-     */
-    private final static byte[] ipHeaderTemplate =
-        new byte[]{
-                (byte)0x45, (byte)0x00,
-                (byte)0x03, (byte)0x48, (byte)0xc9, (byte)0x14,
-                (byte)0x00, (byte)0x00, (byte)0x35,(byte)0x11,
-                (byte)0x00, (byte)0x00, // check sum
-                (byte)0xd5, (byte)0xc0, (byte)0x3b, (byte)0x4b,//src
-                (byte)0xc0, (byte)0xa8, (byte)0x00, (byte)0x34 //dst
-        };
+    static
+    {
+        ProtocolName[] protocols = ProtocolName.values();
 
-    /**
-     * The fake ipv6 header we use as template.
-     */
-    private final static byte[] ip6HeaderTemplate =
-        new byte[]{
-                (byte)0x60, (byte)0x00, (byte)0x00, (byte)0x00, // version, traffic, flowable
-                (byte)0x00, (byte)0x00, // length
-                (byte)0x11, // next header
-                (byte)0x40, // hop limit
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // src
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // src
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // src
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // src
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // dst
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // dst
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00, // dst
-                (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00 // dst
-        };
+        interfaceNames = new String[protocols.length];
+        for (int i = 0; i < protocols.length; i++)
+            interfaceNames[i] = protocols[i].name();
+    }
 
     /**
-     * The fake udp header we use as template.
+     * The thread that queues packets and saves them to file.
      */
-    private final static byte[] udpHeaderTemplate =
-        new byte[]{
-                (byte)0x13, (byte)0xc4,
-                (byte)0x13, (byte)0xc4,
-                (byte)0x03, (byte)0x34,
-                (byte)0x00, (byte)0x00// checksum
-
-        };
+    private SaverThread saverThread = new SaverThread();
 
     /**
-     * The fake tcp header we use as template.
+     * The current configuration.
      */
-    private final static byte[] tcpHeaderTemplate =
-            new byte[]{
-                (byte)0xb7, (byte)0x61, // src port
-                (byte)0x13, (byte)0xc4, // dst port
-                (byte)0x4f, (byte)0x20, (byte)0x37, (byte)0x3b, // seq number
-                (byte)0x11, (byte)0x1d, (byte)0xbc, (byte)0x54, // ack number
-                (byte)0x80, // header length
-                (byte)0x18, // flags
-                (byte)0x00, (byte)0x2e, // windows size
-                (byte)0xac, (byte)0x78, // check sum
-                (byte)0x00, (byte)0x00,
-                (byte)0x01, (byte)0x01, (byte)0x08, (byte)0x0a, // options
-                (byte)0x00, (byte)0x06, (byte)0xd4, (byte)0x48, // options
-                (byte)0x6e, (byte)0xcc, (byte)0x76, (byte)0xbd  // options
-            };
+    private PacketLoggingConfigurationImpl packetLoggingConfiguration = null;
 
     /**
-     * Using this object to lock and protectd the two counters
-     * used for tcp seq and ack numbers.
+     * The flight recorder keeping the last packets in memory, <tt>null</tt>
+     * if it is disabled.
      */
-    private Object tcpCounterLock = new Object();
+    private PacketFlightRecorder flightRecorder = null;
 
     /**
-     * The seq that the sender will send.
+     * Synthesizes the fake headers of the packets being saved. Only used by
+     * the saver thread, so that no headers are allocated per packet.
      */
-    private long srcCount = 1;
+    private final FrameHeaderBuilder frameHeaderBuilder
+        = new FrameHeaderBuilder();
 
     /**
-     * This is the ack number send from the sender.
+     * The number of packets written to the files.
      */
-    private long dstCount = 1;
+    private final AtomicLong writtenPackets = new AtomicLong();
 
     /**
-     * A counter watching how much has been written to the file.
+     * The number of packets which were dropped because the queue of the
+     * saver thread was full or because writing them failed.
      */
-    private long written = 0;
+    private final AtomicLong droppedPackets = new AtomicLong();
 
     /**
      * All the files we can use for writing.
@@ -177,9 +123,22 @@
      */
     public void start()
     {
+        if (getConfiguration().isFlightRecorderEnabled())
+            flightRecorder = new PacketFlightRecorder(getConfiguration());
+
         saverThread.start();
     }
 
+    /**
+     * Returns the flight recorder keeping the last packets in memory.
+     *
+     * @return the flight recorder, or <tt>null</tt> if it is disabled.
+     */
+    PacketFlightRecorder getFlightRecorder()
+    {
+        return flightRecorder;
+    }
+
     /**
      * Generates the files we will later use for writing.
      * @throws Exception
@@ -196,7 +155,7 @@ private void getFileNames()
                 = PacketLoggingActivator.getFileAccessService()
                     .getPrivatePersistentFile(
                         new File(PacketLoggingActivator.LOGGING_DIR_NAME,
-                            "jitsi" + i + ".pcap").toString(),
+                            "jitsi" + i + ".pcapng").toString(),
                         FileCategory.LOG);
         }
     }
@@ -209,11 +168,10 @@ private void getFileNames()
     private void rotateFiles()
         throws IOException
     {
-        if(outputStream != null)
-        {
-            outputStream.flush();
-            outputStream.close();
-        }
+        if(writer != null)
+            writer.close();
+        else
+            writer = new PcapngWriter(WRITE_BUFFER_SIZE);
 
         for (int i = getConfiguration().getLogfileCount() - 2; i >= 0; i--)
         {
@@ -228,9 +186,7 @@ private void rotateFiles()
             }
         }
 
-        outputStream = new FileOutputStream(files[0]);
-        written = 0;
-        createGlobalHeader();
+        writer.open(files[0], interfaceNames);
     }
 
     /**
@@ -240,68 +196,47 @@ public void stop()
     {
         saverThread.stopRunning();
 
-        if(outputStream != null)
+        synchronized(this)
         {
-            try
-            {
-                outputStream.flush();
-                outputStream.close();
-            }
-            catch(IOException e)
-            {
-                e.printStackTrace();
-            }
-            finally
+            if(writer != null)
             {
-                outputStream = null;
+                try
+                {
+                    writer.close();
+                }
+                catch(IOException e)
+                {
+                    logger.error("Error closing packet log file", e);
+                }
+                finally
+                {
+                    writer = null;
+                }
             }
         }
     }
 
     /**
-     * Creates pcap file global header.
-     * @throws IOException
+     * Returns the number of packets written to the packet log files since
+     * the service was started.
+     *
+     * @return the number of written packets.
+     */
+    public long getWrittenPacketCount()
+    {
+        return writtenPackets.get();
+    }
+
+    /**
+     * Returns the number of logged packets which never made it to the packet
+     * log files, because they were evicted from the queue of packets waiting
+     * to be saved or because saving them failed.
+     *
+     * @return the number of dropped packets.
      */
-    private void createGlobalHeader()
-            throws IOException
+    public long getDroppedPacketCount()
     {
-        /* magic number(swapped) */
-        outputStream.write(0xd4);
-        outputStream.write(0xc3);
-        outputStream.write(0xb2);
-        outputStream.write(0xa1);
-
-        /* major version number */
-        outputStream.write(0x02);
-        outputStream.write(0x00);
-
-        /* minor version number */
-        outputStream.write(0x04);
-        outputStream.write(0x00);
-
-        /* GMT to local correction */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* accuracy of timestamps */
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* max length of captured packets, in octets */
-        outputStream.write(0xff);
-        outputStream.write(0xff);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-
-        /* data link type(ethernet) */
-        outputStream.write(0x01);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
-        outputStream.write(0x00);
+        return droppedPackets.get();
     }
 
     /**
@@ -316,12 +251,31 @@ public boolean isLoggingEnabled()
 
     /**
      * Checks is logging globally enabled for and is it currently available for
-     * the given service.
+     * the given service. Logging is also reported enabled for the protocols
+     * the flight recorder records, so that their packets reach us. Neither
+     * happens while logging is globally disabled.
      *
      * @param protocol that is checked.
      * @return is logging enabled.
      */
     public boolean isLoggingEnabled(ProtocolName protocol)
+    {
+        PacketFlightRecorder flightRecorder = this.flightRecorder;
+
+        return
+            isSavingEnabled(protocol)
+                || (flightRecorder != null
+                    && flightRecorder.isRecording(protocol));
+    }
+
+    /**
+     * Checks is logging to file globally enabled for and is it currently
+     * available for the given service.
+     *
+     * @param protocol that is checked.
+     * @return is logging to file enabled.
+     */
+    private boolean isSavingEnabled(ProtocolName protocol)
     {
         PacketLoggingConfiguration cfg = getConfiguration();
 
@@ -403,6 +357,23 @@ public void logPacket(
             int packetOffset,
             int packetLength)
     {
+        PacketFlightRecorder flightRecorder = this.flightRecorder;
+
+        if (flightRecorder != null && flightRecorder.isRecording(protocol))
+        {
+            flightRecorder.record(
+                    protocol,
+                    sourceAddress, sourcePort,
+                    destinationAddress, destinationPort,
+                    transport,
+                    sender,
+                    packetContent, packetOffset, packetLength);
+
+            // recorded only, unless also logged to file
+            if (!isSavingEnabled(protocol))
+                return;
+        }
+
         saverThread.queuePacket(
             new Packet(protocol,
                        sourceAddress,
@@ -421,7 +392,7 @@ public void logPacket(
      *
      * @return the Packet Logging Configuration.
      */
-    public PacketLoggingConfiguration getConfiguration()
+    public PacketLoggingConfigurationImpl getConfiguration()
     {
         if(packetLoggingConfiguration == null)
             packetLoggingConfiguration = new PacketLoggingConfigurationImpl();
@@ -430,7 +401,8 @@ public PacketLoggingConfiguration getConfiguration()
     }
 
     /**
-     * Dump the packet to the output file stream.
+     * Dump the packet to the packet log file. The packet may stay in the
+     * buffer of the writer until {@link #flush()} is called.
      *
      * @param packet the packet ot save.
      * @throws Exception when error occurs saving to file stream or when
@@ -439,145 +411,18 @@ public PacketLoggingConfiguration getConfiguration()
     private void savePacket(Packet packet)
         throws Exception
     {
-        // if one of the addresses is ipv4 we are using ipv4,
-        // local udp addresses come as 0.0.0.0.0....0.0.0 when
-        // ipv6 is enabled in the underlying os
-        boolean isIPv4 = packet.sourceAddress.length == 4
-                || packet.destinationAddress.length == 4;
-
-        byte[] ipHeader;
-
-        if(isIPv4)
-        {
-            ipHeader = new byte[ipHeaderTemplate.length];
-            System.arraycopy(
-                    ipHeaderTemplate, 0, ipHeader, 0, ipHeader.length);
-            System.arraycopy(packet.sourceAddress,
-                    0,
-                    ipHeader,
-                    12,
-                    4);
-            System.arraycopy(packet.destinationAddress,
-                    0,
-                    ipHeader,
-                    16,
-                    4);
-        }
-        else
-        {
-            ipHeader = new byte[ip6HeaderTemplate.length];
-            System.arraycopy(
-                    ip6HeaderTemplate, 0, ipHeader, 0, ipHeader.length);
-            System.arraycopy(packet.sourceAddress,
-                    0,
-                    ipHeader,
-                    8,
-                    16);
-
-            System.arraycopy(packet.destinationAddress,
-                    0,
-                    ipHeader,
-                    24,
-                    16);
-        }
-
-        byte[] transportHeader;
-        short len;
-        if(packet.transport == TransportName.UDP)
-        {
-            byte[] udpHeader = new byte[udpHeaderTemplate.length];
-            transportHeader = udpHeader;
-            System.arraycopy(udpHeaderTemplate, 0,
-                    udpHeader, 0, udpHeader.length);
-
-            writeShort(packet.sourcePort, udpHeader, 0);
-            writeShort(packet.destinationPort, udpHeader, 2);
-            len = (short)(packet.packetLength + udpHeader.length);
-            writeShort(len, udpHeader, 4);
-        }
-        else
-        {
-            transportHeader = new byte[tcpHeaderTemplate.length];
-            System.arraycopy(tcpHeaderTemplate, 0, transportHeader,
-                   0, transportHeader.length);
-
-            writeShort(packet.sourcePort, transportHeader, 0);
-            writeShort(packet.destinationPort, transportHeader, 2);
-
-            len = (short)(packet.packetLength + transportHeader.length);
-
-            if(packet.sender)
-            {
-                long seqnum;
-                long acknum;
-                synchronized(tcpCounterLock)
-                {
-                    seqnum = srcCount;
-                    srcCount += packet.packetLength;
-                    acknum = dstCount;
-                }
-
-                intToBytes((int)(seqnum & 0xffffffff),
-                       transportHeader, 4);
-                intToBytes((int)(acknum & 0xffffffff),
-                       transportHeader, 8);
-            }
-            else
-            {
-                long seqnum;
-                long acknum;
-                synchronized(tcpCounterLock)
-                {
-                    seqnum = dstCount;
-                    dstCount += packet.packetLength;
-                    acknum = srcCount;
-                }
-
-                intToBytes((int)(seqnum & 0xffffffff),
-                       transportHeader, 4);
-                intToBytes((int)(acknum & 0xffffffff),
-                       transportHeader, 8);
-            }
-        }
-
-        // now set ip header total length
-        if(isIPv4)
-        {
-            short ipTotalLen = (short)(len + ipHeader.length);
-            writeShort(ipTotalLen, ipHeader, 2);
-
-            if(packet.transport == TransportName.UDP)
-                ipHeader[9] = (byte)0x11;
-            else
-                ipHeader[9] = (byte)0x06;
-
-           int chk2 = computeChecksum(ipHeader);
-           ipHeader[10] = (byte) (chk2 >> 8);
-           ipHeader[11] = (byte) (chk2 & 0xff);
-        }
-        else
-        {
-            writeShort(len, ipHeader, 4);
-
-            if(packet.transport == TransportName.UDP)
-                ipHeader[6] = (byte)0x11;
-            else
-                ipHeader[6] = (byte)0x06;
-        }
-
-        long current = System.currentTimeMillis();
-        int tsSec = (int)(current/1000);
-        int tsUsec = (int)((current%1000) * 1000);
-        int feakHeaderLen = fakeEthernetHeader.length +
-                (isIPv4 ? ipv4EtherType : ipv6EtherType).length +
-                ipHeader.length + transportHeader.length;
-        int inclLen = packet.packetLength + feakHeaderLen;
-        int origLen = inclLen;
+        int headerLength
+            = frameHeaderBuilder.build(
+                    packet.sourceAddress, packet.sourcePort,
+                    packet.destinationAddress, packet.destinationPort,
+                    packet.transport,
+                    packet.sender,
+                    packet.packetLength);
 
         synchronized(this)
         {
             // open files only if needed
-            if(outputStream == null)
+            if(writer == null)
             {
                 getFileNames();
                 rotateFiles();// this one opens the file for write
@@ -585,95 +430,32 @@ private void savePacket(Packet packet)
 
             long limit = getConfiguration().getLimit();
 
-            if((limit > 0) && (written > limit))
+            if((limit > 0) && (writer.size() > limit))
                 rotateFiles();
 
-            addInt(tsSec);
-            addInt(tsUsec);
-            addInt(inclLen);
-            addInt(origLen);
-
-            outputStream.write(fakeEthernetHeader);
-            outputStream.write(isIPv4 ? ipv4EtherType : ipv6EtherType);
-            outputStream.write(ipHeader);
-            outputStream.write(transportHeader);
-            outputStream.write(
+            writer.writePacket(
+                    packet.protocol.ordinal(),
+                    packet.timestamp,
+                    frameHeaderBuilder.getHeader(),
+                    headerLength,
                     packet.packetContent,
                     packet.packetOffset,
                     packet.packetLength);
-            outputStream.flush();
-
-            written += inclLen + 16;
         }
-    }
 
-    /**
-     * Writes int to the file. Used for packet headers.
-     * @param d the value to write.
-     * @throws IOException
-     */
-    private void addInt(int d)
-        throws IOException
-    {
-        outputStream.write ((d & 0xff));
-        outputStream.write(((d & 0xff00) >> 8));
-        outputStream.write(((d & 0xff0000) >> 16));
-        outputStream.write(((d & 0xff000000) >> 24));
+        writtenPackets.incrementAndGet();
     }
 
     /**
-     * Converts a 32-bit word representation of an IPv4 address to a
-     * byte array.
+     * Writes the packets saved so far to the file.
      *
-     * @param address The 32-bit word representation of the IPv4 address.
-     * @param data The byte array in which to store the IPv4 data.
-     * @param offset The offset into the array where the data start.
-     */
-    private static final void intToBytes(int address, byte[] data,
-                                       int offset)
-    {
-        data[offset] = (byte)(0xff & (address >>> 24));
-        data[offset + 1] = (byte)(0xff & (address >>> 16));
-        data[offset + 2] = (byte)(0xff & (address >>> 8));
-        data[offset + 3] = (byte)(0xff & address);
-    }
-
-    /**
-     * Puts the short value to the array.
-     * @param value value to convert to bytes.
-     * @param data destination data
-     * @param offset offset in the data
+     * @throws IOException if writing fails.
      */
-    private static void writeShort(int value, byte[] data, int offset)
-    {
-        data[offset] = (byte) (value >> 8);
-        data[offset + 1] = (byte) value;
-    }
-
-    /**
-     * Calculates checksums assuming the checksum is a 16-bit header field.
-     */
-    private int computeChecksum(byte[] data)
+    private synchronized void flush()
+        throws IOException
     {
-        int total = 0;
-        int i = 0;
-
-        // Don't Skip existing checksum cause its set to 0000
-        int imax = data.length - (data.length % 2);
-
-        while(i < imax)
-            total+=(((data[i++] & 0xff) << 8) | (data[i++] & 0xff));
-
-        if(i < data.length)
-            total+=((data[i] & 0xff) << 8);
-
-        // Fold to 16 bits
-        while((total & 0xffff0000) != 0)
-            total = (total & 0xffff) + (total >>> 16);
-
-        total = (~total & 0xffff);
-
-        return total;
+        if(writer != null)
+            writer.flush();
     }
 
     /**
@@ -731,6 +513,12 @@ private int computeChecksum(byte[] data)
          */
         int packetLength;
 
+        /**
+         * The time the packet was logged, in milliseconds since the epoch.
+         * Taken when the packet is queued as it may be saved much later.
+         */
+        long timestamp;
+
         /**
          * Creates a packet with the needed data.
          * @param protocol the source protocol that logs this packet.
@@ -767,6 +555,7 @@ private Packet(ProtocolName protocol,
             this.packetContent = packetContent;
             this.packetOffset = packetOffset;
             this.packetLength = packetLength;
+            this.timestamp = System.currentTimeMillis();
         }
     }
 
@@ -788,6 +577,19 @@ private Packet(ProtocolName protocol,
         private final EvictingQueue<Packet> pktsToSave
             = EvictingQueue.create(EVICTING_QUEUE_MAX_SIZE);
 
+        /**
+         * The packets taken from {@link #pktsToSave} and being written. Only
+         * used by this thread.
+         */
+        private final List<Packet> batch
+            = new ArrayList<Packet>(EVICTING_QUEUE_MAX_SIZE);
+
+        /**
+         * Whether packets have been evicted since the queue was last drained,
+         * so that we warn once per overflow and not once per packet.
+         */
+        private boolean evicting = false;
+
         /**
          * Initializes a new <tt>SaverThread</tt>.
          */
@@ -797,8 +599,9 @@ private Packet(ProtocolName protocol,
         }
 
         /**
-         * Sends instant messages in separate thread so we don't block
-         * our calling thread.
+         * Saves the queued packets in separate thread so we don't block
+         * our calling thread. All the packets queued while a batch is being
+         * written are taken at once and written with a single flush.
          */
         @Override
         public void run()
@@ -806,8 +609,6 @@ public void run()
             stopped = false;
             while(!stopped)
             {
-                Packet pktToSave;
-
                 synchronized(this)
                 {
                     if(pktsToSave.isEmpty())
@@ -822,26 +623,42 @@ public void run()
                         continue;
                     }
 
-                    pktToSave = pktsToSave.poll();
+                    batch.addAll(pktsToSave);
+                    pktsToSave.clear();
+                    evicting = false;
                 }
 
-                if(pktToSave != null)
+                try
                 {
-                    try
+                    for (int i = 0; i < batch.size(); i++)
                     {
-                        savePacket(pktToSave);
-                    }
-                    catch(Throwable t)
-                    {
-                        /*
-                         * XXX ThreadDeath must be rethrown; otherwise, the
-                         * related Thread will not die.
-                         */
-                        if (t instanceof ThreadDeath)
-                            throw (ThreadDeath) t;
-                        else
+                        try
+                        {
+                            savePacket(batch.get(i));
+                        }
+                        catch(Throwable t)
+                        {
+                            /*
+                             * XXX ThreadDeath must be rethrown; otherwise, the
+                             * related Thread will not die.
+                             */
+                            if (t instanceof ThreadDeath)
+                                throw (ThreadDeath) t;
+
+                            droppedPackets.incrementAndGet();
                             logger.error("Error writing packet to file", t);
+                        }
                     }
+
+                    flush();
+                }
+                catch(IOException ioe)
+                {
+                    logger.error("Error writing packets to file", ioe);
+                }
+                finally
+                {
+                    batch.clear();
                 }
             }
         }
@@ -861,9 +678,14 @@ public synchronized void stopRunning()
          */
         public synchronized void queuePacket(Packet packet)
         {
-            if (EVICTING_QUEUE_MAX_SIZE - pktsToSave.size() == 0)
+            if (pktsToSave.size() == EVICTING_QUEUE_MAX_SIZE)
             {
-                logger.warn("Queue is full, packets are being evicted.");
+                droppedPackets.incrementAndGet();
+                if (!evicting)
+                {
+                    evicting = true;
+                    logger.warn("Queue is full, packets are being evicted.");
+                }
             }
 
             pktsToSave.add(packet);
@@ -0,0 +1,350 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Keeps the most recent packets in a fixed size buffer allocated outside of
+ * the heap once. Adding a packet copies it into the buffer, evicting the
+ * oldest packets when there is no room left, and never allocates. Packets
+ * older than the maximum age are evicted as well, so the buffer holds at
+ * most the last <tt>maxAge</tt> milliseconds of traffic.
+ * <p>
+ * Each packet is stored as a record which is never split across the end of
+ * the buffer: the length of the record, the timestamp, a flags byte, the
+ * lengths of the two addresses, the two ports, the addresses and the
+ * content. When a record doesn't fit before the end of the buffer, a wrap
+ * marker is left (if there is room for it) and the record is stored at the
+ * start.
+ */
+class PacketRingBuffer
+{
+    /**
+     * The length of the fixed part of a record.
+     */
+    private static final int RECORD_HEADER_LENGTH = 19;
+
+    /**
+     * The value stored instead of a record length to tell that the next
+     * record is at the start of the buffer.
+     */
+    private static final int WRAP_MARKER = -1;
+
+    /**
+     * The flag telling the packet was sent by us.
+     */
+    private static final int FLAG_SENDER = 1;
+
+    /**
+     * The flag telling the packet was sent over tcp.
+     */
+    private static final int FLAG_TCP = 2;
+
+    /**
+     * The buffer the records are stored in.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The capacity of {@link #buffer}.
+     */
+    private final int capacity;
+
+    /**
+     * The maximum age of the packets we keep, in milliseconds, or 0 to keep
+     * them until there is no room left.
+     */
+    private final long maxAge;
+
+    /**
+     * The position of the oldest record.
+     */
+    private int head = 0;
+
+    /**
+     * The position the next record will be stored at.
+     */
+    private int tail = 0;
+
+    /**
+     * The number of records in the buffer.
+     */
+    private int count = 0;
+
+    /**
+     * Creates a buffer.
+     *
+     * @param capacity the number of bytes to allocate.
+     * @param maxAge the maximum age of the packets to keep in milliseconds,
+     * 0 to keep packets as long as there is room for them.
+     */
+    PacketRingBuffer(int capacity, long maxAge)
+    {
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.capacity = capacity;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Stores a packet, evicting older packets if needed. Packets which
+     * wouldn't fit in the whole buffer are not stored.
+     *
+     * @param timestamp the time the packet was seen in milliseconds.
+     * @param sourceAddress the source address of the packet.
+     * @param sourcePort the source port of the packet.
+     * @param destinationAddress the destination address.
+     * @param destinationPort the destination port.
+     * @param tcp whether the packet was sent over tcp.
+     * @param sender are we the sender of the packet or not.
+     * @param content the packet content.
+     * @param offset the packet content offset.
+     * @param length the packet content length.
+     * @return <tt>true</tt> if the packet was stored.
+     */
+    synchronized boolean add(
+            long timestamp,
+            byte[] sourceAddress, int sourcePort,
+            byte[] destinationAddress, int destinationPort,
+            boolean tcp,
+            boolean sender,
+            byte[] content, int offset, int length)
+    {
+        int recordLength
+            = RECORD_HEADER_LENGTH
+                + sourceAddress.length
+                + destinationAddress.length
+                + length;
+
+        if (recordLength > capacity)
+            return false;
+
+        evictExpired(timestamp);
+        makeRoom(recordLength);
+
+        int flags = (sender ? FLAG_SENDER : 0) | (tcp ? FLAG_TCP : 0);
+        int pos = tail;
+
+        buffer.putInt(pos, recordLength);
+        buffer.putLong(pos + 4, timestamp);
+        buffer.put(pos + 12, (byte) flags);
+        buffer.put(pos + 13, (byte) sourceAddress.length);
+        buffer.put(pos + 14, (byte) destinationAddress.length);
+        buffer.putShort(pos + 15, (short) sourcePort);
+        buffer.putShort(pos + 17, (short) destinationPort);
+
+        buffer.position(pos + RECORD_HEADER_LENGTH);
+        buffer.put(sourceAddress);
+        buffer.put(destinationAddress);
+        buffer.put(content, offset, length);
+        buffer.clear();
+
+        tail = pos + recordLength;
+        count++;
+        return true;
+    }
+
+    /**
+     * Returns copies of the packets in the buffer which are not older than
+     * the maximum age, oldest first.
+     *
+     * @param now the current time in milliseconds.
+     * @return the packets in the buffer.
+     */
+    synchronized List<RecordedPacket> snapshot(long now)
+    {
+        evictExpired(now);
+
+        List<RecordedPacket> packets = new ArrayList<RecordedPacket>(count);
+        int pos = head;
+
+        for (int i = 0; i < count; i++)
+        {
+            pos = skipWrap(pos);
+
+            int recordLength = buffer.getInt(pos);
+            int flags = buffer.get(pos + 12);
+            byte[] src = new byte[buffer.get(pos + 13)];
+            byte[] dst = new byte[buffer.get(pos + 14)];
+            byte[] content
+                = new byte[
+                        recordLength
+                            - RECORD_HEADER_LENGTH
+                            - src.length
+                            - dst.length];
+            RecordedPacket packet
+                = new RecordedPacket(
+                        buffer.getLong(pos + 4),
+                        src, buffer.getShort(pos + 15) & 0xffff,
+                        dst, buffer.getShort(pos + 17) & 0xffff,
+                        (flags & FLAG_TCP) != 0,
+                        (flags & FLAG_SENDER) != 0,
+                        content);
+
+            buffer.position(pos + RECORD_HEADER_LENGTH);
+            buffer.get(src);
+            buffer.get(dst);
+            buffer.get(content);
+            buffer.clear();
+
+            packets.add(packet);
+            pos += recordLength;
+        }
+        return packets;
+    }
+
+    /**
+     * Returns the number of packets in the buffer.
+     *
+     * @return the number of packets in the buffer.
+     */
+    synchronized int size()
+    {
+        return count;
+    }
+
+    /**
+     * Moves {@link #tail} so that there are <tt>recordLength</tt> contiguous
+     * free bytes at it, evicting the records in the way.
+     */
+    private void makeRoom(int recordLength)
+    {
+        if (count == 0)
+            head = tail = 0;
+
+        if (tail + recordLength > capacity)
+        {
+            // the records between the tail and the end are in the way of the
+            // wrap marker
+            while (count > 0 && head >= tail)
+                evictOldest();
+            if (capacity - tail >= 4)
+                buffer.putInt(tail, WRAP_MARKER);
+            tail = 0;
+        }
+
+        while (count > 0 && head >= tail && head < tail + recordLength)
+            evictOldest();
+        if (count == 0)
+            head = tail;
+    }
+
+    /**
+     * Evicts the records older than the maximum age.
+     */
+    private void evictExpired(long now)
+    {
+        if (maxAge <= 0)
+            return;
+
+        long oldest = now - maxAge;
+
+        while (count > 0 && buffer.getLong(head + 4) < oldest)
+            evictOldest();
+    }
+
+    /**
+     * Evicts the oldest record.
+     */
+    private void evictOldest()
+    {
+        head += buffer.getInt(head);
+        count--;
+        if (count > 0)
+            head = skipWrap(head);
+    }
+
+    /**
+     * Returns the position of the record at <tt>pos</tt>, i.e. 0 if the
+     * record at <tt>pos</tt> was stored at the start of the buffer.
+     */
+    private int skipWrap(int pos)
+    {
+        if (capacity - pos < 4 || buffer.getInt(pos) == WRAP_MARKER)
+            return 0;
+        return pos;
+    }
+
+    /**
+     * A packet copied out of a <tt>PacketRingBuffer</tt>.
+     */
+    static class RecordedPacket
+    {
+        /**
+         * The time the packet was seen in milliseconds.
+         */
+        final long timestamp;
+
+        /**
+         * The source address of the packet.
+         */
+        final byte[] sourceAddress;
+
+        /**
+         * The source port of the packet.
+         */
+        final int sourcePort;
+
+        /**
+         * The destination address of the packet.
+         */
+        final byte[] destinationAddress;
+
+        /**
+         * The destination port of the packet.
+         */
+        final int destinationPort;
+
+        /**
+         * Whether the packet was sent over tcp.
+         */
+        final boolean tcp;
+
+        /**
+         * Are we the sender of the packet or not.
+         */
+        final boolean sender;
+
+        /**
+         * The packet content.
+         */
+        final byte[] content;
+
+        /**
+         * Creates a packet.
+         */
+        RecordedPacket(
+                long timestamp,
+                byte[] sourceAddress, int sourcePort,
+                byte[] destinationAddress, int destinationPort,
+                boolean tcp,
+                boolean sender,
+                byte[] content)
+        {
+            this.timestamp = timestamp;
+            this.sourceAddress = sourceAddress;
+            this.sourcePort = sourcePort;
+            this.destinationAddress = destinationAddress;
+            this.destinationPort = destinationPort;
+            this.tcp = tcp;
+            this.sender = sender;
+            this.content = content;
+        }
+    }
+}
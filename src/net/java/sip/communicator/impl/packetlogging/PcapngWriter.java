@@ -0,0 +1,357 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+/**
+ * Writes packets to a file in pcapng format through a <tt>FileChannel</tt>.
+ * Blocks are assembled in a direct buffer and only reach the file when the
+ * buffer is full or {@link #flush()} is called, so that a batch of packets
+ * costs a single system call. Every file starts with a section header followed
+ * by one interface description per interface name given to
+ * {@link #open(File, String[])}; packets refer to their interface by index.
+ * <p>
+ * Not thread-safe, the caller is expected to serialize access.
+ */
+class PcapngWriter
+{
+    /**
+     * The type of the Section Header Block.
+     */
+    private static final int SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+
+    /**
+     * The type of the Interface Description Block.
+     */
+    private static final int INTERFACE_DESCRIPTION_BLOCK = 0x00000001;
+
+    /**
+     * The type of the Enhanced Packet Block.
+     */
+    private static final int ENHANCED_PACKET_BLOCK = 0x00000006;
+
+    /**
+     * The magic number telling readers the byte order of the section.
+     */
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+    /**
+     * The link type of the interfaces, ethernet.
+     */
+    private static final short LINKTYPE_ETHERNET = 1;
+
+    /**
+     * The option code of a comment.
+     */
+    private static final short OPT_COMMENT = 1;
+
+    /**
+     * The option code of the name of the application writing the section.
+     */
+    private static final short SHB_USERAPPL = 4;
+
+    /**
+     * The option code of the name of an interface.
+     */
+    private static final short IF_NAME = 2;
+
+    /**
+     * The length of an Enhanced Packet Block without its data and options.
+     */
+    private static final int ENHANCED_PACKET_BLOCK_OVERHEAD = 32;
+
+    /**
+     * The name of the application we record in the section header.
+     */
+    private static final String APPLICATION_NAME = "Jitsi";
+
+    /**
+     * The buffer blocks are assembled in.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The channel of the file currently written, <tt>null</tt> when closed.
+     */
+    private FileChannel channel;
+
+    /**
+     * The number of bytes written to the current file, including the ones
+     * still waiting in {@link #buffer}.
+     */
+    private long size;
+
+    /**
+     * Creates a writer.
+     *
+     * @param bufferSize the size of the buffer blocks are gathered in before
+     * being written to the file.
+     */
+    PcapngWriter(int bufferSize)
+    {
+        buffer = ByteBuffer.allocateDirect(bufferSize)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates or truncates <tt>file</tt> and writes the section header and
+     * the interface descriptions to it. Closes the previously open file.
+     *
+     * @param file the file to write to.
+     * @param interfaceNames the names of the interfaces packets may be
+     * written to, in the order of their index.
+     * @throws IOException if the file cannot be opened or written.
+     */
+    void open(File file, String[] interfaceNames)
+        throws IOException
+    {
+        open(file, interfaceNames, null);
+    }
+
+    /**
+     * Creates or truncates <tt>file</tt> and writes the section header,
+     * carrying <tt>comment</tt>, and the interface descriptions to it. Closes
+     * the previously open file.
+     *
+     * @param file the file to write to.
+     * @param interfaceNames the names of the interfaces packets may be
+     * written to, in the order of their index.
+     * @param comment the comment of the section, or <tt>null</tt>.
+     * @throws IOException if the file cannot be opened or written.
+     */
+    void open(File file, String[] interfaceNames, String comment)
+        throws IOException
+    {
+        close();
+
+        channel = new FileOutputStream(file).getChannel();
+        size = 0;
+
+        byte[] appl = APPLICATION_NAME.getBytes(StandardCharsets.UTF_8);
+        byte[] commentBytes
+            = (comment == null)
+                ? null
+                : comment.getBytes(StandardCharsets.UTF_8);
+        int shbLength = 24 + optionLength(appl.length) + 8;
+
+        if (commentBytes != null)
+            shbLength += optionLength(commentBytes.length);
+
+        ensureRoom(shbLength);
+        buffer.putInt(SECTION_HEADER_BLOCK);
+        buffer.putInt(shbLength);
+        buffer.putInt(BYTE_ORDER_MAGIC);
+        buffer.putShort((short) 1); // major version
+        buffer.putShort((short) 0); // minor version
+        buffer.putLong(-1L); // section length, unspecified
+        if (commentBytes != null)
+            putOption(OPT_COMMENT, commentBytes);
+        putOption(SHB_USERAPPL, appl);
+        buffer.putInt(0); // opt_endofopt
+        buffer.putInt(shbLength);
+        size += shbLength;
+
+        for (String interfaceName : interfaceNames)
+        {
+            byte[] name = interfaceName.getBytes(StandardCharsets.UTF_8);
+            int idbLength = 16 + optionLength(name.length) + 8;
+
+            ensureRoom(idbLength);
+            buffer.putInt(INTERFACE_DESCRIPTION_BLOCK);
+            buffer.putInt(idbLength);
+            buffer.putShort(LINKTYPE_ETHERNET);
+            buffer.putShort((short) 0); // reserved
+            buffer.putInt(0); // snap length, unlimited
+            putOption(IF_NAME, name);
+            buffer.putInt(0); // opt_endofopt
+            buffer.putInt(idbLength);
+            size += idbLength;
+        }
+    }
+
+    /**
+     * Appends a packet made of the synthesized <tt>header</tt> followed by
+     * <tt>content</tt>.
+     *
+     * @param interfaceId the index of the interface the packet belongs to.
+     * @param timestamp the time the packet was seen, in milliseconds since
+     * the epoch.
+     * @param header the array holding the link, network and transport
+     * headers of the packet.
+     * @param headerLength the number of bytes of <tt>header</tt> to write.
+     * @param content the array holding the payload of the packet.
+     * @param offset the offset of the payload in <tt>content</tt>.
+     * @param length the length of the payload.
+     * @throws IOException if writing to the file fails.
+     */
+    void writePacket(
+            int interfaceId,
+            long timestamp,
+            byte[] header, int headerLength,
+            byte[] content, int offset, int length)
+        throws IOException
+    {
+        int packetLength = headerLength + length;
+        int padding = (4 - (packetLength & 3)) & 3;
+        int blockLength
+            = ENHANCED_PACKET_BLOCK_OVERHEAD + packetLength + padding;
+        long micros = timestamp * 1000L;
+
+        ensureRoom(28 + headerLength);
+        buffer.putInt(ENHANCED_PACKET_BLOCK);
+        buffer.putInt(blockLength);
+        buffer.putInt(interfaceId);
+        buffer.putInt((int) (micros >>> 32));
+        buffer.putInt((int) micros);
+        buffer.putInt(packetLength); // captured length
+        buffer.putInt(packetLength); // original length
+        buffer.put(header, 0, headerLength);
+
+        put(content, offset, length);
+
+        ensureRoom(padding + 4);
+        for (int i = 0; i < padding; i++)
+            buffer.put((byte) 0);
+        buffer.putInt(blockLength);
+
+        size += blockLength;
+    }
+
+    /**
+     * Returns the number of bytes written to the current file so far,
+     * including the ones not yet flushed.
+     *
+     * @return the size of the current file.
+     */
+    long size()
+    {
+        return size;
+    }
+
+    /**
+     * Writes the buffered blocks to the file.
+     *
+     * @throws IOException if writing to the file fails.
+     */
+    void flush()
+        throws IOException
+    {
+        if (channel == null)
+        {
+            buffer.clear();
+            return;
+        }
+
+        buffer.flip();
+        try
+        {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        finally
+        {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Flushes and closes the current file, if any.
+     *
+     * @throws IOException if flushing or closing fails.
+     */
+    void close()
+        throws IOException
+    {
+        if (channel == null)
+            return;
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Copies <tt>length</tt> bytes into the buffer, writing the buffer out
+     * as many times as needed. Payloads larger than the buffer go straight to
+     * the channel.
+     */
+    private void put(byte[] data, int offset, int length)
+        throws IOException
+    {
+        if (length <= buffer.remaining())
+        {
+            buffer.put(data, offset, length);
+            return;
+        }
+
+        flush();
+        if (length <= buffer.remaining())
+        {
+            buffer.put(data, offset, length);
+        }
+        else
+        {
+            ByteBuffer src = ByteBuffer.wrap(data, offset, length);
+
+            while (src.hasRemaining())
+                channel.write(src);
+        }
+    }
+
+    /**
+     * Makes sure the buffer has room for <tt>length</tt> more bytes. All
+     * callers ask for a small, bounded amount.
+     */
+    private void ensureRoom(int length)
+        throws IOException
+    {
+        if (buffer.remaining() < length)
+            flush();
+    }
+
+    /**
+     * Appends an option with its value padded to 32 bits.
+     */
+    private void putOption(short code, byte[] value)
+    {
+        buffer.putShort(code);
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+        for (int i = value.length; (i & 3) != 0; i++)
+            buffer.put((byte) 0);
+    }
+
+    /**
+     * Returns the number of bytes an option with a value of
+     * <tt>valueLength</tt> bytes takes.
+     */
+    private static int optionLength(int valueLength)
+    {
+        return 4 + ((valueLength + 3) & ~3);
+    }
+}
@@ -0,0 +1,724 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+import net.java.sip.communicator.util.*;
+
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smackx.packet.*;
+
+/**
+ * Retrieves the avatars of the contacts of a jabber account. A bounded
+ * number of vCard requests are kept in flight at a time. Contacts whose image
+ * has been asked for by the user interface, and are therefore visible, are
+ * served first and the most recent requests before older ones. Avatar updates
+ * announced through XEP-0153 presence photo hashes are skipped when the hash
+ * matches the current image, and share the result of a single request when
+ * several contacts announce the same hash. Retrieved avatars are delivered to
+ * the contact list in batches.
+ */
+class AvatarRetriever
+{
+    /**
+     * The logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(AvatarRetriever.class);
+
+    /**
+     * The name of the property that holds the maximum number of vCard
+     * requests for avatars that are in flight at the same time.
+     */
+    static final String MAX_CONCURRENT_RETRIEVALS_PNAME
+        = "net.java.sip.communicator.impl.protocol.jabber"
+            + ".MAX_CONCURRENT_AVATAR_RETRIEVALS";
+
+    /**
+     * The default maximum number of concurrent vCard requests for avatars.
+     */
+    static final int DEFAULT_MAX_CONCURRENT_RETRIEVALS = 4;
+
+    /**
+     * The time in milliseconds during which retrieved avatars are collected
+     * before they are delivered to the contact list.
+     */
+    private static final long DELIVERY_INTERVAL = 250;
+
+    /**
+     * The maximum number of avatars kept by their photo hash, so that
+     * contacts announcing a hash we already know do not need a request.
+     */
+    private static final int MAX_CACHED_AVATARS = 256;
+
+    /**
+     * The priority of requests for contacts shown in the user interface.
+     */
+    private static final int PRIORITY_VISIBLE = 0;
+
+    /**
+     * The priority of requests triggered by a presence photo hash.
+     */
+    private static final int PRIORITY_PRESENCE = 1;
+
+    /**
+     * The contact list whose contacts' avatars we retrieve.
+     */
+    private final ServerStoredContactListJabberImpl ssclCallback;
+
+    /**
+     * The operation set that dispatches the property change events.
+     */
+    private final OperationSetPersistentPresenceJabberImpl parentOperationSet;
+
+    /**
+     * Retrieves the vCard details of contacts.
+     */
+    private final InfoRetreiver infoRetreiver;
+
+    /**
+     * Runs the vCard requests.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The requests which are queued or in flight, mapped by the lower case
+     * address of their contact.
+     */
+    private final Map<String, Request> requests
+        = new HashMap<String, Request>();
+
+    /**
+     * The contacts waiting for the request of another contact which
+     * announced the same photo hash, mapped by that hash.
+     */
+    private final Map<String, List<ContactJabberImpl>> hashWaiters
+        = new HashMap<String, List<ContactJabberImpl>>();
+
+    /**
+     * Recently retrieved avatars mapped by their photo hash.
+     */
+    private final Map<String, byte[]> avatarsByHash
+        = new LinkedHashMap<String, byte[]>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> e)
+            {
+                return size() > MAX_CACHED_AVATARS;
+            }
+        };
+
+    /**
+     * The avatar changes waiting to be delivered, mapped by their contact.
+     */
+    private final Map<ContactJabberImpl, byte[][]> deliveries
+        = new LinkedHashMap<ContactJabberImpl, byte[][]>();
+
+    /**
+     * The timer delivering the avatar changes.
+     */
+    private final Timer deliveryTimer
+        = new Timer("Jabber avatar delivery", true);
+
+    /**
+     * Orders requests of the same priority.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Whether requests are being executed.
+     */
+    private boolean started = false;
+
+    /**
+     * Whether we have been stopped.
+     */
+    private boolean stopped = false;
+
+    /**
+     * Creates an avatar retriever.
+     *
+     * @param ssclCallback the contact list whose contacts' avatars we
+     * retrieve.
+     * @param parentOperationSet the operation set that dispatches the property
+     * change events.
+     * @param infoRetreiver retrieves the vCard details of contacts.
+     */
+    AvatarRetriever(
+        ServerStoredContactListJabberImpl ssclCallback,
+        OperationSetPersistentPresenceJabberImpl parentOperationSet,
+        InfoRetreiver infoRetreiver)
+    {
+        this.ssclCallback = ssclCallback;
+        this.parentOperationSet = parentOperationSet;
+        this.infoRetreiver = infoRetreiver;
+
+        int maxConcurrent
+            = JabberActivator.getConfigurationService().getInt(
+                    MAX_CONCURRENT_RETRIEVALS_PNAME,
+                    DEFAULT_MAX_CONCURRENT_RETRIEVALS);
+        maxConcurrent = Math.max(1, maxConcurrent);
+
+        executor
+            = new ThreadPoolExecutor(
+                    maxConcurrent, maxConcurrent,
+                    30, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(),
+                    new ThreadFactory()
+                    {
+                        private final AtomicInteger count
+                            = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t
+                                = new Thread(
+                                        r,
+                                        "AvatarRetriever-"
+                                            + count.incrementAndGet());
+
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts executing the requests queued so far and any following ones.
+     */
+    void start()
+    {
+        synchronized (requests)
+        {
+            if (started || stopped)
+                return;
+
+            started = true;
+
+            for (Request request : requests.values())
+                executor.execute(request);
+        }
+    }
+
+    /**
+     * Stops retrieving avatars. Requests in flight are abandoned.
+     */
+    void quit()
+    {
+        synchronized (requests)
+        {
+            stopped = true;
+            requests.clear();
+            hashWaiters.clear();
+        }
+
+        executor.shutdownNow();
+        deliveryTimer.cancel();
+    }
+
+    /**
+     * Queues the retrieval of the avatar of a contact shown in the user
+     * interface.
+     *
+     * @param contact the contact.
+     */
+    void addContact(ContactJabberImpl contact)
+    {
+        queue(contact, null, PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Handles the XEP-0153 photo hash announced in a presence of a contact.
+     *
+     * @param contact the contact.
+     * @param photoHash the announced SHA-1 hash of the avatar, empty if the
+     * contact has no avatar.
+     */
+    void photoHashReceived(ContactJabberImpl contact, String photoHash)
+    {
+        byte[] currentAvatar = contact.getImage(false);
+
+        if (photoHash.equals(
+                VCardTempXUpdatePresenceExtension.getImageSha1(currentAvatar)))
+            return;
+
+        if (photoHash.length() == 0)
+        {
+            deliver(contact, new byte[0]);
+            return;
+        }
+
+        byte[] knownAvatar;
+
+        synchronized (avatarsByHash)
+        {
+            knownAvatar = avatarsByHash.get(photoHash);
+        }
+        if (knownAvatar != null)
+        {
+            deliver(contact, knownAvatar);
+            return;
+        }
+
+        synchronized (requests)
+        {
+            List<ContactJabberImpl> waiters = hashWaiters.get(photoHash);
+
+            if (waiters != null)
+            {
+                if (!waiters.contains(contact))
+                    waiters.add(contact);
+                return;
+            }
+
+            hashWaiters.put(photoHash, new ArrayList<ContactJabberImpl>());
+        }
+
+        queue(contact, photoHash, PRIORITY_PRESENCE);
+    }
+
+    /**
+     * Queues a request or updates an already queued one for the same
+     * contact.
+     *
+     * @param contact the contact.
+     * @param photoHash the expected photo hash, or <tt>null</tt> to use the
+     * cached vCard details of the contact.
+     * @param priority the priority of the request.
+     */
+    private void queue(ContactJabberImpl contact, String photoHash, int priority)
+    {
+        String key = contact.getAddress().toLowerCase();
+        String replacedHash = null;
+        List<ContactJabberImpl> orphans = null;
+
+        synchronized (requests)
+        {
+            if (stopped)
+                return;
+
+            Request request = requests.get(key);
+
+            if (request != null)
+            {
+                if (photoHash != null)
+                {
+                    replacedHash = request.photoHash;
+                    if (replacedHash != null
+                            && !replacedHash.equals(photoHash))
+                        orphans = hashWaiters.remove(replacedHash);
+                    request.photoHash = photoHash;
+                }
+
+                // a visible contact moves in front of the presence updates
+                if (priority < request.priority
+                        && started
+                        && executor.getQueue().remove(request))
+                {
+                    request.priority = priority;
+                    request.sequence = sequence.incrementAndGet();
+                    executor.execute(request);
+                }
+            }
+            else
+            {
+                request
+                    = new Request(
+                            contact, photoHash, priority,
+                            sequence.incrementAndGet());
+                requests.put(key, request);
+
+                if (started)
+                    executor.execute(request);
+            }
+        }
+
+        // the contacts that waited for the replaced hash need their own
+        // request now
+        if (orphans != null)
+        {
+            for (ContactJabberImpl orphan : orphans)
+                photoHashReceived(orphan, replacedHash);
+        }
+    }
+
+    /**
+     * Called when a request has completed.
+     *
+     * @param request the request.
+     * @param fetchedHash the photo hash of the request when it started.
+     * @param avatar the retrieved avatar, never <tt>null</tt>.
+     */
+    private void requestCompleted(
+        Request request, String fetchedHash, byte[] avatar)
+    {
+        List<ContactJabberImpl> waiters = null;
+        String retrievedHash
+            = VCardTempXUpdatePresenceExtension.getImageSha1(avatar);
+        boolean replaced;
+
+        synchronized (requests)
+        {
+            if (stopped)
+                return;
+
+            // a newer presence announced another avatar while we were
+            // retrieving this one, unless that is the one we got
+            replaced
+                = (retrievedHash == null
+                        || !retrievedHash.equals(request.photoHash))
+                    && retryIfReplaced(request, fetchedHash);
+            if (!replaced)
+            {
+                requests.remove(request.contact.getAddress().toLowerCase());
+
+                if (request.photoHash != null)
+                    waiters = hashWaiters.remove(request.photoHash);
+            }
+        }
+
+        if (avatar.length != 0 && retrievedHash != null)
+        {
+            synchronized (avatarsByHash)
+            {
+                avatarsByHash.put(retrievedHash, avatar);
+            }
+        }
+
+        if (replaced)
+            return;
+
+        deliver(request.contact, avatar);
+
+        if (waiters == null)
+            return;
+
+        for (ContactJabberImpl waiter : waiters)
+        {
+            // the vCard has changed again meanwhile, ask for the others
+            if (retrievedHash != null
+                    && retrievedHash.equals(request.photoHash))
+                deliver(waiter, avatar);
+            else
+                queue(waiter, request.photoHash, PRIORITY_PRESENCE);
+        }
+    }
+
+    /**
+     * Queues a request again if a newer photo hash has replaced the one it
+     * was retrieving. Must be called with the lock of <tt>requests</tt> held.
+     *
+     * @param request the request.
+     * @param fetchedHash the photo hash of the request when it started.
+     * @return <tt>true</tt> if the request has been queued again and its
+     * result is to be discarded.
+     */
+    private boolean retryIfReplaced(Request request, String fetchedHash)
+    {
+        String photoHash = request.photoHash;
+
+        if (photoHash == null || photoHash.equals(fetchedHash))
+            return false;
+
+        request.sequence = sequence.incrementAndGet();
+        if (started)
+            executor.execute(request);
+        return true;
+    }
+
+    /**
+     * Sets the new avatar of a contact and schedules the delivery of the
+     * corresponding property change event.
+     *
+     * @param contact the contact.
+     * @param avatar the new avatar.
+     */
+    private void deliver(ContactJabberImpl contact, byte[] avatar)
+    {
+        byte[] oldAvatar = contact.getImage(false);
+
+        if (Arrays.equals(oldAvatar, avatar)
+                || (oldAvatar == null && avatar.length == 0))
+        {
+            // set an empty image data so it won't be queried again
+            contact.setImage(avatar);
+            return;
+        }
+
+        contact.setImage(avatar);
+
+        synchronized (deliveries)
+        {
+            byte[][] delivery = deliveries.get(contact);
+
+            if (delivery != null)
+            {
+                delivery[1] = avatar;
+                return;
+            }
+
+            deliveries.put(contact, new byte[][] { oldAvatar, avatar });
+
+            if (deliveries.size() == 1)
+            {
+                try
+                {
+                    deliveryTimer.schedule(
+                        new TimerTask()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                fireDeliveries();
+                            }
+                        },
+                        DELIVERY_INTERVAL);
+                }
+                catch (IllegalStateException ex)
+                {
+                    // we have been stopped
+                    deliveries.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Fires the property change events of the avatars collected since the
+     * last delivery.
+     */
+    private void fireDeliveries()
+    {
+        Map<ContactJabberImpl, byte[][]> batch;
+
+        synchronized (deliveries)
+        {
+            batch = new LinkedHashMap<ContactJabberImpl, byte[][]>(deliveries);
+            deliveries.clear();
+        }
+
+        if (logger.isTraceEnabled())
+            logger.trace("Delivering " + batch.size() + " avatars");
+
+        for (Map.Entry<ContactJabberImpl, byte[][]> e : batch.entrySet())
+        {
+            byte[][] delivery = e.getValue();
+
+            if (Arrays.equals(delivery[0], delivery[1]))
+                continue;
+
+            parentOperationSet.fireContactPropertyChangeEvent(
+                ContactPropertyChangeEvent.PROPERTY_IMAGE,
+                e.getKey(), delivery[0], delivery[1]);
+        }
+    }
+
+    /**
+     * Retrieves the avatar of a contact from its cached vCard details, or
+     * from the custom avatar services if the vCard has none.
+     *
+     * @param contact the contact.
+     * @return the avatar of the contact, empty if it has none.
+     */
+    private byte[] getAvatar(ContactJabberImpl contact)
+    {
+        byte[] result = null;
+        try
+        {
+            Iterator<ServerStoredDetails.GenericDetail> iter =
+                infoRetreiver.getDetails(contact.getAddress(),
+                ServerStoredDetails.ImageDetail.class);
+
+            if(iter.hasNext())
+            {
+                ServerStoredDetails.ImageDetail imgDetail =
+                    (ServerStoredDetails.ImageDetail)iter.next();
+                result = imgDetail.getBytes();
+            }
+        }
+        catch (Exception ex)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug(
+                        "Cannot load image for contact "
+                            + contact
+                            + ": "
+                            + ex.getMessage(),
+                        ex);
+            }
+        }
+
+        if(result == null)
+            result = ssclCallback.searchForCustomAvatar(contact.getAddress());
+
+        return (result == null) ? new byte[0] : result;
+    }
+
+    /**
+     * Loads the current vCard of a contact whose photo hash has changed.
+     *
+     * @param contact the contact.
+     * @return the avatar of the contact, or <tt>null</tt> if the vCard
+     * could not be retrieved.
+     */
+    private byte[] loadAvatar(ContactJabberImpl contact)
+    {
+        Connection connection = ssclCallback.getParentProvider().getConnection();
+
+        if (connection == null || !connection.isAuthenticated())
+            return null;
+
+        try
+        {
+            VCard vCard = new VCard();
+            vCard.load(connection, contact.getAddress());
+
+            byte[] avatar = vCard.getAvatar();
+            return (avatar == null) ? new byte[0] : avatar;
+        }
+        catch (XMPPException ex)
+        {
+            logger.info("Cannot retrieve vCard from: " + contact.getAddress());
+            if(logger.isTraceEnabled())
+                logger.trace("vCard retrieval exception was: ", ex);
+            return null;
+        }
+    }
+
+    /**
+     * The retrieval of the avatar of a single contact.
+     */
+    private class Request
+        implements Runnable,
+                   Comparable<Request>
+    {
+        /**
+         * The contact.
+         */
+        final ContactJabberImpl contact;
+
+        /**
+         * The photo hash announced by the contact, or <tt>null</tt> to use
+         * the cached vCard details.
+         */
+        volatile String photoHash;
+
+        /**
+         * The priority of this request.
+         */
+        int priority;
+
+        /**
+         * Orders requests of the same priority.
+         */
+        long sequence;
+
+        /**
+         * Creates a request.
+         *
+         * @param contact the contact.
+         * @param photoHash the announced photo hash or <tt>null</tt>.
+         * @param priority the priority of the request.
+         * @param sequence orders requests of the same priority.
+         */
+        Request(
+            ContactJabberImpl contact,
+            String photoHash,
+            int priority,
+            long sequence)
+        {
+            this.contact = contact;
+            this.photoHash = photoHash;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Visible contacts first, the most recently shown ones before the
+         * others, then presence updates in the order they arrived.
+         *
+         * @param other the request to compare to.
+         * @return the order of the requests.
+         */
+        @Override
+        public int compareTo(Request other)
+        {
+            if (priority != other.priority)
+                return (priority < other.priority) ? -1 : 1;
+
+            int order = (sequence < other.sequence) ? -1
+                    : ((sequence == other.sequence) ? 0 : 1);
+
+            return (priority == PRIORITY_VISIBLE) ? -order : order;
+        }
+
+        /**
+         * Retrieves the avatar.
+         */
+        @Override
+        public void run()
+        {
+            byte[] avatar;
+            String fetchedHash = photoHash;
+
+            if (fetchedHash == null)
+            {
+                avatar = getAvatar(contact);
+            }
+            else
+            {
+                avatar = loadAvatar(contact);
+                if (avatar == null)
+                {
+                    List<ContactJabberImpl> waiters;
+
+                    synchronized (requests)
+                    {
+                        if (stopped || retryIfReplaced(this, fetchedHash))
+                            return;
+
+                        requests.remove(contact.getAddress().toLowerCase());
+                        waiters = hashWaiters.remove(fetchedHash);
+                    }
+
+                    // the vCard of this contact could not be retrieved, the
+                    // other contacts announcing the same hash may still
+                    // have theirs retrieved
+                    if (waiters != null)
+                    {
+                        for (ContactJabberImpl waiter : waiters)
+                            photoHashReceived(waiter, fetchedHash);
+                    }
+                    return;
+                }
+            }
+
+            requestCompleted(this, fetchedHash, avatar);
+        }
+    }
+}
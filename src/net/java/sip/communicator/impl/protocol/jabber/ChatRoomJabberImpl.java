@@ -19,6 +19,7 @@
 
 import java.beans.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
 import net.java.sip.communicator.service.protocol.*;
@@ -116,10 +117,27 @@
     private final OperationSetMultiUserChatJabberImpl opSetMuc;
 
     /**
-     * The list of members of this chat room.
+     * The members of this chat room mapped by their nickname. Rooms may have
+     * thousands of occupants, so the map is concurrent and is neither locked
+     * nor copied when it is looked up or iterated.
      */
-    private final Hashtable<String, ChatRoomMemberJabberImpl> members
-        = new Hashtable<String, ChatRoomMemberJabberImpl>();
+    private final ConcurrentMap<String, ChatRoomMemberJabberImpl> members
+        = new ConcurrentHashMap<String, ChatRoomMemberJabberImpl>();
+
+    /**
+     * The members which were already in the room when we joined it and which
+     * are to be announced together by a <tt>ChatRoomMembersLoadedEvent</tt>,
+     * or <tt>null</tt> if we are not joining the room. Guarded by
+     * {@link #members}.
+     */
+    private List<ChatRoomMember> loadingMembers;
+
+    /**
+     * The nickname with which we are currently joining this room. Our own
+     * presence, which the room sends after the presences of all the other
+     * occupants, has this nickname as resource.
+     */
+    private volatile String joiningNickname;
 
     /**
      * The list of banned members of this chat room.
@@ -434,10 +452,7 @@ public Message createMessage(String messageText)
      */
     public List<ChatRoomMember> getMembers()
     {
-        synchronized (members)
-        {
-            return new LinkedList<ChatRoomMember>(members.values());
-        }
+        return new ArrayList<ChatRoomMember>(members.values());
     }
 
     /**
@@ -605,6 +620,8 @@ public void joinAs(String nickname, byte[] password)
             }
             else
             {
+                startLoadingMembers(nickname);
+
                 presenceListener = new PresenceListener(this);
                 this.provider.getConnection().addPacketListener(
                     presenceListener,
@@ -616,6 +633,12 @@ public void joinAs(String nickname, byte[] password)
                     multiUserChat.join(nickname);
                 else
                     multiUserChat.join(nickname, new String(password));
+
+                // Our own presence has been received, if it hasn't reached
+                // the presence listener yet, announce the members known so
+                // far rather than waiting for it. The others will be
+                // announced one by one.
+                fireMembersLoadedEvent();
             }
 
             ChatRoomMemberJabberImpl member
@@ -623,10 +646,7 @@ public void joinAs(String nickname, byte[] password)
                                                 nickname,
                                                 provider.getAccountID()
                                                     .getAccountAddress());
-            synchronized (members)
-            {
-                members.put(nickname, member);
-            }
+            members.put(nickname, member);
 
             // We don't specify a reason.
             opSetMuc.fireLocalUserPresenceEvent(this,
@@ -634,6 +654,8 @@ public void joinAs(String nickname, byte[] password)
         }
         catch (XMPPException ex)
         {
+            discardLoadingMembers();
+
             String errorMessage;
 
             if(ex.getXMPPError() == null)
@@ -701,6 +723,8 @@ else if(ex.getXMPPError().getCode() == 407)
         }
         catch (Throwable ex)
         {
+            discardLoadingMembers();
+
             String errorMessage = "Failed to join room "
                                     + getName()
                                     + " with nickname: "
@@ -779,20 +803,20 @@ else if (smackRole.equalsIgnoreCase("participant"))
     public ChatRoomMemberJabberImpl smackParticipantToScMember(String participant)
     {
         String participantName = StringUtils.parseResource(participant);
-        synchronized (members)
-        {
-            Iterator<ChatRoomMemberJabberImpl> chatRoomMembers =
-                this.members.values().iterator();
 
-            while(chatRoomMembers.hasNext())
-            {
-                ChatRoomMemberJabberImpl member = chatRoomMembers.next();
+        // Members are mapped by their nickname, so try the common case
+        // without going through all of them.
+        ChatRoomMemberJabberImpl member = members.get(participantName);
 
-                if(participantName.equals(member.getName())
-                    || participant.equals(member.getContactAddress())
-                    || participantName.equals(member.getContactAddress()))
-                    return member;
-            }
+        if ((member != null) && participantName.equals(member.getName()))
+            return member;
+
+        for (ChatRoomMemberJabberImpl chatRoomMember : members.values())
+        {
+            if(participantName.equals(chatRoomMember.getName())
+                || participant.equals(chatRoomMember.getContactAddress())
+                || participantName.equals(chatRoomMember.getContactAddress()))
+                return chatRoomMember;
         }
         return null;
     }
@@ -883,17 +907,15 @@ private void leave(String reason, String alternateAddress)
         }
 
         // FIXME Do we have to do the following when we leave the room?
-        Hashtable<String, ChatRoomMemberJabberImpl> membersCopy;
-        synchronized (members)
-        {
-            membersCopy
-                = new Hashtable<String, ChatRoomMemberJabberImpl>(members);
+        discardLoadingMembers();
 
-            // Delete the list of members
-            members.clear();
-        }
+        List<ChatRoomMember> membersCopy
+            = new ArrayList<ChatRoomMember>(members.values());
+
+        // Delete the list of members
+        members.clear();
 
-        for (ChatRoomMember member : membersCopy.values())
+        for (ChatRoomMember member : membersCopy)
             fireMemberPresenceEvent(
                 member,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT,
@@ -1065,10 +1087,7 @@ public void banned(String participant, String actor, String reason)
 
             String participantName = StringUtils.parseResource(participant);
 
-            synchronized (members)
-            {
-                members.remove(participantName);
-            }
+            removeMember(participantName);
 
             banList.put(participant, member);
 
@@ -1137,16 +1156,13 @@ public void joined(String participant)
             // We try to get the nickname of the participantName in case it's
             // in the form john@servicename.com, because the nickname we keep
             // in the nickname property is just the user name like "john".
+            // When somebody changes its nickname we first receive
+            // event for its nickname changed and after that that has joined
+            // we check is this already joined and if so we skip it.
             if (nickname.equals(participantName)
                 || members.containsKey(participantName))
                 return;
 
-            // when somebody changes its nickname we first receive
-            // event for its nickname changed and after that that has joined
-            // we check is this already joined and if so we skip it
-            if(members.contains(participantName))
-                return;
-
             Occupant occupant = multiUserChat.getOccupant(participant);
 
             //smack returns fully qualified occupant names.
@@ -1157,6 +1173,17 @@ public void joined(String participant)
 
             members.put(participantName, member);
 
+            // The occupants already in the room when we join it are announced
+            // all at once.
+            synchronized (members)
+            {
+                if (loadingMembers != null)
+                {
+                    loadingMembers.add(member);
+                    return;
+                }
+            }
+
             //we don't specify a reason
             fireMemberPresenceEvent(member,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED, null);
@@ -1182,10 +1209,7 @@ public void left(String participant)
                 return;
 
             String participantName = StringUtils.parseResource(participant);
-            synchronized (members)
-            {
-                members.remove(participantName);
-            }
+            removeMember(participantName);
 
             fireMemberPresenceEvent(member,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT, null);
@@ -1214,12 +1238,9 @@ public void nicknameChanged(String participant, String newNickname)
 
             String participantName = StringUtils.parseResource(participant);
 
-            synchronized (members)
-            {
-                // chnage the member key
-                ChatRoomMemberJabberImpl mem = members.remove(participantName);
-                members.put(newNickname, mem);
-            }
+            // change the member key
+            members.remove(participantName);
+            members.put(newNickname, (ChatRoomMemberJabberImpl) member);
 
             ChatRoomMemberPropertyChangeEvent evt
                 = new ChatRoomMemberPropertyChangeEvent(
@@ -1276,10 +1297,7 @@ public void kicked(String participant, String actor, String reason)
                 return;
 
             String participantName = StringUtils.parseResource(participant);
-            synchronized (members)
-            {
-                members.remove(participantName);
-            }
+            removeMember(participantName);
 
             fireMemberPresenceEvent(member, actorMember,
                 ChatRoomMemberPresenceChangeEvent.MEMBER_KICKED, reason);
@@ -1691,6 +1709,108 @@ private void fireMemberPresenceEvent(ChatRoomMember member,
             listener.memberPresenceChanged(evt);
     }
 
+    /**
+     * Starts collecting the members that are already in this room, which
+     * the room reports before our own presence when we join it.
+     *
+     * @param nickname the nickname with which we are joining this room
+     */
+    private void startLoadingMembers(String nickname)
+    {
+        synchronized (members)
+        {
+            loadingMembers = new ArrayList<ChatRoomMember>();
+            joiningNickname = nickname;
+        }
+    }
+
+    /**
+     * Stops collecting the members that are already in this room, e.g.
+     * because joining it has failed.
+     */
+    private void discardLoadingMembers()
+    {
+        synchronized (members)
+        {
+            loadingMembers = null;
+            joiningNickname = null;
+        }
+    }
+
+    /**
+     * Removes the member with the given nickname, including from the members
+     * that are about to be announced if we are still joining this room.
+     *
+     * @param participantName the nickname of the member to remove
+     */
+    private void removeMember(String participantName)
+    {
+        ChatRoomMember member = members.remove(participantName);
+
+        if (member != null)
+        {
+            synchronized (members)
+            {
+                if (loadingMembers != null)
+                    loadingMembers.remove(member);
+            }
+        }
+    }
+
+    /**
+     * Notifies all <tt>ChatRoomMemberPresenceListener</tt>s of the members
+     * that were already in this room when we joined it. Listeners which are
+     * not <tt>ChatRoomMembersLoadedListener</tt>s get a
+     * <tt>MEMBER_JOINED</tt> event for every member instead.
+     */
+    private void fireMembersLoadedEvent()
+    {
+        List<ChatRoomMember> loadedMembers;
+
+        synchronized (members)
+        {
+            loadedMembers = loadingMembers;
+            loadingMembers = null;
+            joiningNickname = null;
+        }
+
+        if ((loadedMembers == null) || loadedMembers.isEmpty())
+            return;
+
+        ChatRoomMembersLoadedEvent evt
+            = new ChatRoomMembersLoadedEvent(this, loadedMembers);
+
+        if (logger.isTraceEnabled())
+            logger.trace("Will dispatch the following ChatRoom event: " + evt);
+
+        Iterable<ChatRoomMemberPresenceListener> listeners;
+        synchronized (memberListeners)
+        {
+            listeners
+                = new ArrayList<ChatRoomMemberPresenceListener>(
+                        memberListeners);
+        }
+
+        for (ChatRoomMemberPresenceListener listener : listeners)
+        {
+            if (listener instanceof ChatRoomMembersLoadedListener)
+            {
+                ((ChatRoomMembersLoadedListener) listener).membersLoaded(evt);
+                continue;
+            }
+
+            for (ChatRoomMember member : loadedMembers)
+            {
+                listener.memberPresenceChanged(
+                    new ChatRoomMemberPresenceChangeEvent(
+                        this,
+                        member,
+                        ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED,
+                        ChatRoomMemberPresenceChangeEvent.REASON_USER_LIST));
+            }
+        }
+    }
+
     /**
      * Creates the corresponding ChatRoomMemberRoleChangeEvent and notifies
      * all <tt>ChatRoomMemberRoleListener</tt>s that a ChatRoomMember has
@@ -2532,10 +2652,7 @@ public boolean isPersistent()
      */
     public ChatRoomMemberJabberImpl findMemberForNickName(String jabberID)
     {
-        synchronized (members)
-        {
-            return members.get(jabberID);
-        }
+        return (jabberID == null) ? null : members.get(jabberID);
     }
 
    /**
@@ -2833,10 +2950,44 @@ public void processPacket(Packet packet)
             Presence presence = (Presence) packet;
             String ourOccupantJid
                     = multiUserChat.getRoom() + "/" + multiUserChat.getNickname();
-            if (ourOccupantJid.equals(presence.getFrom()))
+            boolean ownPresence = ourOccupantJid.equals(presence.getFrom());
+
+            if (ownPresence)
                 processOwnPresence(presence);
             else
                 processOtherPresence(presence);
+
+            // Our own presence is the last one the room sends when we join
+            // it. Smack notifies its listeners of a packet one after the
+            // other, and of the packets in the order they were received, so
+            // all the occupants that were already in the room are known.
+            // The room may have changed our nickname, in which case our own
+            // presence is only recognized by its status code 110.
+            String joiningNickname = ChatRoomJabberImpl.this.joiningNickname;
+
+            if ((joiningNickname != null)
+                    && (ownPresence
+                        || (multiUserChat.getRoom() + "/" + joiningNickname)
+                            .equals(presence.getFrom())
+                        || isPresenceToSelf(presence)))
+                fireMembersLoadedEvent();
+        }
+
+        /**
+         * Determines whether a <tt>Presence</tt> is our own presence in the
+         * room, as indicated by the status code 110.
+         *
+         * @param presence the <tt>Presence</tt> to check.
+         * @return <tt>true</tt> if <tt>presence</tt> is our own presence.
+         */
+        private boolean isPresenceToSelf(Presence presence)
+        {
+            MUCUser mucUser = getMUCUserExtension(presence);
+
+            return (mucUser != null)
+                && (mucUser.getStatus() != null)
+                && mucUser.getStatus().contains(
+                        MUCUser.Status.PRESENCE_TO_SELF_110);
         }
 
         /**
@@ -181,6 +181,7 @@ public ContactGroup getParentContactGroup()
     public void addContact(ContactJabberImpl contact)
     {
         buddies.put(contact.getAddress().toLowerCase(), contact);
+        ssclCallback.contactAddedToGroup(contact, this);
     }
 
 
@@ -191,6 +192,7 @@ public void addContact(ContactJabberImpl contact)
     void removeContact(ContactJabberImpl contact)
     {
         buddies.remove(contact.getAddress().toLowerCase());
+        ssclCallback.contactRemovedFromGroup(contact, this);
     }
 
     /**
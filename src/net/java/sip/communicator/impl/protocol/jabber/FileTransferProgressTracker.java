@@ -0,0 +1,384 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+import net.java.sip.communicator.util.*;
+
+import org.jitsi.service.configuration.*;
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.packet.*;
+
+/**
+ * Reports the status and the progress of a Jabber file transfer to the
+ * listeners of the corresponding <tt>AbstractFileTransfer</tt>.
+ * <p>
+ * Smack counts the bytes of a transfer as they are written to or read from
+ * its streams. All the transfers in progress are sampled by a single shared
+ * scheduler, at most {@link #MAX_PROGRESS_UPDATES_PNAME} times per second,
+ * and a progress event is only fired when bytes have been transferred since
+ * the previous one. The events carry the throughput of the transfer and the
+ * estimated time until it completes.
+ */
+class FileTransferProgressTracker
+    implements Runnable
+{
+    /**
+     * The logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(FileTransferProgressTracker.class);
+
+    /**
+     * The name of the property that holds the maximum number of progress
+     * events fired per second for each file transfer.
+     */
+    static final String MAX_PROGRESS_UPDATES_PNAME
+        = "net.java.sip.communicator.impl.protocol.jabber"
+            + ".FILE_TRANSFER_MAX_PROGRESS_UPDATES_PER_SECOND";
+
+    /**
+     * The default maximum number of progress events fired per second for
+     * each file transfer.
+     */
+    static final int DEFAULT_MAX_PROGRESS_UPDATES = 4;
+
+    /**
+     * The weight of the latest sample in the smoothed throughput.
+     */
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    /**
+     * The scheduler shared by all the file transfers in progress.
+     */
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * The Smack file transfer which is tracked.
+     */
+    private final org.jivesoftware.smackx.filetransfer.FileTransfer
+        jabberTransfer;
+
+    /**
+     * The file transfer whose listeners are notified.
+     */
+    private final AbstractFileTransfer fileTransfer;
+
+    /**
+     * The size of the file announced by the sender or <tt>0</tt> if it is
+     * unknown. A completed transfer with less bytes is reported as canceled.
+     */
+    private final long initialFileSize;
+
+    /**
+     * The number of bytes transferred when the last progress event was
+     * fired.
+     */
+    private long lastProgress = -1;
+
+    /**
+     * The time in milliseconds of the last throughput sample.
+     */
+    private long lastSampleTime = -1;
+
+    /**
+     * The number of bytes transferred at the last throughput sample.
+     */
+    private long lastSampleProgress;
+
+    /**
+     * The smoothed throughput in bytes per second or <tt>-1</tt> if it
+     * isn't known yet.
+     */
+    private double throughput = -1;
+
+    /**
+     * The scheduled sampling of this tracker.
+     */
+    private ScheduledFuture<?> future;
+
+    /**
+     * Indicates whether the transfer has ended and its final status has been
+     * reported.
+     */
+    private boolean finished = false;
+
+    /**
+     * Creates a tracker for the given transfers.
+     *
+     * @param jabberTransfer the Smack file transfer to track
+     * @param fileTransfer the file transfer whose listeners are notified
+     * @param initialFileSize the size of the file announced by the sender or
+     * <tt>0</tt> if it is unknown
+     */
+    private FileTransferProgressTracker(
+        org.jivesoftware.smackx.filetransfer.FileTransfer jabberTransfer,
+        AbstractFileTransfer fileTransfer,
+        long initialFileSize)
+    {
+        this.jabberTransfer = jabberTransfer;
+        this.fileTransfer = fileTransfer;
+        this.initialFileSize = initialFileSize;
+    }
+
+    /**
+     * Starts reporting the status and the progress of the given transfer
+     * until it ends.
+     *
+     * @param jabberTransfer the Smack file transfer to track
+     * @param fileTransfer the file transfer whose listeners are notified
+     * @param initialFileSize the size of the file announced by the sender or
+     * <tt>0</tt> if it is unknown
+     */
+    static void track(
+        org.jivesoftware.smackx.filetransfer.FileTransfer jabberTransfer,
+        AbstractFileTransfer fileTransfer,
+        long initialFileSize)
+    {
+        FileTransferProgressTracker tracker
+            = new FileTransferProgressTracker(
+                    jabberTransfer, fileTransfer, initialFileSize);
+        long period = 1000 / getMaxProgressUpdates();
+
+        synchronized (tracker)
+        {
+            tracker.future
+                = getScheduler().scheduleAtFixedRate(
+                        tracker, 0, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the maximum number of progress events fired per second for
+     * each file transfer.
+     *
+     * @return the maximum number of progress events per second
+     */
+    private static int getMaxProgressUpdates()
+    {
+        ConfigurationService cfg = JabberActivator.getConfigurationService();
+        int maxUpdates
+            = (cfg == null)
+                ? DEFAULT_MAX_PROGRESS_UPDATES
+                : cfg.getInt(
+                        MAX_PROGRESS_UPDATES_PNAME,
+                        DEFAULT_MAX_PROGRESS_UPDATES);
+
+        return Math.min(Math.max(1, maxUpdates), 1000);
+    }
+
+    /**
+     * Returns the scheduler shared by all the file transfers, creating it if
+     * necessary.
+     *
+     * @return the shared scheduler
+     */
+    private static synchronized ScheduledThreadPoolExecutor getScheduler()
+    {
+        if (scheduler == null)
+        {
+            scheduler
+                = new ScheduledThreadPoolExecutor(
+                        1,
+                        new ThreadFactory()
+                        {
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread t
+                                    = new Thread(
+                                            r, "FileTransferProgressTracker");
+
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Samples the status and the progress of the transfer and notifies the
+     * listeners of their changes.
+     */
+    @Override
+    public synchronized void run()
+    {
+        if (finished)
+            return;
+
+        try
+        {
+            sample();
+        }
+        catch (RuntimeException ex)
+        {
+            // An exception would silently stop the periodic sampling.
+            logger.error("Failed to report file transfer progress", ex);
+        }
+    }
+
+    /**
+     * Samples the status and the progress of the transfer and notifies the
+     * listeners of their changes.
+     */
+    private void sample()
+    {
+        int status
+            = OperationSetFileTransferJabberImpl.parseJabberStatus(
+                    jabberTransfer.getStatus());
+        long progress = fileTransfer.getTransferedBytes();
+        long now = System.currentTimeMillis();
+
+        if (status == FileTransferStatusChangeEvent.FAILED
+            || status == FileTransferStatusChangeEvent.COMPLETED
+            || status == FileTransferStatusChangeEvent.CANCELED
+            || status == FileTransferStatusChangeEvent.REFUSED)
+        {
+            finish(status, progress, now);
+            return;
+        }
+
+        fileTransfer.fireStatusChangeEvent(status, "Status changed");
+
+        if (progress != lastProgress)
+            fireProgressChangeEvent(progress, now);
+    }
+
+    /**
+     * Updates the throughput with a new sample and notifies the listeners of
+     * the progress of the transfer.
+     *
+     * @param progress the number of bytes transferred
+     * @param now the current time in milliseconds
+     */
+    private void fireProgressChangeEvent(long progress, long now)
+    {
+        if (lastSampleTime < 0)
+        {
+            lastSampleTime = now;
+            lastSampleProgress = progress;
+        }
+        else if (now > lastSampleTime)
+        {
+            double sample
+                = (progress - lastSampleProgress) * 1000d
+                    / (now - lastSampleTime);
+
+            throughput
+                = (throughput < 0)
+                    ? sample
+                    : THROUGHPUT_SMOOTHING * sample
+                        + (1 - THROUGHPUT_SMOOTHING) * throughput;
+            lastSampleTime = now;
+            lastSampleProgress = progress;
+        }
+
+        long fileSize = jabberTransfer.getFileSize();
+        long timeLeft = -1;
+
+        if ((throughput > 0) && (fileSize > 0))
+            timeLeft
+                = Math.round(
+                        Math.max(0, fileSize - progress) * 1000d / throughput);
+
+        lastProgress = progress;
+        fileTransfer.fireProgressChangeEvent(
+            now,
+            progress,
+            (throughput < 0) ? -1 : Math.round(throughput),
+            timeLeft);
+    }
+
+    /**
+     * Stops tracking the transfer and notifies the listeners of its final
+     * status and progress.
+     *
+     * @param status the status the transfer has ended with
+     * @param progress the number of bytes transferred
+     * @param now the current time in milliseconds
+     */
+    private void finish(int status, long progress, long now)
+    {
+        finished = true;
+        if (future != null)
+            future.cancel(false);
+
+        if (fileTransfer instanceof OutgoingFileTransferJabberImpl)
+        {
+            ((OutgoingFileTransferJabberImpl) fileTransfer)
+                .removeThumbnailRequestListener();
+        }
+
+        // sometimes a filetransfer can be preparing
+        // and than completed :
+        // transfered in one iteration of current thread
+        // so it won't go through intermediate state - inProgress
+        // make sure this won't happen
+        if(status == FileTransferStatusChangeEvent.COMPLETED
+            && fileTransfer.getStatus()
+                == FileTransferStatusChangeEvent.PREPARING)
+        {
+            fileTransfer.fireStatusChangeEvent(
+                FileTransferStatusChangeEvent.IN_PROGRESS,
+                "Status changed");
+            fileTransfer.fireProgressChangeEvent(now, progress);
+        }
+
+        String statusReason = "";
+
+        if (jabberTransfer.getError() != null)
+        {
+            logger.error("An error occured while transfering file: "
+                +  jabberTransfer.getError().getMessage());
+        }
+
+        if (jabberTransfer.getException() != null)
+        {
+            logger.error("An exception occured while transfering file: ",
+                jabberTransfer.getException());
+
+            if(jabberTransfer.getException() instanceof XMPPException)
+            {
+                XMPPError error =
+                    ((XMPPException)jabberTransfer.getException())
+                        .getXMPPError();
+                if (error != null)
+                    if(error.getCode() == 406
+                       || error.getCode() == 403)
+                        status = FileTransferStatusChangeEvent.REFUSED;
+            }
+
+            statusReason = jabberTransfer.getException().getMessage();
+        }
+
+        if (initialFileSize > 0
+            && status == FileTransferStatusChangeEvent.COMPLETED
+            && fileTransfer.getTransferedBytes() < initialFileSize)
+        {
+            status = FileTransferStatusChangeEvent.CANCELED;
+        }
+
+        fileTransfer.fireStatusChangeEvent(status, statusReason);
+        fileTransfer.fireProgressChangeEvent(now, progress);
+    }
+}
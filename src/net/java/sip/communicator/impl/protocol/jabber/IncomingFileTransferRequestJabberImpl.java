@@ -179,9 +179,8 @@ public FileTransfer acceptFile(File file)
 
             jabberTransfer.recieveFile(file);
 
-            new OperationSetFileTransferJabberImpl
-                .FileTransferProgressThread(
-                jabberTransfer, incomingTransfer, getFileSize()).start();
+            FileTransferProgressTracker.track(
+                jabberTransfer, incomingTransfer, getFileSize());
         }
         catch (XMPPException e)
         {
@@ -30,6 +30,7 @@
 import org.jivesoftware.smack.filter.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smackx.packet.*;
+import org.jivesoftware.smackx.provider.*;
 
 /**
  * Handles and retrieves all info of our contacts or our account info
@@ -46,9 +47,26 @@
      */
     private ProtocolProviderServiceJabberImpl jabberProvider = null;
 
-    // here is kept all the details retrieved so far
-    private final Map<String, List<GenericDetail>> retreivedDetails
-        = new Hashtable<String, List<GenericDetail>>();
+    /**
+     * The number of cache misses between two logs of the cache statistics.
+     */
+    private static final int STATISTICS_LOG_INTERVAL = 100;
+
+    /**
+     * The details of the contacts retrieved so far.
+     */
+    private final VCardCache cache;
+
+    /**
+     * The address of the account, whose details are edited locally and are
+     * therefore neither evicted nor stored.
+     */
+    private final String ownerUin;
+
+    /**
+     * The details of the account.
+     */
+    private List<GenericDetail> ownerDetails = null;
 
     private static final String TAG_FN_OPEN = "<FN>";
     private static final String TAG_FN_CLOSE = "</FN>";
@@ -63,6 +81,10 @@ protected InfoRetreiver(
             String ownerUin)
     {
         this.jabberProvider = jabberProvider;
+        this.ownerUin = ownerUin;
+        this.cache
+            = new VCardCache(
+                    jabberProvider.getAccountID().getAccountUniqueID());
 
         vcardTimeoutReply
             = JabberActivator.getConfigurationService().getLong(
@@ -149,6 +171,7 @@ List<GenericDetail> getContactDetails(String contactAddress)
     protected List<GenericDetail> retrieveDetails(String contactAddress)
     {
         List<GenericDetail> result = new LinkedList<GenericDetail>();
+        String vCardXml = null;
         try
         {
             Connection connection = jabberProvider.getConnection();
@@ -166,204 +189,218 @@ protected List<GenericDetail> retrieveDetails(String contactAddress)
             else
                 load(card, connection, contactAddress, vcardTimeoutReply);
 
-            String tmp;
-
-            tmp = checkForFullName(card);
-            if(tmp != null)
-                result.add(new DisplayNameDetail(
-                    StringEscapeUtils.unescapeXml(tmp)));
-
-            tmp = card.getFirstName();
-            if(tmp != null)
-                result.add(new FirstNameDetail(
-                    StringEscapeUtils.unescapeXml(tmp)));
+            vCardXml = card.getChildElementXML();
 
-            tmp = card.getMiddleName();
-            if(tmp != null)
-                result.add(new MiddleNameDetail(
-                    StringEscapeUtils.unescapeXml(tmp)));
+            parseDetails(card, result);
+        }
+        catch (Throwable exc)
+        {
+            String msg = "Cannot load details for contact "
+                + contactAddress + " : " + exc.getMessage();
+            if(logger.isTraceEnabled())
+                logger.error(msg, exc);
+            else
+                logger.error(msg);
+        }
 
-            tmp = card.getLastName();
-            if(tmp != null)
-                result.add(new LastNameDetail(
-                    StringEscapeUtils.unescapeXml(tmp)));
+        // failed retrievals are only kept in memory, until they expire
+        addCachedContactDetails(contactAddress, result, vCardXml);
 
-            tmp = card.getNickName();
-            if(tmp != null)
-                result.add(new NicknameDetail(
-                    StringEscapeUtils.unescapeXml(tmp)));
+        return result;
+    }
 
-            tmp = card.getField("BDAY");
-            if (tmp != null)
+    /**
+     * Extracts the details from a vCard.
+     *
+     * @param card the vCard.
+     * @param result the list to add the details to.
+     */
+    private void parseDetails(VCard card, List<GenericDetail> result)
+    {
+        String tmp;
+
+        tmp = checkForFullName(card);
+        if(tmp != null)
+            result.add(new DisplayNameDetail(
+                StringEscapeUtils.unescapeXml(tmp)));
+
+        tmp = card.getFirstName();
+        if(tmp != null)
+            result.add(new FirstNameDetail(
+                StringEscapeUtils.unescapeXml(tmp)));
+
+        tmp = card.getMiddleName();
+        if(tmp != null)
+            result.add(new MiddleNameDetail(
+                StringEscapeUtils.unescapeXml(tmp)));
+
+        tmp = card.getLastName();
+        if(tmp != null)
+            result.add(new LastNameDetail(
+                StringEscapeUtils.unescapeXml(tmp)));
+
+        tmp = card.getNickName();
+        if(tmp != null)
+            result.add(new NicknameDetail(
+                StringEscapeUtils.unescapeXml(tmp)));
+
+        tmp = card.getField("BDAY");
+        if (tmp != null)
+        {
+            try
             {
-                try
-                {
-                    Calendar birthDateCalendar = Calendar.getInstance();
-                    DateFormat dateFormat =
-                        new SimpleDateFormat(
-                            JabberActivator.getResources().getI18NString(
-                                "plugin.accountinfo.BDAY_FORMAT"));
-                    Date birthDate =
-                        dateFormat.parse(tmp);
-                    birthDateCalendar.setTime(birthDate);
-                    BirthDateDetail bd = new BirthDateDetail(birthDateCalendar);
-                    result.add(bd);
-                }
-                catch (ParseException e) {}
+                Calendar birthDateCalendar = Calendar.getInstance();
+                DateFormat dateFormat =
+                    new SimpleDateFormat(
+                        JabberActivator.getResources().getI18NString(
+                            "plugin.accountinfo.BDAY_FORMAT"));
+                Date birthDate =
+                    dateFormat.parse(tmp);
+                birthDateCalendar.setTime(birthDate);
+                BirthDateDetail bd = new BirthDateDetail(birthDateCalendar);
+                result.add(bd);
             }
-            // Home Details
-            // addrField one of
-            // POSTAL, PARCEL, (DOM | INTL), PREF, POBOX, EXTADR, STREET,
-            // LOCALITY, REGION, PCODE, CTRY
-            tmp = card.getAddressFieldHome("STREET");
+            catch (ParseException e) {}
+        }
+        // Home Details
+        // addrField one of
+        // POSTAL, PARCEL, (DOM | INTL), PREF, POBOX, EXTADR, STREET,
+        // LOCALITY, REGION, PCODE, CTRY
+        tmp = card.getAddressFieldHome("STREET");
+        if(tmp != null)
+            result.add(new AddressDetail(tmp));
+
+        tmp = card.getAddressFieldHome("LOCALITY");
+        if(tmp != null)
+            result.add(new CityDetail(tmp));
+
+        tmp = card.getAddressFieldHome("REGION");
+        if(tmp != null)
+            result.add(new ProvinceDetail(tmp));
+
+        tmp = card.getAddressFieldHome("PCODE");
+        if(tmp != null)
+            result.add(new PostalCodeDetail(tmp));
+
+            tmp = card.getAddressFieldHome("CTRY");
             if(tmp != null)
-                result.add(new AddressDetail(tmp));
+                result.add(new CountryDetail(tmp));
 
-            tmp = card.getAddressFieldHome("LOCALITY");
-            if(tmp != null)
-                result.add(new CityDetail(tmp));
+        // phoneType one of
+        //VOICE, FAX, PAGER, MSG, CELL, VIDEO, BBS, MODEM, ISDN, PCS, PREF
 
-            tmp = card.getAddressFieldHome("REGION");
-            if(tmp != null)
-                result.add(new ProvinceDetail(tmp));
+        tmp = card.getPhoneHome("VOICE");
+        if(tmp != null)
+            result.add(new PhoneNumberDetail(tmp));
 
-            tmp = card.getAddressFieldHome("PCODE");
-            if(tmp != null)
-                result.add(new PostalCodeDetail(tmp));
+        tmp = card.getPhoneHome("VIDEO");
+        if(tmp != null)
+            result.add(new VideoDetail(tmp));
 
-                tmp = card.getAddressFieldHome("CTRY");
-                if(tmp != null)
-                    result.add(new CountryDetail(tmp));
+        tmp = card.getPhoneHome("FAX");
+        if(tmp != null)
+            result.add(new FaxDetail(tmp));
 
-            // phoneType one of
-            //VOICE, FAX, PAGER, MSG, CELL, VIDEO, BBS, MODEM, ISDN, PCS, PREF
+        tmp = card.getPhoneHome("PAGER");
+        if(tmp != null)
+            result.add(new PagerDetail(tmp));
 
-            tmp = card.getPhoneHome("VOICE");
-            if(tmp != null)
-                result.add(new PhoneNumberDetail(tmp));
+        tmp = card.getPhoneHome("CELL");
+        if(tmp != null)
+            result.add(new MobilePhoneDetail(tmp));
 
-            tmp = card.getPhoneHome("VIDEO");
-            if(tmp != null)
-                result.add(new VideoDetail(tmp));
+        tmp = card.getPhoneHome("TEXT");
+        if(tmp != null)
+            result.add(new MobilePhoneDetail(tmp));
 
-            tmp = card.getPhoneHome("FAX");
-            if(tmp != null)
-                result.add(new FaxDetail(tmp));
+        tmp = card.getEmailHome();
+        if(tmp != null)
+            result.add(new EmailAddressDetail(tmp));
 
-            tmp = card.getPhoneHome("PAGER");
-            if(tmp != null)
-                result.add(new PagerDetail(tmp));
+        // Work Details
+        // addrField one of
+        // POSTAL, PARCEL, (DOM | INTL), PREF, POBOX, EXTADR, STREET,
+        // LOCALITY, REGION, PCODE, CTRY
+        tmp = card.getAddressFieldWork("STREET");
+        if(tmp != null)
+            result.add(new WorkAddressDetail(tmp));
 
-            tmp = card.getPhoneHome("CELL");
-            if(tmp != null)
-                result.add(new MobilePhoneDetail(tmp));
+        tmp = card.getAddressFieldWork("LOCALITY");
+        if(tmp != null)
+            result.add(new WorkCityDetail(tmp));
 
-            tmp = card.getPhoneHome("TEXT");
-            if(tmp != null)
-                result.add(new MobilePhoneDetail(tmp));
+        tmp = card.getAddressFieldWork("REGION");
+        if(tmp != null)
+            result.add(new WorkProvinceDetail(tmp));
 
-            tmp = card.getEmailHome();
-            if(tmp != null)
-                result.add(new EmailAddressDetail(tmp));
-
-            // Work Details
-            // addrField one of
-            // POSTAL, PARCEL, (DOM | INTL), PREF, POBOX, EXTADR, STREET,
-            // LOCALITY, REGION, PCODE, CTRY
-            tmp = card.getAddressFieldWork("STREET");
-            if(tmp != null)
-                result.add(new WorkAddressDetail(tmp));
-
-            tmp = card.getAddressFieldWork("LOCALITY");
-            if(tmp != null)
-                result.add(new WorkCityDetail(tmp));
-
-            tmp = card.getAddressFieldWork("REGION");
-            if(tmp != null)
-                result.add(new WorkProvinceDetail(tmp));
-
-            tmp = card.getAddressFieldWork("PCODE");
-            if(tmp != null)
-                result.add(new WorkPostalCodeDetail(tmp));
+        tmp = card.getAddressFieldWork("PCODE");
+        if(tmp != null)
+            result.add(new WorkPostalCodeDetail(tmp));
 
 //                tmp = card.getAddressFieldWork("CTRY");
 //                if(tmp != null)
 //                    result.add(new WorkCountryDetail(tmp);
 
-            // phoneType one of
-            //VOICE, FAX, PAGER, MSG, CELL, VIDEO, BBS, MODEM, ISDN, PCS, PREF
+        // phoneType one of
+        //VOICE, FAX, PAGER, MSG, CELL, VIDEO, BBS, MODEM, ISDN, PCS, PREF
 
-            tmp = card.getPhoneWork("VOICE");
-            if(tmp != null)
-                result.add(new WorkPhoneDetail(tmp));
+        tmp = card.getPhoneWork("VOICE");
+        if(tmp != null)
+            result.add(new WorkPhoneDetail(tmp));
 
-            tmp = card.getPhoneWork("VIDEO");
-            if(tmp != null)
-                result.add(new WorkVideoDetail(tmp));
+        tmp = card.getPhoneWork("VIDEO");
+        if(tmp != null)
+            result.add(new WorkVideoDetail(tmp));
 
-            tmp = card.getPhoneWork("FAX");
-            if(tmp != null)
-                result.add(new WorkFaxDetail(tmp));
+        tmp = card.getPhoneWork("FAX");
+        if(tmp != null)
+            result.add(new WorkFaxDetail(tmp));
 
-            tmp = card.getPhoneWork("PAGER");
-            if(tmp != null)
-                result.add(new WorkPagerDetail(tmp));
+        tmp = card.getPhoneWork("PAGER");
+        if(tmp != null)
+            result.add(new WorkPagerDetail(tmp));
 
-            tmp = card.getPhoneWork("CELL");
-            if(tmp != null)
-                result.add(new WorkMobilePhoneDetail(tmp));
+        tmp = card.getPhoneWork("CELL");
+        if(tmp != null)
+            result.add(new WorkMobilePhoneDetail(tmp));
 
-            tmp = card.getPhoneWork("TEXT");
-            if(tmp != null)
-                result.add(new WorkMobilePhoneDetail(tmp));
+        tmp = card.getPhoneWork("TEXT");
+        if(tmp != null)
+            result.add(new WorkMobilePhoneDetail(tmp));
 
-            tmp = card.getEmailWork();
-            if(tmp != null)
-                result.add(new WorkEmailAddressDetail(tmp));
+        tmp = card.getEmailWork();
+        if(tmp != null)
+            result.add(new WorkEmailAddressDetail(tmp));
 
-            tmp = card.getOrganization();
-            if(tmp != null)
-                result.add(new WorkOrganizationNameDetail(tmp));
+        tmp = card.getOrganization();
+        if(tmp != null)
+            result.add(new WorkOrganizationNameDetail(tmp));
 
-            tmp = card.getOrganizationUnit();
-            if(tmp != null)
-                result.add(new WorkDepartmentNameDetail(tmp));
+        tmp = card.getOrganizationUnit();
+        if(tmp != null)
+            result.add(new WorkDepartmentNameDetail(tmp));
 
-            tmp = card.getField("TITLE");
-            if(tmp != null)
-                result.add(new JobTitleDetail(tmp));
+        tmp = card.getField("TITLE");
+        if(tmp != null)
+            result.add(new JobTitleDetail(tmp));
 
-            tmp = card.getField("ABOUTME");
-            if (tmp != null)
-                result.add(new AboutMeDetail(tmp));
+        tmp = card.getField("ABOUTME");
+        if (tmp != null)
+            result.add(new AboutMeDetail(tmp));
 
-            byte[] imageBytes = card.getAvatar();
-            if(imageBytes != null && imageBytes.length > 0)
-            {
-                result.add(new ImageDetail("Image", imageBytes));
-            }
-
-            try
-            {
-                tmp = card.getField("URL");
-                if(tmp != null)
-                    result.add(new URLDetail("URL", new URL(tmp)));
-            }
-            catch(MalformedURLException e){}
-        }
-        catch (Throwable exc)
+        byte[] imageBytes = card.getAvatar();
+        if(imageBytes != null && imageBytes.length > 0)
         {
-            String msg = "Cannot load details for contact "
-                + contactAddress + " : " + exc.getMessage();
-            if(logger.isTraceEnabled())
-                logger.error(msg, exc);
-            else
-                logger.error(msg);
+            result.add(new ImageDetail("Image", imageBytes));
         }
 
-        retreivedDetails.put(contactAddress, result);
-
-        return result;
+        try
+        {
+            tmp = card.getField("URL");
+            if(tmp != null)
+                result.add(new URLDetail("URL", new URL(tmp)));
+        }
+        catch(MalformedURLException e){}
     }
 
     /**
@@ -375,7 +412,40 @@ protected List<GenericDetail> retrieveDetails(String contactAddress)
      */
     List<GenericDetail> getCachedContactDetails(String contactAddress)
     {
-        return retreivedDetails.get(contactAddress);
+        if(contactAddress.equals(ownerUin))
+            return ownerDetails;
+
+        List<GenericDetail> result = cache.get(contactAddress);
+
+        if(result != null)
+            return result;
+
+        String vCardXml = cache.load(contactAddress);
+
+        if(vCardXml != null)
+        {
+            try
+            {
+                result = new LinkedList<GenericDetail>();
+                parseDetails(
+                    VCardProvider.createVCardFromXML(vCardXml), result);
+                cache.putLoaded(contactAddress, result);
+            }
+            catch (Exception ex)
+            {
+                logger.warn("Cannot parse stored vCard of " + contactAddress,
+                    ex);
+                cache.invalidate(contactAddress);
+                result = null;
+            }
+        }
+        else if(logger.isDebugEnabled()
+                && cache.getMisses() % STATISTICS_LOG_INTERVAL == 0)
+        {
+            logger.debug(cache);
+        }
+
+        return result;
     }
 
     /**
@@ -386,7 +456,62 @@ List<GenericDetail> getCachedContactDetails(String contactAddress)
     void addCachedContactDetails(
         String contactAddress, List<GenericDetail> details)
     {
-        retreivedDetails.put(contactAddress, details);
+        addCachedContactDetails(contactAddress, details, null);
+    }
+
+    /**
+     * Adds a cached contact details.
+     * @param contactAddress the contact address
+     * @param details the details to add
+     * @param vCardXml the vCard the details come from, to be stored on disk,
+     * or <tt>null</tt> to only keep the details in memory
+     */
+    private void addCachedContactDetails(
+        String contactAddress, List<GenericDetail> details, String vCardXml)
+    {
+        if(contactAddress.equals(ownerUin))
+        {
+            ownerDetails = details;
+            return;
+        }
+
+        String photoHash = "";
+
+        for (GenericDetail detail : details)
+        {
+            if(detail instanceof ImageDetail)
+            {
+                photoHash = VCardTempXUpdatePresenceExtension.getImageSha1(
+                    ((ImageDetail) detail).getBytes());
+                break;
+            }
+        }
+
+        cache.put(contactAddress, details, photoHash, vCardXml);
+    }
+
+    /**
+     * Drops the cached details of a contact which announced a photo hash
+     * different from the one of its cached vCard.
+     *
+     * @param contactAddress the contact address
+     * @param photoHash the announced XEP-0153 photo hash
+     */
+    void photoHashReceived(String contactAddress, String photoHash)
+    {
+        if(!contactAddress.equals(ownerUin))
+            cache.photoHashReceived(contactAddress, photoHash);
+    }
+
+    /**
+     * Returns the cache of the contact details, which also keeps its hit and
+     * miss statistics.
+     *
+     * @return the cache of the contact details.
+     */
+    VCardCache getCache()
+    {
+        return cache;
     }
 
     /**
@@ -0,0 +1,152 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.net.*;
+
+import net.java.sip.communicator.impl.protocol.jabber.extensions.keepalive.*;
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.util.*;
+
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.filter.*;
+import org.jivesoftware.smack.packet.*;
+
+/**
+ * Keeps the XMPP session of a <tt>ProtocolProviderServiceJabberImpl</tt>
+ * across changes in the network configuration when its connection still
+ * works. The connection is verified with an XEP-0199 ping to the server: any
+ * answer, including an error, proves that the stream is alive, so the roster,
+ * the presence and the joined chat rooms do not have to be set up again.
+ */
+public class OperationSetConnectionResumptionJabberImpl
+    implements OperationSetConnectionResumption
+{
+    /**
+     * The logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(OperationSetConnectionResumptionJabberImpl.class);
+
+    /**
+     * The provider whose connection is to be resumed.
+     */
+    private final ProtocolProviderServiceJabberImpl parentProvider;
+
+    /**
+     * Initializes a new <tt>OperationSetConnectionResumptionJabberImpl</tt>.
+     *
+     * @param parentProvider the provider whose connection is to be resumed
+     */
+    public OperationSetConnectionResumptionJabberImpl(
+            ProtocolProviderServiceJabberImpl parentProvider)
+    {
+        this.parentProvider = parentProvider;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean resumeConnection(long timeout)
+    {
+        Connection connection = parentProvider.getConnection();
+
+        if ((connection == null)
+                || !connection.isConnected()
+                || !connection.isAuthenticated())
+            return false;
+
+        /*
+         * If the local address of the socket has gone away with the network
+         * change, the connection cannot work anymore and there is no need to
+         * wait for the ping to time out.
+         */
+        if (connection instanceof XMPPConnection)
+        {
+            Socket socket = ((XMPPConnection) connection).getSocket();
+
+            if ((socket == null) || !isLocalAddressAvailable(socket))
+                return false;
+        }
+
+        KeepAliveEvent ping
+            = new KeepAliveEvent(
+                    connection.getUser(),
+                    parentProvider.getAccountID().getService());
+        PacketCollector collector
+            = connection.createPacketCollector(
+                    new PacketIDFilter(ping.getPacketID()));
+        long startTime = System.currentTimeMillis();
+        Packet response;
+
+        try
+        {
+            connection.sendPacket(ping);
+            response = collector.nextResult(timeout);
+        }
+        catch (IllegalStateException ise)
+        {
+            // The connection has been closed in the meantime.
+            response = null;
+        }
+        finally
+        {
+            collector.cancel();
+        }
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info(
+                    (response == null)
+                        ? ("Could not resume the connection of "
+                            + parentProvider.getAccountID().getDisplayName())
+                        : ("Resumed the connection of "
+                            + parentProvider.getAccountID().getDisplayName()
+                            + " in "
+                            + (System.currentTimeMillis() - startTime)
+                            + "ms"));
+        }
+        return (response != null) && parentProvider.isRegistered();
+    }
+
+    /**
+     * Determines whether the local address of a specific <tt>Socket</tt> is
+     * still assigned to a network interface.
+     *
+     * @param socket the <tt>Socket</tt> to check
+     * @return <tt>true</tt> if the local address of <tt>socket</tt> is still
+     * available
+     */
+    private static boolean isLocalAddressAvailable(Socket socket)
+    {
+        InetAddress localAddress = socket.getLocalAddress();
+
+        if ((localAddress == null) || localAddress.isAnyLocalAddress())
+            return !socket.isClosed();
+
+        try
+        {
+            return NetworkInterface.getByInetAddress(localAddress) != null;
+        }
+        catch (SocketException se)
+        {
+            return false;
+        }
+    }
+}
@@ -2000,8 +2000,6 @@ public void parseContactPhotoPresence(Packet packet)
             return;
         }
 
-        byte[] currentAvatar = sourceContact.getImage(false);
-
         // Get the packet extension which contains the photo tag.
         DefaultPacketExtension defaultPacketExtension =
             (DefaultPacketExtension) packet.getExtension(
@@ -2009,52 +2007,16 @@ public void parseContactPhotoPresence(Packet packet)
                     VCardTempXUpdatePresenceExtension.NAMESPACE);
         if(defaultPacketExtension != null)
         {
-            try
-            {
-                String packetPhotoSHA1 =
-                    defaultPacketExtension.getValue("photo");
-                // If this presence packet has a photo tag with a SHA-1 hash
-                // which differs from the current avatar SHA-1 hash, then Jitsi
-                // retrieves the new avatar image and updates this contact image
-                // in the contact list.
-                if(packetPhotoSHA1 != null
-                        && !packetPhotoSHA1.equals(
-                            VCardTempXUpdatePresenceExtension.getImageSha1(
-                                currentAvatar))
-                  )
-                {
-                    byte[] newAvatar = null;
-
-                    // If there is an avatar image, retrieves it.
-                    if(packetPhotoSHA1.length() != 0)
-                    {
-                        // Retrieves the new contact avatar image.
-                        VCard vCard = new VCard();
-                        vCard.load(parentProvider.getConnection(), userID);
-                        newAvatar = vCard.getAvatar();
-                    }
-                    // Else removes the current avatar image, since the contact
-                    // has removed it from the server.
-                    else
-                    {
-                        newAvatar = new byte[0];
-                    }
+            String packetPhotoSHA1 = defaultPacketExtension.getValue("photo");
 
-                    // Sets the new avatar image to the Jitsi contact.
-                    sourceContact.setImage(newAvatar);
-                    // Fires a property change event to update the contact list.
-                    this.fireContactPropertyChangeEvent(
-                        ContactPropertyChangeEvent.PROPERTY_IMAGE,
-                        sourceContact,
-                        currentAvatar,
-                        newAvatar);
-                }
-            }
-            catch(XMPPException ex)
+            // If this presence packet has a photo tag with a SHA-1 hash
+            // which differs from the current avatar SHA-1 hash, then the new
+            // avatar image is retrieved and the contact image updated in the
+            // contact list.
+            if(packetPhotoSHA1 != null)
             {
-                logger.info("Cannot retrieve vCard from: " + packet.getFrom());
-                if(logger.isTraceEnabled())
-                    logger.trace("vCard retrieval exception was: ", ex);
+                ssContactList.contactPhotoHashReceived(
+                    sourceContact, packetPhotoSHA1);
             }
         }
     }
@@ -0,0 +1,129 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.io.*;
+import java.net.*;
+
+import javax.net.*;
+
+/**
+ * A <tt>SocketFactory</tt> handing a socket that was already connected (i.e.
+ * by racing the addresses of the server) to smack the first time it asks for
+ * a socket to the same address. Any other request gets a new socket.
+ */
+class PreconnectedSocketFactory
+    extends SocketFactory
+{
+    /**
+     * The connected socket, or <tt>null</tt> once it has been handed out.
+     */
+    private Socket socket;
+
+    /**
+     * Creates a factory for the specified connected socket.
+     *
+     * @param socket the connected socket.
+     */
+    PreconnectedSocketFactory(Socket socket)
+    {
+        this.socket = socket;
+    }
+
+    /**
+     * Returns the connected socket if it is connected to <tt>host:port</tt>
+     * and hasn't been handed out yet, otherwise a new socket.
+     *
+     * @param host the address to connect to.
+     * @param port the port to connect to.
+     * @return a socket connected to <tt>host:port</tt>.
+     * @throws IOException if connecting a new socket fails.
+     */
+    @Override
+    public synchronized Socket createSocket(String host, int port)
+        throws IOException
+    {
+        Socket s = take(InetAddress.getByName(host), port);
+
+        return (s != null) ? s : new Socket(host, port);
+    }
+
+    @Override
+    public synchronized Socket createSocket(String host, int port,
+            InetAddress localHost, int localPort)
+        throws IOException
+    {
+        return new Socket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public synchronized Socket createSocket(InetAddress host, int port)
+        throws IOException
+    {
+        Socket s = take(host, port);
+
+        return (s != null) ? s : new Socket(host, port);
+    }
+
+    @Override
+    public synchronized Socket createSocket(InetAddress address, int port,
+            InetAddress localAddress, int localPort)
+        throws IOException
+    {
+        return new Socket(address, port, localAddress, localPort);
+    }
+
+    /**
+     * Closes the connected socket if it was never handed out.
+     */
+    synchronized void dispose()
+    {
+        if (socket != null)
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+            }
+            socket = null;
+        }
+    }
+
+    /**
+     * Takes the connected socket if it is still usable and connected to
+     * <tt>address:port</tt>.
+     *
+     * @param address the remote address.
+     * @param port the remote port.
+     * @return the connected socket or <tt>null</tt>.
+     */
+    private Socket take(InetAddress address, int port)
+    {
+        Socket s = socket;
+
+        if (s == null
+            || s.isClosed()
+            || s.getPort() != port
+            || !address.equals(s.getInetAddress()))
+            return null;
+        socket = null;
+        return s;
+    }
+}
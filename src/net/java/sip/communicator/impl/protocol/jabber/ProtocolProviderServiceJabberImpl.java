@@ -335,6 +335,13 @@
      */
     private org.jivesoftware.smack.proxy.ProxyInfo proxy;
 
+    /**
+     * The socket factory holding the socket connected while racing the
+     * addresses of the server, if any, handed to smack for the address that
+     * won the race.
+     */
+    private PreconnectedSocketFactory preconnectedSocketFactory;
+
     /**
      * State for connect and login state.
      */
@@ -769,6 +776,7 @@ private void initializeConnectAndLogin(SecurityAuthority authority,
             }
             else
             {
+                addrs = raceAddresses(addrs);
                 for (InetSocketAddress isa : addrs)
                 {
                     try
@@ -790,6 +798,59 @@ private void initializeConnectAndLogin(SecurityAuthority authority,
         }
     }
 
+    /**
+     * Races TCP connections to the addresses of the server as described by
+     * RFC 8305 when they are of both IP families, so that a broken path of one
+     * family doesn't cost a full connect timeout per address. The address
+     * that accepted the connection first is moved to the front and its socket
+     * is handed to smack when connecting to it. Connections over BOSH or a
+     * proxy are left alone.
+     *
+     * @param addrs the addresses of the server, as returned by DNS.
+     * @return the addresses in the order in which they should be tried.
+     */
+    private InetSocketAddress[] raceAddresses(InetSocketAddress[] addrs)
+    {
+        if (preconnectedSocketFactory != null)
+        {
+            preconnectedSocketFactory.dispose();
+            preconnectedSocketFactory = null;
+        }
+
+        if (!org.jitsi.util.StringUtils.isNullOrEmpty(accountID.getBoshUrl())
+            || (proxy != null
+                && proxy.getProxyType()
+                    != org.jivesoftware.smack.proxy.ProxyInfo.ProxyType.NONE)
+            || !HappyEyeballsConnector.isDualStack(addrs))
+            return addrs;
+
+        InetSocketAddress[] sorted = HappyEyeballsConnector.sortAddresses(addrs);
+        try
+        {
+            Socket socket = HappyEyeballsConnector.connect(sorted);
+
+            for (int i = 0; i < sorted.length; i++)
+            {
+                InetSocketAddress winner = sorted[i];
+
+                if (winner.getAddress().equals(socket.getInetAddress())
+                    && winner.getPort() == socket.getPort())
+                {
+                    System.arraycopy(sorted, 0, sorted, 1, i);
+                    sorted[0] = winner;
+                    break;
+                }
+            }
+            preconnectedSocketFactory = new PreconnectedSocketFactory(socket);
+        }
+        catch (java.io.IOException e)
+        {
+            logger.warn("None of " + Arrays.toString(sorted)
+                + " accepted a connection", e);
+        }
+        return sorted;
+    }
+
     /**
      * Creates the JabberLoginStrategy to use for the current account.
      */
@@ -885,6 +946,11 @@ private ConnectState connectUsingSRVRecords(
                     continue;
                 }
 
+                // the time spent resolving the target doesn't tell how
+                // healthy it is
+                long connectStart = System.currentTimeMillis();
+
+                addrs = raceAddresses(addrs);
                 for (InetSocketAddress isa : addrs)
                 {
                     try
@@ -903,6 +969,14 @@ private ConnectState connectUsingSRVRecords(
 
                         ConnectState state = connectAndLogin(
                             isa, serviceName, loginStrategy);
+
+                        if(state == ConnectState.STOP_TRYING)
+                        {
+                            NetworkUtils.getSrvTargetHealth().reportConnected(
+                                srv.getTarget(),
+                                srv.getPort(),
+                                System.currentTimeMillis() - connectStart);
+                        }
                         return state;
                     }
                     catch(XMPPException ex)
@@ -917,6 +991,10 @@ private ConnectState connectUsingSRVRecords(
                             throw ex;
                     }
                 }
+
+                // none of the addresses of the target worked
+                NetworkUtils.getSrvTargetHealth().reportFailed(
+                    srv.getTarget(), srv.getPort());
             }
         }
         else
@@ -1150,6 +1228,8 @@ private ConnectState connectAndLogin(
                         address.getAddress().getHostAddress(),
                         address.getPort(),
                         serviceName, proxy);
+            if (preconnectedSocketFactory != null)
+                confConn.setSocketFactory(preconnectedSocketFactory);
         }
 
         // if we have OperationSetPersistentPresence skip sending initial
@@ -1990,6 +2070,10 @@ protected void initialize(String screenname,
             addSupportedOperationSet(OperationSetConnectionInfo.class,
                     opsetConnectionInfo);
 
+            addSupportedOperationSet(
+                    OperationSetConnectionResumption.class,
+                    new OperationSetConnectionResumptionJabberImpl(this));
+
             isInitialized = true;
         }
     }
@@ -52,13 +52,23 @@
      */
     private final ProtocolProviderServiceJabberImpl protocolProvider;
 
+    /**
+     * The contact list handler that creates us.
+     */
+    private final ServerStoredContactListJabberImpl ssclCallback;
+
     /**
      * Creates a ContactGroup instance.
+     *
+     * @param protocolProvider the provider.
+     * @param ssclCallback the contact list handler that creates us.
      */
     RootContactGroupJabberImpl(
-        ProtocolProviderServiceJabberImpl protocolProvider)
+        ProtocolProviderServiceJabberImpl protocolProvider,
+        ServerStoredContactListJabberImpl ssclCallback)
     {
         this.protocolProvider = protocolProvider;
+        this.ssclCallback = ssclCallback;
     }
 
     /**
@@ -89,6 +99,7 @@ public String getGroupName()
     void removeContact(ContactJabberImpl contact)
     {
         contacts.remove(contact.getAddress().toLowerCase());
+        ssclCallback.contactRemovedFromGroup(contact, this);
     }
 
 
@@ -98,7 +109,8 @@ void removeContact(ContactJabberImpl contact)
      */
     public void addContact(ContactJabberImpl contact)
     {
-        contacts.put(contact.getAddress(), contact);
+        contacts.put(contact.getAddress().toLowerCase(), contact);
+        ssclCallback.contactAddedToGroup(contact, this);
     }
 
     /**
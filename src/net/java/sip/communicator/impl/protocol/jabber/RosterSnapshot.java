@@ -0,0 +1,271 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.util.*;
+
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.packet.*;
+
+/**
+ * A lightweight copy of the roster as it was last synchronized with the
+ * server. It survives reconnects of the protocol provider, so that when the
+ * roster is received again only the entries that changed while we were
+ * offline have to be applied to the contact list, instead of resolving every
+ * contact one more time.
+ */
+class RosterSnapshot
+{
+    /**
+     * The signatures of the roster entries, mapped by their lower case bare
+     * address.
+     */
+    private final Map<String, String> entries = new HashMap<String, String>();
+
+    /**
+     * Whether this snapshot has been filled with a complete roster.
+     */
+    private boolean initialized = false;
+
+    /**
+     * Returns whether this snapshot holds a complete roster received during
+     * a previous connection.
+     *
+     * @return <tt>true</tt> if the snapshot holds a complete roster.
+     */
+    synchronized boolean isInitialized()
+    {
+        return initialized;
+    }
+
+    /**
+     * Replaces the content of this snapshot with the specified roster
+     * entries.
+     *
+     * @param rosterEntries the entries of the complete roster.
+     */
+    synchronized void reset(Collection<RosterEntry> rosterEntries)
+    {
+        reset(getSignatures(rosterEntries));
+    }
+
+    /**
+     * Replaces the content of this snapshot with the specified entry
+     * signatures.
+     *
+     * @param signatures the signatures of the entries of the complete roster
+     * mapped by their address.
+     */
+    synchronized void reset(Map<String, String> signatures)
+    {
+        entries.clear();
+
+        for (Map.Entry<String, String> e : signatures.entrySet())
+            entries.put(e.getKey().toLowerCase(), e.getValue());
+
+        initialized = true;
+    }
+
+    /**
+     * Discards the content of this snapshot, so that the next roster will be
+     * applied as a whole.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+        initialized = false;
+    }
+
+    /**
+     * Records the current state of a roster entry.
+     *
+     * @param entry the entry that was added or updated.
+     */
+    synchronized void update(RosterEntry entry)
+    {
+        entries.put(entry.getUser().toLowerCase(), getSignature(entry));
+    }
+
+    /**
+     * Removes a roster entry from this snapshot.
+     *
+     * @param user the address of the removed entry.
+     */
+    synchronized void remove(String user)
+    {
+        entries.remove(user.toLowerCase());
+    }
+
+    /**
+     * Compares this snapshot with the specified complete roster and returns
+     * the addresses of the entries which were added, updated and deleted
+     * since. The snapshot is updated to reflect the new roster.
+     *
+     * @param rosterEntries the entries of the complete roster.
+     * @return the difference between the snapshot and the roster.
+     */
+    synchronized Delta apply(Collection<RosterEntry> rosterEntries)
+    {
+        return apply(getSignatures(rosterEntries));
+    }
+
+    /**
+     * Compares this snapshot with the specified entry signatures and returns
+     * the addresses of the entries which were added, updated and deleted
+     * since. The snapshot is updated to reflect the new roster.
+     *
+     * @param signatures the signatures of the entries of the complete roster
+     * mapped by their address.
+     * @return the difference between the snapshot and the roster.
+     */
+    synchronized Delta apply(Map<String, String> signatures)
+    {
+        Delta delta = new Delta();
+        Map<String, String> previous = new HashMap<String, String>(entries);
+
+        reset(signatures);
+
+        for (Map.Entry<String, String> e : signatures.entrySet())
+        {
+            String user = e.getKey();
+            String oldSignature = previous.remove(user.toLowerCase());
+
+            if (oldSignature == null)
+                delta.added.add(user);
+            else if (!oldSignature.equals(e.getValue()))
+                delta.updated.add(user);
+        }
+
+        delta.deleted.addAll(previous.keySet());
+
+        return delta;
+    }
+
+    /**
+     * Returns the number of entries in this snapshot.
+     *
+     * @return the number of entries in this snapshot.
+     */
+    synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Builds the signatures of the specified roster entries.
+     *
+     * @param rosterEntries the roster entries.
+     * @return the signatures of the entries mapped by their address.
+     */
+    private static Map<String, String> getSignatures(
+        Collection<RosterEntry> rosterEntries)
+    {
+        Map<String, String> signatures
+            = new LinkedHashMap<String, String>(rosterEntries.size());
+
+        for (RosterEntry entry : rosterEntries)
+            signatures.put(entry.getUser(), getSignature(entry));
+
+        return signatures;
+    }
+
+    /**
+     * Builds the signature of a roster entry.
+     *
+     * @param entry the roster entry.
+     * @return the signature of the entry.
+     */
+    private static String getSignature(RosterEntry entry)
+    {
+        List<String> groups = new ArrayList<String>();
+
+        for (RosterGroup group : entry.getGroups())
+            groups.add(group.getName());
+
+        return getSignature(
+            entry.getName(), entry.getType(), entry.getStatus(), groups);
+    }
+
+    /**
+     * Builds a string which changes whenever any of the properties of a
+     * roster entry that we show in the contact list changes.
+     *
+     * @param name the name of the entry.
+     * @param type the subscription type of the entry.
+     * @param status the pending subscription status of the entry.
+     * @param groups the names of the groups the entry belongs to.
+     * @return the signature of the entry.
+     */
+    static String getSignature(
+        String name,
+        RosterPacket.ItemType type,
+        RosterPacket.ItemStatus status,
+        Collection<String> groups)
+    {
+        StringBuilder signature = new StringBuilder();
+
+        signature.append(name).append('\n')
+            .append(type).append('\n')
+            .append(status);
+
+        for (String group : new TreeSet<String>(groups))
+            signature.append('\n').append(group);
+
+        return signature.toString();
+    }
+
+    /**
+     * The addresses of the roster entries that changed between two
+     * synchronizations.
+     */
+    static class Delta
+    {
+        /**
+         * The addresses of the entries that were added.
+         */
+        final List<String> added = new ArrayList<String>();
+
+        /**
+         * The addresses of the entries that were updated.
+         */
+        final List<String> updated = new ArrayList<String>();
+
+        /**
+         * The lower case addresses of the entries that were deleted.
+         */
+        final List<String> deleted = new ArrayList<String>();
+
+        /**
+         * Returns whether nothing has changed.
+         *
+         * @return <tt>true</tt> if no entry was added, updated or deleted.
+         */
+        boolean isEmpty()
+        {
+            return added.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "added=" + added.size()
+                + " updated=" + updated.size()
+                + " deleted=" + deleted.size();
+        }
+    }
+}
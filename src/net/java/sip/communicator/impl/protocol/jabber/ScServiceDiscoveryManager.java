@@ -24,6 +24,7 @@
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.util.*;
 
+import org.jitsi.service.configuration.*;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.filter.*;
 import org.jivesoftware.smack.packet.*;
@@ -51,6 +52,40 @@
     private static final Logger logger
         = Logger.getLogger(ScServiceDiscoveryManager.class);
 
+    /**
+     * The name of the property that holds the maximum number of
+     * <tt>disco#info</tt> requests which are sent without having been answered
+     * yet.
+     */
+    static final String MAX_CONCURRENT_REQUESTS_PNAME
+        = "net.java.sip.communicator.impl.protocol.jabber"
+            + ".DISCO_MAX_CONCURRENT_REQUESTS";
+
+    /**
+     * The default maximum number of <tt>disco#info</tt> requests in flight.
+     */
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    /**
+     * The name of the property that holds the maximum number of
+     * <tt>disco#info</tt> requests sent per second to the entities of a
+     * single server.
+     */
+    static final String MAX_REQUESTS_PER_SECOND_PNAME
+        = "net.java.sip.communicator.impl.protocol.jabber"
+            + ".DISCO_MAX_REQUESTS_PER_SECOND_PER_SERVER";
+
+    /**
+     * The default maximum number of <tt>disco#info</tt> requests sent per
+     * second to the entities of a single server.
+     */
+    static final int DEFAULT_MAX_REQUESTS_PER_SECOND = 20;
+
+    /**
+     * The weight of the latest sample in the smoothed discovery latency.
+     */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
     /**
      * The flag which indicates whether we are currently storing non-caps.
      */
@@ -503,7 +538,7 @@ public DiscoverInfo discoverInfo(String entityID)
         // if caps is not valid, has empty hash
         if (cacheNonCaps && (caps == null || !caps.isValid(discoverInfo)))
         {
-            discoverInfo = nonCapsCache.get(entityID);
+            discoverInfo = getNonCapsDiscoverInfo(entityID);
             if (discoverInfo != null)
                 return discoverInfo;
         }
@@ -527,13 +562,50 @@ public DiscoverInfo discoverInfo(String entityID)
         if (caps == null)
         {
             if (cacheNonCaps)
-                nonCapsCache.put(entityID, discoverInfo);
+                putNonCapsDiscoverInfo(entityID, discoverInfo);
         }
         else
             EntityCapsManager.addDiscoverInfoByCaps(caps, discoverInfo);
         return discoverInfo;
     }
 
+    /**
+     * Returns the cached discovered information of an XMPP entity which does
+     * not advertise entity capabilities. Looks in the information remembered
+     * by a previous application instance if it is not cached in memory.
+     *
+     * @param entityID the address of the XMPP entity
+     * @return the cached discovered information or <tt>null</tt>
+     */
+    private DiscoverInfo getNonCapsDiscoverInfo(String entityID)
+    {
+        DiscoverInfo discoverInfo = nonCapsCache.get(entityID);
+
+        if (discoverInfo == null)
+        {
+            discoverInfo = EntityCapsManager.getDiscoverInfoByEntity(entityID);
+            if (discoverInfo != null)
+                nonCapsCache.put(entityID, discoverInfo);
+        }
+        return discoverInfo;
+    }
+
+    /**
+     * Caches the discovered information of an XMPP entity which does not
+     * advertise entity capabilities, in memory and across application
+     * instances.
+     *
+     * @param entityID the address of the XMPP entity
+     * @param discoverInfo the discovered information of <tt>entityID</tt>
+     */
+    private void putNonCapsDiscoverInfo(
+            String entityID,
+            DiscoverInfo discoverInfo)
+    {
+        nonCapsCache.put(entityID, discoverInfo);
+        EntityCapsManager.addDiscoverInfoByEntity(entityID, discoverInfo);
+    }
+
     /**
      * Returns the discovered information of a given XMPP entity addressed by
      * its JID if locally cached, otherwise schedules for retrieval.
@@ -555,7 +627,7 @@ public DiscoverInfo discoverInfoNonBlocking(String entityID)
         // if caps is not valid, has empty hash
         if (cacheNonCaps && (caps == null || !caps.isValid(discoverInfo)))
         {
-            discoverInfo = nonCapsCache.get(entityID);
+            discoverInfo = getNonCapsDiscoverInfo(entityID);
             if (discoverInfo != null)
                 return discoverInfo;
         }
@@ -660,6 +732,40 @@ public EntityCapsManager getCapsManager()
         return capsManager;
     }
 
+    /**
+     * Returns the number of entities which are waiting for their discovered
+     * information to be requested.
+     *
+     * @return the number of queued discovery requests
+     */
+    public int getDiscoveryQueueLength()
+    {
+        return retriever.getQueueLength();
+    }
+
+    /**
+     * Returns the number of discovery requests which have been sent and not
+     * answered yet.
+     *
+     * @return the number of discovery requests in flight
+     */
+    public int getDiscoveryInFlightCount()
+    {
+        return retriever.getInFlightCount();
+    }
+
+    /**
+     * Returns the smoothed time between the scheduling of the retrieval of
+     * the discovered information of an entity and its completion.
+     *
+     * @return the average discovery latency in milliseconds or <tt>-1</tt> if
+     * no discovery has completed yet
+     */
+    public long getAverageDiscoveryLatency()
+    {
+        return retriever.getAverageLatency();
+    }
+
     /**
      * Clears/stops what's needed.
      */
@@ -670,10 +776,13 @@ public void stop()
     }
 
     /**
-     * Thread that runs the discovery info.
+     * Requests the discovered information of the entities whose capabilities
+     * are not known yet. Up to {@link #MAX_CONCURRENT_REQUESTS_PNAME}
+     * requests are in flight at the same time and the requests to the
+     * entities of a single server are spaced according to
+     * {@link #MAX_REQUESTS_PER_SECOND_PNAME}.
      */
     private class DiscoveryInfoRetriever
-        implements Runnable
     {
         /**
          * start/stop.
@@ -681,16 +790,50 @@ public void stop()
         private boolean stopped = true;
 
         /**
-         * The thread that runs this dispatcher.
+         * The executor which sends the requests or <tt>null</tt> if this
+         * retriever is not started.
+         */
+        private ScheduledThreadPoolExecutor executor = null;
+
+        /**
+         * Entities to be processed, in the order in which they have been
+         * queued.
          */
-        private Thread retrieverThread = null;
+        private final Map<String, QueuedEntity> entities
+            = new LinkedHashMap<String, QueuedEntity>();
 
         /**
-         * Entities to be processed and their caps.
-         * HashMap so we can store null caps.
+         * The entities whose discovered information is being requested.
          */
-        private Map<String, EntityCapsManager.Caps> entities
-            = new HashMap<String, EntityCapsManager.Caps>();
+        private final Set<String> inFlightEntities = new HashSet<String>();
+
+        /**
+         * The times before which no request is to be sent to the entities of
+         * a server, mapped by server.
+         */
+        private final Map<String, Long> nextRequestTimes
+            = new HashMap<String, Long>();
+
+        /**
+         * The maximum number of requests in flight.
+         */
+        private int maxInFlight;
+
+        /**
+         * The minimum number of milliseconds between two requests to the
+         * entities of a single server.
+         */
+        private long minRequestInterval;
+
+        /**
+         * Whether {@link #dispatcher} is scheduled to run.
+         */
+        private boolean dispatchScheduled = false;
+
+        /**
+         * The smoothed discovery latency in milliseconds or <tt>-1</tt>.
+         */
+        private long averageLatency = -1;
 
         /**
          * Our capability operation set.
@@ -698,53 +841,134 @@ public void stop()
         private OperationSetContactCapabilitiesJabberImpl capabilitiesOpSet;
 
         /**
-         * Runs in different thread.
+         * Sends the queued requests which were held back by the rate limit.
          */
-        public void run()
+        private final Runnable dispatcher = new Runnable()
         {
-            try
+            @Override
+            public void run()
+            {
+                synchronized (entities)
+                {
+                    dispatchScheduled = false;
+                    dispatch();
+                }
+            }
+        };
+
+        /**
+         * Sends as many of the queued requests as the limits allow. Must be
+         * called while holding the lock of {@link #entities}.
+         */
+        private void dispatch()
+        {
+            if (stopped)
+                return;
+
+            long now = System.currentTimeMillis();
+            long delay = -1;
+            Iterator<Map.Entry<String, QueuedEntity>> iter
+                = entities.entrySet().iterator();
+
+            while ((inFlightEntities.size() < maxInFlight) && iter.hasNext())
             {
-                stopped = false;
+                Map.Entry<String, QueuedEntity> entry = iter.next();
+                final String entityID = entry.getKey();
+                String server = StringUtils.parseServer(entityID);
+                Long nextRequestTime = nextRequestTimes.get(server);
 
-                while(!stopped)
+                if ((nextRequestTime != null) && (nextRequestTime > now))
                 {
-                    Map.Entry<String, EntityCapsManager.Caps>
-                        entityToProcess = null;
+                    long serverDelay = nextRequestTime - now;
+
+                    if ((delay < 0) || (serverDelay < delay))
+                        delay = serverDelay;
+                    continue;
+                }
 
-                    synchronized(entities)
+                iter.remove();
+                nextRequestTimes.put(server, now + minRequestInterval);
+                inFlightEntities.add(entityID);
+
+                final QueuedEntity entity = entry.getValue();
+                final ScheduledThreadPoolExecutor executor = this.executor;
+
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
                     {
-                        if(entities.size() == 0)
+                        try
                         {
-                            try
-                            {
-                                entities.wait();
-                            }
-                            catch (InterruptedException iex){}
+                            requestDiscoveryInfo(entityID, entity.caps);
                         }
-
-                        Iterator<Map.Entry<String, EntityCapsManager.Caps>>
-                            iter = entities.entrySet().iterator();
-                        if(iter.hasNext())
+                        catch (Throwable t)
+                        {
+                            if (t instanceof ThreadDeath)
+                                throw (ThreadDeath) t;
+                            logger.error(
+                                    "Error requesting discovery info for "
+                                        + entityID,
+                                    t);
+                        }
+                        finally
                         {
-                            entityToProcess = iter.next();
-                            iter.remove();
+                            requestCompleted(executor, entityID, entity);
                         }
                     }
+                });
+            }
 
-                    if(entityToProcess != null)
-                    {
-                        // process
-                        requestDiscoveryInfo(
-                            entityToProcess.getKey(),
-                            entityToProcess.getValue());
-                    }
+            if ((delay >= 0) && !dispatchScheduled)
+            {
+                dispatchScheduled = true;
+                executor.schedule(dispatcher, delay, TimeUnit.MILLISECONDS);
+            }
 
-                    entityToProcess = null;
-                }
-            } catch(Throwable t)
+            // Forget the servers which may be requested again already.
+            if (entities.isEmpty() && inFlightEntities.isEmpty())
+                nextRequestTimes.clear();
+        }
+
+        /**
+         * Notes that the discovered information of an entity has been
+         * requested and sends the next queued request.
+         *
+         * @param executor the executor which has sent the request
+         * @param entityID the entity
+         * @param entity the queued entity
+         */
+        private void requestCompleted(
+                ScheduledThreadPoolExecutor executor,
+                String entityID,
+                QueuedEntity entity)
+        {
+            synchronized (entities)
             {
-                logger.error("Error requesting discovery info, " +
-                    "thread ended unexpectedly", t);
+                // The retriever has been stopped since the request was sent.
+                if (executor != this.executor)
+                    return;
+
+                inFlightEntities.remove(entityID);
+
+                long latency = System.currentTimeMillis() - entity.queuedTime;
+
+                averageLatency
+                    = (averageLatency < 0)
+                        ? latency
+                        : Math.round(
+                                LATENCY_SMOOTHING * latency
+                                    + (1 - LATENCY_SMOOTHING)
+                                        * averageLatency);
+
+                if (logger.isTraceEnabled())
+                {
+                    logger.trace(
+                            "Discovered info of " + entityID + " in "
+                                + latency + "ms, " + entities.size()
+                                + " queued");
+                }
+                dispatch();
             }
         }
 
@@ -779,7 +1003,7 @@ private void requestDiscoveryInfo(final String entityID,
                 {
                     if (cacheNonCaps)
                     {
-                        nonCapsCache.put(entityID, discoverInfo);
+                        putNonCapsDiscoverInfo(entityID, discoverInfo);
                         fireEvent = true;
                     }
                 }
@@ -818,22 +1042,63 @@ public void addEntityForRetrieve(String entityID,
         {
             synchronized(entities)
             {
-
-                if(!entities.containsKey(entityID))
+                if(!entities.containsKey(entityID)
+                        && !inFlightEntities.contains(entityID))
                 {
-                    entities.put(entityID, caps);
-                    entities.notifyAll();
+                    entities.put(entityID, new QueuedEntity(caps));
 
-                    if(retrieverThread == null)
+                    if(executor == null)
                     {
                         start();
                     }
+                    dispatch();
                 }
             }
         }
 
         /**
-         * Start thread.
+         * Returns the number of queued entities.
+         *
+         * @return the number of queued entities
+         */
+        int getQueueLength()
+        {
+            synchronized (entities)
+            {
+                return entities.size();
+            }
+        }
+
+        /**
+         * Returns the number of requests in flight.
+         *
+         * @return the number of requests in flight
+         */
+        int getInFlightCount()
+        {
+            synchronized (entities)
+            {
+                return inFlightEntities.size();
+            }
+        }
+
+        /**
+         * Returns the smoothed discovery latency.
+         *
+         * @return the smoothed discovery latency in milliseconds or
+         * <tt>-1</tt>
+         */
+        long getAverageLatency()
+        {
+            synchronized (entities)
+            {
+                return averageLatency;
+            }
+        }
+
+        /**
+         * Starts the executor. Must be called while holding the lock of
+         * {@link #entities}.
          */
         private void start()
         {
@@ -841,14 +1106,47 @@ private void start()
                 parentProvider.getOperationSet(
                     OperationSetContactCapabilities.class);
 
-            retrieverThread = new Thread(
-                this,
-                ScServiceDiscoveryManager.class.getName());
-            retrieverThread.setDaemon(true);
-
-            retrieverThread.start();
-
+            ConfigurationService cfg
+                = JabberActivator.getConfigurationService();
+            int maxRequestsPerSecond = DEFAULT_MAX_REQUESTS_PER_SECOND;
 
+            maxInFlight = DEFAULT_MAX_CONCURRENT_REQUESTS;
+            if (cfg != null)
+            {
+                maxInFlight
+                    = cfg.getInt(MAX_CONCURRENT_REQUESTS_PNAME, maxInFlight);
+                maxRequestsPerSecond
+                    = cfg.getInt(
+                            MAX_REQUESTS_PER_SECOND_PNAME,
+                            maxRequestsPerSecond);
+            }
+            maxInFlight = Math.max(1, maxInFlight);
+            minRequestInterval
+                = (maxRequestsPerSecond > 0)
+                    ? (1000 / Math.min(maxRequestsPerSecond, 1000))
+                    : 0;
+
+            executor
+                = new ScheduledThreadPoolExecutor(
+                        maxInFlight,
+                        new ThreadFactory()
+                        {
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread t
+                                    = new Thread(
+                                            r,
+                                            ScServiceDiscoveryManager.class
+                                                .getName());
+
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+            executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            stopped = false;
         }
 
         /**
@@ -859,10 +1157,42 @@ void stop()
             synchronized(entities)
             {
                 stopped = true;
-                entities.notifyAll();
-
-                retrieverThread = null;
+                if (executor != null)
+                {
+                    executor.shutdownNow();
+                    executor = null;
+                }
+                inFlightEntities.clear();
+                nextRequestTimes.clear();
+                dispatchScheduled = false;
             }
         }
     }
+
+    /**
+     * An entity queued by {@link DiscoveryInfoRetriever} for the retrieval of
+     * its discovered information.
+     */
+    private static class QueuedEntity
+    {
+        /**
+         * The capabilities of the entity or <tt>null</tt>.
+         */
+        final EntityCapsManager.Caps caps;
+
+        /**
+         * The time at which the entity was queued.
+         */
+        final long queuedTime = System.currentTimeMillis();
+
+        /**
+         * Initializes a new <tt>QueuedEntity</tt>.
+         *
+         * @param caps the capabilities of the entity or <tt>null</tt>
+         */
+        QueuedEntity(EntityCapsManager.Caps caps)
+        {
+            this.caps = caps;
+        }
+    }
 }
@@ -18,6 +18,7 @@
 package net.java.sip.communicator.impl.protocol.jabber;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.customavatar.*;
 import net.java.sip.communicator.service.protocol.*;
@@ -80,9 +81,14 @@
         = new Vector<ServerStoredGroupListener>();
 
     /**
-     *  Thread retreiving images for contacts
+     * Retrieves the images of the contacts.
      */
-    private ImageRetriever imageRetriever = null;
+    private AvatarRetriever avatarRetriever = null;
+
+    /**
+     * Lock object for the avatarRetriever variable.
+     */
+    private final Object avatarRetrieverLock = new Object();
 
     /**
      * Listens for roster changes.
@@ -114,6 +120,21 @@
      */
     private String initialStatusMessage = null;
 
+    /**
+     * The groups containing our contacts, mapped by the lower case address of
+     * the contacts, so that a contact can be found without querying every
+     * group.
+     */
+    private final ConcurrentMap<String, AbstractContactGroupJabberImpl>
+        contactIndex
+            = new ConcurrentHashMap<String, AbstractContactGroupJabberImpl>();
+
+    /**
+     * The roster as it was last synchronized with the server. Used on
+     * reconnect to only apply the changes made while we were offline.
+     */
+    private final RosterSnapshot rosterSnapshot = new RosterSnapshot();
+
     /**
      * Creates a ServerStoredContactList wrapper for the specified BuddyList.
      *
@@ -132,7 +153,7 @@
         this.parentOperationSet = parentOperationSet;
 
         this.jabberProvider = provider;
-        this.rootGroup = new RootContactGroupJabberImpl(this.jabberProvider);
+        this.rootGroup = new RootContactGroupJabberImpl(this.jabberProvider, this);
         this.infoRetreiver = infoRetreiver;
     }
 
@@ -393,34 +414,76 @@ private ContactGroupJabberImpl findContactGroupByNameCopy(String name)
      */
     public ContactJabberImpl findContactById(String id)
     {
-        Iterator<ContactGroup> contactGroups = rootGroup.subgroups();
-        ContactJabberImpl result = null;
         String userId = StringUtils.parseBareAddress(id);
+        ContactJabberImpl result = findIndexedContact(userId);
 
-        while(contactGroups.hasNext())
-        {
-            ContactGroupJabberImpl contactGroup
-                = (ContactGroupJabberImpl)contactGroups.next();
+        //check for private contacts
+        if(result == null && !userId.equals(id))
+            result = findIndexedContact(id);
 
-            result = contactGroup.findContact(userId);
+        return result;
+    }
 
-            if (result != null)
-                return result;
-        }
+    /**
+     * Looks up a contact in the contact index.
+     *
+     * @param address the address of the contact.
+     * @return the contact or <tt>null</tt> if no such contact exists.
+     */
+    private ContactJabberImpl findIndexedContact(String address)
+    {
+        AbstractContactGroupJabberImpl group
+            = contactIndex.get(address.toLowerCase());
 
-        //check for private contacts
-        ContactGroupJabberImpl volatileGroup
-            = getNonPersistentGroup();
-        if(volatileGroup != null)
-        {
-            result = volatileGroup.findContact(id);
+        if(group instanceof ContactGroupJabberImpl)
+            return ((ContactGroupJabberImpl)group).findContact(address);
+        else if(group instanceof RootContactGroupJabberImpl)
+            return ((RootContactGroupJabberImpl)group).findContact(address);
+        else
+            return null;
+    }
 
-            if (result != null)
-                return result;
-        }
+    /**
+     * Updates the contact index when a contact is added to a group.
+     *
+     * @param contact the added contact.
+     * @param group the group the contact was added to.
+     */
+    void contactAddedToGroup(
+        ContactJabberImpl contact, AbstractContactGroupJabberImpl group)
+    {
+        contactIndex.put(contact.getAddress().toLowerCase(), group);
+    }
 
-        //try the root group now
-        return rootGroup.findContact(userId);
+    /**
+     * Updates the contact index when a contact is removed from a group. A
+     * contact being moved is first added to its new group, so the index is
+     * only cleared if it still points to the group the contact left.
+     *
+     * @param contact the removed contact.
+     * @param group the group the contact was removed from.
+     */
+    void contactRemovedFromGroup(
+        ContactJabberImpl contact, AbstractContactGroupJabberImpl group)
+    {
+        contactIndex.remove(contact.getAddress().toLowerCase(), group);
+    }
+
+    /**
+     * Removes a group from the root group together with the index entries of
+     * the contacts it still contains.
+     *
+     * @param group the group to remove.
+     */
+    private void removeSubGroup(ContactGroupJabberImpl group)
+    {
+        rootGroup.removeSubGroup(group);
+
+        Iterator<Contact> iter = group.contacts();
+        while(iter.hasNext())
+        {
+            contactRemovedFromGroup((ContactJabberImpl) iter.next(), group);
+        }
     }
 
     /**
@@ -646,6 +709,9 @@ synchronized ContactJabberImpl createUnresolvedContact(
             return existingContact;
         }
 
+        // the roster has to be resolved as a whole on the next login
+        rosterSnapshot.clear();
+
         ContactJabberImpl newUnresolvedContact
             = new ContactJabberImpl(id, this, true);
 
@@ -681,6 +747,9 @@ synchronized ContactGroupJabberImpl createUnresolvedContactGroup(
             return existingGroup;
         }
 
+        // the roster has to be resolved as a whole on the next login
+        rosterSnapshot.clear();
+
         ContactGroupJabberImpl newUnresolvedGroup =
             new ContactGroupJabberImpl(groupName, this);
 
@@ -898,7 +967,17 @@ void init(OperationSetPersistentPresenceJabberImpl.ContactChangesListener
         this.roster.addRosterListener(presenceChangeListener);
         this.roster.setSubscriptionMode(Roster.SubscriptionMode.manual);
 
-        initRoster();
+        rosterChangeListener = new ChangeListener();
+
+        if(rosterSnapshot.isInitialized())
+        {
+            applyRosterChanges(rosterSnapshot.apply(roster.getEntries()));
+        }
+        else
+        {
+            initRoster();
+            rosterSnapshot.reset(roster.getEntries());
+        }
 
         // roster has been requested and dispatched, mark this
         synchronized(rosterInitLock)
@@ -910,7 +989,6 @@ void init(OperationSetPersistentPresenceJabberImpl.ContactChangesListener
 
         presenceChangeListener.processStoredEvents();
 
-        rosterChangeListener = new ChangeListener();
         this.roster.addRosterListener(rosterChangeListener);
     }
 
@@ -948,10 +1026,13 @@ void sendInitialStatus()
      */
     void cleanup()
     {
-        if(imageRetriever != null)
+        synchronized(avatarRetrieverLock)
         {
-            imageRetriever.quit();
-            imageRetriever = null;
+            if(avatarRetriever != null)
+            {
+                avatarRetriever.quit();
+                avatarRetriever = null;
+            }
         }
 
         if(this.roster != null)
@@ -966,6 +1047,50 @@ void cleanup()
         }
     }
 
+    /**
+     * When we reconnect and our contact list is already resolved against the
+     * roster of a previous connection, applies only the entries that were
+     * added, updated or deleted in the meantime.
+     *
+     * @param delta the changes since the previous connection.
+     */
+    private synchronized void applyRosterChanges(RosterSnapshot.Delta delta)
+    {
+        if (logger.isDebugEnabled())
+            logger.debug("Roster changes since last connection: " + delta);
+
+        if(delta.isEmpty())
+            return;
+
+        rosterChangeListener.entriesDeleted(delta.deleted);
+        rosterChangeListener.entriesAdded(delta.added);
+        rosterChangeListener.entriesUpdated(delta.updated);
+
+        // contacts moved to another group or whose subscription changed are
+        // recreated or updated as well, so refresh their presence like the
+        // one of the new contacts
+        firePresenceStatusChanged(delta.added);
+        firePresenceStatusChanged(delta.updated);
+    }
+
+    /**
+     * Fires the current presence of the contacts of some roster entries
+     * which are still in our contact list.
+     *
+     * @param users the addresses of the roster entries.
+     */
+    private void firePresenceStatusChanged(Collection<String> users)
+    {
+        for (String user : users)
+        {
+            if(findContactById(user) == null)
+                continue;
+
+            parentOperationSet.firePresenceStatusChanged(
+                roster.getPresence(user));
+        }
+    }
+
     /**
      * When the protocol is online this method is used to fill or resolve
      * the current contact list
@@ -1119,7 +1244,7 @@ private synchronized void initRoster()
 
         for(ContactGroupJabberImpl group: groupsToRemove)
         {
-            rootGroup.removeSubGroup(group);
+            removeSubGroup(group);
 
             fireGroupEvent(
                 group, ServerStoredGroupEvent.GROUP_REMOVED_EVENT);
@@ -1255,13 +1380,53 @@ protected void addContactForImageUpdate(ContactJabberImpl contact)
             && ((VolatileContactJabberImpl)contact).isPrivateMessagingContact())
             return;
 
-        if(imageRetriever == null)
+        getAvatarRetriever().addContact(contact);
+    }
+
+    /**
+     * Handles the XEP-0153 photo hash announced in a presence of one of our
+     * contacts, retrieving its new avatar if the hash has changed.
+     *
+     * @param contact the contact.
+     * @param photoHash the announced SHA-1 hash of the avatar, empty if the
+     * contact has no avatar.
+     */
+    void contactPhotoHashReceived(ContactJabberImpl contact, String photoHash)
+    {
+        infoRetreiver.photoHashReceived(contact.getAddress(), photoHash);
+        getAvatarRetriever().photoHashReceived(contact, photoHash);
+    }
+
+    /**
+     * Returns the avatar retriever, creating it if necessary.
+     *
+     * @return the avatar retriever.
+     */
+    private AvatarRetriever getAvatarRetriever()
+    {
+        synchronized(avatarRetrieverLock)
         {
-            imageRetriever = new ImageRetriever();
-            imageRetriever.start();
-        }
+            if(avatarRetriever != null)
+                return avatarRetriever;
 
-        imageRetriever.addContact(contact);
+            final AvatarRetriever retriever
+                = new AvatarRetriever(this, parentOperationSet, infoRetreiver);
+
+            avatarRetriever = retriever;
+
+            // avatars are not urgent, let the logins of the accounts finish
+            // first. contacts queued meanwhile are retrieved once started.
+            LoginOrchestrator.deferUntilIdle(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    retriever.start();
+                }
+            });
+
+            return retriever;
+        }
     }
 
     /**
@@ -1328,7 +1493,7 @@ private void contactDeleted(ContactJabberImpl contact)
             // from server if empty
             if (groupImpl.countContacts() == 0)
             {
-                rootGroup.removeSubGroup(groupImpl);
+                removeSubGroup(groupImpl);
 
                 fireContactRemoved(groupImpl, contact);
                 fireGroupEvent(groupImpl,
@@ -1374,6 +1539,7 @@ public void entriesAdded(Collection<String> addresses)
             for (String id : addresses)
             {
                 addEntryToContactList(id);
+                rosterSnapshot.update(roster.getEntry(id));
             }
         }
 
@@ -1522,8 +1688,19 @@ public void entriesUpdated(Collection<String> addresses)
             {
                 RosterEntry entry = roster.getEntry(contactID);
 
+                rosterSnapshot.update(entry);
+
                 ContactJabberImpl contact = addEntryToContactList(contactID);
 
+                if(contact == null)
+                {
+                    // the entry is no longer displayable
+                    contact = findContactById(contactID);
+                    if(contact != null && contact.isPersistent())
+                        contactDeleted(contact);
+                    continue;
+                }
+
                 if(entry.getGroups().size() == 0)
                 {
                     // check for change in display name
@@ -1681,6 +1858,8 @@ public void entriesDeleted(Collection<String> addresses)
                 if (logger.isTraceEnabled())
                     logger.trace("entry deleted " + address);
 
+                rosterSnapshot.remove(address);
+
                 ContactJabberImpl contact = findContactById(address);
 
                 if(contact == null)
@@ -1703,170 +1882,11 @@ public void presenceChanged(Presence presence)
         {}
     }
 
-    /**
-     * Thread retrieving images.
-     */
-    private class ImageRetriever
-        extends Thread
-    {
-        /**
-         * list with the accounts with missing image
-         */
-        private final List<ContactJabberImpl> contactsForUpdate
-            = new Vector<ContactJabberImpl>();
-
-        /**
-         * Should we stop.
-         */
-        private boolean running = false;
-
-        /**
-         * Creates image retrieving.
-         */
-        ImageRetriever()
-        {
-            setDaemon(true);
-        }
-
-        /**
-         * Thread entry point.
-         */
-        @Override
-        public void run()
-        {
-            try
-            {
-                Collection<ContactJabberImpl> copyContactsForUpdate = null;
-                running = true;
-                while (running)
-                {
-                    synchronized(contactsForUpdate)
-                    {
-                        if(contactsForUpdate.isEmpty())
-                            contactsForUpdate.wait();
-
-                        if(!running)
-                            return;
-
-                        copyContactsForUpdate
-                            = new Vector<ContactJabberImpl>(contactsForUpdate);
-                        contactsForUpdate.clear();
-                    }
-
-                    Iterator<ContactJabberImpl> iter
-                        = copyContactsForUpdate.iterator();
-                    while (iter.hasNext())
-                    {
-                        ContactJabberImpl contact = iter.next();
-
-                        byte[] imgBytes = getAvatar(contact);
-
-                        if(imgBytes != null)
-                        {
-                            byte[] oldImage = contact.getImage(false);
-
-                            contact.setImage(imgBytes);
-                            parentOperationSet.fireContactPropertyChangeEvent(
-                                ContactPropertyChangeEvent.PROPERTY_IMAGE,
-                                contact, oldImage, imgBytes);
-                        }
-                        else
-                            // set an empty image data so it won't be queried again
-                            contact.setImage(new byte[0]);
-                    }
-                }
-            }
-            catch (InterruptedException ex)
-            {
-                logger.error("ImageRetriever error waiting will stop now!", ex);
-            }
-        }
-
-        /**
-         * Add contact for retrieving
-         * if the provider is register notify the retriever to get the nicks
-         * if we are not registered add a listener to wait for registering
-         *
-         * @param contact ContactJabberImpl
-         */
-        void addContact(ContactJabberImpl contact)
-        {
-            synchronized(contactsForUpdate)
-            {
-                if (!contactsForUpdate.contains(contact))
-                {
-                    contactsForUpdate.add(contact);
-                    contactsForUpdate.notifyAll();
-                }
-            }
-        }
-
-        /**
-         * Stops this thread.
-         */
-        void quit()
-        {
-            synchronized(contactsForUpdate)
-            {
-                running = false;
-                contactsForUpdate.notifyAll();
-            }
-        }
-
-        /**
-         * Retrieves the avatar.
-         * @param contact the contact.
-         * @return the contact avatar.
-         */
-        private byte[] getAvatar(ContactJabberImpl contact)
-        {
-            byte[] result = null;
-            try
-            {
-                Iterator<ServerStoredDetails.GenericDetail> iter =
-                    infoRetreiver.getDetails(contact.getAddress(),
-                    ServerStoredDetails.ImageDetail.class);
-
-                if(iter.hasNext())
-                {
-                    ServerStoredDetails.ImageDetail imgDetail =
-                        (ServerStoredDetails.ImageDetail)iter.next();
-                    result = imgDetail.getBytes();
-                }
-
-                if(result == null)
-                {
-                    result = searchForCustomAvatar(contact.getAddress());
-                }
-
-                return result;
-            }
-            catch (Exception ex)
-            {
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug(
-                            "Cannot load image for contact "
-                                + contact
-                                + ": "
-                                + ex.getMessage(),
-                            ex);
-                }
-
-                result = searchForCustomAvatar(contact.getAddress());
-                if(result == null)
-                    result = new byte[0];
-            }
-
-            return result;
-        }
-    }
-
     /**
      * Query custom avatar services and returns the first found avtar.
      * @return the found avatar if any.
      */
-    private byte[] searchForCustomAvatar(String address)
+    byte[] searchForCustomAvatar(String address)
     {
         try
         {
@@ -1931,8 +1951,7 @@ else if(newGroup instanceof RootContactGroupJabberImpl)
            && oldGroup.countContacts() == 0)
         {
             // in xmpp if group is empty it is removed
-            rootGroup.removeSubGroup(
-                (ContactGroupJabberImpl)oldGroup);
+            removeSubGroup((ContactGroupJabberImpl)oldGroup);
 
             fireGroupEvent(
                 (ContactGroupJabberImpl)oldGroup,
@@ -17,6 +17,8 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber;
 
+import java.util.concurrent.*;
+
 import net.java.sip.communicator.service.protocol.jabber.*;
 import org.jivesoftware.smack.provider.*;
 
@@ -34,6 +36,17 @@ public class SmackV3InteroperabilityLayer
      */
     private ProviderManager providerManager = ProviderManager.getInstance();
 
+    /**
+     * The <tt>PacketExtensionProvider</tt>s which have been registered or
+     * looked up, mapped by namespace and then by element name. Lets the
+     * parsers of large stanzas find the provider of every child element
+     * without building a <tt>ProviderManager</tt> key string for it.
+     */
+    private final ConcurrentMap<String,
+            ConcurrentMap<String, PacketExtensionProvider>> extensionProviders
+        = new ConcurrentHashMap<String,
+                ConcurrentMap<String, PacketExtensionProvider>>();
+
     /**
      * A default constructor
      */
@@ -53,6 +66,17 @@ public void addExtensionProvider(
             String elementName, String namespace, Object provider) 
     {
         providerManager.addExtensionProvider(elementName, namespace, provider);
+
+        if (provider instanceof PacketExtensionProvider)
+        {
+            getExtensionProviders(namespace).put(
+                    elementName,
+                    (PacketExtensionProvider) provider);
+        }
+        else
+        {
+            getExtensionProviders(namespace).remove(elementName);
+        }
     }
 
     /**
@@ -84,8 +108,50 @@ public void addIQProvider(
     public PacketExtensionProvider getExtensionProvider(
             String elementName, String namespace) 
     {
-        return (PacketExtensionProvider)providerManager
-                .getExtensionProvider(elementName, namespace);
+        if (elementName == null)
+            return null;
+
+        ConcurrentMap<String, PacketExtensionProvider> providers
+            = getExtensionProviders(namespace);
+        PacketExtensionProvider provider = providers.get(elementName);
+
+        if (provider == null)
+        {
+            provider
+                = (PacketExtensionProvider) providerManager
+                    .getExtensionProvider(elementName, namespace);
+            if (provider != null)
+                providers.put(elementName, provider);
+        }
+        return provider;
+    }
+
+    /**
+     * Gets the <tt>PacketExtensionProvider</tt>s of a specific namespace
+     * mapped by element name, creating the map if necessary.
+     *
+     * @param namespace the XML namespace of the providers
+     * @return the <tt>PacketExtensionProvider</tt>s of <tt>namespace</tt>
+     */
+    private ConcurrentMap<String, PacketExtensionProvider>
+        getExtensionProviders(String namespace)
+    {
+        if (namespace == null)
+            namespace = "";
+
+        ConcurrentMap<String, PacketExtensionProvider> providers
+            = extensionProviders.get(namespace);
+
+        if (providers == null)
+        {
+            ConcurrentMap<String, PacketExtensionProvider> newProviders
+                = new ConcurrentHashMap<String, PacketExtensionProvider>();
+
+            providers = extensionProviders.putIfAbsent(namespace, newProviders);
+            if (providers == null)
+                providers = newProviders;
+        }
+        return providers;
     }
     
 }
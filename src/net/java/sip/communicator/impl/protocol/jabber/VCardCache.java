@@ -0,0 +1,736 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.protocol.ServerStoredDetails.*;
+import net.java.sip.communicator.util.*;
+
+import org.jitsi.service.fileaccess.*;
+import org.jivesoftware.smack.util.StringUtils;
+
+/**
+ * Caches the vCard details of the contacts of an account. The most recently
+ * used details are kept in memory up to a configurable number of contacts,
+ * and the vCards themselves are stored on disk so that they survive restarts.
+ * Entries expire after a configurable time, and are dropped as soon as a
+ * contact announces a XEP-0153 photo hash different from the one of the
+ * cached vCard.
+ */
+class VCardCache
+{
+    /**
+     * The logger.
+     */
+    private static final Logger logger = Logger.getLogger(VCardCache.class);
+
+    /**
+     * The name of the property that holds the maximum number of contacts
+     * whose details are kept in memory.
+     */
+    static final String MAX_CACHED_VCARDS_PNAME
+        = "net.java.sip.communicator.impl.protocol.jabber.MAX_CACHED_VCARDS";
+
+    /**
+     * The default maximum number of contacts whose details are kept in
+     * memory.
+     */
+    static final int DEFAULT_MAX_CACHED_VCARDS = 500;
+
+    /**
+     * The name of the property that holds the maximum number of vCards
+     * stored on disk per account.
+     */
+    static final String MAX_STORED_VCARDS_PNAME
+        = "net.java.sip.communicator.impl.protocol.jabber.MAX_STORED_VCARDS";
+
+    /**
+     * The default maximum number of vCards stored on disk per account.
+     */
+    static final int DEFAULT_MAX_STORED_VCARDS = 2000;
+
+    /**
+     * The name of the property that holds the time in milliseconds after
+     * which a cached vCard is retrieved again.
+     */
+    static final String VCARD_TTL_PNAME
+        = "net.java.sip.communicator.impl.protocol.jabber.VCARD_CACHE_TTL";
+
+    /**
+     * The default time after which a cached vCard is retrieved again, one
+     * day.
+     */
+    static final long DEFAULT_VCARD_TTL = 24L * 60 * 60 * 1000;
+
+    /**
+     * The directory, relative to the cache directory, where vCards are
+     * stored.
+     */
+    private static final String VCARD_DIR = "vcards";
+
+    /**
+     * The extension of the stored vCard files.
+     */
+    private static final String VCARD_FILE_EXTENSION = ".xml";
+
+    /**
+     * The number of vCards stored between two checks of the size of the
+     * store.
+     */
+    private static final int PRUNE_INTERVAL = 50;
+
+    /**
+     * The details in memory, most recently used last.
+     */
+    private final LinkedHashMap<String, CachedDetails> entries;
+
+    /**
+     * The photo hashes of the vCards we know of, in memory or on disk, most
+     * recently used last. Bounded like the details in memory and on disk; a
+     * hash dropped from here is read again from the stored vCard.
+     */
+    private final LinkedHashMap<String, String> photoHashes;
+
+    /**
+     * The directory where the vCards of the account are stored, or
+     * <tt>null</tt> if they are only cached in memory.
+     */
+    private final File storeDir;
+
+    /**
+     * The maximum number of vCards stored on disk.
+     */
+    private final int maxStored;
+
+    /**
+     * The time in milliseconds after which entries expire.
+     */
+    private final long ttl;
+
+    /**
+     * The number of vCards stored since the size of the store was last
+     * checked.
+     */
+    private int storedSincePrune = 0;
+
+    /**
+     * The number of lookups answered from memory.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of lookups answered from disk.
+     */
+    private final AtomicLong diskHits = new AtomicLong();
+
+    /**
+     * The number of lookups which required a vCard request.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of entries dropped from memory to respect the size limit.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache for an account, configured by the
+     * <tt>ConfigurationService</tt>.
+     *
+     * @param accountUID the unique identifier of the account, used to name
+     * the directory where vCards are stored.
+     */
+    VCardCache(String accountUID)
+    {
+        this(getStoreDir(accountUID),
+            JabberActivator.getConfigurationService().getInt(
+                    MAX_CACHED_VCARDS_PNAME, DEFAULT_MAX_CACHED_VCARDS),
+            JabberActivator.getConfigurationService().getInt(
+                    MAX_STORED_VCARDS_PNAME, DEFAULT_MAX_STORED_VCARDS),
+            JabberActivator.getConfigurationService().getLong(
+                    VCARD_TTL_PNAME, DEFAULT_VCARD_TTL));
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param storeDir the directory where vCards are stored, or
+     * <tt>null</tt> to only cache them in memory.
+     * @param maxCached the maximum number of contacts whose details are kept
+     * in memory.
+     * @param maxStored the maximum number of vCards stored on disk, zero to
+     * only cache them in memory.
+     * @param ttl the time in milliseconds after which entries expire, or
+     * zero if they never expire.
+     */
+    VCardCache(File storeDir, int maxCached, int maxStored, long ttl)
+    {
+        final int maxEntries = Math.max(1, maxCached);
+
+        this.storeDir = (maxStored > 0) ? storeDir : null;
+        this.maxStored = maxStored;
+        this.ttl = ttl;
+
+        entries = new LinkedHashMap<String, CachedDetails>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, CachedDetails> e)
+            {
+                if (size() <= maxEntries)
+                    return false;
+
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+
+        final int maxHashes = Math.max(maxEntries, maxStored);
+
+        photoHashes = new LinkedHashMap<String, String>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> e)
+            {
+                return size() > maxHashes;
+            }
+        };
+    }
+
+    /**
+     * Returns the directory where the vCards of an account are stored.
+     *
+     * @param accountUID the unique identifier of the account.
+     * @return the directory or <tt>null</tt> if it is not available.
+     */
+    private static File getStoreDir(String accountUID)
+    {
+        FileAccessService fileAccessService
+            = JabberActivator.getFileAccessService();
+
+        if (fileAccessService == null)
+            return null;
+
+        try
+        {
+            File dir
+                = fileAccessService.getPrivatePersistentDirectory(
+                        VCARD_DIR + File.separator + escape(accountUID),
+                        FileCategory.CACHE);
+
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Failed to create directory: " + dir);
+
+            return dir;
+        }
+        catch (Exception ex)
+        {
+            logger.warn("vCards will not be stored on disk", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the details of a contact if they are in memory and have not
+     * expired.
+     *
+     * @param address the address of the contact.
+     * @return the details or <tt>null</tt>.
+     */
+    synchronized List<GenericDetail> get(String address)
+    {
+        String key = getKey(address);
+        CachedDetails entry = entries.get(key);
+
+        if (entry == null)
+            return null;
+
+        if (isExpired(entry.retrieved))
+        {
+            entries.remove(key);
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.details;
+    }
+
+    /**
+     * Reads the stored vCard of a contact if it exists and has not expired.
+     * The caller is expected to parse it and {@link #putLoaded} the details.
+     *
+     * @param address the address of the contact.
+     * @return the vCard XML or <tt>null</tt>.
+     */
+    String load(String address)
+    {
+        String key = getKey(address);
+        File file = getFile(key);
+
+        if (file == null || !file.isFile())
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (isExpired(file.lastModified()))
+        {
+            removeFile(address, file);
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try
+        {
+            String[] content = read(file);
+
+            synchronized (this)
+            {
+                photoHashes.put(key, content[0]);
+            }
+
+            diskHits.incrementAndGet();
+            return content[1];
+        }
+        catch (IOException ex)
+        {
+            logger.warn("Cannot read stored vCard of " + address, ex);
+            removeFile(address, file);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Caches the details of a contact just retrieved from the server.
+     *
+     * @param address the address of the contact.
+     * @param details the details.
+     * @param photoHash the SHA-1 hash of the avatar in the vCard, empty if
+     * it has none.
+     * @param vCardXml the vCard to store on disk, or <tt>null</tt> to only
+     * keep the details in memory.
+     */
+    void put(
+        String address,
+        List<GenericDetail> details,
+        String photoHash,
+        String vCardXml)
+    {
+        String key = getKey(address);
+
+        synchronized (this)
+        {
+            entries.put(
+                key,
+                new CachedDetails(details, System.currentTimeMillis()));
+            photoHashes.put(key, photoHash);
+        }
+
+        if (vCardXml != null)
+            store(key, photoHash, vCardXml);
+    }
+
+    /**
+     * Caches in memory the details parsed from a vCard previously returned
+     * by {@link #load}. They expire at the same time as the stored vCard.
+     *
+     * @param address the address of the contact.
+     * @param details the details.
+     */
+    void putLoaded(String address, List<GenericDetail> details)
+    {
+        String key = getKey(address);
+        File file = getFile(key);
+        long retrieved
+            = (file != null && file.isFile())
+                ? file.lastModified()
+                : System.currentTimeMillis();
+
+        synchronized (this)
+        {
+            entries.put(key, new CachedDetails(details, retrieved));
+        }
+    }
+
+    /**
+     * Drops the cached details of a contact, in memory and on disk.
+     *
+     * @param address the address of the contact.
+     */
+    void invalidate(String address)
+    {
+        String key = getKey(address);
+
+        synchronized (this)
+        {
+            entries.remove(key);
+            photoHashes.remove(key);
+        }
+
+        File file = getFile(key);
+        if (file != null)
+            removeFile(address, file);
+    }
+
+    /**
+     * Drops the cached details of a contact if the photo hash it announced
+     * differs from the one of the cached vCard.
+     *
+     * @param address the address of the contact.
+     * @param photoHash the announced photo hash.
+     * @return <tt>true</tt> if the cached details were dropped.
+     */
+    boolean photoHashReceived(String address, String photoHash)
+    {
+        String key = getKey(address);
+        String knownHash;
+
+        synchronized (this)
+        {
+            knownHash = photoHashes.get(key);
+        }
+
+        if (knownHash == null)
+        {
+            File file = getFile(key);
+
+            if (file == null || !file.isFile())
+                return false;
+
+            try
+            {
+                knownHash = read(file)[0];
+            }
+            catch (IOException ex)
+            {
+                knownHash = null;
+            }
+        }
+
+        if (photoHash.equals(knownHash))
+        {
+            synchronized (this)
+            {
+                photoHashes.put(key, knownHash);
+            }
+            return false;
+        }
+
+        if (logger.isDebugEnabled())
+            logger.debug("Photo of " + address + " changed, dropping vCard");
+
+        invalidate(address);
+        return true;
+    }
+
+    /**
+     * Returns the number of lookups answered from memory.
+     *
+     * @return the number of lookups answered from memory.
+     */
+    long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups answered from disk.
+     *
+     * @return the number of lookups answered from disk.
+     */
+    long getDiskHits()
+    {
+        return diskHits.get();
+    }
+
+    /**
+     * Returns the number of lookups which required a vCard request.
+     *
+     * @return the number of lookups which required a vCard request.
+     */
+    long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries dropped from memory to respect the size
+     * limit.
+     *
+     * @return the number of evicted entries.
+     */
+    long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of contacts whose details are in memory.
+     *
+     * @return the number of contacts whose details are in memory.
+     */
+    synchronized int size()
+    {
+        return entries.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "vCard cache: size=" + size()
+            + " hits=" + getHits()
+            + " diskHits=" + getDiskHits()
+            + " misses=" + getMisses()
+            + " evictions=" + getEvictions();
+    }
+
+    /**
+     * Returns whether something retrieved at the specified time has expired.
+     *
+     * @param retrieved the time of retrieval.
+     * @return <tt>true</tt> if it has expired.
+     */
+    private boolean isExpired(long retrieved)
+    {
+        return ttl > 0 && System.currentTimeMillis() - retrieved > ttl;
+    }
+
+    /**
+     * Returns the key under which the vCard of a contact is cached in memory
+     * and on disk: its bare address in lower case. The resource is kept, as
+     * is, for the occupants of chat rooms, which are contacts with a full
+     * address and a vCard of their own.
+     *
+     * @param address the address of the contact.
+     * @return the key of the vCard of the contact.
+     */
+    static String getKey(String address)
+    {
+        String bareAddress = StringUtils.parseBareAddress(address);
+        String key = bareAddress.toLowerCase();
+
+        if (bareAddress.length() < address.length())
+            key += address.substring(bareAddress.length());
+
+        return key;
+    }
+
+    /**
+     * Returns the file where the vCard of a contact is stored.
+     *
+     * @param key the key of the vCard as returned by {@link #getKey}.
+     * @return the file or <tt>null</tt> if vCards are not stored.
+     */
+    private File getFile(String key)
+    {
+        if (storeDir == null)
+            return null;
+
+        return new File(storeDir, escape(key) + VCARD_FILE_EXTENSION);
+    }
+
+    /**
+     * Stores a vCard on disk. The first line of the file is the photo hash
+     * and the rest the vCard XML.
+     *
+     * @param key the key of the vCard as returned by {@link #getKey}.
+     * @param photoHash the photo hash of the vCard.
+     * @param vCardXml the vCard XML.
+     */
+    private void store(String key, String photoHash, String vCardXml)
+    {
+        File file = getFile(key);
+
+        if (file == null)
+            return;
+
+        Writer out = null;
+        try
+        {
+            out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            out.write(photoHash);
+            out.write('\n');
+            out.write(vCardXml);
+        }
+        catch (IOException ex)
+        {
+            logger.warn("Cannot store vCard of " + key, ex);
+        }
+        finally
+        {
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (IOException ex)
+                {
+                }
+            }
+        }
+
+        boolean prune;
+        synchronized (this)
+        {
+            prune = (++storedSincePrune >= PRUNE_INTERVAL);
+            if (prune)
+                storedSincePrune = 0;
+        }
+
+        if (prune)
+            prune();
+    }
+
+    /**
+     * Deletes the least recently retrieved vCards while more than the
+     * maximum number are stored.
+     */
+    private void prune()
+    {
+        File[] files = storeDir.listFiles();
+
+        if (files == null || files.length <= maxStored)
+            return;
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File f1, File f2)
+            {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+
+                return (m1 < m2) ? -1 : ((m1 == m2) ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length - maxStored; i++)
+        {
+            if (!files[i].delete())
+                logger.warn("Cannot delete stored vCard " + files[i]);
+        }
+    }
+
+    /**
+     * Deletes a stored vCard.
+     *
+     * @param address the address of the contact.
+     * @param file the file to delete.
+     */
+    private void removeFile(String address, File file)
+    {
+        if (file.exists() && !file.delete())
+            logger.warn("Cannot delete stored vCard of " + address);
+    }
+
+    /**
+     * Reads a stored vCard.
+     *
+     * @param file the file to read.
+     * @return the photo hash and the vCard XML.
+     * @throws IOException if reading the file fails.
+     */
+    private static String[] read(File file)
+        throws IOException
+    {
+        Reader in
+            = new InputStreamReader(new FileInputStream(file), "UTF-8");
+
+        try
+        {
+            StringBuilder content = new StringBuilder((int) file.length());
+            char[] buf = new char[4096];
+            int len;
+
+            while ((len = in.read(buf)) != -1)
+                content.append(buf, 0, len);
+
+            int newline = content.indexOf("\n");
+
+            if (newline == -1)
+                throw new IOException("Malformed vCard file " + file);
+
+            return new String[]
+                {
+                    content.substring(0, newline),
+                    content.substring(newline + 1)
+                };
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Escapes an identifier so that it can be used as a file name.
+     *
+     * @param id the identifier.
+     * @return the escaped identifier.
+     */
+    private static String escape(String id)
+    {
+        try
+        {
+            return URLEncoder.encode(id, "UTF-8");
+        }
+        catch (UnsupportedEncodingException ex)
+        {
+            // UTF-8 is always supported
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * The details of a contact in memory.
+     */
+    private static class CachedDetails
+    {
+        /**
+         * The details.
+         */
+        final List<GenericDetail> details;
+
+        /**
+         * The time the vCard was retrieved from the server.
+         */
+        final long retrieved;
+
+        /**
+         * Creates an entry.
+         *
+         * @param details the details.
+         * @param retrieved the time the vCard was retrieved from the server.
+         */
+        CachedDetails(List<GenericDetail> details, long retrieved)
+        {
+            this.details = details;
+            this.retrieved = retrieved;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.jivesoftware.smack.packet.*;
 
@@ -48,6 +49,13 @@
      */
     private final String elementName;
 
+    /**
+     * The <tt>AbstractPacketExtension</tt> classes mapped to whether they
+     * override {@link #toXML()}.
+     */
+    private static final Map<Class<?>, Boolean> toXMLOverrides
+        = new ConcurrentHashMap<Class<?>, Boolean>();
+
     /**
      * A map of all attributes that this extension is currently using.
      */
@@ -124,6 +132,51 @@ public String toXML()
     {
         StringBuilder bldr = new StringBuilder();
 
+        appendElementXML(bldr);
+        return bldr.toString();
+    }
+
+    /**
+     * Appends an XML representation of this extension to a specific
+     * <tt>StringBuilder</tt>. Unlike concatenating the results of
+     * {@link #toXML()}, this writes a whole tree of extensions into a single
+     * buffer. Extensions which override {@link #toXML()} are appended by
+     * calling it.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to
+     */
+    public void appendXML(StringBuilder bldr)
+    {
+        if (overridesToXML(getClass()))
+            bldr.append(toXML());
+        else
+            appendElementXML(bldr);
+    }
+
+    /**
+     * Appends an XML representation of a specific <tt>PacketExtension</tt> to
+     * a specific <tt>StringBuilder</tt>, without creating intermediate
+     * strings if it is an <tt>AbstractPacketExtension</tt>.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to
+     * @param extension the <tt>PacketExtension</tt> to append
+     */
+    public static void appendXML(StringBuilder bldr, PacketExtension extension)
+    {
+        if (extension instanceof AbstractPacketExtension)
+            ((AbstractPacketExtension) extension).appendXML(bldr);
+        else
+            bldr.append(extension.toXML());
+    }
+
+    /**
+     * Appends the element of this extension, its attributes, child elements
+     * and text to a specific <tt>StringBuilder</tt>.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to
+     */
+    private void appendElementXML(StringBuilder bldr)
+    {
         bldr.append("<").append(getElementName()).append(" ");
 
         String namespace = getNamespace();
@@ -134,8 +187,9 @@ public String toXML()
         //add the rest of the attributes if any
         for(Map.Entry<String, Object> entry : attributes.entrySet())
         {
-            bldr.append(" ").append(entry.getKey()).append("='")
-                    .append(entry.getValue()).append("'");
+            bldr.append(" ").append(entry.getKey()).append("='");
+            appendEscaped(bldr, String.valueOf(entry.getValue()));
+            bldr.append("'");
         }
 
         //add child elements if any
@@ -148,7 +202,7 @@ public String toXML()
             if ((text == null) || (text.length() == 0))
             {
                 bldr.append("/>");
-                return bldr.toString();
+                return;
             }
             else
                 bldr.append('>');
@@ -161,13 +215,13 @@ public String toXML()
                         && ((text == null) || (text.length() == 0)))
                 {
                     bldr.append("/>");
-                    return bldr.toString();
+                    return;
                 }
                 else
                 {
                     bldr.append(">");
                     for(PacketExtension packExt : childElements)
-                        bldr.append(packExt.toXML());
+                        appendXML(bldr, packExt);
                     for(Packet packet : packets)
                         bldr.append(packet.toXML());
                 }
@@ -176,12 +230,84 @@ public String toXML()
 
         //text content if any
         if((text != null) && (text.trim().length() > 0))
-            bldr.append(text);
+            appendEscaped(bldr, text);
 
-        
         bldr.append("</").append(getElementName()).append(">");
+    }
 
-        return bldr.toString();
+    /**
+     * Appends a specific text to a specific <tt>StringBuilder</tt>, escaping
+     * the characters which may not appear as such in XML text or in attribute
+     * values delimited by single or double quotes.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to
+     * @param text the text to escape and append
+     */
+    public static void appendEscaped(StringBuilder bldr, String text)
+    {
+        int length = text.length();
+        int start = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            String entity;
+
+            switch (text.charAt(i))
+            {
+            case '&':
+                entity = "&amp;";
+                break;
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '\'':
+                entity = "&apos;";
+                break;
+            case '"':
+                entity = "&quot;";
+                break;
+            default:
+                continue;
+            }
+
+            bldr.append(text, start, i).append(entity);
+            start = i + 1;
+        }
+        bldr.append(text, start, length);
+    }
+
+    /**
+     * Determines whether a specific <tt>AbstractPacketExtension</tt> class
+     * overrides {@link #toXML()}, in which case its XML representation can
+     * only be obtained from that method.
+     *
+     * @param clazz the <tt>AbstractPacketExtension</tt> class to check
+     * @return <tt>true</tt> if <tt>clazz</tt> overrides {@link #toXML()}
+     */
+    private static boolean overridesToXML(
+        Class<? extends AbstractPacketExtension> clazz)
+    {
+        Boolean overrides = toXMLOverrides.get(clazz);
+
+        if (overrides == null)
+        {
+            try
+            {
+                overrides
+                    = clazz.getMethod("toXML").getDeclaringClass()
+                        != AbstractPacketExtension.class;
+            }
+            catch (NoSuchMethodException nsme)
+            {
+                // toXML() is public in AbstractPacketExtension.
+                overrides = Boolean.TRUE;
+            }
+            toXMLOverrides.put(clazz, overrides);
+        }
+        return overrides;
     }
 
     /**
@@ -20,7 +20,6 @@
 import net.java.sip.communicator.service.protocol.*;
 import org.jivesoftware.smack.packet.*;
 import org.jivesoftware.smack.provider.*;
-import org.jivesoftware.smack.util.*;
 import org.xmlpull.v1.*;
 
 import java.util.*;
@@ -181,7 +180,7 @@ public String getPassword()
      */
     public void setUri(String uri)
     {
-        setAttribute(URI_ATTR_NAME, StringUtils.escapeForXML(uri));
+        setAttribute(URI_ATTR_NAME, uri);
     }
 
     /**
@@ -217,7 +216,7 @@ public void setAvailable(boolean available)
      */
     public void setName(String name)
     {
-       setAttribute(CONFERENCE_NAME_ATTR_NAME, StringUtils.escapeForXML(name));
+       setAttribute(CONFERENCE_NAME_ATTR_NAME, name);
     }
 
     /**
@@ -17,6 +17,8 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber.extensions;
 
+import java.lang.reflect.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
 
 import net.java.sip.communicator.service.protocol.jabber.*;
@@ -41,6 +43,21 @@
     private static final Logger logger = Logger
                     .getLogger(DefaultPacketExtensionProvider.class.getName());
 
+    /**
+     * The maximum number of distinct attribute names which are interned by
+     * {@link #internAttributeName(String)}. Prevents stanzas with random
+     * attribute names from growing the cache indefinitely.
+     */
+    private static final int MAX_ATTRIBUTE_NAMES = 1024;
+
+    /**
+     * The canonical instances of the attribute names seen so far, so that the
+     * attributes of all parsed extensions share them instead of keeping a
+     * copy of each name per element.
+     */
+    private static final ConcurrentMap<String, String> attributeNames
+        = new ConcurrentHashMap<String, String>();
+
     /**
      * The <tt>AbstractSmackInteroperabilityLayer</tt> instance implementing
      * necessary methods
@@ -53,6 +70,12 @@
      */
     private final Class<C> packetClass;
 
+    /**
+     * The <tt>Factory</tt> which creates the instances of
+     * {@link #packetClass}.
+     */
+    private final Factory<C> factory;
+
     /**
      * Creates a new packet provider for the specified packet extensions.
      *
@@ -60,7 +83,46 @@
      */
     public DefaultPacketExtensionProvider(Class<C> c)
     {
+        this(c, new ConstructorFactory<C>(c));
+    }
+
+    /**
+     * Creates a new packet provider for the specified packet extensions which
+     * creates the instances of <tt>c</tt> with a specific <tt>Factory</tt>.
+     *
+     * @param c the {@link Class} that the packets we will be parsing belong to.
+     * @param factory the <tt>Factory</tt> which creates the instances of
+     * <tt>c</tt>
+     */
+    public DefaultPacketExtensionProvider(Class<C> c, Factory<C> factory)
+    {
+        if (factory == null)
+            throw new NullPointerException("factory");
+
         this.packetClass = c;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the canonical instance of a specific attribute name.
+     *
+     * @param name the attribute name to intern
+     * @return the canonical instance of <tt>name</tt>
+     */
+    static String internAttributeName(String name)
+    {
+        String interned = attributeNames.get(name);
+
+        if (interned == null)
+        {
+            if (attributeNames.size() >= MAX_ATTRIBUTE_NAMES)
+                return name;
+
+            interned = attributeNames.putIfAbsent(name, name);
+            if (interned == null)
+                interned = name;
+        }
+        return interned;
     }
 
     /**
@@ -77,7 +139,9 @@ public DefaultPacketExtensionProvider(Class<C> c)
      */
     public C parseExtension(XmlPullParser parser) throws Exception
     {
-        C packetExtension = packetClass.newInstance();
+        C packetExtension = factory.create();
+        String packetElementName = packetExtension.getElementName();
+        boolean finest = logger.isLoggable(Level.FINEST);
 
         //first, set all attributes
         int attrCount = parser.getAttributeCount();
@@ -85,7 +149,7 @@ public C parseExtension(XmlPullParser parser) throws Exception
         for (int i = 0; i < attrCount; i++)
         {
             packetExtension.setAttribute(
-                            parser.getAttributeName(i),
+                            internAttributeName(parser.getAttributeName(i)),
                             parser.getAttributeValue(i));
         }
 
@@ -101,7 +165,7 @@ public C parseExtension(XmlPullParser parser) throws Exception
             elementName = parser.getName();
             namespace = parser.getNamespace();
 
-            if (logger.isLoggable(Level.FINEST))
+            if (finest)
                 logger.finest("Will parse " + elementName
                     + " ns=" + namespace
                     + " class=" + packetExtension.getClass().getSimpleName());
@@ -133,23 +197,108 @@ public C parseExtension(XmlPullParser parser) throws Exception
                     packetExtension.addChildExtension(childExtension);
                 }
             }
-            if (eventType == XmlPullParser.END_TAG)
+            else if (eventType == XmlPullParser.END_TAG)
             {
-                if (parser.getName().equals(packetExtension.getElementName()))
+                if (elementName.equals(packetElementName))
                 {
                     done = true;
                 }
             }
-            if (eventType == XmlPullParser.TEXT)
+            else if (eventType == XmlPullParser.TEXT)
             {
                 String text = parser.getText();
                 packetExtension.setText(text);
             }
 
-            if (logger.isLoggable(Level.FINEST))
+            if (finest)
                 logger.finest("Done parsing " + elementName);
         }
 
         return packetExtension;
     }
+
+    /**
+     * Creates new instances of the packet extensions parsed by a
+     * <tt>DefaultPacketExtensionProvider</tt>.
+     *
+     * @param <C> the class of the created packet extensions
+     */
+    public interface Factory<C extends AbstractPacketExtension>
+    {
+        /**
+         * Creates a new, empty packet extension.
+         *
+         * @return a new packet extension
+         * @throws Exception if the packet extension cannot be created
+         */
+        public C create()
+            throws Exception;
+    }
+
+    /**
+     * The <tt>Factory</tt> used when none is specified. Looks up the no-arg
+     * constructor of the packet extension class once instead of on every
+     * {@link Class#newInstance()}.
+     *
+     * @param <C> the class of the created packet extensions
+     */
+    private static class ConstructorFactory<C extends AbstractPacketExtension>
+        implements Factory<C>
+    {
+        /**
+         * The no-arg constructor of the packet extension class or
+         * <tt>null</tt> if it does not have one.
+         */
+        private final Constructor<C> constructor;
+
+        /**
+         * The packet extension class.
+         */
+        private final Class<C> packetClass;
+
+        /**
+         * Initializes a new <tt>ConstructorFactory</tt> for a specific packet
+         * extension class.
+         *
+         * @param c the packet extension class
+         */
+        public ConstructorFactory(Class<C> c)
+        {
+            Constructor<C> constructor;
+
+            try
+            {
+                constructor = c.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            }
+            catch (NoSuchMethodException nsme)
+            {
+                constructor = null;
+            }
+            this.constructor = constructor;
+            this.packetClass = c;
+        }
+
+        @Override
+        public C create()
+            throws Exception
+        {
+            if (constructor == null)
+            {
+                throw new InstantiationException(
+                        packetClass.getName() + " has no no-arg constructor");
+            }
+
+            try
+            {
+                return constructor.newInstance();
+            }
+            catch (InvocationTargetException ite)
+            {
+                Throwable cause = ite.getCause();
+
+                throw (cause instanceof Exception) ? (Exception) cause : ite;
+            }
+        }
+    }
 }
@@ -75,6 +75,44 @@
         = "net.java.sip.communicator.impl.protocol.jabber.extensions.caps."
             + "EntityCapsManager.CAPS.";
 
+    /**
+     * The prefix of the <tt>ConfigurationService</tt> properties which persist
+     * the <tt>DiscoverInfo</tt> of entities which do not advertise entity
+     * capabilities.
+     */
+    private static final String NON_CAPS_PROPERTY_NAME_PREFIX
+        = "net.java.sip.communicator.impl.protocol.jabber.extensions.caps."
+            + "EntityCapsManager.NON_CAPS.";
+
+    /**
+     * The number of milliseconds after which a persisted <tt>DiscoverInfo</tt>
+     * of an entity which does not advertise entity capabilities is no longer
+     * trusted. Unlike caps, nothing tells us when such an entity changes its
+     * features.
+     */
+    private static final long NON_CAPS_EXPIRATION = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The maximum number of entities whose <tt>DiscoverInfo</tt> is persisted
+     * although they do not advertise entity capabilities. The least recently
+     * discovered ones are forgotten first.
+     */
+    static final int MAX_NON_CAPS_ENTRIES = 500;
+
+    /**
+     * The number of persisted <tt>DiscoverInfo</tt>s of entities which do not
+     * advertise entity capabilities, as of the last pruning plus the ones
+     * added since then.
+     */
+    private static int nonCapsEntryCount = 0;
+
+    /**
+     * Guards {@link #nonCapsEntryCount} and the pruning of the persisted
+     * <tt>DiscoverInfo</tt>s of entities which do not advertise entity
+     * capabilities.
+     */
+    private static final Object nonCapsLock = new Object();
+
     /**
      * An empty array of <tt>UserCapsNodeListener</tt> elements explicitly
      * defined in order to reduce unnecessary allocations.
@@ -221,6 +259,14 @@ public static void setBundleContext(BundleContext bundleContext)
             configService = null;
         }
         EntityCapsManager.bundleContext = bundleContext;
+
+        if (bundleContext != null)
+        {
+            ConfigurationService configurationService = getConfigService();
+
+            if (configurationService != null)
+                pruneNonCapsDiscoverInfo(configurationService);
+        }
     }
 
     /**
@@ -503,73 +549,281 @@ public static DiscoverInfo getDiscoverInfoByCaps(Caps caps)
 
                 if ((xml != null) && (xml.length() != 0))
                 {
-                    IQProvider discoverInfoProvider
-                        = (IQProvider)
-                            ProviderManager.getInstance().getIQProvider(
-                                    "query",
-                                    "http://jabber.org/protocol/disco#info");
+                    discoverInfo = parseDiscoverInfo(xml);
 
-                    if (discoverInfoProvider != null)
+                    if (discoverInfo != null)
                     {
-                        XmlPullParser parser = new MXParser();
-
-                        try
+                        if (caps.isValid(discoverInfo))
+                            caps2discoverInfo.put(caps, discoverInfo);
+                        else
                         {
-                            parser.setFeature(
-                                    XmlPullParser.FEATURE_PROCESS_NAMESPACES,
-                                    true);
-                            parser.setInput(new StringReader(xml));
-                            // Start the parser.
-                            parser.next();
-                        }
-                        catch (XmlPullParserException xppex)
-                        {
-                            parser = null;
-                        }
-                        catch (IOException ioex)
-                        {
-                            parser = null;
+                            logger.error(
+                                    "Invalid DiscoverInfo for "
+                                        + caps.getNodeVer()
+                                        + ": "
+                                        + discoverInfo);
+                            /*
+                             * The discoverInfo doesn't seem valid
+                             * according to the caps which means that we
+                             * must have stored invalid information.
+                             * Delete the invalid information in order
+                             * to not try to validate it again.
+                             */
+                            configurationService.removeProperty(
+                                    capsPropertyName);
                         }
+                    }
+                }
+            }
+            return discoverInfo;
+        }
+    }
 
-                        if (parser != null)
-                        {
-                            try
-                            {
-                                discoverInfo
-                                    = (DiscoverInfo)
-                                        discoverInfoProvider.parseIQ(parser);
-                            }
-                            catch (Exception ex)
-                            {
-                            }
+    /**
+     * Remembers the <tt>DiscoverInfo</tt> of an entity which does not
+     * advertise entity capabilities, across application instances, so that it
+     * does not have to be queried over the network again after a restart.
+     * Only bare and server JIDs are remembered: resources are specific to a
+     * session and the resources of an entity may have different features.
+     *
+     * @param entityID the address of the entity
+     * @param info the <tt>DiscoverInfo</tt> of <tt>entityID</tt>
+     */
+    public static void addDiscoverInfoByEntity(
+            String entityID,
+            DiscoverInfo info)
+    {
+        if (!isPersistableEntity(entityID))
+            return;
 
-                            if (discoverInfo != null)
-                            {
-                                if (caps.isValid(discoverInfo))
-                                    caps2discoverInfo.put(caps, discoverInfo);
-                                else
-                                {
-                                    logger.error(
-                                            "Invalid DiscoverInfo for "
-                                                + caps.getNodeVer()
-                                                + ": "
-                                                + discoverInfo);
-                                    /*
-                                     * The discoverInfo doesn't seem valid
-                                     * according to the caps which means that we
-                                     * must have stored invalid information.
-                                     * Delete the invalid information in order
-                                     * to not try to validate it again.
-                                     */
-                                    configurationService.removeProperty(
-                                            capsPropertyName);
-                                }
-                            }
-                        }
+        ConfigurationService configurationService = getConfigService();
+
+        if (configurationService == null)
+            return;
+
+        String xml = info.getChildElementXML();
+
+        if ((xml == null) || (xml.length() == 0))
+            return;
+
+        String propertyName = getNonCapsPropertyName(entityID);
+        boolean prune = false;
+
+        synchronized (nonCapsLock)
+        {
+            if (configurationService.getString(propertyName) == null)
+                prune = (++nonCapsEntryCount > MAX_NON_CAPS_ENTRIES);
+        }
+
+        configurationService.setProperty(
+                propertyName,
+                System.currentTimeMillis() + " " + xml);
+
+        if (prune)
+            pruneNonCapsDiscoverInfo(configurationService);
+    }
+
+    /**
+     * Forgets the persisted <tt>DiscoverInfo</tt>s of entities which do not
+     * advertise entity capabilities once they have expired, and the least
+     * recently discovered ones beyond a quarter below
+     * {@link #MAX_NON_CAPS_ENTRIES} if there are more than that, so that
+     * pruning does not happen on every discovery.
+     *
+     * @param configurationService the <tt>ConfigurationService</tt> which
+     * persists the <tt>DiscoverInfo</tt>s
+     */
+    static void pruneNonCapsDiscoverInfo(
+            ConfigurationService configurationService)
+    {
+        synchronized (nonCapsLock)
+        {
+            List<String> propertyNames
+                = configurationService.getPropertyNamesByPrefix(
+                        NON_CAPS_PROPERTY_NAME_PREFIX,
+                        false);
+            final Map<String, Long> timestamps = new HashMap<String, Long>();
+            long now = System.currentTimeMillis();
+
+            for (String propertyName : propertyNames)
+            {
+                long timestamp
+                    = getNonCapsTimestamp(
+                            configurationService.getString(propertyName));
+
+                if (now - timestamp < NON_CAPS_EXPIRATION)
+                    timestamps.put(propertyName, timestamp);
+                else
+                    configurationService.removeProperty(propertyName);
+            }
+
+            if (timestamps.size() > MAX_NON_CAPS_ENTRIES)
+            {
+                List<String> oldestFirst
+                    = new ArrayList<String>(timestamps.keySet());
+
+                Collections.sort(oldestFirst, new Comparator<String>()
+                {
+                    @Override
+                    public int compare(String name1, String name2)
+                    {
+                        return timestamps.get(name1).compareTo(
+                                timestamps.get(name2));
                     }
+                });
+
+                int remove
+                    = oldestFirst.size()
+                        - (MAX_NON_CAPS_ENTRIES - MAX_NON_CAPS_ENTRIES / 4);
+
+                for (int i = 0; i < remove; i++)
+                {
+                    configurationService.removeProperty(oldestFirst.get(i));
+                    timestamps.remove(oldestFirst.get(i));
                 }
             }
-            return discoverInfo;
+
+            nonCapsEntryCount = timestamps.size();
+        }
+    }
+
+    /**
+     * Gets the time at which a persisted <tt>DiscoverInfo</tt> of an entity
+     * which does not advertise entity capabilities was discovered.
+     *
+     * @param value the value of the property persisting the
+     * <tt>DiscoverInfo</tt>
+     * @return the time at which the <tt>DiscoverInfo</tt> was discovered or
+     * <tt>0</tt> if <tt>value</tt> is malformed
+     */
+    private static long getNonCapsTimestamp(String value)
+    {
+        int separator = (value == null) ? -1 : value.indexOf(' ');
+
+        if (separator > 0)
+        {
+            try
+            {
+                return Long.parseLong(value.substring(0, separator));
+            }
+            catch (NumberFormatException nfe)
+            {
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Retrieves the <tt>DiscoverInfo</tt> of an entity which does not
+     * advertise entity capabilities and which has been remembered by
+     * {@link #addDiscoverInfoByEntity(String, DiscoverInfo)} less than
+     * {@link #NON_CAPS_EXPIRATION} milliseconds ago.
+     *
+     * @param entityID the address of the entity
+     * @return the remembered <tt>DiscoverInfo</tt> of <tt>entityID</tt> or
+     * <tt>null</tt> if none is known, always for full JIDs
+     */
+    public static DiscoverInfo getDiscoverInfoByEntity(String entityID)
+    {
+        if (!isPersistableEntity(entityID))
+            return null;
+
+        ConfigurationService configurationService = getConfigService();
+
+        if (configurationService == null)
+            return null;
+
+        String propertyName = getNonCapsPropertyName(entityID);
+        String value = configurationService.getString(propertyName);
+
+        if ((value == null) || (value.length() == 0))
+            return null;
+
+        DiscoverInfo discoverInfo = null;
+
+        if (System.currentTimeMillis() - getNonCapsTimestamp(value)
+                < NON_CAPS_EXPIRATION)
+        {
+            discoverInfo
+                = parseDiscoverInfo(value.substring(value.indexOf(' ') + 1));
+        }
+
+        // Forget expired or unreadable information.
+        if (discoverInfo == null)
+            configurationService.removeProperty(propertyName);
+        return discoverInfo;
+    }
+
+    /**
+     * Determines whether the <tt>DiscoverInfo</tt> of a specific entity which
+     * does not advertise entity capabilities may be persisted, i.e. whether
+     * its address is a bare or server JID. Full JIDs are not persisted so
+     * that a property is not persisted per session of the entity.
+     *
+     * @param entityID the address of the entity
+     * @return <tt>true</tt> if <tt>entityID</tt> has no resource
+     */
+    private static boolean isPersistableEntity(String entityID)
+    {
+        return StringUtils.parseResource(entityID).length() == 0;
+    }
+
+    /**
+     * Gets the name of the property in the <tt>ConfigurationService</tt> which
+     * is or is to be associated with the <tt>DiscoverInfo</tt> of a specific
+     * bare or server JID which does not advertise entity capabilities.
+     *
+     * @param entityID the address of the entity
+     * @return the name of the property associated with <tt>entityID</tt>
+     */
+    private static String getNonCapsPropertyName(String entityID)
+    {
+        return NON_CAPS_PROPERTY_NAME_PREFIX + entityID.toLowerCase();
+    }
+
+    /**
+     * Parses the <tt>query</tt> element of a <tt>disco#info</tt> IQ.
+     *
+     * @param xml the XML of the <tt>query</tt> element
+     * @return the parsed <tt>DiscoverInfo</tt> or <tt>null</tt> if
+     * <tt>xml</tt> could not be parsed
+     */
+    private static DiscoverInfo parseDiscoverInfo(String xml)
+    {
+        IQProvider discoverInfoProvider
+            = (IQProvider)
+                ProviderManager.getInstance().getIQProvider(
+                        "query",
+                        "http://jabber.org/protocol/disco#info");
+
+        if (discoverInfoProvider == null)
+            return null;
+
+        XmlPullParser parser = new MXParser();
+
+        try
+        {
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(new StringReader(xml));
+            // Start the parser.
+            parser.next();
+        }
+        catch (XmlPullParserException xppex)
+        {
+            return null;
+        }
+        catch (IOException ioex)
+        {
+            return null;
+        }
+
+        try
+        {
+            return (DiscoverInfo) discoverInfoProvider.parseIQ(parser);
+        }
+        catch (Exception ex)
+        {
+            return null;
         }
     }
 
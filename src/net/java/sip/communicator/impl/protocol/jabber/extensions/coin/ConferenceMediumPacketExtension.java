@@ -191,7 +191,7 @@ public String toXML()
 
         for(PacketExtension ext : getChildExtensions())
         {
-            bldr.append(ext.toXML());
+            AbstractPacketExtension.appendXML(bldr, ext);
         }
 
         bldr.append("</").append(getElementName()).append(">");
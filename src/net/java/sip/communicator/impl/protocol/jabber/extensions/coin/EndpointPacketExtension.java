@@ -230,7 +230,7 @@ public String toXML()
 
         for(PacketExtension ext : getChildExtensions())
         {
-            bldr.append(ext.toXML());
+            AbstractPacketExtension.appendXML(bldr, ext);
         }
 
         bldr.append("</").append(ELEMENT_NAME).append(">");
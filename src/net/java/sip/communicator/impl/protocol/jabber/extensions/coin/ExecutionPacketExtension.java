@@ -202,7 +202,7 @@ public String toXML()
 
         for(PacketExtension ext : getChildExtensions())
         {
-            bldr.append(ext.toXML());
+            AbstractPacketExtension.appendXML(bldr, ext);
         }
 
         bldr.append("</").append(getElementName()).append(">");
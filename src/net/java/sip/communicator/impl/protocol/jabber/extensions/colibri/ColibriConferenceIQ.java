@@ -1159,17 +1159,17 @@ protected void printContent(StringBuilder xml)
             int[] ssrcs = getSSRCs();
 
             for (PayloadTypePacketExtension payloadType : payloadTypes)
-                xml.append(payloadType.toXML());
+                AbstractPacketExtension.appendXML(xml, payloadType);
 
             for (RTPHdrExtPacketExtension ext : rtpHdrExtPacketExtensions)
-                xml.append(ext.toXML());
+                AbstractPacketExtension.appendXML(xml, ext);
 
             for (SourcePacketExtension source : sources)
-                xml.append(source.toXML());
+                AbstractPacketExtension.appendXML(xml, source);
 
             if (sourceGroups != null && sourceGroups.size() != 0)
                 for (SourceGroupPacketExtension sourceGroup : sourceGroups)
-                    xml.append(sourceGroup.toXML());
+                    AbstractPacketExtension.appendXML(xml, sourceGroup);
 
             for (int i = 0; i < ssrcs.length; i++)
             {
@@ -1623,7 +1623,7 @@ public void toXML(StringBuilder xml)
             if (transport != null)
             {
                 xml.append('>');
-                xml.append(transport.toXML());
+                AbstractPacketExtension.appendXML(xml, transport);
                 xml.append("</").append(ELEMENT_NAME).append('>');
             }
             else
@@ -1964,7 +1964,7 @@ public void toXML(StringBuilder xml)
                 if(hasContent())
                     printContent(xml);
                 if (hasTransport)
-                    xml.append(transport.toXML());
+                    AbstractPacketExtension.appendXML(xml, transport);
                 xml.append("</").append(elementName).append('>');
             }
             else
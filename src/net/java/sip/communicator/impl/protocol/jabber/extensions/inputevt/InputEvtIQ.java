@@ -19,6 +19,8 @@
 
 import java.util.*;
 
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
+
 import org.jivesoftware.smack.packet.*;
 
 /**
@@ -97,7 +99,7 @@ public String getChildElementXML()
             bldr.append(">");
 
             for(RemoteControlExtension p : remoteControls)
-                bldr.append(p.toXML());
+                AbstractPacketExtension.appendXML(bldr, p);
 
             bldr.append("</" + ELEMENT_NAME + ">");
         }
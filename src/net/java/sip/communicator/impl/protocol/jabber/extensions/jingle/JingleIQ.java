@@ -21,6 +21,7 @@
 import java.security.*;
 import java.util.*;
 
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
 import net.java.sip.communicator.service.protocol.jabber.*;
 import org.jivesoftware.smack.packet.*;
 
@@ -152,18 +153,18 @@ public String getChildElementXML()
             //content
             for(ContentPacketExtension cpe : contentList)
             {
-                bldr.append(cpe.toXML());
+                AbstractPacketExtension.appendXML(bldr, cpe);
             }
 
             //reason
             if (reason != null)
-                bldr.append(reason.toXML());
+                AbstractPacketExtension.appendXML(bldr, reason);
 
             //session-info
             //XXX: this is RTP specific so we should probably handle it in a
             //subclass
             if (sessionInfo != null)
-                bldr.append(sessionInfo.toXML());
+                AbstractPacketExtension.appendXML(bldr, sessionInfo);
 
             // extensions
             if ((extensionsXML != null) && (extensionsXML.length() != 0))
@@ -32,6 +32,43 @@
  */
 public class JingleIQProvider implements IQProvider
 {
+    /**
+     * The provider of the <tt>content</tt> elements of Jingle IQs.
+     */
+    private final DefaultPacketExtensionProvider<ContentPacketExtension>
+        contentProvider
+            = new DefaultPacketExtensionProvider<ContentPacketExtension>(
+                    ContentPacketExtension.class);
+
+    /**
+     * The provider of the <tt>reason</tt> elements of Jingle IQs.
+     */
+    private final ReasonProvider reasonProvider = new ReasonProvider();
+
+    /**
+     * The provider of the <tt>transfer</tt> elements of Jingle IQs.
+     */
+    private final DefaultPacketExtensionProvider<TransferPacketExtension>
+        transferProvider
+            = new DefaultPacketExtensionProvider<TransferPacketExtension>(
+                    TransferPacketExtension.class);
+
+    /**
+     * The provider of the <tt>conference-info</tt> elements of Jingle IQs.
+     */
+    private final DefaultPacketExtensionProvider<CoinPacketExtension>
+        coinProvider
+            = new DefaultPacketExtensionProvider<CoinPacketExtension>(
+                    CoinPacketExtension.class);
+
+    /**
+     * The provider of the <tt>callid</tt> elements of Jingle IQs.
+     */
+    private final DefaultPacketExtensionProvider<CallIdPacketExtension>
+        callidProvider
+            = new DefaultPacketExtensionProvider<CallIdPacketExtension>(
+                    CallIdPacketExtension.class);
+
     /**
      * Creates a new instance of the <tt>JingleIQProvider</tt> and register all
      * jingle related extension providers. It is the responsibility of the
@@ -57,15 +94,33 @@ public JingleIQProvider()
                 RtpDescriptionPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <PayloadTypePacketExtension>(
-                        PayloadTypePacketExtension.class));
+                        PayloadTypePacketExtension.class,
+                        new DefaultPacketExtensionProvider
+                                .Factory<PayloadTypePacketExtension>()
+                        {
+                            @Override
+                            public PayloadTypePacketExtension create()
+                            {
+                                return new PayloadTypePacketExtension();
+                            }
+                        }));
 
         //<parameter/> provider
         smackInteroperabilityLayer.addExtensionProvider(
                 ParameterPacketExtension.ELEMENT_NAME,
                 RtpDescriptionPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
-                        <ParameterPacketExtension>
-                        (ParameterPacketExtension.class));
+                        <ParameterPacketExtension>(
+                        ParameterPacketExtension.class,
+                        new DefaultPacketExtensionProvider
+                                .Factory<ParameterPacketExtension>()
+                        {
+                            @Override
+                            public ParameterPacketExtension create()
+                            {
+                                return new ParameterPacketExtension();
+                            }
+                        }));
 
         //<rtp-hdrext/> provider
         smackInteroperabilityLayer.addExtensionProvider(
@@ -142,7 +197,16 @@ public JingleIQProvider()
                 IceUdpTransportPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <CandidatePacketExtension>(
-                        CandidatePacketExtension.class));
+                        CandidatePacketExtension.class,
+                        new DefaultPacketExtensionProvider
+                                .Factory<CandidatePacketExtension>()
+                        {
+                            @Override
+                            public CandidatePacketExtension create()
+                            {
+                                return new CandidatePacketExtension();
+                            }
+                        }));
 
         //raw-udp <candidate/> provider
         smackInteroperabilityLayer.addExtensionProvider(
@@ -150,7 +214,16 @@ public JingleIQProvider()
                 RawUdpTransportPacketExtension.NAMESPACE,
                 new DefaultPacketExtensionProvider
                         <CandidatePacketExtension>(
-                        CandidatePacketExtension.class));
+                        CandidatePacketExtension.class,
+                        new DefaultPacketExtensionProvider
+                                .Factory<CandidatePacketExtension>()
+                        {
+                            @Override
+                            public CandidatePacketExtension create()
+                            {
+                                return new CandidatePacketExtension();
+                            }
+                        }));
 
         //ice-udp <remote-candidate/> provider
         smackInteroperabilityLayer.addExtensionProvider(
@@ -264,21 +337,6 @@ public JingleIQ parseIQ(XmlPullParser parser)
 
         boolean done = false;
 
-        // Sub-elements providers
-        DefaultPacketExtensionProvider<ContentPacketExtension> contentProvider
-            = new DefaultPacketExtensionProvider<ContentPacketExtension>(
-                    ContentPacketExtension.class);
-        ReasonProvider reasonProvider = new ReasonProvider();
-        DefaultPacketExtensionProvider<TransferPacketExtension> transferProvider
-            = new DefaultPacketExtensionProvider<TransferPacketExtension>(
-                    TransferPacketExtension.class);
-        DefaultPacketExtensionProvider<CoinPacketExtension> coinProvider
-            = new DefaultPacketExtensionProvider<CoinPacketExtension>(
-                    CoinPacketExtension.class);
-        DefaultPacketExtensionProvider<CallIdPacketExtension> callidProvider
-            = new DefaultPacketExtensionProvider<CallIdPacketExtension>(
-                    CallIdPacketExtension.class);
-
         // Now go on and parse the jingle element's content.
         int eventType;
         String elementName;
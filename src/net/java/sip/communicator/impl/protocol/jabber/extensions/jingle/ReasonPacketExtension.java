@@ -17,6 +17,8 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber.extensions.jingle;
 
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
+
 import org.jivesoftware.smack.packet.*;
 
 /**
@@ -190,7 +192,7 @@ public String toXML()
         //add the extra element if it has been specified.
         if(getOtherExtension() != null)
         {
-            bldr.append(getOtherExtension().toXML());
+            AbstractPacketExtension.appendXML(bldr, getOtherExtension());
         }
 
         bldr.append("</" + getElementName() + ">");
@@ -17,6 +17,8 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber.extensions.jingleinfo;
 
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
+
 import org.jivesoftware.smack.packet.*;
 
 /**
@@ -62,7 +64,7 @@ public String getChildElementXML()
 
             for(PacketExtension pe : getExtensions())
             {
-                bld.append(pe.toXML());
+                AbstractPacketExtension.appendXML(bld, pe);
             }
 
             bld.append("</").append(ELEMENT_NAME).append(">");
@@ -93,7 +93,7 @@ public String toXML()
 
         for(PacketExtension pe : getChildExtensions())
         {
-            bld.append(pe.toXML());
+            AbstractPacketExtension.appendXML(bld, pe);
         }
         bld.append("</").append(ELEMENT_NAME).append(">");
 
@@ -17,6 +17,8 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber.extensions.jirecon;
 
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
+
 import org.jitsi.util.*;
 
 import org.jivesoftware.smack.packet.*;
@@ -121,7 +123,7 @@ public String getChildElementXML()
             xml.append(">");
             for (PacketExtension extension : extensions)
             {
-                xml.append(extension.toXML());
+                AbstractPacketExtension.appendXML(xml, extension);
             }
             xml.append("</").append(ELEMENT_NAME).append(">");
         }
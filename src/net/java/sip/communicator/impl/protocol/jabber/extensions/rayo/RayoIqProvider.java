@@ -273,7 +273,7 @@ public String getChildElementXML()
                 xml.append(">");
                 for (PacketExtension extension : extensions)
                 {
-                    xml.append(extension.toXML());
+                    AbstractPacketExtension.appendXML(xml, extension);
                 }
                 xml.append("</").append(elementName).append(">");
             }
@@ -0,0 +1,421 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.stream.*;
+
+/**
+ * Parses the bodies of NOTIFY requests for the dialog event package
+ * (rfc4235) and its resource list (rfc4662) variant. The documents are
+ * consumed with a streaming StAX parser so that large multipart notifications
+ * carrying the state of hundreds of lines do not need to be materialized as
+ * DOM trees.
+ */
+class DialogInfoParser
+{
+    /**
+     * The media type of dialog-info documents.
+     */
+    static final String DIALOG_INFO_TYPE = "application/dialog-info+xml";
+
+    /**
+     * The media type of resource list meta-information documents.
+     */
+    static final String RLMI_TYPE = "application/rlmi+xml";
+
+    /**
+     * The media type of multipart bodies used by resource list servers.
+     */
+    static final String MULTIPART_RELATED_TYPE = "multipart/related";
+
+    /**
+     * The charset used to map the multipart body octets to characters and
+     * back without altering them.
+     */
+    private static final String RAW_CHARSET = "ISO-8859-1";
+
+    /**
+     * The shared factory of the streaming readers.
+     */
+    private static final XMLInputFactory inputFactory;
+
+    static
+    {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(
+            XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Prevents the initialization of new instances.
+     */
+    private DialogInfoParser()
+    {
+    }
+
+    /**
+     * Parses a dialog-info document.
+     *
+     * @param content the raw document
+     * @return the parsed <tt>DialogInfo</tt>
+     * @throws XMLStreamException if the document is not well formed
+     */
+    static DialogInfo parseDialogInfo(byte[] content)
+        throws XMLStreamException
+    {
+        XMLStreamReader reader = createReader(content);
+        DialogInfo info = new DialogInfo();
+        Dialog dialog = null;
+
+        try
+        {
+            while (reader.hasNext())
+            {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                String name = reader.getLocalName();
+
+                if ("dialog-info".equals(name))
+                {
+                    info.entity = reader.getAttributeValue(null, "entity");
+                    info.state = reader.getAttributeValue(null, "state");
+                }
+                else if ("dialog".equals(name))
+                {
+                    dialog = new Dialog();
+                    dialog.id = reader.getAttributeValue(null, "id");
+                    dialog.direction
+                        = reader.getAttributeValue(null, "direction");
+                    dialog.callID = reader.getAttributeValue(null, "call-id");
+                    dialog.localTag
+                        = reader.getAttributeValue(null, "local-tag");
+                    dialog.remoteTag
+                        = reader.getAttributeValue(null, "remote-tag");
+                    info.dialogs.add(dialog);
+                }
+                else if ("state".equals(name) && dialog != null)
+                {
+                    dialog.state = reader.getElementText().trim();
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return info;
+    }
+
+    /**
+     * Parses a resource list meta-information document and returns the state
+     * of the subscription to each of the resources it describes.
+     *
+     * @param content the raw document
+     * @return a map of resource URIs to the state of their instance (active,
+     * pending or terminated)
+     * @throws XMLStreamException if the document is not well formed
+     */
+    static Map<String, String> parseRlmi(byte[] content)
+        throws XMLStreamException
+    {
+        XMLStreamReader reader = createReader(content);
+        Map<String, String> resources = new LinkedHashMap<String, String>();
+        String uri = null;
+
+        try
+        {
+            while (reader.hasNext())
+            {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                String name = reader.getLocalName();
+
+                if ("resource".equals(name))
+                {
+                    uri = reader.getAttributeValue(null, "uri");
+                }
+                else if ("instance".equals(name) && uri != null)
+                {
+                    resources.put(
+                        uri, reader.getAttributeValue(null, "state"));
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return resources;
+    }
+
+    /**
+     * Splits a multipart body into its parts. Nested multipart bodies, which
+     * resource list servers use for nested lists, are flattened.
+     *
+     * @param content the raw multipart body
+     * @param boundary the boundary delimiting the parts
+     * @return the parts found in <tt>content</tt>
+     */
+    static List<BodyPart> splitMultipart(byte[] content, String boundary)
+    {
+        List<BodyPart> parts = new ArrayList<BodyPart>();
+
+        splitMultipart(content, boundary, parts);
+        return parts;
+    }
+
+    /**
+     * Splits a multipart body into its parts and adds them to a specific list.
+     *
+     * @param content the raw multipart body
+     * @param boundary the boundary delimiting the parts
+     * @param parts the list to add the parts to
+     */
+    private static void splitMultipart(
+        byte[] content, String boundary, List<BodyPart> parts)
+    {
+        String body;
+        try
+        {
+            body = new String(content, RAW_CHARSET);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // every JVM supports ISO-8859-1
+            throw new IllegalStateException(e);
+        }
+
+        String delimiter = "--" + boundary;
+        int start = body.indexOf(delimiter);
+
+        while (start != -1)
+        {
+            start += delimiter.length();
+
+            // the close delimiter
+            if (body.startsWith("--", start))
+                break;
+
+            int end = body.indexOf(delimiter, start);
+            if (end == -1)
+                break;
+
+            BodyPart part = parsePart(body.substring(start, end));
+            if (part != null)
+            {
+                if (part.type.startsWith("multipart/")
+                        && part.boundary != null)
+                {
+                    splitMultipart(part.content, part.boundary, parts);
+                }
+                else
+                {
+                    parts.add(part);
+                }
+            }
+
+            start = end;
+        }
+    }
+
+    /**
+     * Parses the headers and the body of a single part of a multipart body.
+     *
+     * @param part the part including the line break following its delimiter
+     * and the one preceding the next delimiter
+     * @return the parsed <tt>BodyPart</tt> or <tt>null</tt> if <tt>part</tt>
+     * does not separate its headers from its body
+     */
+    private static BodyPart parsePart(String part)
+    {
+        int headersEnd = part.indexOf("\r\n\r\n");
+        int bodyStart = headersEnd + 4;
+
+        if (headersEnd == -1)
+        {
+            headersEnd = part.indexOf("\n\n");
+            bodyStart = headersEnd + 2;
+        }
+        if (headersEnd == -1)
+            return null;
+
+        BodyPart result = new BodyPart();
+
+        for (String header : part.substring(0, headersEnd).split("\r?\n"))
+        {
+            int colon = header.indexOf(':');
+
+            if (colon == -1
+                    || !"Content-Type".equalsIgnoreCase(
+                            header.substring(0, colon).trim()))
+                continue;
+
+            String[] params = header.substring(colon + 1).split(";");
+
+            result.type = params[0].trim().toLowerCase();
+            for (int i = 1; i < params.length; i++)
+            {
+                String param = params[i].trim();
+
+                if (param.regionMatches(true, 0, "boundary=", 0, 9))
+                    result.boundary = unquote(param.substring(9));
+            }
+        }
+
+        int bodyEnd = part.length();
+
+        // the line break preceding the next delimiter belongs to it
+        if (part.endsWith("\r\n"))
+            bodyEnd -= 2;
+        else if (part.endsWith("\n"))
+            bodyEnd -= 1;
+
+        try
+        {
+            result.content
+                = part.substring(bodyStart, Math.max(bodyStart, bodyEnd))
+                    .getBytes(RAW_CHARSET);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the quotes surrounding a header parameter value, if any.
+     *
+     * @param value the value to unquote
+     * @return <tt>value</tt> without surrounding quotes
+     */
+    static String unquote(String value)
+    {
+        value = value.trim();
+        if (value.length() > 1
+                && value.charAt(0) == '"'
+                && value.charAt(value.length() - 1) == '"')
+            value = value.substring(1, value.length() - 1);
+        return value;
+    }
+
+    /**
+     * Creates a streaming reader over a specific raw XML document.
+     *
+     * @param content the raw document
+     * @return a new <tt>XMLStreamReader</tt> reading <tt>content</tt>
+     * @throws XMLStreamException if the reader cannot be created
+     */
+    private static XMLStreamReader createReader(byte[] content)
+        throws XMLStreamException
+    {
+        // XMLInputFactory is not guaranteed to be thread safe.
+        synchronized (inputFactory)
+        {
+            return inputFactory.createXMLStreamReader(
+                new ByteArrayInputStream(content));
+        }
+    }
+
+    /**
+     * The contents of a dialog-info document.
+     */
+    static class DialogInfo
+    {
+        /**
+         * The URI of the monitored entity.
+         */
+        String entity;
+
+        /**
+         * Either full or partial.
+         */
+        String state;
+
+        /**
+         * The dialogs of the monitored entity.
+         */
+        final List<Dialog> dialogs = new ArrayList<Dialog>();
+    }
+
+    /**
+     * A dialog of a monitored entity.
+     */
+    static class Dialog
+    {
+        /**
+         * id of the dialog.
+         */
+        String id;
+
+        /**
+         * Either initiator or recipient.
+         */
+        String direction;
+
+        /**
+         * call-id of the dialog if any.
+         */
+        String callID;
+
+        /**
+         * local-tag of the dialog if any.
+         */
+        String localTag;
+
+        /**
+         * remote-tag of the dialog if any.
+         */
+        String remoteTag;
+
+        /**
+         * One of Trying, Proceeding, Early, Confirmed or Terminated.
+         */
+        String state;
+    }
+
+    /**
+     * A part of a multipart body.
+     */
+    static class BodyPart
+    {
+        /**
+         * The lower-case media type of the part.
+         */
+        String type = "text/plain";
+
+        /**
+         * The boundary of the part if it is a multipart body itself.
+         */
+        String boundary;
+
+        /**
+         * The raw content of the part.
+         */
+        byte[] content;
+    }
+}
@@ -576,8 +576,7 @@ public boolean processRequest(RequestEvent requestEvent)
         // if we don't understand the content
         ContentTypeHeader ctheader
             = (ContentTypeHeader) request.getHeader(ContentTypeHeader.NAME);
-        if ((ctheader != null)
-                && !ctheader.getContentSubType().equalsIgnoreCase(contentSubType))
+        if ((ctheader != null) && !isContentTypeSupported(ctheader))
         {
             // send a 415 response (rfc3261)
             Response response;
@@ -681,6 +680,21 @@ public boolean processRequest(RequestEvent requestEvent)
         return true;
     }
 
+    /**
+     * Determines whether the body of a NOTIFY request with a specific
+     * <tt>ContentTypeHeader</tt> can be handled by the subscriptions managed
+     * by this instance. The default implementation accepts only the content
+     * sub-type this instance has been initialized with.
+     *
+     * @param ctheader the <tt>ContentTypeHeader</tt> of the NOTIFY request
+     * @return <tt>true</tt> if the body described by <tt>ctheader</tt> is
+     * supported; otherwise, <tt>false</tt>
+     */
+    protected boolean isContentTypeSupported(ContentTypeHeader ctheader)
+    {
+        return ctheader.getContentSubType().equalsIgnoreCase(contentSubType);
+    }
+
     /**
      * Implements {@link MethodProcessor#processResponse(ResponseEvent)}.
      * Handles only responses to SUBSCRIBE requests because they are the only
@@ -23,11 +23,10 @@
 import net.java.sip.communicator.service.protocol.event.*;
 import net.java.sip.communicator.util.Logger;
 import org.jitsi.util.*;
-import org.jitsi.util.xml.*;
-import org.w3c.dom.*;
 
 import javax.sip.*;
 import javax.sip.address.*;
+import javax.sip.header.*;
 import javax.sip.message.*;
 import java.net.*;
 import java.text.*;
@@ -36,7 +35,10 @@
 /**
  * Provides operations necessary to monitor line activity and pickup calls
  * if needed. BLF stands for Busy Lamp Field.
- * Implementation using rfc4235 and rfc5359#section-2.16.
+ * Implementation using rfc4235 and rfc5359#section-2.16. When the account
+ * provisions a resource list URI all lines are monitored through a single
+ * subscription to the resource list server (rfc4662), otherwise every line is
+ * subscribed separately and the subscriptions are spread over time.
  *
  * @author Damian Minkov
  */
@@ -77,6 +79,14 @@
      */
     public static final String BLF_LINE_PICKUP_ACC_PROP_PREFIX = "Pickup";
 
+    /**
+     * Account property to set/provision the URI of a resource list holding
+     * all monitored lines. When set, the lines are monitored through a single
+     * subscription to the resource list server instead of one subscription
+     * per line.
+     */
+    public static final String BLF_RLS_URI_ACC_PROP = "BLF_RLS_URI";
+
     /**
      * The name of the event package supported by
      * <tt>BLFServiceImpl</tt> in SUBSCRIBE
@@ -102,6 +112,45 @@
      */
     private static final int REFRESH_MARGIN = 60;
 
+    /**
+     * The maximum number of per-line subscriptions sent at once.
+     */
+    private static final int SUBSCRIBE_BURST = 20;
+
+    /**
+     * The time in milliseconds between two bursts of per-line subscriptions.
+     */
+    private static final long SUBSCRIBE_BURST_INTERVAL = 1000;
+
+    /**
+     * The time in milliseconds after which a failed or terminated subscription
+     * is retried for the first time. Every following failure doubles it.
+     */
+    private static final long RESUBSCRIBE_MIN_DELAY = 5000;
+
+    /**
+     * The maximum time in milliseconds between two attempts to restore a
+     * failed or terminated subscription.
+     */
+    private static final long RESUBSCRIBE_MAX_DELAY = 10 * 60 * 1000;
+
+    /**
+     * The number of consecutive failures after which we stop trying to
+     * restore a subscription until the provider registers again.
+     */
+    private static final int RESUBSCRIBE_MAX_ATTEMPTS = 10;
+
+    /**
+     * The time in milliseconds during which line status changes are collected
+     * before they are delivered to the listeners in a single batch.
+     */
+    private static final long EVENT_BATCH_WINDOW = 200;
+
+    /**
+     * The SIP option tag announcing support for resource lists (rfc4662).
+     */
+    private static final String EVENTLIST_OPTION_TAG = "eventlist";
+
     /**
      * A list of listeners.
      */
@@ -130,9 +179,66 @@
     private final TimerScheduler timer = new TimerScheduler();
 
     /**
-     * Namespace wildcard.
+     * The timer which delivers the batched status events and restores failed
+     * subscriptions. It is separate from {@link #timer} so that the offline
+     * events fired on unregistration survive its cancellation.
+     */
+    private final TimerScheduler dispatchTimer = new TimerScheduler();
+
+    /**
+     * The address of the resource list server holding the monitored lines or
+     * <tt>null</tt> if lines are subscribed separately.
+     */
+    private final String resourceListUri;
+
+    /**
+     * Whether the resource list server rejected our subscription and we have
+     * fallen back to per-line subscriptions.
+     */
+    private boolean resourceListUnsupported = false;
+
+    /**
+     * The number of consecutive failures of the resource list subscription.
+     */
+    private int resourceListFailures = 0;
+
+    /**
+     * The monitored lines indexed by their URI, used to dispatch the
+     * dialog-info documents aggregated by the resource list server.
+     */
+    private Map<String, Line> linesByUri = null;
+
+    /**
+     * The lines waiting for their per-line subscription to be sent.
+     */
+    private final LinkedList<Line> subscribeQueue = new LinkedList<Line>();
+
+    /**
+     * Whether a task sending the queued per-line subscriptions is scheduled.
+     */
+    private boolean subscribeTaskScheduled = false;
+
+    /**
+     * Incremented whenever we lose our registration so that the pending
+     * subscription and retry tasks scheduled before know they are obsolete.
+     */
+    private int subscriptionGeneration = 0;
+
+    /**
+     * The status events waiting to be delivered, coalesced per line.
      */
-    private static final String ANY_NS = "*";
+    private final Map<Line, BLFStatusEvent> pendingEvents
+        = new LinkedHashMap<Line, BLFStatusEvent>();
+
+    /**
+     * Whether a task delivering {@link #pendingEvents} is scheduled.
+     */
+    private boolean dispatchScheduled = false;
+
+    /**
+     * The random used to spread the retries of failed subscriptions.
+     */
+    private final Random random = new Random();
 
     /**
      * The property to access details for the dataObject Line.
@@ -152,14 +258,12 @@ public OperationSetTelephonyBLFSipImpl(
 
         initLines();
 
-        this.subscriber
-            = new EventPackageSubscriber(
-            this.provider,
-            EVENT_PACKAGE,
-            SUBSCRIPTION_DURATION,
-            CONTENT_SUB_TYPE,
-            this.timer,
-            REFRESH_MARGIN);
+        String rlsUri = provider.getAccountID()
+            .getAccountPropertyString(BLF_RLS_URI_ACC_PROP);
+        this.resourceListUri
+            = StringUtils.isNullOrEmpty(rlsUri, true) ? null : rlsUri.trim();
+
+        this.subscriber = new DialogInfoSubscriber();
         this.provider.registerEvent(EVENT_PACKAGE);
     }
 
@@ -367,28 +471,22 @@ public void registrationStateChanged(RegistrationStateChangeEvent evt)
     {
         if(evt.getNewState().equals(RegistrationState.REGISTERED))
         {
-            for(Line line : this.lines)
+            // give the subscriptions we gave up on another chance
+            synchronized (this)
             {
-                // Attempt to subscribe.
-                try
-                {
-                    subscriber.poll(new DialogInfoSubscriberSubscription(
-                        provider.parseAddressString(line.getAddress()), line));
-                }
-                catch (OperationFailedException ex)
-                {
-                    logger.error(
-                        "Failed to create and send the subscription", ex);
-                }
-                catch (ParseException ex)
-                {
-                    logger.error(
-                        "Failed to create and send the subscription", ex);
-                }
+                resourceListFailures = 0;
             }
+            for(Line line : this.lines)
+                getLineDetails(line).failures = 0;
+
+            if(isResourceListMode())
+                subscribeResourceList();
+            else
+                scheduleSubscriptions(this.lines);
         }
         else if(evt.getNewState().equals(RegistrationState.UNREGISTERING))
         {
+            cancelPendingSubscriptions();
             timer.cancel();
         }
         else if(evt.getNewState().equals(
@@ -398,281 +496,622 @@ else if(evt.getNewState().equals(
                 || evt.getNewState().equals(
                         RegistrationState.UNREGISTERED))
         {
+            cancelPendingSubscriptions();
+
             if (subscriber != null)
             {
+                if(resourceListUri != null)
+                    removeSubscription(resourceListUri);
+
                 for(Line line : this.lines)
                 {
-                    try
-                    {
-                        subscriber.removeSubscription(
-                            provider.parseAddressString(line.getAddress()));
-                    }
-                    catch(ParseException ex)
-                    {
-                        if(logger.isDebugEnabled())
-                        {
-                            logger.debug("Failed to remove subscription for "
-                                + line.getAddress());
-                        }
-                    }
-
+                    removeSubscription(line.getAddress());
                     fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
                 }
             }
             timer.cancel();
+
+            // deliver the offline events now rather than keeping the dispatch
+            // thread alive for a provider which is no longer registered
+            dispatchTimer.cancel();
+            dispatchEvents();
         }
     }
 
     /**
-     * Fires event.
-     * @param line
-     * @param eventType
+     * Stops monitoring the lines and releases the timers, i.e. when the
+     * provider is shut down. Pending status events are discarded.
      */
-    private void fireEvent(Line line, int eventType)
+    void shutdown()
     {
-        LineDetails details = (LineDetails)line.getData(DATA_PROP);
-        if(details == null)
+        provider.removeRegistrationStateChangeListener(this);
+        cancelPendingSubscriptions();
+        timer.cancel();
+        dispatchTimer.cancel();
+        synchronized (pendingEvents)
         {
-            details = new LineDetails();
-            line.setData(DATA_PROP, details);
+            pendingEvents.clear();
+            dispatchScheduled = false;
         }
-        details.lastStatusEvent = eventType;
+    }
 
-        BLFStatusEvent evt
-            = new BLFStatusEvent(line, eventType);
+    /**
+     * Whether the lines are monitored through a resource list subscription.
+     *
+     * @return <tt>true</tt> if a resource list URI is provisioned and the
+     * server has not rejected it.
+     */
+    private synchronized boolean isResourceListMode()
+    {
+        return resourceListUri != null && !resourceListUnsupported;
+    }
 
-        Collection<BLFStatusListener> listeners;
-        synchronized (this.listeners)
+    /**
+     * Removes the subscription to a specific address, if any.
+     *
+     * @param address the address whose subscription is to be removed.
+     */
+    private void removeSubscription(String address)
+    {
+        try
         {
-            listeners
-                = new ArrayList<BLFStatusListener>(this.listeners);
+            subscriber.removeSubscription(
+                provider.parseAddressString(address));
         }
+        catch(ParseException ex)
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("Failed to remove subscription for " + address);
+            }
+        }
+    }
 
-        if (logger.isInfoEnabled())
-            logger.info(
-                "Dispatching BLF change. Listeners="
-                    + listeners.size()
-                    + " evt=" + evt
-                    + " line=" + line.getAddress());
-
-        for (BLFStatusListener listener : listeners)
-            listener.blfStatusChanged(evt);
+    /**
+     * Subscribes to the dialog event package of the resource list holding
+     * all monitored lines.
+     */
+    private void subscribeResourceList()
+    {
+        try
+        {
+            subscriber.poll(new ResourceListSubscription(
+                provider.parseAddressString(resourceListUri)));
+        }
+        catch (OperationFailedException ex)
+        {
+            logger.error(
+                "Failed to create and send the resource list subscription",
+                ex);
+        }
+        catch (ParseException ex)
+        {
+            logger.error(
+                "Failed to create and send the resource list subscription",
+                ex);
+        }
     }
 
     /**
-     * Convert a xml document
+     * Queues the per-line subscriptions of specific lines. The queue is
+     * drained in bursts of {@link #SUBSCRIBE_BURST} subscriptions so that
+     * monitoring hundreds of lines does not flood the registrar.
      *
-     * @param document the document as a String
+     * @param lines the lines to subscribe for.
+     */
+    private void scheduleSubscriptions(Collection<Line> lines)
+    {
+        synchronized (subscribeQueue)
+        {
+            for(Line line : lines)
+            {
+                if(!subscribeQueue.contains(line))
+                    subscribeQueue.add(line);
+            }
+
+            if(subscribeTaskScheduled || subscribeQueue.isEmpty())
+                return;
+
+            subscribeTaskScheduled = true;
+            dispatchTimer.schedule(
+                new SubscribeTask(subscriptionGeneration), 0);
+        }
+    }
+
+    /**
+     * Sends the per-line subscription for a specific line.
      *
-     * @return a <tt>Document</tt> representing the document or null if an
-     * error occur
+     * @param line the line to subscribe for.
      */
-    Document convertDocument(byte[] document)
+    private void subscribeLine(Line line)
     {
         try
         {
-            return XMLUtils.createDocument(new String(document, "UTF-8"));
+            subscriber.poll(new DialogInfoSubscriberSubscription(
+                provider.parseAddressString(line.getAddress()), line));
         }
-        catch (Exception e)
+        catch (OperationFailedException ex)
         {
-            logger.error("Can't convert the string into a xml document", e);
-            return null;
+            logger.error(
+                "Failed to create and send the subscription", ex);
+        }
+        catch (ParseException ex)
+        {
+            logger.error(
+                "Failed to create and send the subscription", ex);
         }
     }
 
     /**
-     * Secured call to XMLUtils.getText (no null returned but an empty string)
-     *
-     * @param node the node with which call <tt>XMLUtils.getText()</tt>
+     * Drops the queued subscriptions and makes the scheduled subscription and
+     * retry tasks obsolete.
+     */
+    private void cancelPendingSubscriptions()
+    {
+        synchronized (subscribeQueue)
+        {
+            subscriptionGeneration++;
+            subscribeQueue.clear();
+            subscribeTaskScheduled = false;
+        }
+    }
+
+    /**
+     * Schedules an attempt to restore a failed or terminated subscription
+     * after a delay which grows exponentially with the number of consecutive
+     * failures.
      *
-     * @return the string contained in the node or an empty string if there is
-     * no text information in the node.
+     * @param line the line to subscribe for or <tt>null</tt> to restore the
+     * resource list subscription.
+     * @param failures the number of consecutive failures so far.
      */
-    private String getTextContent(Element node)
+    private void scheduleResubscribe(final Line line, int failures)
     {
-        String res = XMLUtils.getText(node);
+        if(failures > RESUBSCRIBE_MAX_ATTEMPTS)
+        {
+            logger.warn("Giving up the subscription for "
+                + (line == null ? resourceListUri : line.getAddress())
+                + " after " + RESUBSCRIBE_MAX_ATTEMPTS + " failed attempts");
+            return;
+        }
+
+        long delay = RESUBSCRIBE_MIN_DELAY << Math.min(failures - 1, 16);
+        delay = Math.min(delay, RESUBSCRIBE_MAX_DELAY);
+        // spread the retries of the lines which failed together
+        delay += random.nextInt((int) (delay / 4) + 1);
+
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("Will retry the subscription for "
+                + (line == null ? resourceListUri : line.getAddress())
+                + " in " + delay + "ms");
+        }
 
-        if (res == null)
+        final int generation;
+        synchronized (subscribeQueue)
         {
-            logger.warn("no text for element '" + node.getNodeName() + "'");
-            return "";
+            generation = subscriptionGeneration;
         }
 
-        return res;
+        dispatchTimer.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (subscribeQueue)
+                {
+                    if(generation != subscriptionGeneration)
+                        return;
+                }
+
+                if(!provider.isRegistered())
+                    return;
+
+                if(line == null)
+                    subscribeResourceList();
+                else
+                    scheduleSubscriptions(Collections.singletonList(line));
+            }
+        }, delay);
     }
 
     /**
-     * Represents a subscription to the dialog+info event package of a specific
-     * <code>Address</code>.
+     * Checks whether a subscription rejected with a specific final response
+     * may succeed later. Client and global failures are permanent, except
+     * for the ones telling the notifier is temporarily unavailable.
      *
-     * @author Damian Minkov
+     * @param statusCode the status code of the final response.
+     * @return <tt>true</tt> if the subscription is worth retrying.
      */
-    private class DialogInfoSubscriberSubscription
-        extends EventPackageSubscriber.Subscription
+    private static boolean isRetryable(int statusCode)
     {
-        /**
-         * The line.
-         */
-        private final Line line;
-
-        /**
-         * Initializes a new <code>PresenceSubscriberSubscription</code>
-         * instance which is to represent a subscription to the dialog event
-         * package of a specific <code>Address</code>.
-         *
-         * @param address the <code>Address</code> which is the notifier
-         *                the new subscription is to subscribed to
-         * @throws OperationFailedException if we fail extracting
-         *                                  <tt>address</tt>'s address.
-         */
-        public DialogInfoSubscriberSubscription(Address address, Line line)
-            throws
-            OperationFailedException
+        switch(statusCode)
         {
-            super(address);
-
-            this.line = line;
+            case Response.REQUEST_TIMEOUT:
+            case Response.TEMPORARILY_UNAVAILABLE:
+            case Response.SERVICE_UNAVAILABLE:
+                return true;
         }
+        return statusCode >= 500 && statusCode < 600;
+    }
 
-        /*
-         * Implements
-         * EventPackageSubscriber.Subscription#processActiveRequest(RequestEvent
-         * , byte[]).
-         */
-        @Override
-        protected void processActiveRequest(
-            RequestEvent requestEvent,
-            byte[] rawContent)
+    /**
+     * Checks whether a subscription terminated by the notifier with a
+     * specific reason may be restored (RFC 6665, section 4.1.3).
+     *
+     * @param reasonCode the reason of the termination, can be <tt>null</tt>.
+     * @return <tt>true</tt> if the subscription is worth retrying.
+     */
+    private static boolean isRetryable(String reasonCode)
+    {
+        return !"rejected".equalsIgnoreCase(reasonCode)
+            && !"noresource".equalsIgnoreCase(reasonCode);
+    }
+
+    /**
+     * Falls back to per-line subscriptions after the resource list server
+     * rejected our subscription.
+     */
+    private void fallbackToLineSubscriptions()
+    {
+        synchronized (this)
         {
-            if(rawContent == null)
+            if(resourceListUnsupported)
                 return;
+            resourceListUnsupported = true;
+        }
 
-            Document doc = convertDocument(rawContent);
+        logger.warn("Resource list " + resourceListUri
+            + " not supported, subscribing for each line separately");
 
-            if (doc == null)
-                return;
+        scheduleSubscriptions(this.lines);
+    }
 
-            if (logger.isTraceEnabled())
-                logger.trace("parsing:\n" + new String(rawContent));
+    /**
+     * Returns the monitored line with a specific URI.
+     *
+     * @param uri the URI of the line as reported by the resource list server.
+     * @return the line or <tt>null</tt> if we do not monitor <tt>uri</tt>.
+     */
+    private synchronized Line getLineByUri(String uri)
+    {
+        if(linesByUri == null)
+        {
+            linesByUri = new HashMap<String, Line>();
+            for(Line line : this.lines)
+            {
+                try
+                {
+                    linesByUri.put(
+                        normalizeUri(provider.parseAddressString(
+                                line.getAddress()).getURI().toString()),
+                        line);
+                }
+                catch(ParseException ex)
+                {
+                    logger.warn("Cannot parse line address "
+                        + line.getAddress());
+                }
+            }
+        }
+
+        return linesByUri.get(normalizeUri(uri));
+    }
+
+    /**
+     * Strips the parameters and the surrounding angle brackets of a URI so
+     * that the URIs of the provisioned lines and those reported by the
+     * resource list server can be compared.
+     *
+     * @param uri the URI to normalize.
+     * @return the normalized URI.
+     */
+    private static String normalizeUri(String uri)
+    {
+        uri = uri.trim();
+        if(uri.startsWith("<") && uri.endsWith(">"))
+            uri = uri.substring(1, uri.length() - 1);
+
+        int paramsStart = uri.indexOf(';');
+        if(paramsStart != -1)
+            uri = uri.substring(0, paramsStart);
+
+        return uri.toLowerCase();
+    }
 
+    /**
+     * Returns the details of a specific line, creating them if necessary.
+     *
+     * @param line the line.
+     * @return the details of <tt>line</tt>.
+     */
+    private LineDetails getLineDetails(Line line)
+    {
+        synchronized (line)
+        {
             LineDetails details = (LineDetails)line.getData(DATA_PROP);
             if(details == null)
             {
                 details = new LineDetails();
                 line.setData(DATA_PROP, details);
             }
+            return details;
+        }
+    }
 
-            // <dialog>
-            NodeList dialogList = doc.getElementsByTagNameNS(ANY_NS,
-                "dialog");
-
-            if(dialogList.getLength() == 0)
-            {
-                // no dialogs - it is free
-                updateLineState(details, "Terminated");
-                return;
-            }
-
-            for (int i = 0; i < dialogList.getLength(); i++)
-            {
-                Node dialogNode = dialogList.item(i);
-                Element dialogElem = (Element)dialogNode;
+    /**
+     * Updates the state of a line from a dialog-info document describing it.
+     *
+     * @param line the line described by <tt>info</tt>.
+     * @param info the dialog-info document.
+     */
+    private void processDialogInfo(Line line, DialogInfoParser.DialogInfo info)
+    {
+        LineDetails details = getLineDetails(line);
 
-                details.id = dialogElem.getAttribute("id");
-                details.direction = dialogElem.getAttribute("direction");
-                details.callID = dialogElem.getAttribute("call-id");
-                details.localTag = dialogElem.getAttribute("local-tag");
-                details.remoteTag = dialogElem.getAttribute("remote-tag");
+        if(info.dialogs.isEmpty())
+        {
+            // no dialogs - it is free
+            updateLineState(line, details, "Terminated");
+            return;
+        }
 
-                NodeList states = ((Element)dialogNode)
-                    .getElementsByTagNameNS(ANY_NS, "state");
+        for(DialogInfoParser.Dialog dialog : info.dialogs)
+        {
+            details.id = dialog.id;
+            details.direction = dialog.direction;
+            details.callID = dialog.callID;
+            details.localTag = dialog.localTag;
+            details.remoteTag = dialog.remoteTag;
 
-                if(states.getLength() == 0)
-                    continue;
+            if(dialog.state == null)
+                continue;
 
-                updateLineState(
-                    details,
-                    getTextContent((Element)states.item(0)));
-            }
+            updateLineState(line, details, dialog.state);
         }
+    }
 
-        /**
-         * Dispatch the state from the xml and set the corresponding state
-         * of the line.
-         *
-         * @param state is one of: Trying, Proceeding, Early,
-         * Confirmed, Terminated
-         */
-        private void updateLineState(LineDetails details, String state)
-        {
-            int newEvent = BLFStatusEvent.STATUS_OFFLINE;
-
-            switch(details.lastStatusEvent)
-            {
-                case BLFStatusEvent.STATUS_OFFLINE:
-                    if(state.equalsIgnoreCase("Trying")
-                        || state.equalsIgnoreCase("Proceeding")
-                        || state.equalsIgnoreCase("Early"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_RINGING;
-                    }
-                    else if(state.equalsIgnoreCase("Confirmed"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_BUSY;
-                    }
-                    else if(state.equalsIgnoreCase("Terminated"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_FREE;
-                    }
-                    break;
-                case BLFStatusEvent.STATUS_FREE:
-                    if(state.equalsIgnoreCase("Trying")
-                        || state.equalsIgnoreCase("Proceeding")
-                        || state.equalsIgnoreCase("Early"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_RINGING;
-                    }
-                    else if(state.equalsIgnoreCase("Confirmed"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_BUSY;
-                    }
-                    else if(state.equalsIgnoreCase("Terminated"))
-                    {
-                        // status is free so return
-                        return;
-                    }
-                    break;
-                case BLFStatusEvent.STATUS_BUSY:
-                    if(state.equalsIgnoreCase("Terminated"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_FREE;
-                    }
-                    else
-                    {
-                        // status is busy so return
-                        return;
-                    }
-                    break;
-                case BLFStatusEvent.STATUS_RINGING:
-                    if(state.equalsIgnoreCase("Confirmed"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_BUSY;
-                    }
-                    else if(state.equalsIgnoreCase("Terminated"))
-                    {
-                        newEvent = BLFStatusEvent.STATUS_FREE;
-                    }
-                    else
-                    {
-                        // status is ringing so return
-                        return;
-                    }
-                    break;
-                default:
+    /**
+     * Dispatch the state from the xml and set the corresponding state
+     * of the line.
+     *
+     * @param line the line which state changed.
+     * @param details the details of <tt>line</tt>.
+     * @param state is one of: Trying, Proceeding, Early,
+     * Confirmed, Terminated
+     */
+    private void updateLineState(Line line, LineDetails details, String state)
+    {
+        int newEvent = BLFStatusEvent.STATUS_OFFLINE;
+
+        switch(details.lastStatusEvent)
+        {
+            case BLFStatusEvent.STATUS_OFFLINE:
+                if(state.equalsIgnoreCase("Trying")
+                    || state.equalsIgnoreCase("Proceeding")
+                    || state.equalsIgnoreCase("Early"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_RINGING;
+                }
+                else if(state.equalsIgnoreCase("Confirmed"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_BUSY;
+                }
+                else if(state.equalsIgnoreCase("Terminated"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_FREE;
+                }
+                break;
+            case BLFStatusEvent.STATUS_FREE:
+                if(state.equalsIgnoreCase("Trying")
+                    || state.equalsIgnoreCase("Proceeding")
+                    || state.equalsIgnoreCase("Early"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_RINGING;
+                }
+                else if(state.equalsIgnoreCase("Confirmed"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_BUSY;
+                }
+                else if(state.equalsIgnoreCase("Terminated"))
+                {
+                    // status is free so return
                     return;
+                }
+                break;
+            case BLFStatusEvent.STATUS_BUSY:
+                if(state.equalsIgnoreCase("Terminated"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_FREE;
+                }
+                else
+                {
+                    // status is busy so return
+                    return;
+                }
+                break;
+            case BLFStatusEvent.STATUS_RINGING:
+                if(state.equalsIgnoreCase("Confirmed"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_BUSY;
+                }
+                else if(state.equalsIgnoreCase("Terminated"))
+                {
+                    newEvent = BLFStatusEvent.STATUS_FREE;
+                }
+                else
+                {
+                    // status is ringing so return
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+
+        fireEvent(line, newEvent);
+    }
+
+    /**
+     * Fires event. The events are collected during
+     * {@link #EVENT_BATCH_WINDOW} and delivered in a single batch in which
+     * only the last status of each line is kept.
+     * @param line
+     * @param eventType
+     */
+    private void fireEvent(Line line, int eventType)
+    {
+        LineDetails details = getLineDetails(line);
+        details.lastStatusEvent = eventType;
+
+        BLFStatusEvent evt
+            = new BLFStatusEvent(line, eventType);
+
+        if (logger.isDebugEnabled())
+            logger.debug("BLF change evt=" + evt
+                + " line=" + line.getAddress());
+
+        synchronized (pendingEvents)
+        {
+            // keep the position of the line in the batch but report
+            // its latest status
+            pendingEvents.put(line, evt);
+
+            if (dispatchScheduled)
+                return;
+
+            dispatchScheduled = true;
+        }
+
+        dispatchTimer.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                dispatchEvents();
             }
+        }, EVENT_BATCH_WINDOW);
+    }
 
-            fireEvent(line, newEvent);
+    /**
+     * Delivers the pending status events to the listeners.
+     */
+    private void dispatchEvents()
+    {
+        List<BLFStatusEvent> events;
+        synchronized (pendingEvents)
+        {
+            events = new ArrayList<BLFStatusEvent>(pendingEvents.values());
+            pendingEvents.clear();
+            dispatchScheduled = false;
+        }
+
+        if (events.isEmpty())
+            return;
+
+        Collection<BLFStatusListener> listeners;
+        synchronized (this.listeners)
+        {
+            listeners
+                = new ArrayList<BLFStatusListener>(this.listeners);
+        }
+
+        if (logger.isInfoEnabled())
+            logger.info(
+                "Dispatching BLF changes. Listeners="
+                    + listeners.size()
+                    + " events=" + events.size());
+
+        events = Collections.unmodifiableList(events);
+        for (BLFStatusListener listener : listeners)
+        {
+            if (listener instanceof BLFStatusBatchListener)
+            {
+                ((BLFStatusBatchListener) listener).blfStatusesChanged(events);
+            }
+            else
+            {
+                for (BLFStatusEvent evt : events)
+                    listener.blfStatusChanged(evt);
+            }
+        }
+    }
+
+    /**
+     * Parses a dialog-info document, logging failures.
+     *
+     * @param rawContent the raw document.
+     * @return the parsed document or <tt>null</tt> if it is not valid.
+     */
+    private DialogInfoParser.DialogInfo parseDialogInfo(byte[] rawContent)
+    {
+        try
+        {
+            return DialogInfoParser.parseDialogInfo(rawContent);
+        }
+        catch (Exception e)
+        {
+            logger.error("Can't parse the dialog-info document", e);
+            return null;
+        }
+    }
+
+    /**
+     * Represents a subscription to the dialog+info event package of a specific
+     * <code>Address</code>.
+     *
+     * @author Damian Minkov
+     */
+    private class DialogInfoSubscriberSubscription
+        extends EventPackageSubscriber.Subscription
+    {
+        /**
+         * The line.
+         */
+        private final Line line;
+
+        /**
+         * Initializes a new <code>PresenceSubscriberSubscription</code>
+         * instance which is to represent a subscription to the dialog event
+         * package of a specific <code>Address</code>.
+         *
+         * @param address the <code>Address</code> which is the notifier
+         *                the new subscription is to subscribed to
+         * @throws OperationFailedException if we fail extracting
+         *                                  <tt>address</tt>'s address.
+         */
+        public DialogInfoSubscriberSubscription(Address address, Line line)
+            throws
+            OperationFailedException
+        {
+            super(address);
+
+            this.line = line;
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processActiveRequest(RequestEvent
+         * , byte[]).
+         */
+        @Override
+        protected void processActiveRequest(
+            RequestEvent requestEvent,
+            byte[] rawContent)
+        {
+            if(rawContent == null)
+                return;
+
+            if (logger.isTraceEnabled())
+                logger.trace("parsing:\n" + new String(rawContent));
+
+            DialogInfoParser.DialogInfo info = parseDialogInfo(rawContent);
+
+            if (info == null)
+                return;
+
+            getLineDetails(line).failures = 0;
+            processDialogInfo(line, info);
         }
 
         /*
@@ -686,6 +1125,12 @@ protected void processFailureResponse(
             int statusCode)
         {
             fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+
+            if(isRetryable(statusCode))
+                scheduleResubscribe(line, ++getLineDetails(line).failures);
+            else
+                logger.warn("Subscription for " + line.getAddress()
+                    + " rejected with " + statusCode + ", not retrying");
         }
 
         /*
@@ -702,6 +1147,7 @@ protected void processSuccessResponse(
             {
                 case Response.OK:
                 case Response.ACCEPTED:
+                    getLineDetails(line).failures = 0;
                     fireEvent(line, BLFStatusEvent.STATUS_FREE);
                     break;
             }
@@ -721,6 +1167,338 @@ protected void processTerminatedRequest(
             RequestEvent requestEvent, String reasonCode)
         {
             fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+
+            if(isRetryable(reasonCode))
+                scheduleResubscribe(line, ++getLineDetails(line).failures);
+            else
+                logger.warn("Subscription for " + line.getAddress()
+                    + " terminated (" + reasonCode + "), not retrying");
+        }
+    }
+
+    /**
+     * The subscriber for the dialog event package. Announces support for
+     * resource lists and accepts their multipart notifications when the
+     * account provisions a resource list URI.
+     */
+    private class DialogInfoSubscriber
+        extends EventPackageSubscriber
+    {
+        /**
+         * Initializes a new <tt>DialogInfoSubscriber</tt>.
+         */
+        public DialogInfoSubscriber()
+        {
+            super(
+                OperationSetTelephonyBLFSipImpl.this.provider,
+                EVENT_PACKAGE,
+                SUBSCRIPTION_DURATION,
+                CONTENT_SUB_TYPE,
+                OperationSetTelephonyBLFSipImpl.this.timer,
+                REFRESH_MARGIN);
+        }
+
+        /**
+         * Adds the Supported and Accept headers required by rfc4662 to the
+         * SUBSCRIBE requests of resource list subscriptions.
+         */
+        @Override
+        protected void populateSubscribeRequest(
+                Request req,
+                EventPackageSubscriber.Subscription subscription,
+                int expires)
+            throws OperationFailedException
+        {
+            super.populateSubscribeRequest(req, subscription, expires);
+
+            if(!(subscription instanceof ResourceListSubscription))
+                return;
+
+            HeaderFactory headerFactory = provider.getHeaderFactory();
+            try
+            {
+                req.setHeader(
+                    headerFactory.createSupportedHeader(EVENTLIST_OPTION_TAG));
+                req.addHeader(
+                    headerFactory.createAcceptHeader("application", "rlmi+xml"));
+                req.addHeader(
+                    headerFactory.createAcceptHeader("multipart", "related"));
+            }
+            catch (ParseException e)
+            {
+                logger.error("Failed to create the resource list headers", e);
+                throw new OperationFailedException(
+                    "An unexpected error occurred while"
+                    + "constructing the resource list headers",
+                    OperationFailedException.INTERNAL_ERROR,
+                    e);
+            }
+        }
+
+        /**
+         * Accepts multipart bodies in addition to dialog-info documents
+         * when a resource list URI is provisioned.
+         */
+        @Override
+        protected boolean isContentTypeSupported(ContentTypeHeader ctheader)
+        {
+            return super.isContentTypeSupported(ctheader)
+                || (resourceListUri != null
+                    && "multipart".equalsIgnoreCase(ctheader.getContentType())
+                    && "related".equalsIgnoreCase(
+                            ctheader.getContentSubType()));
+        }
+    }
+
+    /**
+     * Sends the queued per-line subscriptions in bursts of
+     * {@link #SUBSCRIBE_BURST}.
+     */
+    private class SubscribeTask
+        extends TimerTask
+    {
+        /**
+         * The subscription generation this task has been scheduled in.
+         */
+        private final int generation;
+
+        /**
+         * Initializes a new <tt>SubscribeTask</tt>.
+         *
+         * @param generation the current subscription generation.
+         */
+        public SubscribeTask(int generation)
+        {
+            this.generation = generation;
+        }
+
+        @Override
+        public void run()
+        {
+            List<Line> burst = new ArrayList<Line>(SUBSCRIBE_BURST);
+
+            synchronized (subscribeQueue)
+            {
+                if(generation != subscriptionGeneration)
+                    return;
+
+                while(burst.size() < SUBSCRIBE_BURST
+                        && !subscribeQueue.isEmpty())
+                    burst.add(subscribeQueue.removeFirst());
+
+                if(subscribeQueue.isEmpty())
+                {
+                    subscribeTaskScheduled = false;
+                }
+                else
+                {
+                    dispatchTimer.schedule(
+                        new SubscribeTask(generation),
+                        SUBSCRIBE_BURST_INTERVAL);
+                }
+            }
+
+            for(Line line : burst)
+                subscribeLine(line);
+        }
+    }
+
+    /**
+     * Represents a subscription to the dialog event package of the resource
+     * list holding all monitored lines (rfc4662). The NOTIFY requests carry
+     * a multipart body with a resource list meta-information document and a
+     * dialog-info document for every line whose state changed.
+     */
+    private class ResourceListSubscription
+        extends EventPackageSubscriber.Subscription
+    {
+        /**
+         * Initializes a new <tt>ResourceListSubscription</tt>.
+         *
+         * @param address the address of the resource list.
+         */
+        public ResourceListSubscription(Address address)
+        {
+            super(address);
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processActiveRequest(RequestEvent
+         * , byte[]).
+         */
+        @Override
+        protected void processActiveRequest(
+            RequestEvent requestEvent,
+            byte[] rawContent)
+        {
+            if(rawContent == null)
+                return;
+
+            synchronized (OperationSetTelephonyBLFSipImpl.this)
+            {
+                resourceListFailures = 0;
+            }
+
+            ContentTypeHeader ctheader
+                = (ContentTypeHeader) requestEvent.getRequest()
+                    .getHeader(ContentTypeHeader.NAME);
+            String boundary
+                = (ctheader == null) ? null : ctheader.getParameter("boundary");
+
+            if(boundary == null
+                || !"multipart".equalsIgnoreCase(ctheader.getContentType()))
+            {
+                processDialogInfo(rawContent);
+                return;
+            }
+
+            for(DialogInfoParser.BodyPart part
+                    : DialogInfoParser.splitMultipart(
+                        rawContent, DialogInfoParser.unquote(boundary)))
+            {
+                if(DialogInfoParser.DIALOG_INFO_TYPE.equals(part.type))
+                    processDialogInfo(part.content);
+                else if(DialogInfoParser.RLMI_TYPE.equals(part.type))
+                    processRlmi(part.content);
+            }
+        }
+
+        /**
+         * Updates the line described by a specific dialog-info document.
+         *
+         * @param content the raw dialog-info document.
+         */
+        private void processDialogInfo(byte[] content)
+        {
+            DialogInfoParser.DialogInfo info = parseDialogInfo(content);
+
+            if(info == null || info.entity == null)
+                return;
+
+            Line line = getLineByUri(info.entity);
+            if(line == null)
+            {
+                if(logger.isDebugEnabled())
+                    logger.debug("Dialog info for unknown line " + info.entity);
+                return;
+            }
+
+            OperationSetTelephonyBLFSipImpl.this.processDialogInfo(line, info);
+        }
+
+        /**
+         * Marks offline the lines which the resource list server no longer
+         * monitors for us.
+         *
+         * @param content the raw resource list meta-information document.
+         */
+        private void processRlmi(byte[] content)
+        {
+            Map<String, String> resources;
+            try
+            {
+                resources = DialogInfoParser.parseRlmi(content);
+            }
+            catch (Exception e)
+            {
+                logger.error("Can't parse the rlmi document", e);
+                return;
+            }
+
+            for(Map.Entry<String, String> resource : resources.entrySet())
+            {
+                if(!"terminated".equalsIgnoreCase(resource.getValue()))
+                    continue;
+
+                Line line = getLineByUri(resource.getKey());
+                if(line != null)
+                    fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+            }
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processFailureResponse(
+         * ResponseEvent, int).
+         */
+        @Override
+        protected void processFailureResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+            switch(statusCode)
+            {
+                case Response.NOT_FOUND:
+                case Response.BAD_EXTENSION:
+                case Response.NOT_IMPLEMENTED:
+                case Response.BAD_EVENT:
+                    fallbackToLineSubscriptions();
+                    return;
+            }
+
+            if(isRetryable(statusCode))
+            {
+                onTerminated();
+            }
+            else
+            {
+                // the lines may still be allowed one by one
+                for(Line line : lines)
+                    fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+                fallbackToLineSubscriptions();
+            }
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processSuccessResponse(
+         * ResponseEvent, int).
+         */
+        @Override
+        protected void processSuccessResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+            // the states of the lines are delivered by the first NOTIFY
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processTerminatedRequest(
+         * RequestEvent, String).
+         */
+        @Override
+        protected void processTerminatedRequest(
+            RequestEvent requestEvent, String reasonCode)
+        {
+            if(isRetryable(reasonCode))
+            {
+                onTerminated();
+            }
+            else
+            {
+                for(Line line : lines)
+                    fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+                fallbackToLineSubscriptions();
+            }
+        }
+
+        /**
+         * Marks all lines offline and schedules the restoring of the
+         * resource list subscription.
+         */
+        private void onTerminated()
+        {
+            for(Line line : lines)
+                fireEvent(line, BLFStatusEvent.STATUS_OFFLINE);
+
+            int failures;
+            synchronized (OperationSetTelephonyBLFSipImpl.this)
+            {
+                failures = ++resourceListFailures;
+            }
+            scheduleResubscribe(null, failures);
         }
     }
 
@@ -735,6 +1513,11 @@ protected void processTerminatedRequest(
          */
         int lastStatusEvent = BLFStatusEvent.STATUS_OFFLINE;
 
+        /**
+         * The number of consecutive failures of the subscription for the line.
+         */
+        int failures = 0;
+
         /**
          * id of the dialog. Mandatory.
          */
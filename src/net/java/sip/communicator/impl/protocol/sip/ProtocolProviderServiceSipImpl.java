@@ -847,9 +847,22 @@ public void processResponse(ResponseEvent responseEvent)
                 logger.debug("Found " + processors.size()
                         + " processor(s) for method " + method);
 
+            SipProcessingStatisticsImpl statistics
+                = SipActivator.getProcessingStatistics();
+
             for (MethodProcessor processor : processors)
-                if (processor.processResponse(responseEvent))
+            {
+                long start = statistics.start();
+                boolean processed = processor.processResponse(responseEvent);
+
+                statistics.processorFinished(
+                    processor,
+                    SipProcessingStatisticsImpl.RESPONSE,
+                    method,
+                    start);
+                if (processed)
                     break;
+            }
         }
     }
 
@@ -899,12 +912,21 @@ public void processTimeout(TimeoutEvent timeoutEvent)
                 logger.debug("Found " + processors.size()
                 + " processor(s) for method " + method);
 
+            SipProcessingStatisticsImpl statistics
+                = SipActivator.getProcessingStatistics();
+
             for (MethodProcessor processor : processors)
             {
-                if (processor.processTimeout(timeoutEvent))
-                {
+                long start = statistics.start();
+                boolean processed = processor.processTimeout(timeoutEvent);
+
+                statistics.processorFinished(
+                    processor,
+                    SipProcessingStatisticsImpl.TIMEOUT,
+                    method,
+                    start);
+                if (processed)
                     break;
-                }
             }
         }
     }
@@ -950,13 +972,23 @@ public void processTransactionTerminated(TransactionTerminatedEvent
                 logger.debug("Found " + processors.size()
                         + " processor(s) for method " + method);
 
+            SipProcessingStatisticsImpl statistics
+                = SipActivator.getProcessingStatistics();
+
             for (MethodProcessor processor : processors)
             {
-                if (processor.processTransactionTerminated(
-                    transactionTerminatedEvent))
-                {
+                long start = statistics.start();
+                boolean processed
+                    = processor.processTransactionTerminated(
+                            transactionTerminatedEvent);
+
+                statistics.processorFinished(
+                    processor,
+                    SipProcessingStatisticsImpl.TERMINATED,
+                    method,
+                    start);
+                if (processed)
                     break;
-                }
             }
         }
     }
@@ -1109,9 +1141,20 @@ public void processRequest(RequestEvent requestEvent)
                 logger.debug("Found " + processors.size()
                         + " processor(s) for method " + method);
 
+            SipProcessingStatisticsImpl statistics
+                = SipActivator.getProcessingStatistics();
+
             for (MethodProcessor processor : processors)
             {
-                if (processor.processRequest(requestEvent))
+                long start = statistics.start();
+                boolean processed = processor.processRequest(requestEvent);
+
+                statistics.processorFinished(
+                    processor,
+                    SipProcessingStatisticsImpl.REQUEST,
+                    method,
+                    start);
+                if (processed)
                 {
                     processedAtLeastOnce = true;
                     break;
@@ -1251,6 +1294,12 @@ public void run()
                 opSetTypingNotif.shutdown();
                 opSetTypingNotif = null;
             }
+            // Shutdown BLF
+            OperationSetTelephonyBLFSipImpl opSetBLF
+                = (OperationSetTelephonyBLFSipImpl)getOperationSet(
+                    OperationSetTelephonyBLF.class);
+            if(opSetBLF != null)
+                opSetBLF.shutdown();
 
             headerFactory = null;
             messageFactory = null;
@@ -24,6 +24,7 @@
 import net.java.sip.communicator.service.hid.*;
 import net.java.sip.communicator.service.netaddr.*;
 import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.sip.*;
 import net.java.sip.communicator.util.*;
 
 import org.jitsi.service.configuration.*;
@@ -44,6 +45,7 @@
     private Logger logger = Logger.getLogger(SipActivator.class.getName());
 
     private        ServiceRegistration  sipPpFactoryServReg   = null;
+    private        ServiceRegistration  statisticsServReg     = null;
             static BundleContext        bundleContext         = null;
     private static ConfigurationService configurationService  = null;
     private static NetworkAddressManagerService networkAddressManagerService
@@ -64,6 +66,13 @@
 
     private static ProtocolProviderFactorySipImpl sipProviderFactory = null;
 
+    /**
+     * The statistics of the processing of SIP messages, shared by all SIP
+     * accounts.
+     */
+    private static final SipProcessingStatisticsImpl processingStatistics
+        = new SipProcessingStatisticsImpl();
+
     private UriHandlerSipImpl uriHandlerSipImpl = null;
 
     /**
@@ -102,6 +111,15 @@ public void start(BundleContext context) throws Exception
 
         if (logger.isDebugEnabled())
             logger.debug("SIP Protocol Provider Factory ... [REGISTERED]");
+
+        processingStatistics.setEnabled(
+            getConfigurationService().getBoolean(
+                    SipProcessingStatisticsService.ENABLED_PROP,
+                    true));
+        statisticsServReg = context.registerService(
+                    SipProcessingStatisticsService.class.getName(),
+                    processingStatistics,
+                    null);
     }
 
     /**
@@ -332,6 +350,16 @@ public static FileAccessService getFileAccessService()
         return fileService;
     }
 
+    /**
+     * Returns the statistics of the processing of SIP messages.
+     *
+     * @return the statistics of the processing of SIP messages.
+     */
+    public static SipProcessingStatisticsImpl getProcessingStatistics()
+    {
+        return processingStatistics;
+    }
+
     /**
      * Called when this bundle is stopped so the Framework can perform the
      * bundle-specific activities necessary to stop the bundle.
@@ -347,6 +375,12 @@ public void stop(BundleContext context) throws Exception
         sipProviderFactory.stop();
         sipPpFactoryServReg.unregister();
 
+        if (statisticsServReg != null)
+        {
+            statisticsServReg.unregister();
+            statisticsServReg = null;
+        }
+
         if (uriHandlerSipImpl != null)
         {
             uriHandlerSipImpl.dispose();
@@ -259,6 +259,10 @@ public void logMessage(SIPMessage message, String from, String to,
     public void logMessage(SIPMessage message, String from, String to,
                            String status, boolean sender, long time)
     {
+        if (!sender)
+            SipActivator.getProcessingStatistics().messageReceived(
+                message, time);
+
         try
         {
             logPacket(message, sender);
@@ -1013,16 +1013,23 @@ public Request createAck(ClientTransaction clientTransaction)
     }
 
     /**
-     * Verifies wither we have already authenticated requests with the same
-     * <tt>Call-ID</tt> as <tt>request</tt> and attaches the corresponding
-     * credentials in an effort to avoid receiving an authentication challenge
-     * from the server and having to re-send the request. This method has no
-     * effect if the <tt>Call-ID</tt> has not been seen by our security manager.
+     * Attaches credentials answering the last challenges of the servers
+     * <tt>request</tt> goes through or, failing that, verifies wither we have
+     * already authenticated requests with the same <tt>Call-ID</tt> as
+     * <tt>request</tt> and attaches the corresponding credentials in an effort
+     * to avoid receiving an authentication challenge from the server and
+     * having to re-send the request. This method has no effect if neither the
+     * servers nor the <tt>Call-ID</tt> have been seen by our security manager.
      *
      * @param request the request that we'd like to try pre-authenticating.
      */
     public void preAuthenticateRequest( Request request )
     {
+        //reuse the nonces of the servers which challenged us before, if any.
+        if (protocolProvider.getSipSecurityManager()
+                .preAuthenticateRequest(request))
+            return;
+
         //check whether there's a cached authorization header for this
         // call id and if so - attach it to the request.
         // add authorization header
@@ -0,0 +1,558 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import gov.nist.javax.sip.message.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.sip.*;
+import javax.sip.message.*;
+
+import net.java.sip.communicator.service.protocol.sip.*;
+
+/**
+ * Collects the time spent processing the events the SIP stack delivers to
+ * <tt>SipStackSharing</tt> and to the <tt>MethodProcessor</tt>s of the
+ * protocol providers. Latencies are kept in lock-free logarithmic histograms
+ * so that recording a sample only costs a few atomic increments and the
+ * statistics can stay enabled in production. When disabled the
+ * instrumentation points only read a volatile flag.
+ */
+public class SipProcessingStatisticsImpl
+    implements SipProcessingStatisticsService
+{
+    /**
+     * The kind of events delivered for received requests.
+     */
+    public static final String REQUEST = "REQUEST";
+
+    /**
+     * The kind of events delivered for received responses.
+     */
+    public static final String RESPONSE = "RESPONSE";
+
+    /**
+     * The kind of events delivered for transaction timeouts.
+     */
+    public static final String TIMEOUT = "TIMEOUT";
+
+    /**
+     * The kind of events delivered for terminated transactions.
+     */
+    public static final String TERMINATED = "TERMINATED";
+
+    /**
+     * The key under which the time a message was received at is stored in
+     * its <tt>SipApplicationData</tt>.
+     */
+    static final String KEY_RECEIVED_TIME = "statisticsReceivedTime";
+
+    /**
+     * The key under which server transactions counted as in flight are
+     * marked in their <tt>SipApplicationData</tt>.
+     */
+    private static final String KEY_COUNTED = "statisticsCounted";
+
+    /**
+     * The number of buckets of the latency histograms. The last bucket
+     * collects the samples slower than about 4 seconds.
+     */
+    private static final int BUCKET_COUNT = 23;
+
+    /**
+     * The number of slowest handler invocations we keep.
+     */
+    private static final int SLOW_HANDLER_SAMPLES = 16;
+
+    /**
+     * Whether statistics are collected.
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * The per event kind and method histograms.
+     */
+    private final ConcurrentMap<String, Histogram> methodHistograms
+        = new ConcurrentHashMap<String, Histogram>();
+
+    /**
+     * The per processor histograms.
+     */
+    private final ConcurrentMap<String, Histogram> processorHistograms
+        = new ConcurrentHashMap<String, Histogram>();
+
+    /**
+     * The histogram of the delays between the reception and the dispatch of
+     * messages.
+     */
+    private volatile Histogram dispatchDelay = new Histogram("DISPATCH DELAY");
+
+    /**
+     * The number of events currently processed.
+     */
+    private final AtomicInteger eventsInFlight = new AtomicInteger();
+
+    /**
+     * The number of server transactions which have not terminated yet.
+     */
+    private final AtomicInteger serverTransactionsInFlight
+        = new AtomicInteger();
+
+    /**
+     * The slowest handler invocations, slowest first.
+     */
+    private final List<SlowHandlerSample> slowestHandlers
+        = new LinkedList<SlowHandlerSample>();
+
+    /**
+     * The duration an invocation has to exceed in order to get into
+     * <tt>slowestHandlers</tt>. Allows us to skip the synchronization for the
+     * vast majority of the invocations.
+     */
+    private volatile long slowHandlerThreshold = 0;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the start time of a measurement.
+     *
+     * @return the current value of <tt>System.nanoTime()</tt> or 0 if
+     * statistics are disabled.
+     */
+    public long start()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Notifies that the processing of an event delivered by the stack is
+     * starting and records the delay since the reception of its message.
+     *
+     * @param message the received message or <tt>null</tt> for events not
+     * caused by a message.
+     * @return the start time to pass to {@link #eventFinished(String, String,
+     * long)}.
+     */
+    public long eventStarted(Message message)
+    {
+        if (!enabled)
+            return 0;
+
+        eventsInFlight.incrementAndGet();
+
+        if (message instanceof SIPMessage)
+        {
+            Object receivedTime
+                = SipApplicationData.getApplicationData(
+                        message,
+                        KEY_RECEIVED_TIME);
+
+            if (receivedTime instanceof Long)
+            {
+                long delay
+                    = System.currentTimeMillis() - (Long) receivedTime;
+
+                if (delay >= 0)
+                    dispatchDelay.record(
+                        TimeUnit.MILLISECONDS.toNanos(delay));
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the processing of an event delivered by the stack.
+     *
+     * @param kind the kind of the event.
+     * @param method the SIP method of the event.
+     * @param start the value returned by {@link #eventStarted(Message)}.
+     */
+    public void eventFinished(String kind, String method, long start)
+    {
+        if (start == 0)
+            return;
+
+        long duration = System.nanoTime() - start;
+        String event = kind + " " + method;
+
+        eventsInFlight.decrementAndGet();
+        getHistogram(methodHistograms, event).record(duration);
+        recordSlowHandler("SipStackSharing", event, duration);
+    }
+
+    /**
+     * Records an invocation of a <tt>MethodProcessor</tt>.
+     *
+     * @param processor the invoked processor.
+     * @param kind the kind of the processed event.
+     * @param method the SIP method of the processed event.
+     * @param start the value returned by {@link #start()} before the
+     * invocation.
+     */
+    public void processorFinished(
+        MethodProcessor processor, String kind, String method, long start)
+    {
+        if (start == 0)
+            return;
+
+        long duration = System.nanoTime() - start;
+        String handler = processor.getClass().getName();
+
+        getHistogram(processorHistograms, handler).record(duration);
+        recordSlowHandler(handler, kind + " " + method, duration);
+    }
+
+    /**
+     * Counts a newly created server transaction as in flight until it
+     * terminates.
+     *
+     * @param transaction the created server transaction.
+     */
+    public void serverTransactionCreated(ServerTransaction transaction)
+    {
+        if (!enabled || transaction == null)
+            return;
+
+        SipApplicationData.setApplicationData(
+            transaction, KEY_COUNTED, Boolean.TRUE);
+        serverTransactionsInFlight.incrementAndGet();
+    }
+
+    /**
+     * Stops counting a terminated server transaction as in flight.
+     *
+     * @param transaction the terminated transaction.
+     */
+    public void serverTransactionTerminated(Transaction transaction)
+    {
+        if (transaction != null
+            && SipApplicationData.getApplicationData(transaction, KEY_COUNTED)
+                != null)
+        {
+            SipApplicationData.setApplicationData(
+                transaction, KEY_COUNTED, null);
+            serverTransactionsInFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Remembers the time a message was received at in order to measure the
+     * delay until its dispatch.
+     *
+     * @param message the received message.
+     * @param time the time in milliseconds the message was received at.
+     */
+    void messageReceived(SIPMessage message, long time)
+    {
+        if (enabled)
+            SipApplicationData.setApplicationData(
+                message, KEY_RECEIVED_TIME, time);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SipLatencyStatistics> getMethodStatistics()
+    {
+        return snapshot(methodHistograms);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SipLatencyStatistics> getProcessorStatistics()
+    {
+        return snapshot(processorHistograms);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SipLatencyStatistics getDispatchDelayStatistics()
+    {
+        return dispatchDelay.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getEventsInFlight()
+    {
+        return eventsInFlight.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getServerTransactionsInFlight()
+    {
+        return serverTransactionsInFlight.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SlowHandlerSample> getSlowestHandlers()
+    {
+        synchronized (slowestHandlers)
+        {
+            return new ArrayList<SlowHandlerSample>(slowestHandlers);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void dump(Writer out)
+        throws IOException
+    {
+        PrintWriter writer = new PrintWriter(out);
+
+        writer.println("SIP processing statistics at " + new Date()
+            + (enabled ? "" : " (disabled)"));
+        writer.println("Events in flight: " + getEventsInFlight());
+        writer.println("Server transactions in flight: "
+            + getServerTransactionsInFlight());
+        writer.println();
+        writer.println(getDispatchDelayStatistics());
+        writer.println();
+        writer.println("Per method:");
+        for (SipLatencyStatistics s : getMethodStatistics())
+            writer.println("  " + s);
+        writer.println();
+        writer.println("Per processor:");
+        for (SipLatencyStatistics s : getProcessorStatistics())
+            writer.println("  " + s);
+        writer.println();
+        writer.println("Slowest handlers:");
+        for (SlowHandlerSample sample : getSlowestHandlers())
+            writer.println("  " + sample);
+        writer.flush();
+
+        if (writer.checkError())
+            throw new IOException("Failed to write SIP statistics");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset()
+    {
+        methodHistograms.clear();
+        processorHistograms.clear();
+        dispatchDelay = new Histogram(dispatchDelay.name);
+        synchronized (slowestHandlers)
+        {
+            slowestHandlers.clear();
+            slowHandlerThreshold = 0;
+        }
+    }
+
+    /**
+     * Adds an invocation to the slowest handlers if it is slow enough.
+     *
+     * @param handler the name of the handler.
+     * @param event the description of the processed event.
+     * @param duration the duration of the invocation in nanoseconds.
+     */
+    private void recordSlowHandler(String handler, String event, long duration)
+    {
+        if (duration <= slowHandlerThreshold)
+            return;
+
+        synchronized (slowestHandlers)
+        {
+            ListIterator<SlowHandlerSample> iter
+                = slowestHandlers.listIterator();
+
+            while (iter.hasNext())
+            {
+                if (iter.next().getDuration() < duration)
+                {
+                    iter.previous();
+                    break;
+                }
+            }
+            iter.add(
+                new SlowHandlerSample(
+                        handler, event, duration, System.currentTimeMillis()));
+
+            if (slowestHandlers.size() > SLOW_HANDLER_SAMPLES)
+                slowestHandlers.remove(slowestHandlers.size() - 1);
+            if (slowestHandlers.size() == SLOW_HANDLER_SAMPLES)
+            {
+                slowHandlerThreshold
+                    = slowestHandlers.get(SLOW_HANDLER_SAMPLES - 1)
+                        .getDuration();
+            }
+        }
+    }
+
+    /**
+     * Returns the histogram with a specific name, creating it if necessary.
+     *
+     * @param histograms the histograms to look into.
+     * @param name the name of the histogram.
+     * @return the histogram with name <tt>name</tt>.
+     */
+    private static Histogram getHistogram(
+        ConcurrentMap<String, Histogram> histograms, String name)
+    {
+        Histogram histogram = histograms.get(name);
+
+        if (histogram == null)
+        {
+            histogram = new Histogram(name);
+
+            Histogram existing = histograms.putIfAbsent(name, histogram);
+
+            if (existing != null)
+                histogram = existing;
+        }
+        return histogram;
+    }
+
+    /**
+     * Takes snapshots of histograms sorted by name.
+     *
+     * @param histograms the histograms.
+     * @return the snapshots of <tt>histograms</tt>.
+     */
+    private static List<SipLatencyStatistics> snapshot(
+        Map<String, Histogram> histograms)
+    {
+        List<SipLatencyStatistics> result
+            = new ArrayList<SipLatencyStatistics>(histograms.size());
+
+        for (Histogram histogram : new TreeMap<String, Histogram>(histograms)
+                .values())
+            result.add(histogram.snapshot());
+        return result;
+    }
+
+    /**
+     * A lock-free latency histogram with buckets growing in powers of two of
+     * microseconds.
+     */
+    private static class Histogram
+    {
+        /**
+         * The name of the measured operation.
+         */
+        private final String name;
+
+        /**
+         * The number of samples in each bucket.
+         */
+        private final AtomicLongArray buckets
+            = new AtomicLongArray(BUCKET_COUNT);
+
+        /**
+         * The sum of all samples in nanoseconds.
+         */
+        private final AtomicLong total = new AtomicLong();
+
+        /**
+         * The largest sample in nanoseconds.
+         */
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Creates a new empty histogram.
+         *
+         * @param name the name of the measured operation.
+         */
+        Histogram(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Records a sample.
+         *
+         * @param nanos the sample in nanoseconds.
+         */
+        void record(long nanos)
+        {
+            long micros = nanos / 1000;
+            int bucket
+                = (micros <= 1) ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+
+            buckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+            total.addAndGet(nanos);
+
+            long currentMax;
+
+            do
+            {
+                currentMax = max.get();
+            }
+            while (nanos > currentMax && !max.compareAndSet(currentMax, nanos));
+        }
+
+        /**
+         * Takes a snapshot of this histogram.
+         *
+         * @return a snapshot of this histogram.
+         */
+        SipLatencyStatistics snapshot()
+        {
+            long[] values = new long[BUCKET_COUNT];
+            long sum = 0;
+
+            for (int i = 0; i < values.length; i++)
+            {
+                values[i] = buckets.get(i);
+                sum += values[i];
+            }
+
+            // derive the count from the buckets so that it is consistent with
+            // them while samples are being recorded concurrently.
+            return new SipLatencyStatistics(
+                    name, sum, total.get(), max.get(), values);
+        }
+    }
+}
@@ -503,6 +503,9 @@ && getRegistrationState().equals(RegistrationState.REGISTERING))
                         + sipProvider.getAccountID().getDisplayName()
                         + " registered!");
 
+            // the server we registered through is healthy
+            sipProvider.getConnection().connectionSucceeded();
+
             setRegistrationState(
                 RegistrationState.REGISTERED
                 , RegistrationStateChangeEvent.REASON_NOT_SPECIFIED
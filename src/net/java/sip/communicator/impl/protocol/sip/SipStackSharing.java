@@ -650,6 +650,10 @@ public void processIOException(IOExceptionEvent event)
      */
     public void processRequest(RequestEvent event)
     {
+        SipProcessingStatisticsImpl statistics
+            = SipActivator.getProcessingStatistics();
+        long start = statistics.eventStarted(event.getRequest());
+
         try
         {
             Request request = event.getRequest();
@@ -675,6 +679,8 @@ public void processRequest(RequestEvent event)
                     ServerTransaction transaction
                         = source.getNewServerTransaction(request);
 
+                    statistics.serverTransactionCreated(transaction);
+
                     /*
                      * Update the event, otherwise getServerTransaction() and
                      * getDialog() will still return their previous value.
@@ -747,6 +753,13 @@ public void processRequest(RequestEvent event)
             if (exc instanceof ThreadDeath)
                 throw (ThreadDeath) exc;
         }
+        finally
+        {
+            statistics.eventFinished(
+                SipProcessingStatisticsImpl.REQUEST,
+                event.getRequest().getMethod(),
+                start);
+        }
     }
 
     /**
@@ -757,6 +770,10 @@ public void processRequest(RequestEvent event)
      */
     public void processResponse(ResponseEvent event)
     {
+        SipProcessingStatisticsImpl statistics
+            = SipActivator.getProcessingStatistics();
+        long start = statistics.eventStarted(event.getResponse());
+
         try
         {
             // we don't have to accept the transaction since we
@@ -804,6 +821,13 @@ public void processResponse(ResponseEvent event)
             //it.
             this.logApplicationException(DialogTerminatedEvent.class, exc);
         }
+        finally
+        {
+            statistics.eventFinished(
+                SipProcessingStatisticsImpl.RESPONSE,
+                getMethod(event.getResponse()),
+                start);
+        }
     }
 
     /**
@@ -814,6 +838,11 @@ public void processResponse(ResponseEvent event)
      */
     public void processTimeout(TimeoutEvent event)
     {
+        SipProcessingStatisticsImpl statistics
+            = SipActivator.getProcessingStatistics();
+        long start = statistics.eventStarted(null);
+        String method = null;
+
         try
         {
             Transaction transaction;
@@ -826,6 +855,9 @@ public void processTimeout(TimeoutEvent event)
                 transaction = event.getClientTransaction();
             }
 
+            if (transaction != null && transaction.getRequest() != null)
+                method = transaction.getRequest().getMethod();
+
             ProtocolProviderServiceSipImpl recipient
                 = getServiceData(transaction);
             if (recipient == null)
@@ -846,6 +878,11 @@ public void processTimeout(TimeoutEvent event)
             //it.
             this.logApplicationException(DialogTerminatedEvent.class, exc);
         }
+        finally
+        {
+            statistics.eventFinished(
+                SipProcessingStatisticsImpl.TIMEOUT, method, start);
+        }
     }
 
     /**
@@ -861,7 +898,11 @@ public void processTransactionTerminated(TransactionTerminatedEvent event)
         {
             Transaction transaction;
             if (event.isServerTransaction())
+            {
                 transaction = event.getServerTransaction();
+                SipActivator.getProcessingStatistics()
+                    .serverTransactionTerminated(transaction);
+            }
             else
                 transaction = event.getClientTransaction();
 
@@ -1170,10 +1211,26 @@ public static ServerTransaction getOrCreateServerTransaction(
             serverTransaction
                 = jainSipProvider
                     .getNewServerTransaction(event.getRequest());
+            SipActivator.getProcessingStatistics()
+                .serverTransactionCreated(serverTransaction);
         }
         return serverTransaction;
     }
 
+    /**
+     * Returns the method of the request a response was sent for.
+     *
+     * @param response the response.
+     * @return the method from the CSeq header of <tt>response</tt> or
+     * <tt>null</tt> if there is no such header.
+     */
+    private static String getMethod(Response response)
+    {
+        CSeqHeader cseq = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
+
+        return (cseq == null) ? null : cseq.getMethod();
+    }
+
     /**
      * Returns a local address to use with the specified TCP destination.
      * The method forces the JAIN-SIP stack to create
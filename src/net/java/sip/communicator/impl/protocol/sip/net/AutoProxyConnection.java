@@ -226,6 +226,7 @@ private boolean getNextAddressInternal()
                         return false;
                     }
                     transport = defaultTransport;
+                    srvRecord = null;
                     return true;
                 }
                 return false;
@@ -270,9 +271,10 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
             case NaptrSrvHosts:
                 for(; srvRecordsIndex < srvRecords.length; srvRecordsIndex++)
                 {
-                    socketAddresses = nu.getAandAAAARecords(
+                    srvRecord = srvRecords[srvRecordsIndex];
+                    socketAddresses = orderAddresses(nu.getAandAAAARecords(
                         srvRecords[srvRecordsIndex].getTarget(),
-                        srvRecords[srvRecordsIndex].getPort());
+                        srvRecords[srvRecordsIndex].getPort()));
                     if(socketAddresses != null && socketAddresses.length > 0)
                     {
                         state = State.NaptrSrvHostIPs;
@@ -334,9 +336,10 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
                 }
                 for(; srvRecordsIndex < srvRecords.length; srvRecordsIndex++)
                 {
-                    socketAddresses = nu.getAandAAAARecords(
+                    srvRecord = srvRecords[srvRecordsIndex];
+                    socketAddresses = orderAddresses(nu.getAandAAAARecords(
                         srvRecords[srvRecordsIndex].getTarget(),
-                        srvRecords[srvRecordsIndex].getPort());
+                        srvRecords[srvRecordsIndex].getPort()));
                     if(socketAddresses != null && socketAddresses.length > 0)
                     {
                         state = State.SrvHostIPs;
@@ -360,12 +363,13 @@ else if(TCP.equalsIgnoreCase(naptrRecords[naptrIndex][1]))
                 return true;
             case Hosts:
                 transport = defaultTransport;
+                srvRecord = null;
 
                 if(socketAddresses == null)
                 {
-                    socketAddresses = nu.getAandAAAARecords(
+                    socketAddresses = orderAddresses(nu.getAandAAAARecords(
                         address,
-                        port);
+                        port));
                 }
 
                 if(socketAddresses != null && socketAddresses.length > 0
@@ -81,6 +81,7 @@ public boolean getNextAddressFromDns()
                     lookups = null;
                     return false;
                 }
+                lookups = orderAddresses(lookups);
             }
             catch (ParseException e)
             {
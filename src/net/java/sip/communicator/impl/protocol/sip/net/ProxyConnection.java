@@ -19,11 +19,15 @@
 
 import static net.java.sip.communicator.service.protocol.ProtocolProviderFactory.PROXY_AUTO_CONFIG;
 
+import java.io.*;
 import java.net.*;
 import java.util.*;
 
+import javax.sip.*;
+
 import net.java.sip.communicator.impl.protocol.sip.*;
 import net.java.sip.communicator.service.dns.*;
+import net.java.sip.communicator.util.*;
 
 /**
  * Abstract class for the determining the address for the SIP proxy.
@@ -32,12 +36,45 @@
  */
 public abstract class ProxyConnection
 {
+    private final static Logger logger
+        = Logger.getLogger(ProxyConnection.class);
+
+    /**
+     * The number of milliseconds we wait for the connections raced by
+     * {@link #orderAddresses(InetSocketAddress[])} before giving up and
+     * letting jain-sip try the addresses in their DNS order.
+     */
+    private static final long ADDRESS_RACE_TIMEOUT = 2000;
+
     private List<String> returnedAddresses = new LinkedList<String>();
 
     protected String transport;
     protected InetSocketAddress socketAddress;
     protected final SipAccountIDImpl account;
 
+    /**
+     * The SRV record the current address was resolved from, <tt>null</tt>
+     * if it didn't come from an SRV record. Set by the implementations.
+     */
+    protected SRVRecord srvRecord;
+
+    /**
+     * The SRV record of the address we're currently trying to connect to,
+     * <tt>null</tt> once its connection was reported as established.
+     */
+    private SRVRecord attemptedSrvRecord;
+
+    /**
+     * The SRV record of the address whose connection was last reported as
+     * established, <tt>null</tt> once we moved on to another target.
+     */
+    private SRVRecord connectedSrvRecord;
+
+    /**
+     * The time we started connecting to the current address.
+     */
+    private long connectStart = -1;
+
     /**
      * Creates a new instance of this class.
      * @param account the account of this SIP protocol instance
@@ -125,6 +162,8 @@ public final boolean getNextAddress() throws DnssecException
     {
         boolean result;
         String key = null;
+
+        connectStart = -1;
         do
         {
             result = getNextAddressFromDns();
@@ -139,9 +178,50 @@ public final boolean getNextAddress() throws DnssecException
             }
         }
         while(result && returnedAddresses.contains(key));
+
+        // We're told about successful connections only, moving on from the
+        // addresses of a target means none of them worked, or that the
+        // established connection to it was lost.
+        SRVRecord nextSrvRecord = result ? srvRecord : null;
+        SRVRecord currentSrvRecord
+            = (attemptedSrvRecord != null)
+                ? attemptedSrvRecord
+                : connectedSrvRecord;
+
+        if(currentSrvRecord != null && currentSrvRecord != nextSrvRecord)
+        {
+            NetworkUtils.getSrvTargetHealth().reportFailed(
+                currentSrvRecord.getTarget(),
+                currentSrvRecord.getPort());
+        }
+        attemptedSrvRecord = nextSrvRecord;
+        if(connectedSrvRecord != nextSrvRecord)
+            connectedSrvRecord = null;
+        if(connectStart < 0)
+            connectStart = System.currentTimeMillis();
         return result;
     }
 
+    /**
+     * Notifies that the current address was connected to and is usable, i.e.
+     * the registration through it succeeded, so that the SRV target it came
+     * from is remembered as healthy along with the time it took to get
+     * there. If the connection is lost later on, the target is reported as
+     * failed once we move on to another one.
+     */
+    public void connectionSucceeded()
+    {
+        if(attemptedSrvRecord != null)
+        {
+            NetworkUtils.getSrvTargetHealth().reportConnected(
+                attemptedSrvRecord.getTarget(),
+                attemptedSrvRecord.getPort(),
+                System.currentTimeMillis() - connectStart);
+            connectedSrvRecord = attemptedSrvRecord;
+            attemptedSrvRecord = null;
+        }
+    }
+
     /**
      * Implementations must use this method to get the next address, but do not
      * have to care about duplicate addresses.
@@ -152,6 +232,61 @@ public final boolean getNextAddress() throws DnssecException
     protected abstract boolean getNextAddressFromDns()
         throws DnssecException;
 
+    /**
+     * Orders the addresses a host name resolved to for the connection attempts.
+     * When the current transport is known to be connection oriented and the
+     * host has both IPv4 and IPv6 addresses, connections to the addresses are
+     * raced (RFC 8305) so that a broken path of one family doesn't cost a
+     * full connect timeout per address. The address that accepted the
+     * connection first is returned first and its socket is handed to the
+     * {@link SslNetworkLayer} for jain-sip to use for both TCP and TLS. We
+     * wait at most {@link #ADDRESS_RACE_TIMEOUT} for the race.
+     *
+     * @param addresses the addresses of the host, as returned by DNS.
+     * @return the addresses in the order in which they should be tried.
+     */
+    protected InetSocketAddress[] orderAddresses(
+            InetSocketAddress[] addresses)
+    {
+        // the time spent resolving the host doesn't tell how healthy it is
+        connectStart = System.currentTimeMillis();
+
+        // an unknown transport may well be UDP, which has nothing to race
+        if(addresses == null
+            || transport == null
+            || ListeningPoint.UDP.equalsIgnoreCase(transport)
+            || !HappyEyeballsConnector.isDualStack(addresses))
+            return addresses;
+
+        InetSocketAddress[] sorted
+            = HappyEyeballsConnector.sortAddresses(addresses);
+        try
+        {
+            Socket socket
+                = HappyEyeballsConnector.connect(sorted, ADDRESS_RACE_TIMEOUT);
+
+            for(int i = 0; i < sorted.length; i++)
+            {
+                InetSocketAddress winner = sorted[i];
+
+                if(winner.getAddress().equals(socket.getInetAddress())
+                    && winner.getPort() == socket.getPort())
+                {
+                    System.arraycopy(sorted, 0, sorted, 1, i);
+                    sorted[0] = winner;
+                    break;
+                }
+            }
+            SslNetworkLayer.offerConnectedSocket(socket);
+        }
+        catch(IOException e)
+        {
+            logger.warn("None of " + Arrays.toString(sorted)
+                + " accepted a connection for " + account, e);
+        }
+        return sorted;
+    }
+
     /**
      * Resets the lookup to it's initial state. Overriders methods have to call
      * this method through a super-call.
@@ -159,6 +294,9 @@ protected abstract boolean getNextAddressFromDns()
     public void reset()
     {
         returnedAddresses.clear();
+        srvRecord = null;
+        attemptedSrvRecord = null;
+        connectedSrvRecord = null;
     }
 
     /**
@@ -59,6 +59,26 @@
      private static final String SIP_DSCP_PROPERTY =
          "net.java.sip.communicator.impl.protocol.SIP_DSCP";
 
+    /**
+     * The number of milliseconds for which a socket connected ahead of time
+     * by {@link #offerConnectedSocket(Socket)} waits to be used before we
+     * close it.
+     */
+    private static final long CONNECTED_SOCKET_LIFETIME = 10000;
+
+    /**
+     * The sockets connected ahead of time (i.e. by racing the addresses of the
+     * proxy) mapped by the address they are connected to.
+     */
+    private static final Map<InetSocketAddress, Socket> connectedSockets
+        = new HashMap<InetSocketAddress, Socket>();
+
+    /**
+     * The timer closing the sockets connected ahead of time which were not
+     * used.
+     */
+    private static Timer connectedSocketsTimer;
+
     /**
      * The service we use to interact with user.
      */
@@ -112,7 +132,10 @@ public ServerSocket createServerSocket(int port, int backlog,
     public Socket createSocket(InetAddress address, int port)
         throws IOException
     {
-        Socket sock = new Socket(address, port);
+        Socket sock = takeConnectedSocket(address, port, null);
+
+        if (sock == null)
+            sock = new Socket(address, port);
         setTrafficClass(sock);
         return sock;
     }
@@ -270,10 +293,7 @@ private SSLSocketFactory getSSLSocketFactory(InetAddress address)
     public SSLSocket createSSLSocket(InetAddress address, int port)
         throws IOException
     {
-        SSLSocket sock = (SSLSocket) getSSLSocketFactory(address).createSocket(
-            address, port);
-        setTrafficClass(sock);
-        return sock;
+        return createSSLSocket(address, port, null);
     }
 
     /**
@@ -290,8 +310,24 @@ public SSLSocket createSSLSocket(InetAddress address, int port,
             InetAddress myAddress)
         throws IOException
     {
-        SSLSocket sock = (SSLSocket) getSSLSocketFactory(address).createSocket(
-            address, port, myAddress, 0);
+        SSLSocketFactory factory = getSSLSocketFactory(address);
+        Socket connected = takeConnectedSocket(address, port, myAddress);
+        SSLSocket sock;
+
+        if (connected != null)
+        {
+            sock = (SSLSocket) factory.createSocket(
+                connected, address.getHostAddress(), port, true);
+        }
+        else if (myAddress != null)
+        {
+            sock = (SSLSocket) factory.createSocket(
+                address, port, myAddress, 0);
+        }
+        else
+        {
+            sock = (SSLSocket) factory.createSocket(address, port);
+        }
         setTrafficClass(sock);
         return sock;
     }
@@ -311,12 +347,15 @@ public Socket createSocket(InetAddress address, int port,
             InetAddress myAddress)
         throws IOException
     {
-        Socket sock = null;
+        Socket sock = takeConnectedSocket(address, port, myAddress);
 
-        if (myAddress != null)
-            sock = new Socket(address, port, myAddress, 0);
-        else
-            sock = new Socket(address, port);
+        if (sock == null)
+        {
+            if (myAddress != null)
+                sock = new Socket(address, port, myAddress, 0);
+            else
+                sock = new Socket(address, port);
+        }
 
         setTrafficClass(sock);
 
@@ -343,25 +382,132 @@ public Socket createSocket(InetAddress address, int port,
                     InetAddress myAddress, int myPort)
         throws IOException
     {
-        Socket sock = null;
+        // jain-sip connects through here when it needs the local address of
+        // a TCP connection (i.e. for the Via header) before sending anything,
+        // so this is usually where a socket raced by ProxyConnection is used.
+        Socket sock
+            = (myPort == 0)
+                ? takeConnectedSocket(address, port, myAddress)
+                : null;
+
+        if (sock == null)
+        {
+            if (myAddress != null)
+            {
+                sock = new Socket(address, port, myAddress, myPort);
+            }
+            else if (port != 0)
+            {
+                // myAddress is null (i.e. any) but we have a port number
+                sock = new Socket();
+                sock.bind(new InetSocketAddress(port));
+                sock.connect(new InetSocketAddress(address, port));
+            }
+            else
+            {
+                sock = new Socket(address, port);
+            }
+        }
+        setTrafficClass(sock);
+        return sock;
+    }
+
+    /**
+     * Hands over a socket that was connected ahead of time, i.e. by racing the
+     * addresses of the proxy, so that the next stream socket jain-sip asks
+     * for to the same address reuses it instead of connecting again. Sockets
+     * which are not used within {@link #CONNECTED_SOCKET_LIFETIME} are closed.
+     *
+     * @param socket the connected socket.
+     */
+    public static void offerConnectedSocket(final Socket socket)
+    {
+        final InetSocketAddress key
+            = (InetSocketAddress) socket.getRemoteSocketAddress();
+        Socket previous;
+
+        synchronized (connectedSockets)
+        {
+            previous = connectedSockets.put(key, socket);
+
+            if (connectedSocketsTimer == null)
+            {
+                connectedSocketsTimer
+                    = new Timer(SslNetworkLayer.class.getName(), true);
+            }
+            connectedSocketsTimer.schedule(
+                    new TimerTask()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            synchronized (connectedSockets)
+                            {
+                                if (connectedSockets.get(key) != socket)
+                                    return;
+                                connectedSockets.remove(key);
+                            }
+                            if (logger.isDebugEnabled())
+                                logger.debug("Closing unused socket to " + key);
+                            closeQuietly(socket);
+                        }
+                    },
+                    CONNECTED_SOCKET_LIFETIME);
+        }
+        if (previous != null && previous != socket)
+            closeQuietly(previous);
+    }
+
+    /**
+     * Returns the socket connected ahead of time to <tt>address:port</tt>, if
+     * there is one that is still usable and bound to <tt>myAddress</tt>.
+     *
+     * @param address the address jain-sip wants to connect to.
+     * @param port the port jain-sip wants to connect to.
+     * @param myAddress the local address jain-sip wants to bind to or
+     * <tt>null</tt> for any.
+     * @return the connected socket or <tt>null</tt>.
+     */
+    private static Socket takeConnectedSocket(InetAddress address, int port,
+            InetAddress myAddress)
+    {
+        Socket socket;
 
-        if (myAddress != null)
+        synchronized (connectedSockets)
         {
-            sock = new Socket(address, port, myAddress, myPort);
+            if (connectedSockets.isEmpty())
+                return null;
+            socket = connectedSockets.remove(
+                new InetSocketAddress(address, port));
         }
-        else if (port != 0)
+
+        if (socket == null)
+            return null;
+        if (socket.isClosed()
+            || (myAddress != null
+                && !myAddress.isAnyLocalAddress()
+                && !myAddress.equals(socket.getLocalAddress())))
         {
-            // myAddress is null (i.e. any) but we have a port number
-            sock = new Socket();
-            sock.bind(new InetSocketAddress(port));
-            sock.connect(new InetSocketAddress(address, port));
+            closeQuietly(socket);
+            return null;
         }
-        else
+        return socket;
+    }
+
+    /**
+     * Closes <tt>socket</tt>, ignoring errors.
+     *
+     * @param socket the socket to close.
+     */
+    private static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
         {
-            sock = new Socket(address, port);
         }
-        setTrafficClass(sock);
-        return sock;
     }
 
     /**
@@ -19,6 +19,7 @@
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 
 import javax.sip.header.*;
 
@@ -48,6 +49,13 @@
     private Hashtable<String, AuthorizationHeader> authenticatedCalls
                             =  new Hashtable<String, AuthorizationHeader>();
 
+    /**
+     * Contains the last reusable challenge received from each server, used to
+     * authenticate requests preemptively.
+     */
+    private final Map<String, DigestChallengeState> challenges
+        = new ConcurrentHashMap<String, DigestChallengeState>();
+
     /**
      * Cache credentials for the specified call and realm
      * @param realm the realm that the specify credentials apply to
@@ -119,6 +127,7 @@ CredentialsCacheEntry remove(String realm)
     void clear()
     {
         authenticatedRealms.clear();
+        challenges.clear();
     }
 
     /**
@@ -147,4 +156,53 @@ AuthorizationHeader getCachedAuthorizationHeader(String callid)
     {
         return this.authenticatedCalls.get(callid);
     }
+
+    /**
+     * Remembers the last reusable challenge received from a server, replacing
+     * the previous one.
+     *
+     * @param state the challenge to remember.
+     */
+    void cacheChallenge(DigestChallengeState state)
+    {
+        challenges.put(state.key, state);
+    }
+
+    /**
+     * Returns the remembered challenges which apply to a request to a
+     * specific host.
+     *
+     * @param host the host of the request URI.
+     * @return the challenges which apply to a request to <tt>host</tt>.
+     */
+    List<DigestChallengeState> getChallenges(String host)
+    {
+        List<DigestChallengeState> result
+            = new ArrayList<DigestChallengeState>(2);
+
+        for (DigestChallengeState state : challenges.values())
+        {
+            if (state.appliesTo(host))
+                result.add(state);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the remembered challenge with a specific nonce.
+     *
+     * @param nonce the nonce of the challenge.
+     * @return the challenge with <tt>nonce</tt> or <tt>null</tt> if we don't
+     * remember it.
+     */
+    DigestChallengeState getChallengeByNonce(String nonce)
+    {
+        for (DigestChallengeState state : challenges.values())
+        {
+            if (state.nonce.equals(nonce))
+                return state;
+        }
+        return null;
+    }
+
 }
@@ -0,0 +1,193 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip.security;
+
+import java.security.*;
+import java.util.concurrent.atomic.*;
+
+import javax.sip.header.*;
+
+/**
+ * Remembers the parameters of the last digest challenge a server has sent us
+ * (realm, nonce, opaque, algorithm and qop) so that the following requests to
+ * the same server can carry an <tt>Authorization</tt> header from the start
+ * instead of waiting for a 401/407 challenge (rfc2617 section 3.3). The nonce
+ * is reused with an incrementing nonce count until the server tells us it is
+ * stale.
+ */
+class DigestChallengeState
+{
+    /**
+     * The source of the client nonces.
+     */
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * The key under which the state is cached.
+     */
+    final String key;
+
+    /**
+     * Whether the challenge came from a proxy (407) rather than from the
+     * request's destination (401).
+     */
+    final boolean proxy;
+
+    /**
+     * The host of the request URI of the challenged request or <tt>null</tt>
+     * for proxy challenges which apply to all requests.
+     */
+    final String host;
+
+    /**
+     * The authentication scheme, "Digest".
+     */
+    final String scheme;
+
+    /**
+     * The realm of the challenge.
+     */
+    final String realm;
+
+    /**
+     * The nonce of the challenge.
+     */
+    final String nonce;
+
+    /**
+     * The opaque value of the challenge, if any.
+     */
+    final String opaque;
+
+    /**
+     * The algorithm of the challenge, if any.
+     */
+    final String algorithm;
+
+    /**
+     * The quality of protection we use, "auth" or <tt>null</tt> if the
+     * server did not offer any.
+     */
+    final String qop;
+
+    /**
+     * The client nonce we use with {@link #nonce}.
+     */
+    final String cnonce;
+
+    /**
+     * The number of requests we have sent with {@link #nonce}.
+     */
+    private final AtomicInteger nonceCount = new AtomicInteger();
+
+    /**
+     * Initializes a new <tt>DigestChallengeState</tt> from a challenge.
+     *
+     * @param challenge the challenge received from the server.
+     * @param host the host of the request URI of the challenged request.
+     */
+    DigestChallengeState(WWWAuthenticateHeader challenge, String host)
+    {
+        this.proxy = challenge instanceof ProxyAuthenticateHeader;
+        this.host = proxy ? null : host;
+        this.scheme = challenge.getScheme();
+        this.realm = challenge.getRealm();
+        this.nonce = challenge.getNonce();
+        this.opaque = challenge.getOpaque();
+        this.algorithm = challenge.getAlgorithm();
+        this.qop = (challenge.getQop() != null) ? "auth" : null;
+        this.cnonce = Long.toHexString(random.nextLong());
+        this.key = createKey(proxy, this.host, realm);
+    }
+
+    /**
+     * Creates the key identifying the server which has sent a challenge.
+     *
+     * @param proxy whether the challenge came from a proxy.
+     * @param host the host of the request URI of the challenged request.
+     * @param realm the realm of the challenge.
+     * @return the key identifying the server which has sent the challenge.
+     */
+    static String createKey(boolean proxy, String host, String realm)
+    {
+        return (proxy ? "proxy" : ("www:" + host)) + ":" + realm;
+    }
+
+    /**
+     * Determines whether a specific challenge can be remembered and answered
+     * preemptively. Only challenges which do not require the body of the
+     * request (qop absent or offering "auth") qualify because the body is not
+     * known yet when the header is attached.
+     *
+     * @param challenge the challenge to check.
+     * @return <tt>true</tt> if <tt>challenge</tt> can be answered
+     * preemptively.
+     */
+    static boolean isReusable(WWWAuthenticateHeader challenge)
+    {
+        if (!"Digest".equalsIgnoreCase(challenge.getScheme())
+                || challenge.getRealm() == null
+                || challenge.getNonce() == null)
+            return false;
+
+        String qop = challenge.getQop();
+        if (qop == null)
+            return true;
+
+        for (String option : qop.split(","))
+        {
+            if ("auth".equalsIgnoreCase(option.trim()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether this challenge applies to a request to a specific
+     * host.
+     *
+     * @param requestHost the host of the request URI.
+     * @return <tt>true</tt> if this challenge applies to the request.
+     */
+    boolean appliesTo(String requestHost)
+    {
+        return proxy || (host != null && host.equalsIgnoreCase(requestHost));
+    }
+
+    /**
+     * Returns the nonce count to use in the next request.
+     *
+     * @return the nonce count to use in the next request.
+     */
+    int nextNonceCount()
+    {
+        return nonceCount.incrementAndGet();
+    }
+
+    /**
+     * Formats a nonce count as eight hexadecimal digits.
+     *
+     * @param nc the nonce count.
+     * @return <tt>nc</tt> as eight hexadecimal digits.
+     */
+    static String formatNonceCount(int nc)
+    {
+        String hex = Integer.toHexString(nc);
+        return "00000000".substring(hex.length()) + hex;
+    }
+}
@@ -33,6 +33,30 @@
     private static final  Logger logger
         = Logger.getLogger(MessageDigestAlgorithm.class);
 
+    /**
+     * The MD5 <tt>MessageDigest</tt> of each thread. Looking up a provider
+     * for every digest is comparatively expensive and a response requires
+     * three of them.
+     */
+    private static final ThreadLocal<MessageDigest> md5
+        = new ThreadLocal<MessageDigest>()
+        {
+            @Override
+            protected MessageDigest initialValue()
+            {
+                try
+                {
+                    return MessageDigest.getInstance("MD5");
+                }
+                catch (NoSuchAlgorithmException ex)
+                {
+                    //shouldn't happen
+                    logger.error("Failed to instantiate an MD5 algorithm", ex);
+                    return null;
+                }
+            }
+        };
+
     /**
      * Calculates an http authentication response in accordance with rfc2617.
      * <p>
@@ -149,18 +173,13 @@ static String calculateResponse(String algorithm,
      */
     private static String H(String data)
     {
-        try
-        {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
+        MessageDigest digest = md5.get();
 
-            return toHexString(digest.digest(data.getBytes()));
-        }
-        catch (NoSuchAlgorithmException ex)
-        {
-            //shouldn't happen
-            logger.error("Failed to instantiate an MD5 algorithm", ex);
+        if (digest == null)
             return null;
-        }
+
+        // digest() resets the instance so it is ready for the next use
+        return toHexString(digest.digest(data.getBytes()));
     }
 
     /**
@@ -22,8 +22,10 @@
 
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import javax.sip.*;
+import javax.sip.address.*;
 import javax.sip.header.*;
 import javax.sip.message.*;
 
@@ -49,6 +51,30 @@
     private static final Logger logger
         = Logger.getLogger(SipSecurityManager.class);
 
+    /**
+     * The name of the account property which enables (the default) or
+     * disables the preemptive authentication of requests with the nonces of
+     * previous challenges.
+     */
+    public static final String PREEMPTIVE_AUTHENTICATION_ENABLED
+        = "PREEMPTIVE_AUTHENTICATION_ENABLED";
+
+    /**
+     * The number of requests we have authenticated preemptively.
+     */
+    private final AtomicLong preemptiveAuthorizations = new AtomicLong();
+
+    /**
+     * The number of preemptively authenticated requests which were
+     * challenged nevertheless.
+     */
+    private final AtomicLong preemptiveChallenges = new AtomicLong();
+
+    /**
+     * The number of challenges which told us our nonce was stale.
+     */
+    private final AtomicLong staleChallenges = new AtomicLong();
+
     /**
      * The SecurityAuthority instance that we could use to obtain new passwords
      * for the user.
@@ -191,6 +217,9 @@ public synchronized ClientTransaction handleChallenge(
         ListIterator<WWWAuthenticateHeader> authHeaders
             = extractChallenges(challenge);
 
+        if (isPreemptivelyAuthenticated(challengedRequest))
+            preemptiveChallenges.incrementAndGet();
+
         ClientTransaction retryTran =
             transactionCreator.getNewClientTransaction(reoriginatedRequest);
 
@@ -208,6 +237,9 @@ public synchronized ClientTransaction handleChallenge(
             WWWAuthenticateHeader authHeader = authHeaders.next();
             String realm = authHeader.getRealm();
 
+            if (authHeader.isStale())
+                staleChallenges.incrementAndGet();
+
             //Check whether we have cached credentials for authHeader's realm.
             //We remove them with the intention to re-add them at the end of the
             //method. If we fail to get to the end then it's best for the cache
@@ -314,15 +346,37 @@ public synchronized ClientTransaction handleChallenge(
                     (System.currentTimeMillis() - authenticationDuration)
                             > 25*1000;
 
-            AuthorizationHeader authorization =
-                this.createAuthorizationHeader(
+            String requestBody = ( reoriginatedRequest.getContent() == null )
+                                ? ""
+                                : reoriginatedRequest.getContent().toString();
+            AuthorizationHeader authorization;
+
+            if (isPreemptiveAuthenticationEnabled()
+                    && DigestChallengeState.isReusable(authHeader))
+            {
+                // remember the nonce so that the next requests to this
+                // server can be authenticated without being challenged
+                DigestChallengeState state
+                    = rememberChallenge(authHeader, reoriginatedRequest);
+
+                authorization = this.createAuthorizationHeader(
                     reoriginatedRequest.getMethod(),
                     reoriginatedRequest.getRequestURI().toString(),
-                    ( reoriginatedRequest.getContent() == null )
-                                ? ""
-                                : reoriginatedRequest.getContent().toString(),
+                    requestBody,
+                    authHeader,
+                    ccEntry.userCredentials,
+                    state.nextNonceCount(),
+                    state.cnonce);
+            }
+            else
+            {
+                authorization = this.createAuthorizationHeader(
+                    reoriginatedRequest.getMethod(),
+                    reoriginatedRequest.getRequestURI().toString(),
+                    requestBody,
                     authHeader,
                     ccEntry.userCredentials);
+            }
 
             if(!authDurTooLong)
                 ccEntry.pushBranchID(retryTran.getBranchId());
@@ -605,6 +659,37 @@ private AuthorizationHeader createAuthorizationHeader(
                 WWWAuthenticateHeader authHeader,
                 UserCredentials       userCredentials)
         throws OperationFailedException
+    {
+        return createAuthorizationHeader(
+            method, uri, requestBody, authHeader, userCredentials, 1, "xyz");
+    }
+
+    /**
+     * Generates an authorization header in response to wwwAuthHeader using a
+     * specific nonce count and client nonce.
+     *
+     * @param method method of the request being authenticated
+     * @param uri digest-uri
+     * @param requestBody the body of the request.
+     * @param authHeader the challenge that we should respond to
+     * @param userCredentials username and pass
+     * @param nonceCount the number of requests sent with the nonce of
+     * <tt>authHeader</tt>, including this one.
+     * @param cnonce the client nonce.
+     *
+     * @return an authorization header in response to authHeader.
+     *
+     * @throws OperationFailedException if auth header was malformed.
+     */
+    private AuthorizationHeader createAuthorizationHeader(
+                String                method,
+                String                uri,
+                String                requestBody,
+                WWWAuthenticateHeader authHeader,
+                UserCredentials       userCredentials,
+                int                   nonceCount,
+                String                cnonce)
+        throws OperationFailedException
     {
         String response = null;
 
@@ -612,8 +697,7 @@ private AuthorizationHeader createAuthorizationHeader(
         // (e.g. "auth,auth-int") Client is supposed to pick one
         String qopList = authHeader.getQop();
         String qop = (qopList != null) ? "auth" : null;
-        String nc_value = "00000001";
-        String cnonce = "xyz";
+        String nc_value = DigestChallengeState.formatNonceCount(nonceCount);
 
         try
         {
@@ -672,7 +756,7 @@ private AuthorizationHeader createAuthorizationHeader(
             {
                 authorization.setQop(qop);
                 authorization.setCNonce(cnonce);
-                authorization.setNonceCount( Integer.parseInt(nc_value) );
+                authorization.setNonceCount(nonceCount);
             }
 
             authorization.setResponse(response);
@@ -687,6 +771,212 @@ private AuthorizationHeader createAuthorizationHeader(
         return authorization;
     }
 
+    /**
+     * Attaches to <tt>request</tt> an authorization header for every
+     * challenge we remember from the servers it is going to go through, so
+     * that it is not challenged. The nonce of the last challenge is reused
+     * with an incremented nonce count until the server reports it stale.
+     *
+     * @param request the request that we'd like to authenticate.
+     * @return <tt>true</tt> if at least one authorization header has been
+     * attached to <tt>request</tt>; otherwise, <tt>false</tt>.
+     */
+    public boolean preAuthenticateRequest(Request request)
+    {
+        if (!isPreemptiveAuthenticationEnabled())
+            return false;
+
+        List<AuthorizationHeader> authorizations
+            = new ArrayList<AuthorizationHeader>(2);
+
+        for (DigestChallengeState state
+                : cachedCredentials.getChallenges(getHost(request)))
+        {
+            CredentialsCacheEntry ccEntry = cachedCredentials.get(state.realm);
+
+            if (ccEntry == null || ccEntry.userCredentials == null)
+                continue;
+
+            try
+            {
+                authorizations.add(
+                    createAuthorizationHeader(request, state, ccEntry));
+            }
+            catch (OperationFailedException ex)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Failed to pre-authenticate " + request, ex);
+            }
+        }
+
+        if (authorizations.isEmpty())
+            return false;
+
+        request.removeHeader(AuthorizationHeader.NAME);
+        request.removeHeader(ProxyAuthorizationHeader.NAME);
+        for (AuthorizationHeader authorization : authorizations)
+            request.addHeader(authorization);
+
+        preemptiveAuthorizations.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remembers a challenge so that the following requests to the server
+     * which has sent it are authenticated preemptively, replacing the
+     * challenge previously remembered for the same server and realm.
+     *
+     * @param challenge the challenge, which must be reusable.
+     * @param request the challenged request.
+     * @return the remembered state of <tt>challenge</tt>.
+     */
+    DigestChallengeState rememberChallenge(
+            WWWAuthenticateHeader challenge,
+            Request request)
+    {
+        DigestChallengeState state
+            = new DigestChallengeState(challenge, getHost(request));
+
+        cachedCredentials.cacheChallenge(state);
+        return state;
+    }
+
+    /**
+     * Generates an authorization header for <tt>request</tt> answering a
+     * remembered challenge.
+     *
+     * @param request the request to authenticate.
+     * @param state the remembered challenge.
+     * @param ccEntry the credentials for the realm of <tt>state</tt>.
+     * @return an authorization header answering <tt>state</tt>.
+     * @throws OperationFailedException if the header cannot be created.
+     */
+    private AuthorizationHeader createAuthorizationHeader(
+                Request               request,
+                DigestChallengeState  state,
+                CredentialsCacheEntry ccEntry)
+        throws OperationFailedException
+    {
+        WWWAuthenticateHeader challenge;
+        try
+        {
+            challenge = state.proxy
+                ? headerFactory.createProxyAuthenticateHeader(state.scheme)
+                : headerFactory.createWWWAuthenticateHeader(state.scheme);
+
+            challenge.setRealm(state.realm);
+            challenge.setNonce(state.nonce);
+            if (state.algorithm != null)
+                challenge.setAlgorithm(state.algorithm);
+            if (state.opaque != null)
+                challenge.setOpaque(state.opaque);
+            if (state.qop != null)
+                challenge.setQop(state.qop);
+        }
+        catch (ParseException ex)
+        {
+            throw new OperationFailedException(
+                "Failed to recreate the challenge for " + state.realm,
+                OperationFailedException.INTERNAL_ERROR,
+                ex);
+        }
+
+        // the body is not part of the digest with qop=auth or without qop
+        return createAuthorizationHeader(
+            request.getMethod(),
+            request.getRequestURI().toString(),
+            "",
+            challenge,
+            ccEntry.userCredentials,
+            state.nextNonceCount(),
+            state.cnonce);
+    }
+
+    /**
+     * Determines whether <tt>request</tt> carries an authorization header
+     * answering one of the challenges we remember, i.e. whether it has been
+     * authenticated preemptively.
+     *
+     * @param request the request to check.
+     * @return <tt>true</tt> if <tt>request</tt> has been authenticated
+     * preemptively.
+     */
+    private boolean isPreemptivelyAuthenticated(Request request)
+    {
+        AuthorizationHeader authorization
+            = (AuthorizationHeader) request.getHeader(AuthorizationHeader.NAME);
+
+        if (authorization == null)
+            authorization = (AuthorizationHeader)
+                request.getHeader(ProxyAuthorizationHeader.NAME);
+
+        return authorization != null
+            && authorization.getNonce() != null
+            && cachedCredentials.getChallengeByNonce(
+                    authorization.getNonce()) != null;
+    }
+
+    /**
+     * Returns the host of the request URI of <tt>request</tt>.
+     *
+     * @param request the request.
+     * @return the host of the request URI of <tt>request</tt> or
+     * <tt>null</tt> if it is not a SIP URI.
+     */
+    private static String getHost(Request request)
+    {
+        URI uri = request.getRequestURI();
+
+        return (uri instanceof SipURI) ? ((SipURI) uri).getHost() : null;
+    }
+
+    /**
+     * Whether requests should be authenticated preemptively.
+     *
+     * @return <tt>true</tt> unless disabled through the
+     * {@link #PREEMPTIVE_AUTHENTICATION_ENABLED} account property.
+     */
+    private boolean isPreemptiveAuthenticationEnabled()
+    {
+        return accountID.getAccountPropertyBoolean(
+            PREEMPTIVE_AUTHENTICATION_ENABLED, true);
+    }
+
+    /**
+     * Returns the number of requests which have been authenticated
+     * preemptively.
+     *
+     * @return the number of requests which have been authenticated
+     * preemptively.
+     */
+    public long getPreemptiveAuthorizationCount()
+    {
+        return preemptiveAuthorizations.get();
+    }
+
+    /**
+     * Returns the number of challenges avoided by authenticating requests
+     * preemptively, i.e. the number of preemptively authenticated requests
+     * which were not challenged.
+     *
+     * @return the number of challenges avoided.
+     */
+    public long getChallengesAvoidedCount()
+    {
+        return Math.max(
+            0, preemptiveAuthorizations.get() - preemptiveChallenges.get());
+    }
+
+    /**
+     * Returns the number of challenges reporting a stale nonce.
+     *
+     * @return the number of challenges reporting a stale nonce.
+     */
+    public long getStaleChallengeCount()
+    {
+        return staleChallenges.get();
+    }
+
     /**
      * Caches <tt>realm</tt> and <tt>credentials</tt> for later usage.
      *
@@ -35,7 +35,7 @@
 public class BLFActivator
     implements BundleActivator,
                ServiceListener,
-               BLFStatusListener
+               BLFStatusBatchListener
 {
     /**
      * The bundle context.
@@ -253,4 +253,55 @@ public void blfStatusChanged(BLFStatusEvent event)
                 serviceReg.getReference());
         css.updateLineStatus(line, event.getType());
     }
+
+    /**
+     * Called whenever one or more of the monitored lines have changed their
+     * BLFStatus. Updates every contact source once with the changes of its
+     * lines.
+     * @param events the BLFStatusEvents describing the status changes.
+     */
+    @Override
+    public void blfStatusesChanged(List<BLFStatusEvent> events)
+    {
+        Map<String, Map<OperationSetTelephonyBLF.Line, Integer>> byGroup
+            = new HashMap<String, Map<OperationSetTelephonyBLF.Line, Integer>>();
+
+        for(BLFStatusEvent event : events)
+        {
+            if(!(event.getSource() instanceof OperationSetTelephonyBLF.Line))
+                continue;
+
+            OperationSetTelephonyBLF.Line line
+                = (OperationSetTelephonyBLF.Line)event.getSource();
+
+            String gr = line.getGroup();
+            if(gr == null)
+                gr = BLF_DEFAULT_GROUP_NAME;
+
+            Map<OperationSetTelephonyBLF.Line, Integer> statuses
+                = byGroup.get(gr);
+            if(statuses == null)
+            {
+                statuses
+                    = new LinkedHashMap<OperationSetTelephonyBLF.Line, Integer>();
+                byGroup.put(gr, statuses);
+            }
+            statuses.put(line, event.getType());
+        }
+
+        for(Map.Entry<String, Map<OperationSetTelephonyBLF.Line, Integer>> en
+                : byGroup.entrySet())
+        {
+            ServiceRegistration<ContactSourceService> serviceReg
+                = currentBLFGroups.get(en.getKey());
+
+            if(serviceReg == null)
+                continue;
+
+            BLFContactSourceService css
+                = (BLFContactSourceService)bundleContext.getService(
+                    serviceReg.getReference());
+            css.updateLineStatuses(en.getValue());
+        }
+    }
 }
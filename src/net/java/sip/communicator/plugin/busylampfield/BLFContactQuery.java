@@ -139,6 +139,27 @@ void updateLineStatus(OperationSetTelephonyBLF.Line line, int status)
         }
     }
 
+    /**
+     * Updates the statuses of several source contacts walking the results
+     * only once.
+     * @param statuses the new statuses of the lines.
+     */
+    void updateLineStatuses(
+        Map<OperationSetTelephonyBLF.Line, Integer> statuses)
+    {
+        for(SourceContact sc : results)
+        {
+            BLFSourceContact blfSC = (BLFSourceContact)sc;
+            Integer status = statuses.get(blfSC.getLine());
+
+            if(status == null)
+                continue;
+
+            blfSC.setPresenceStatus(getPresenceStatus(status));
+            fireContactChanged(blfSC);
+        }
+    }
+
     /**
      * Maps BLFStatusEvent.type to BLFPresenceStatus.
      * @param status the staus to map.
@@ -166,4 +166,16 @@ void updateLineStatus(OperationSetTelephonyBLF.Line line, int status)
 
         ourContactQuery.updateLineStatus(line, status);
     }
+
+    /**
+     * Updates the statuses of several lines at once.
+     * @param statuses the new statuses of the lines.
+     */
+    void updateLineStatuses(Map<OperationSetTelephonyBLF.Line, Integer> statuses)
+    {
+        if(ourContactQuery == null)
+            return;
+
+        ourContactQuery.updateLineStatuses(statuses);
+    }
 }
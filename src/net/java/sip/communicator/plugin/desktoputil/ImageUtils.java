@@ -21,6 +21,7 @@
 import java.awt.image.*;
 import java.io.*;
 import java.net.*;
+import java.util.*;
 
 import javax.imageio.*;
 import javax.swing.*;
@@ -42,6 +43,40 @@
      */
     private static final Logger logger = Logger.getLogger(ImageUtils.class);
 
+    /**
+     * The maximum number of scaled icons kept in {@link #scaledIcons}.
+     */
+    private static final int MAX_CACHED_ICONS = 256;
+
+    /**
+     * The most recently used icons scaled from image bytes, mapped by the
+     * hash of the bytes, the shape and the size of the icon. Avatars are
+     * painted over and over again (e.g. every time a contact list row is
+     * rendered) and the same image is often shared by several contacts, so
+     * decoding and scaling each of them only once saves a lot of work.
+     */
+    private static final Map<String, ImageIcon> scaledIcons
+        = new LinkedHashMap<String, ImageIcon>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, ImageIcon> eldest)
+            {
+                return size() > MAX_CACHED_ICONS;
+            }
+        };
+
+    /**
+     * The hashes of the image bytes recently passed to
+     * {@link #getScaledIcon(byte[], Shape, int, int)}. Arrays are compared by
+     * identity, so callers which keep passing the same bytes only have them
+     * hashed once.
+     */
+    private static final Map<byte[], String> imageHashes
+        = new WeakHashMap<byte[], String>();
+
     /**
      * Different shapes that an image can be cropped to.
      */
@@ -330,7 +365,8 @@ public static ImageIcon getScaledEllipticalIcon(Image image, int width,
     }
 
     /**
-     * Creates a rounded corner scaled image.
+     * Creates a rounded corner scaled image. Icons are cached by content and
+     * size, so the returned icon may be shared and must not be modified.
      *
      * @param imageBytes The bytes of the image to be scaled.
      * @param width The maximum width of the scaled image.
@@ -365,7 +401,8 @@ public static ImageIcon getScaledEllipticalIcon(  byte[] imageBytes,
     }
 
     /**
-     * Creates a cropped, scaled image.
+     * Creates a cropped, scaled image. The icons are cached, so the returned
+     * icon may be shared with other callers and must not be modified.
      *
      * @param imageBytes The bytes of the image to be scaled.
      * @param shape The shape of the scaled image.
@@ -382,6 +419,54 @@ private static ImageIcon getScaledIcon(  byte[] imageBytes,
         if (imageBytes == null || !(imageBytes.length > 0))
             return null;
 
+        String key;
+
+        synchronized (scaledIcons)
+        {
+            String hash = imageHashes.get(imageBytes);
+
+            if (hash == null)
+            {
+                hash = AvatarStore.getHash(imageBytes);
+                imageHashes.put(imageBytes, hash);
+            }
+
+            key = hash + ':' + shape + ':' + width + 'x' + height;
+
+            ImageIcon imageIcon = scaledIcons.get(key);
+
+            if (imageIcon != null)
+                return imageIcon;
+        }
+
+        ImageIcon imageIcon
+            = createScaledIcon(imageBytes, shape, width, height);
+
+        if (imageIcon != null)
+        {
+            synchronized (scaledIcons)
+            {
+                scaledIcons.put(key, imageIcon);
+            }
+        }
+        return imageIcon;
+    }
+
+    /**
+     * Decodes the given image bytes and creates a cropped, scaled image.
+     *
+     * @param imageBytes The bytes of the image to be scaled.
+     * @param shape The shape of the scaled image.
+     * @param width The maximum width of the scaled image.
+     * @param height The maximum height of the scaled image.
+     *
+     * @return The cropped, scaled image.
+     */
+    private static ImageIcon createScaledIcon(  byte[] imageBytes,
+                                                Shape shape,
+                                                int width,
+                                                int height)
+    {
         ImageIcon imageIcon = null;
 
         try
@@ -21,6 +21,8 @@
 
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.notification.*;
+import net.java.sip.communicator.service.packetlogging.*;
+import net.java.sip.communicator.service.protocol.sip.*;
 import net.java.sip.communicator.util.*;
 
 import org.jitsi.service.configuration.*;
@@ -215,4 +217,34 @@ public static NotificationService getNotificationService()
         }
         return notificationService;
     }
+
+    /**
+     * Returns the <tt>SipProcessingStatisticsService</tt> obtained from the
+     * bundle context. Not cached as the SIP bundle may not be installed or
+     * may be restarted.
+     *
+     * @return the <tt>SipProcessingStatisticsService</tt> obtained from the
+     * bundle context or <tt>null</tt> if there is no such service.
+     */
+    public static SipProcessingStatisticsService getSipStatisticsService()
+    {
+        return ServiceUtils.getService(
+                bundleContext,
+                SipProcessingStatisticsService.class);
+    }
+
+    /**
+     * Returns the <tt>PacketFlightRecorderService</tt> obtained from the
+     * bundle context. Not cached as the flight recorder may be disabled or
+     * the packet logging bundle may be restarted.
+     *
+     * @return the <tt>PacketFlightRecorderService</tt> obtained from the
+     * bundle context or <tt>null</tt> if there is no such service.
+     */
+    public static PacketFlightRecorderService getFlightRecorderService()
+    {
+        return ServiceUtils.getService(
+                bundleContext,
+                PacketFlightRecorderService.class);
+    }
 }
@@ -23,6 +23,8 @@
 import java.util.regex.*;
 import java.util.zip.*;
 
+import net.java.sip.communicator.service.packetlogging.*;
+import net.java.sip.communicator.service.protocol.sip.*;
 import net.java.sip.communicator.util.Logger;
 
 import org.jitsi.service.fileaccess.*;
@@ -50,6 +52,12 @@
      */
     private static final String JAVA_ERROR_LOG_PREFIX = "hs_err_pid";
 
+    /**
+     * The name of the archive entry with the SIP processing statistics.
+     */
+    private static final String SIP_STATISTICS_FILE_NAME
+        = "sip-processing-statistics.txt";
+
     /**
      * The date format used in file names.
      */
@@ -94,8 +102,11 @@ public static File collectLogs(File destination, File optional)
             ZipOutputStream out = new ZipOutputStream(
                 new FileOutputStream(destination));
 
+            // the dump lands in the log folder, collected right after
+            dumpFlightRecorder();
             collectHomeFolderLogs(out);
             collectJavaCrashLogs(out);
+            collectSipStatistics(out);
 
             if(optional != null)
             {
@@ -154,6 +165,49 @@ private static void collectHomeFolderLogs(ZipOutputStream out)
         }
     }
 
+    /**
+     * Makes the packet flight recorder, if enabled, dump the last packets to
+     * the log folder so that they are part of the collected logs.
+     */
+    private static void dumpFlightRecorder()
+    {
+        PacketFlightRecorderService flightRecorder
+            = LoggingUtilsActivator.getFlightRecorderService();
+
+        if(flightRecorder != null)
+            flightRecorder.dump("logs collected");
+    }
+
+    /**
+     * Adds a report of the SIP processing statistics, if available, to the
+     * archive.
+     * @param out the output zip file.
+     */
+    private static void collectSipStatistics(ZipOutputStream out)
+    {
+        SipProcessingStatisticsService statistics
+            = LoggingUtilsActivator.getSipStatisticsService();
+
+        if(statistics == null)
+            return;
+
+        try
+        {
+            out.putNextEntry(new ZipEntry(
+                LOGGING_DIR_NAME + File.separator + SIP_STATISTICS_FILE_NAME));
+
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            statistics.dump(writer);
+            writer.flush();
+
+            out.closeEntry();
+        }
+        catch(IOException ex)
+        {
+            logger.error("Error saving SIP statistics to archive", ex);
+        }
+    }
+
     /**
      * Copies a file to the given archive.
      * @param file the file to copy.
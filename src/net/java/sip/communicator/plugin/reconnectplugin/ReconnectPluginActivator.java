@@ -146,6 +146,37 @@
     private Set<ProtocolProviderService> unregisteringProviders
         = new HashSet<ProtocolProviderService>();
 
+    /**
+     * The providers to reconnect once all the events of a network
+     * configuration change have been received, so that a provider is
+     * reconnected once however many interfaces it may be using went down.
+     * Providers REMOVED:
+     * - When provider removed from osgi.
+     * - When the configuration change event is received and they are
+     * reconnected
+     * - When the last interface is down
+     * Providers ADDED:
+     * - Interface is down, there are still active interfaces and the
+     * provider was connected when this one was available
+     */
+    private final Set<ProtocolProviderService> pendingReconnections
+        = new LinkedHashSet<ProtocolProviderService>();
+
+    /**
+     * The providers whose sessions are kept while the network is down, in the
+     * hope that their connections survive, mapped to the tasks which
+     * unregister them when {@link #RESUMPTION_GRACE_PERIOD_PROP} elapses.
+     * Providers REMOVED:
+     * - When provider removed from osgi.
+     * - When interface is up and we try to resume their connections
+     * - When the grace period elapses and they are unregistered
+     * Providers ADDED:
+     * - Last interface is down and the provider supports
+     * <tt>OperationSetConnectionResumption</tt>
+     */
+    private final Map<ProtocolProviderService, TimerTask> suspendedProviders
+        = new HashMap<ProtocolProviderService, TimerTask>();
+
     /**
      * A list of currently connected interfaces. If empty network is down.
      */
@@ -184,6 +215,28 @@
         "net.java.sip.communicator.plugin.reconnectplugin." +
             "ATLEAST_ONE_SUCCESSFUL_CONNECTION";
 
+    /**
+     * The name of the property which holds the number of seconds for which
+     * the sessions of the providers supporting
+     * <tt>OperationSetConnectionResumption</tt> are kept after the network
+     * goes down. Zero unregisters them immediately.
+     */
+    public static final String RESUMPTION_GRACE_PERIOD_PROP =
+        "net.java.sip.communicator.plugin.reconnectplugin." +
+            "RESUMPTION_GRACE_PERIOD";
+
+    /**
+     * The default number of seconds for which sessions are kept after the
+     * network goes down.
+     */
+    private static final int DEFAULT_RESUMPTION_GRACE_PERIOD = 60; // sec
+
+    /**
+     * The maximum time to wait for a connection to prove that it still works
+     * after a network change.
+     */
+    private static final long RESUMPTION_TIMEOUT = 5000; // ms
+
     /**
      * Timer used to filter out too frequent "network down" notifications
      * on Android.
@@ -456,6 +509,12 @@ private void handleProviderRemoved(ProtocolProviderService provider)
 
         autoReconnEnabledProviders.remove(provider);
         needsReconnection.remove(provider);
+        pendingReconnections.remove(provider);
+
+        TimerTask unregisterTask = suspendedProviders.remove(provider);
+
+        if(unregisterTask != null)
+            unregisterTask.cancel();
 
         if(currentlyReconnecting.containsKey(provider))
         {
@@ -482,6 +541,17 @@ public synchronized void configurationChanged(ChangeEvent event)
                 while (iter.hasNext())
                 {
                     ProtocolProviderService pp = iter.next();
+
+                    // the session was kept, check whether it survived
+                    TimerTask unregisterTask = suspendedProviders.remove(pp);
+
+                    if(unregisterTask != null)
+                    {
+                        unregisterTask.cancel();
+                        resumeOrReconnect(pp);
+                        continue;
+                    }
+
                     if(currentlyReconnecting.containsKey(pp))
                     {
                         // now lets cancel it and schedule it again
@@ -515,18 +585,9 @@ else if(event.getType() == ChangeEvent.IFACE_DOWN)
                     Map.Entry<ProtocolProviderService, List<String>> entry
                         = iter.next();
 
+                    // reconnected once the whole change is received
                     if(entry.getValue().contains(ifaceName))
-                    {
-                        ProtocolProviderService pp = entry.getKey();
-                        // hum someone is reconnecting, lets cancel and
-                        // schedule it again
-                        if(currentlyReconnecting.containsKey(pp))
-                        {
-                            currentlyReconnecting.remove(pp).cancel();
-                        }
-
-                        reconnect(pp);
-                    }
+                        pendingReconnections.add(entry.getKey());
                 }
             }
             else
@@ -550,15 +611,43 @@ else if(event.getType() == ChangeEvent.IFACE_DOWN)
                         currentlyReconnecting.remove(pp).cancel();
                     }
 
+                    // keep the session if it may survive the outage
+                    if(supportsResumption(pp) && suspend(pp))
+                        continue;
+
                     // don't reconnect just unregister if needed.
                     unregister(pp, false, null, null);
                 }
 
                 connectedInterfaces.clear();
+                pendingReconnections.clear();
 
                 onNetworkDown();
             }
         }
+        else if(event.getType() == ChangeEvent.CONFIGURATION_CHANGE)
+        {
+            Iterator<ProtocolProviderService> iter =
+                pendingReconnections.iterator();
+            while (iter.hasNext())
+            {
+                ProtocolProviderService pp = iter.next();
+                // hum someone is reconnecting, lets cancel and
+                // schedule it again
+                if(currentlyReconnecting.containsKey(pp))
+                {
+                    currentlyReconnecting.remove(pp).cancel();
+                    reconnect(pp);
+                }
+                // the connection may not be using this iface
+                else if(supportsResumption(pp))
+                    resumeOrReconnect(pp);
+                else
+                    reconnect(pp);
+            }
+
+            pendingReconnections.clear();
+        }
 
         if(logger.isTraceEnabled())
         {
@@ -637,6 +726,131 @@ public void run()
         }).start();
     }
 
+    /**
+     * Determines whether a provider is registered and able to keep its
+     * session across network changes.
+     *
+     * @param pp the protocol provider
+     * @return <tt>true</tt> if <tt>pp</tt> supports
+     * <tt>OperationSetConnectionResumption</tt> and is registered
+     */
+    private boolean supportsResumption(ProtocolProviderService pp)
+    {
+        return (pp.getOperationSet(OperationSetConnectionResumption.class)
+                    != null)
+            && pp.isRegistered();
+    }
+
+    /**
+     * Keeps the session of a provider while the network is down and
+     * schedules its unregistration after the resumption grace period.
+     *
+     * @param pp the protocol provider
+     * @return <tt>true</tt> if the session of <tt>pp</tt> is kept;
+     * <tt>false</tt> if it is to be unregistered right away
+     */
+    private boolean suspend(final ProtocolProviderService pp)
+    {
+        int gracePeriod
+            = getConfigurationService().getInt(
+                    RESUMPTION_GRACE_PERIOD_PROP,
+                    DEFAULT_RESUMPTION_GRACE_PERIOD);
+
+        if((gracePeriod <= 0) || (timer == null))
+            return false;
+
+        TimerTask unregisterTask = new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                synchronized(ReconnectPluginActivator.this)
+                {
+                    if(suspendedProviders.get(pp) != this)
+                        return;
+
+                    suspendedProviders.remove(pp);
+                    unregister(pp, false, null, null);
+                }
+            }
+        };
+
+        TimerTask oldTask = suspendedProviders.put(pp, unregisterTask);
+
+        if(oldTask != null)
+            oldTask.cancel();
+        timer.schedule(unregisterTask, gracePeriod * 1000L);
+
+        if (logger.isInfoEnabled())
+            logger.info("Keep the session of "
+                + pp.getAccountID().getDisplayName()
+                + " for " + gracePeriod + " s.");
+        return true;
+    }
+
+    /**
+     * Verifies in a separate thread that the connection of a provider still
+     * works after a network change and reconnects it if it does not.
+     *
+     * @param pp the protocol provider
+     */
+    private void resumeOrReconnect(final ProtocolProviderService pp)
+    {
+        final OperationSetConnectionResumption resumption
+            = pp.getOperationSet(OperationSetConnectionResumption.class);
+
+        if(resumption == null)
+        {
+            reconnect(pp);
+            return;
+        }
+
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                boolean resumed;
+
+                try
+                {
+                    resumed = resumption.resumeConnection(RESUMPTION_TIMEOUT);
+                }
+                catch(Throwable t)
+                {
+                    logger.error("Error resuming the connection of " + pp, t);
+                    resumed = false;
+                }
+
+                synchronized(ReconnectPluginActivator.this)
+                {
+                    if(timer == null)
+                        return;
+
+                    if(resumed)
+                    {
+                        // the connection may now use other interfaces
+                        if(autoReconnEnabledProviders.containsKey(pp))
+                        {
+                            autoReconnEnabledProviders.put(
+                                pp,
+                                new ArrayList<String>(connectedInterfaces));
+                        }
+                    }
+                    else if(connectedInterfaces.isEmpty())
+                    {
+                        // the network went down again in the meantime
+                        needsReconnection.add(pp);
+                        unregister(pp, false, null, null);
+                    }
+                    else
+                        reconnect(pp);
+                }
+            }
+        }, "Resume connection of " + pp.getAccountID().getDisplayName())
+            .start();
+    }
+
     /**
      * Trace prints of current status of the lists with protocol providers,
      * that are currently in interest of the reconnect plugin.
@@ -649,6 +863,7 @@ private void traceCurrentPPState()
         logger.trace("currentlyReconnecting: "
             + currentlyReconnecting.keySet());
         logger.trace("needsReconnection: " + needsReconnection);
+        logger.trace("suspendedProviders: " + suspendedProviders.keySet());
         logger.trace("unregisteringProviders: " + unregisteringProviders);
         logger.trace("----");
     }
@@ -798,8 +1013,19 @@ else if(evt.getNewState().equals(RegistrationState.UNREGISTERED)
                 // event is by user request
                 if(evt.isUserRequest()
                     || isServerReturnedErroneousInputEvent)
+                {
                     autoReconnEnabledProviders.remove(pp);
 
+                    // the session is no longer to be kept
+                    TimerTask unregisterTask = suspendedProviders.remove(pp);
+
+                    if(unregisterTask != null)
+                    {
+                        unregisterTask.cancel();
+                        needsReconnection.remove(pp);
+                    }
+                }
+
                 if(!unregisteringProviders.contains(pp)
                     && currentlyReconnecting.containsKey(pp))
                 {
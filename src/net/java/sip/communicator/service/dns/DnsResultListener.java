@@ -0,0 +1,48 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.dns;
+
+/**
+ * Receives the outcome of an asynchronous DNS lookup, i.e. one of the
+ * <tt>...Async</tt> methods of <tt>NetworkUtils</tt>. Exactly one of the two
+ * methods is called, once, on a thread of the resolver and never on the
+ * thread that started the lookup.
+ *
+ * @param <T> the type of the result of the lookup.
+ */
+public interface DnsResultListener<T>
+{
+    /**
+     * Notifies that the lookup completed.
+     *
+     * @param result the result of the lookup. Has the same meaning as the
+     * return value of the corresponding synchronous method, i.e. may be
+     * <tt>null</tt> when no records were found.
+     */
+    public void lookupCompleted(T result);
+
+    /**
+     * Notifies that the lookup failed.
+     *
+     * @param cause the reason of the failure: a
+     * <tt>java.text.ParseException</tt> if the domain was not a valid domain
+     * name, a {@link DnssecException} when a DNSSEC validation failure
+     * occurred or any other exception raised while resolving.
+     */
+    public void lookupFailed(Exception cause);
+}
@@ -0,0 +1,82 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.dns;
+
+/**
+ * Keeps how connecting to the targets of SRV records went, so that the
+ * targets which failed recently, or are slower than the others, are tried
+ * after the other targets of the same priority. The protocols report the
+ * outcome of their connections and the SRV records returned by
+ * <tt>NetworkUtils</tt> are ordered accordingly. The history survives
+ * restarts.
+ * <p>
+ * Targets are identified by their host name, as found in the SRV record,
+ * and port.
+ */
+public interface SrvTargetHealthService
+{
+    /**
+     * Reports that a connection to a target was established.
+     *
+     * @param target the host name of the target.
+     * @param port the port of the target.
+     * @param connectTime the number of milliseconds it took to connect to
+     * the target, including the exchanges needed before the connection was
+     * usable (e.g. TLS handshake, registration).
+     */
+    public void reportConnected(String target, int port, long connectTime);
+
+    /**
+     * Reports that connecting to a target failed or that an established
+     * connection to it was lost.
+     *
+     * @param target the host name of the target.
+     * @param port the port of the target.
+     */
+    public void reportFailed(String target, int port);
+
+    /**
+     * Returns the smoothed time it took to connect to a target.
+     *
+     * @param target the host name of the target.
+     * @param port the port of the target.
+     * @return the connect time in milliseconds, -1 if unknown.
+     */
+    public long getConnectTime(String target, int port);
+
+    /**
+     * Returns the number of failures reported for a target since the last
+     * successful connection.
+     *
+     * @param target the host name of the target.
+     * @param port the port of the target.
+     * @return the number of consecutive failures.
+     */
+    public int getFailureCount(String target, int port);
+
+    /**
+     * Checks whether a target failed recently enough to be tried after the
+     * other targets of its priority. The time a target is avoided grows with
+     * the number of consecutive failures.
+     *
+     * @param target the host name of the target.
+     * @param port the port of the target.
+     * @return <tt>true</tt> if the target is avoided.
+     */
+    public boolean isBackedOff(String target, int port);
+}
@@ -18,6 +18,7 @@
 package net.java.sip.communicator.service.netaddr.event;
 
 import java.net.*;
+import java.util.*;
 
 /**
  * A ChangeEvent is fired on change of the network configuration of the computer.
@@ -57,6 +58,15 @@
      */
     public static final int DNS_CHANGE = 4;
 
+    /**
+     * Event type fired once after the interface and address events caused by
+     * one change of the network configuration, which may have been detected
+     * through several notifications. Carries these events, see
+     * {@link #getChanges()}, so that listeners can react once to a burst of
+     * changes rather than to each of them.
+     */
+    public static final int CONFIGURATION_CHANGE = 5;
+
     /**
      * The type of the current event.
      */
@@ -78,6 +88,11 @@
      */
     private boolean initial;
 
+    /**
+     * The events consolidated in a {@link #CONFIGURATION_CHANGE} event.
+     */
+    private List<ChangeEvent> changes = Collections.emptyList();
+
     /**
      * Creates event.
      * @param source the source of the event, the interface.
@@ -134,6 +149,22 @@ public ChangeEvent(Object source, int type, boolean standby)
         this(source, type, null, standby, false);
     }
 
+    /**
+     * Creates a {@link #CONFIGURATION_CHANGE} event.
+     * @param source the source of the event, what detected the change.
+     * @param changes the interface and address events of the change.
+     * @param standby is the event after a suspend of the computer.
+     */
+    public ChangeEvent(Object source,
+                       List<ChangeEvent> changes,
+                       boolean standby)
+    {
+        this(source, CONFIGURATION_CHANGE, null, standby, false);
+
+        this.changes
+            = Collections.unmodifiableList(new ArrayList<ChangeEvent>(changes));
+    }
+
     /**
      * The type of this event.
      * @return the type
@@ -178,6 +209,10 @@ public String toString()
             case ADDRESS_DOWN : buff.append("Address down"); break;
             case ADDRESS_UP : buff.append("Address up"); break;
             case DNS_CHANGE : buff.append("Dns has changed"); break;
+            case CONFIGURATION_CHANGE :
+                buff.append("Configuration has changed, changes="
+                    + changes.size());
+                break;
         }
 
         buff.append(", standby=" + standby)
@@ -197,4 +232,14 @@ public boolean isInitial()
     {
         return initial;
     }
+
+    /**
+     * The interface and address events consolidated in a
+     * {@link #CONFIGURATION_CHANGE} event, in the order they were fired.
+     * @return the consolidated events, empty for other event types.
+     */
+    public List<ChangeEvent> getChanges()
+    {
+        return changes;
+    }
 }
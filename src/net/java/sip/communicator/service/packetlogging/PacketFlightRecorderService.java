@@ -0,0 +1,42 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.packetlogging;
+
+import java.io.*;
+
+/**
+ * Keeps the last SIP, Jabber and ICE packets in memory while they are not
+ * being logged to file, so that they can be saved when something goes wrong.
+ * The packet logging bundle dumps them on its own when a call or a
+ * registration fails; other bundles may ask for a dump, e.g. when the user
+ * reports a problem.
+ */
+public interface PacketFlightRecorderService
+{
+    /**
+     * Writes the packets currently held to a new pcapng file in the log
+     * directory, next to the other log files.
+     *
+     * @param reason a short description of why the dump was requested,
+     * recorded in the file.
+     * @return the file the packets were written to, or <tt>null</tt> if no
+     * packets were recorded, packet logging is globally disabled or writing
+     * them failed.
+     */
+    public File dump(String reason);
+}
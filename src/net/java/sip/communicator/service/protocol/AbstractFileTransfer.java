@@ -194,6 +194,24 @@ public void fireStatusChangeEvent(int newStatus, String reason)
      * @param progress the bytes representing the progress of the transfer
      */
     public void fireProgressChangeEvent(long timestamp, long progress)
+    {
+        fireProgressChangeEvent(timestamp, progress, -1, -1);
+    }
+
+    /**
+     * Notifies all status listeners that a new
+     * <tt>FileTransferProgressEvent</tt> occured.
+     * @param timestamp the date on which the event occured
+     * @param progress the bytes representing the progress of the transfer
+     * @param throughput the current throughput in bytes per second or
+     * <tt>-1</tt> if it is unknown
+     * @param estimatedTimeLeft the estimated time in milliseconds until the
+     * transfer completes or <tt>-1</tt> if it is unknown
+     */
+    public void fireProgressChangeEvent(long timestamp,
+                                        long progress,
+                                        long throughput,
+                                        long estimatedTimeLeft)
     {
         Collection<FileTransferProgressListener> listeners = null;
         synchronized (progressListeners)
@@ -203,7 +221,8 @@ public void fireProgressChangeEvent(long timestamp, long progress)
         }
 
         FileTransferProgressEvent progressEvent
-            = new FileTransferProgressEvent(this, timestamp, progress);
+            = new FileTransferProgressEvent(
+                    this, timestamp, progress, throughput, estimatedTimeLeft);
 
         Iterator<FileTransferProgressListener> listenersIter
             = listeners.iterator();
@@ -0,0 +1,886 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.protocol.event.*;
+import net.java.sip.communicator.util.*;
+
+/**
+ * Schedules the registration of accounts so that logging in many accounts at
+ * startup does not stall the application. Logins run on a bounded pool of
+ * threads, ordered by priority (accounts supporting telephony first) and
+ * spaced by a small delay. Work which is not needed right after a login,
+ * such as retrieving the avatars and vCards of contacts, can be deferred with
+ * {@link #runWhenIdle(Runnable)} until no login has been active for a while.
+ * The time each account took to get registered is recorded and available
+ * through {@link #getLoginMetrics()}.
+ * <p>
+ * A login waiting for the user, e.g. for a password or for the decision to
+ * trust a certificate, gives its slot to the next login between
+ * {@link #beginUserInteraction()} and {@link #endUserInteraction()} so that
+ * a few accounts prompting the user do not stop all the others from logging
+ * in.
+ */
+public class LoginOrchestrator
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>LoginOrchestrator</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(LoginOrchestrator.class);
+
+    /**
+     * The name of the property specifying the maximum number of accounts
+     * which are logging in at the same time.
+     */
+    public static final String MAX_CONCURRENT_LOGINS_PNAME
+        = "net.java.sip.communicator.service.protocol.MAX_CONCURRENT_LOGINS";
+
+    /**
+     * The name of the property specifying the minimum time in milliseconds
+     * between the starts of two logins.
+     */
+    public static final String LOGIN_STAGGER_DELAY_PNAME
+        = "net.java.sip.communicator.service.protocol.LOGIN_STAGGER_DELAY";
+
+    /**
+     * The name of the property specifying the time in milliseconds without
+     * login activity after which deferred tasks start running.
+     */
+    public static final String IDLE_DELAY_PNAME
+        = "net.java.sip.communicator.service.protocol.LOGIN_IDLE_DELAY";
+
+    /**
+     * The default maximum number of concurrent logins.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_LOGINS = 3;
+
+    /**
+     * The default minimum time in milliseconds between the starts of two
+     * logins.
+     */
+    public static final long DEFAULT_LOGIN_STAGGER_DELAY = 250;
+
+    /**
+     * The default time in milliseconds without login activity after which
+     * deferred tasks start running.
+     */
+    public static final long DEFAULT_IDLE_DELAY = 3000;
+
+    /**
+     * The priority of the logins of accounts supporting telephony.
+     */
+    public static final int PRIORITY_TELEPHONY = 0;
+
+    /**
+     * The priority of the logins of all other accounts.
+     */
+    public static final int PRIORITY_DEFAULT = 10;
+
+    /**
+     * The minimum time in milliseconds between the starts of two logins.
+     */
+    private final long staggerDelay;
+
+    /**
+     * The time in milliseconds without login activity after which deferred
+     * tasks start running.
+     */
+    private final long idleDelay;
+
+    /**
+     * The pool running the logins.
+     */
+    private final ThreadPoolExecutor loginExecutor;
+
+    /**
+     * The sequence number of the next login, keeps logins with the same
+     * priority in submission order.
+     */
+    private final AtomicLong loginSequence = new AtomicLong();
+
+    /**
+     * The longest time in milliseconds deferred tasks wait for logins which
+     * never report their outcome.
+     */
+    private static final long MAX_LOGIN_WAIT = 60000;
+
+    /**
+     * The number of logins queued, running or waiting for the outcome of the
+     * registration.
+     */
+    private final AtomicInteger pendingLogins = new AtomicInteger();
+
+    /**
+     * Guards <tt>nextLoginTime</tt> and <tt>lastLoginActivity</tt>.
+     */
+    private final Object timeLock = new Object();
+
+    /**
+     * The earliest time in milliseconds the next login may start at.
+     */
+    private long nextLoginTime = 0;
+
+    /**
+     * The time in milliseconds of the last start or end of a login.
+     */
+    private long lastLoginActivity = 0;
+
+    /**
+     * The tasks waiting for the logins to settle down.
+     */
+    private final List<Runnable> idleTasks = new LinkedList<Runnable>();
+
+    /**
+     * The timer running the deferred tasks, one at a time. Created on demand.
+     */
+    private Timer idleTimer;
+
+    /**
+     * The next run of the deferred tasks scheduled on <tt>idleTimer</tt> or
+     * <tt>null</tt>.
+     */
+    private TimerTask idleRun;
+
+    /**
+     * The time in milliseconds <tt>idleRun</tt> is scheduled at.
+     */
+    private long idleRunTime;
+
+    /**
+     * The metrics of the logins per account.
+     */
+    private final Map<AccountID, LoginMetrics> metrics
+        = new ConcurrentHashMap<AccountID, LoginMetrics>();
+
+    /**
+     * The listeners waiting for the outcome of the registrations, per
+     * provider. They are removed from their providers when the registration
+     * has an outcome or when this instance is disposed of.
+     */
+    private final Map<ProtocolProviderService, RegistrationListener>
+        registrationListeners
+            = new HashMap<ProtocolProviderService, RegistrationListener>();
+
+    /**
+     * Whether this instance has been disposed of.
+     */
+    private volatile boolean disposed = false;
+
+    /**
+     * The login running on the current thread, if it is a login thread.
+     */
+    private static final ThreadLocal<LoginTask> currentLogin
+        = new ThreadLocal<LoginTask>();
+
+    /**
+     * Creates a new orchestrator.
+     *
+     * @param maxConcurrentLogins the maximum number of accounts which are
+     * logging in at the same time.
+     * @param staggerDelay the minimum time in milliseconds between the starts
+     * of two logins.
+     * @param idleDelay the time in milliseconds without login activity after
+     * which deferred tasks start running.
+     */
+    public LoginOrchestrator(
+        int maxConcurrentLogins, long staggerDelay, long idleDelay)
+    {
+        this.staggerDelay = Math.max(0, staggerDelay);
+        this.idleDelay = Math.max(0, idleDelay);
+
+        int poolSize = Math.max(1, maxConcurrentLogins);
+
+        loginExecutor
+            = new ThreadPoolExecutor(
+                    poolSize, poolSize,
+                    30, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<Runnable>(),
+                    new ThreadFactory()
+                    {
+                        private final AtomicInteger count
+                            = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread thread
+                                = new Thread(
+                                        r,
+                                        "LoginOrchestrator-"
+                                            + count.incrementAndGet());
+
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        loginExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the login of a provider with the priority derived from its
+     * capabilities.
+     *
+     * @param provider the provider to log in.
+     * @param loginTask the task which registers <tt>provider</tt> and
+     * handles the errors of the registration.
+     */
+    public void submitLogin(
+        ProtocolProviderService provider, Runnable loginTask)
+    {
+        submitLogin(provider, getLoginPriority(provider), loginTask);
+    }
+
+    /**
+     * Queues the login of a provider.
+     *
+     * @param provider the provider to log in.
+     * @param priority the priority of the login, lower values first.
+     * @param loginTask the task which registers <tt>provider</tt> and
+     * handles the errors of the registration.
+     */
+    public void submitLogin(
+        ProtocolProviderService provider, int priority, Runnable loginTask)
+    {
+        if (disposed)
+            throw new IllegalStateException("disposed");
+
+        LoginMetrics loginMetrics = new LoginMetrics(provider.getAccountID());
+
+        metrics.put(provider.getAccountID(), loginMetrics);
+
+        RegistrationListener listener
+            = new RegistrationListener(provider, loginMetrics);
+        RegistrationListener oldListener;
+
+        synchronized (registrationListeners)
+        {
+            oldListener = registrationListeners.put(provider, listener);
+        }
+        if (oldListener != null)
+            oldListener.remove();
+        provider.addRegistrationStateChangeListener(listener);
+
+        pendingLogins.incrementAndGet();
+        synchronized (timeLock)
+        {
+            lastLoginActivity = System.currentTimeMillis();
+        }
+
+        loginExecutor.execute(
+            new LoginTask(
+                    priority,
+                    loginSequence.incrementAndGet(),
+                    loginTask,
+                    loginMetrics));
+    }
+
+    /**
+     * Runs a task once no login has been queued, running or finished for the
+     * idle delay. Deferred tasks run one at a time in submission order.
+     *
+     * @param task the task to run.
+     */
+    public void runWhenIdle(Runnable task)
+    {
+        if (disposed)
+            return;
+
+        synchronized (idleTasks)
+        {
+            idleTasks.add(task);
+            scheduleIdleRun(idleDelay);
+        }
+    }
+
+    /**
+     * Returns the metrics of the logins submitted so far.
+     *
+     * @return the metrics of the logins submitted so far.
+     */
+    public Collection<LoginMetrics> getLoginMetrics()
+    {
+        return new ArrayList<LoginMetrics>(metrics.values());
+    }
+
+    /**
+     * Returns the metrics of the last login of an account.
+     *
+     * @param accountID the account.
+     * @return the metrics of the last login of <tt>accountID</tt> or
+     * <tt>null</tt> if it has not been logged in through this instance.
+     */
+    public LoginMetrics getLoginMetrics(AccountID accountID)
+    {
+        return metrics.get(accountID);
+    }
+
+    /**
+     * Returns the number of logins queued or running.
+     *
+     * @return the number of logins queued or running.
+     */
+    public int getPendingLoginCount()
+    {
+        return pendingLogins.get();
+    }
+
+    /**
+     * Stops running logins and deferred tasks. Queued logins and tasks are
+     * dropped.
+     */
+    public void dispose()
+    {
+        disposed = true;
+        loginExecutor.shutdownNow();
+
+        List<RegistrationListener> listeners;
+
+        synchronized (registrationListeners)
+        {
+            listeners
+                = new ArrayList<RegistrationListener>(
+                        registrationListeners.values());
+            registrationListeners.clear();
+        }
+        for (RegistrationListener listener : listeners)
+            listener.remove();
+
+        synchronized (idleTasks)
+        {
+            idleTasks.clear();
+            if (idleTimer != null)
+            {
+                idleTimer.cancel();
+                idleTimer = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the login priority of a provider: accounts supporting telephony
+     * come first so that calls can be received as soon as possible.
+     *
+     * @param provider the provider.
+     * @return the login priority of <tt>provider</tt>.
+     */
+    public static int getLoginPriority(ProtocolProviderService provider)
+    {
+        return (provider.getOperationSet(OperationSetBasicTelephony.class)
+                    != null)
+            ? PRIORITY_TELEPHONY
+            : PRIORITY_DEFAULT;
+    }
+
+    /**
+     * Runs a task when the logins of the orchestrator registered by the
+     * protocol bundle have settled down, or right away if there is no such
+     * orchestrator.
+     *
+     * @param task the task to run.
+     */
+    public static void deferUntilIdle(Runnable task)
+    {
+        LoginOrchestrator orchestrator
+            = ProtocolProviderActivator.getLoginOrchestrator();
+
+        if (orchestrator == null)
+            task.run();
+        else
+            orchestrator.runWhenIdle(task);
+    }
+
+    /**
+     * Notifies that the current thread is about to wait for the user. If it
+     * is running a login, its slot is given to the next login until
+     * {@link #endUserInteraction()} is called. Does nothing on other threads.
+     */
+    public static void beginUserInteraction()
+    {
+        LoginTask login = currentLogin.get();
+
+        if (login != null)
+            login.beginUserInteraction();
+    }
+
+    /**
+     * Notifies that the current thread is done waiting for the user. Must be
+     * paired with {@link #beginUserInteraction()}.
+     */
+    public static void endUserInteraction()
+    {
+        LoginTask login = currentLogin.get();
+
+        if (login != null)
+            login.endUserInteraction();
+    }
+
+    /**
+     * Returns the number of logins which may run at the same time, including
+     * the slots given up by logins waiting for the user.
+     *
+     * @return the number of threads of the login pool.
+     */
+    int getLoginPoolSize()
+    {
+        synchronized (loginExecutor)
+        {
+            return loginExecutor.getCorePoolSize();
+        }
+    }
+
+    /**
+     * Adds a thread to the login pool or removes one from it.
+     *
+     * @param delta <tt>1</tt> to add a thread, <tt>-1</tt> to remove one.
+     */
+    private void resizeLoginPool(int delta)
+    {
+        synchronized (loginExecutor)
+        {
+            if (disposed)
+                return;
+
+            int size = loginExecutor.getCorePoolSize() + delta;
+
+            // the core size may never exceed the maximum size.
+            if (delta > 0)
+            {
+                loginExecutor.setMaximumPoolSize(size);
+                loginExecutor.setCorePoolSize(size);
+            }
+            else
+            {
+                loginExecutor.setCorePoolSize(size);
+                loginExecutor.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    /**
+     * Waits for the stagger delay since the start of the previous login.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void waitForLoginSlot()
+        throws InterruptedException
+    {
+        long now = System.currentTimeMillis();
+        long slot;
+
+        synchronized (timeLock)
+        {
+            slot = Math.max(now, nextLoginTime);
+            nextLoginTime = slot + staggerDelay;
+        }
+        if (slot > now)
+            Thread.sleep(slot - now);
+    }
+
+    /**
+     * Notifies that a login is over, i.e. either the registration has an
+     * outcome or the login task failed.
+     *
+     * @param loginMetrics the metrics of the login.
+     */
+    private void loginFinished(LoginMetrics loginMetrics)
+    {
+        if (!loginMetrics.finished.compareAndSet(false, true))
+            return;
+
+        synchronized (timeLock)
+        {
+            lastLoginActivity = System.currentTimeMillis();
+        }
+        if (pendingLogins.decrementAndGet() == 0)
+        {
+            synchronized (idleTasks)
+            {
+                if (!idleTasks.isEmpty())
+                    scheduleIdleRun(idleDelay);
+            }
+        }
+    }
+
+    /**
+     * Schedules a run of the deferred tasks. Must be called with the lock of
+     * <tt>idleTasks</tt> held.
+     *
+     * @param delay the delay in milliseconds of the run.
+     */
+    private void scheduleIdleRun(long delay)
+    {
+        if (disposed)
+            return;
+
+        long time = System.currentTimeMillis() + delay;
+
+        if (idleRun != null)
+        {
+            if (idleRunTime <= time)
+                return;
+            idleRun.cancel();
+        }
+        if (idleTimer == null)
+            idleTimer = new Timer("LoginOrchestrator idle tasks", true);
+
+        idleRun
+            = new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    runIdleTasks();
+                }
+            };
+        idleRunTime = time;
+        idleTimer.schedule(idleRun, delay);
+    }
+
+    /**
+     * Runs the deferred tasks while no login is active, reschedules itself
+     * otherwise.
+     */
+    private void runIdleTasks()
+    {
+        while (true)
+        {
+            Runnable task;
+
+            synchronized (idleTasks)
+            {
+                idleRun = null;
+
+                if (idleTasks.isEmpty() || disposed)
+                    return;
+
+                long idleFor;
+
+                synchronized (timeLock)
+                {
+                    idleFor = System.currentTimeMillis() - lastLoginActivity;
+                }
+                if (idleFor < idleDelay)
+                {
+                    scheduleIdleRun(idleDelay - idleFor);
+                    return;
+                }
+                if (pendingLogins.get() > 0 && idleFor < MAX_LOGIN_WAIT)
+                {
+                    // the last login to finish schedules us again, unless it
+                    // never reports its outcome.
+                    scheduleIdleRun(MAX_LOGIN_WAIT - idleFor);
+                    return;
+                }
+
+                task = idleTasks.remove(0);
+            }
+
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+                logger.error("Deferred task failed", t);
+            }
+        }
+    }
+
+    /**
+     * The timings of the login of an account.
+     */
+    public static class LoginMetrics
+    {
+        /**
+         * The account.
+         */
+        private final AccountID accountID;
+
+        /**
+         * The time in milliseconds the login was submitted at.
+         */
+        private final long submitted;
+
+        /**
+         * The time in milliseconds the login started at or 0.
+         */
+        private volatile long started = 0;
+
+        /**
+         * The time in milliseconds the account got registered at or 0.
+         */
+        private volatile long registered = 0;
+
+        /**
+         * Whether the login is over.
+         */
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        /**
+         * Creates the metrics of a login submitted now.
+         *
+         * @param accountID the account.
+         */
+        LoginMetrics(AccountID accountID)
+        {
+            this.accountID = accountID;
+            this.submitted = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the account.
+         *
+         * @return the account.
+         */
+        public AccountID getAccountID()
+        {
+            return accountID;
+        }
+
+        /**
+         * Returns the time the login was submitted at.
+         *
+         * @return the time in milliseconds the login was submitted at.
+         */
+        public long getSubmitted()
+        {
+            return submitted;
+        }
+
+        /**
+         * Returns how long the login waited in the queue.
+         *
+         * @return the queue delay in milliseconds or -1 if the login has not
+         * started yet.
+         */
+        public long getQueueDelay()
+        {
+            return (started == 0) ? -1 : started - submitted;
+        }
+
+        /**
+         * Returns how long it took from the submission of the login to the
+         * registration of the account.
+         *
+         * @return the time to registered in milliseconds or -1 if the account
+         * has not been registered yet.
+         */
+        public long getTimeToRegistered()
+        {
+            return (registered == 0) ? -1 : registered - submitted;
+        }
+
+        @Override
+        public String toString()
+        {
+            return accountID.getAccountAddress()
+                + " queued=" + getQueueDelay() + "ms"
+                + " registered=" + getTimeToRegistered() + "ms";
+        }
+    }
+
+    /**
+     * A queued login, ordered by priority and then by submission order.
+     */
+    private class LoginTask
+        implements Runnable,
+                   Comparable<LoginTask>
+    {
+        /**
+         * The priority of the login, lower values first.
+         */
+        private final int priority;
+
+        /**
+         * The submission order of the login.
+         */
+        private final long sequence;
+
+        /**
+         * The task registering the provider.
+         */
+        private final Runnable task;
+
+        /**
+         * The metrics of the login.
+         */
+        private final LoginMetrics loginMetrics;
+
+        /**
+         * The number of nested user interactions the login is in. Only
+         * accessed by the thread running the login.
+         */
+        private int userInteractions = 0;
+
+        /**
+         * Creates a new queued login.
+         *
+         * @param priority the priority of the login.
+         * @param sequence the submission order of the login.
+         * @param task the task registering the provider.
+         * @param loginMetrics the metrics of the login.
+         */
+        LoginTask(
+            int priority, long sequence, Runnable task,
+            LoginMetrics loginMetrics)
+        {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+            this.loginMetrics = loginMetrics;
+        }
+
+        @Override
+        public int compareTo(LoginTask other)
+        {
+            if (priority != other.priority)
+                return (priority < other.priority) ? -1 : 1;
+            return (sequence < other.sequence)
+                ? -1
+                : ((sequence == other.sequence) ? 0 : 1);
+        }
+
+        /**
+         * Gives the slot of this login to the next one when it starts
+         * waiting for the user.
+         */
+        void beginUserInteraction()
+        {
+            if (userInteractions++ == 0)
+                resizeLoginPool(1);
+        }
+
+        /**
+         * Takes the slot of this login back when it is done waiting for the
+         * user.
+         */
+        void endUserInteraction()
+        {
+            if (userInteractions > 0 && --userInteractions == 0)
+                resizeLoginPool(-1);
+        }
+
+        @Override
+        public void run()
+        {
+            currentLogin.set(this);
+            try
+            {
+                waitForLoginSlot();
+
+                loginMetrics.started = System.currentTimeMillis();
+                task.run();
+            }
+            catch (InterruptedException ex)
+            {
+                // disposed, drop the login.
+                loginFinished(loginMetrics);
+            }
+            catch (Throwable t)
+            {
+                loginFinished(loginMetrics);
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+                logger.error("Login of " + loginMetrics.accountID
+                    + " failed", t);
+            }
+            finally
+            {
+                currentLogin.remove();
+                if (userInteractions > 0)
+                {
+                    userInteractions = 0;
+                    resizeLoginPool(-1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the time an account gets registered at and marks the login as
+     * finished once the registration has an outcome.
+     */
+    private class RegistrationListener
+        implements RegistrationStateChangeListener
+    {
+        /**
+         * The provider this listener is added to.
+         */
+        private final ProtocolProviderService provider;
+
+        /**
+         * The metrics of the login.
+         */
+        private final LoginMetrics loginMetrics;
+
+        /**
+         * Creates a listener updating the metrics of a login.
+         *
+         * @param provider the provider being logged in.
+         * @param loginMetrics the metrics of the login.
+         */
+        RegistrationListener(
+            ProtocolProviderService provider, LoginMetrics loginMetrics)
+        {
+            this.provider = provider;
+            this.loginMetrics = loginMetrics;
+        }
+
+        /**
+         * Removes this listener from its provider and ends the login it
+         * tracks.
+         */
+        void remove()
+        {
+            provider.removeRegistrationStateChangeListener(this);
+            loginFinished(loginMetrics);
+        }
+
+        @Override
+        public void registrationStateChanged(RegistrationStateChangeEvent evt)
+        {
+            RegistrationState newState = evt.getNewState();
+
+            if (RegistrationState.REGISTERING.equals(newState)
+                || RegistrationState.CHALLENGED_FOR_AUTHENTICATION.equals(
+                        newState))
+                return;
+
+            if (RegistrationState.REGISTERED.equals(newState))
+            {
+                loginMetrics.registered = System.currentTimeMillis();
+                if (logger.isInfoEnabled())
+                    logger.info("Login metrics: " + loginMetrics);
+            }
+            synchronized (registrationListeners)
+            {
+                if (registrationListeners.get(provider) == this)
+                    registrationListeners.remove(provider);
+            }
+            remove();
+        }
+    }
+}
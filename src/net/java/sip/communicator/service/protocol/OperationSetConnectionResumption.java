@@ -0,0 +1,43 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+/**
+ * An <tt>OperationSet</tt> implemented by protocol providers whose sessions
+ * may survive a change in the network configuration, such as a short loss of
+ * connectivity or the system waking up from sleep. Instead of logging in
+ * again, which republishes presence and reloads the contact list and the
+ * joined chat rooms, the session of such a provider can be kept if its
+ * connection is verified to still work.
+ */
+public interface OperationSetConnectionResumption
+    extends OperationSet
+{
+    /**
+     * Verifies that the connection of the protocol provider still works after
+     * a change in the network configuration. Blocks for at most
+     * <tt>timeout</tt> milliseconds.
+     *
+     * @param timeout the maximum number of milliseconds to wait for the
+     * connection to respond
+     * @return <tt>true</tt> if the connection works and the provider stays
+     * registered with its current session; <tt>false</tt> if it has to
+     * register again
+     */
+    public boolean resumeConnection(long timeout);
+}
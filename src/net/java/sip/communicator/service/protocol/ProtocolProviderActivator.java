@@ -56,6 +56,18 @@
      */
     private static AccountManager accountManager;
 
+    /**
+     * The <code>ServiceRegistration</code> of the
+     * <code>LoginOrchestrator</code> registered as a service by this
+     * activator.
+     */
+    private ServiceRegistration loginOrchestratorServiceRegistration;
+
+    /**
+     * The orchestrator of the logins of the accounts.
+     */
+    private static LoginOrchestrator loginOrchestrator;
+
     /**
      * The <code>BundleContext</code> of the one and only
      * <code>ProtocolProviderActivator</code> instance which is currently
@@ -211,6 +223,24 @@ public void start(BundleContext bundleContext)
         accountManagerServiceRegistration =
             bundleContext.registerService(AccountManager.class.getName(),
                 accountManager, null);
+
+        ConfigurationService cfg = getConfigurationService();
+
+        loginOrchestrator
+            = new LoginOrchestrator(
+                    cfg.getInt(
+                            LoginOrchestrator.MAX_CONCURRENT_LOGINS_PNAME,
+                            LoginOrchestrator.DEFAULT_MAX_CONCURRENT_LOGINS),
+                    cfg.getLong(
+                            LoginOrchestrator.LOGIN_STAGGER_DELAY_PNAME,
+                            LoginOrchestrator.DEFAULT_LOGIN_STAGGER_DELAY),
+                    cfg.getLong(
+                            LoginOrchestrator.IDLE_DELAY_PNAME,
+                            LoginOrchestrator.DEFAULT_IDLE_DELAY));
+        loginOrchestratorServiceRegistration =
+            bundleContext.registerService(LoginOrchestrator.class.getName(),
+                loginOrchestrator, null);
+
         if(logger.isTraceEnabled())
         {
             logger.trace("ProtocolProviderActivator will create "
@@ -239,6 +269,14 @@ public void stop(BundleContext bundleContext)
             accountManager = null;
         }
 
+        if (loginOrchestratorServiceRegistration != null)
+        {
+            loginOrchestratorServiceRegistration.unregister();
+            loginOrchestratorServiceRegistration = null;
+            loginOrchestrator.dispose();
+            loginOrchestrator = null;
+        }
+
         if (singleCallInProgressPolicy != null)
         {
             singleCallInProgressPolicy.dispose();
@@ -298,6 +336,18 @@ public static AccountManager getAccountManager()
         return accountManager;
     }
 
+    /**
+     * Returns the <tt>LoginOrchestrator</tt> scheduling the logins of the
+     * accounts.
+     *
+     * @return the <tt>LoginOrchestrator</tt> or <tt>null</tt> if this
+     * activator is not started.
+     */
+    public static LoginOrchestrator getLoginOrchestrator()
+    {
+        return loginOrchestrator;
+    }
+
     /**
      * Returns OSGI bundle context.
      * @return OSGI bundle context.
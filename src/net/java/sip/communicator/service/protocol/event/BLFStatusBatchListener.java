@@ -0,0 +1,41 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import java.util.*;
+
+/**
+ * A <tt>BLFStatusListener</tt> which prefers to receive the status changes of
+ * the monitored lines in batches. Implementations which monitor many lines
+ * (a receptionist console watching hundreds of extensions for example) are
+ * notified once per batch instead of once per line, which allows them to
+ * update their UI in a single pass.
+ */
+public interface BLFStatusBatchListener
+    extends BLFStatusListener
+{
+    /**
+     * Called whenever one or more of the monitored lines have changed their
+     * BLFStatus. Every line appears at most once in <tt>events</tt> and only
+     * its most recent status is reported.
+     *
+     * @param events the <tt>BLFStatusEvent</tt>s describing the status
+     * changes, in the order in which the lines first changed.
+     */
+    public void blfStatusesChanged(List<BLFStatusEvent> events);
+}
@@ -0,0 +1,92 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Dispatched to notify interested parties of all the members that were
+ * already present in a chat room when the local user joined it. Rooms with
+ * thousands of occupants would otherwise produce as many individual
+ * <tt>ChatRoomMemberPresenceChangeEvent</tt>s.
+ */
+public class ChatRoomMembersLoadedEvent
+    extends EventObject
+{
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * The members that were present in the chat room when it was joined.
+     */
+    private final List<ChatRoomMember> members;
+
+    /**
+     * Creates a <tt>ChatRoomMembersLoadedEvent</tt>.
+     *
+     * @param sourceRoom the <tt>ChatRoom</tt> that produced this event
+     * @param members the members that were present in <tt>sourceRoom</tt>
+     * when it was joined
+     */
+    public ChatRoomMembersLoadedEvent(ChatRoom sourceRoom,
+                                      List<ChatRoomMember> members)
+    {
+        super(sourceRoom);
+        this.members = Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Returns the chat room that produced this event.
+     *
+     * @return the <tt>ChatRoom</tt> that produced this event
+     */
+    public ChatRoom getChatRoom()
+    {
+        return (ChatRoom) getSource();
+    }
+
+    /**
+     * Returns the members that were present in the chat room when it was
+     * joined.
+     *
+     * @return an unmodifiable list of the loaded <tt>ChatRoomMember</tt>s
+     */
+    public List<ChatRoomMember> getMembers()
+    {
+        return members;
+    }
+
+    /**
+     * Returns a String representation of this event.
+     *
+     * @return String representation of this event
+     */
+    @Override
+    public String toString()
+    {
+        return "ChatRoomMembersLoadedEvent[sourceRoom="
+            + getChatRoom()
+            + " members="
+            + members.size()
+            + "]";
+    }
+}
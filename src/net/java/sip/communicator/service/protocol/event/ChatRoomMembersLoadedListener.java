@@ -0,0 +1,38 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+/**
+ * A <tt>ChatRoomMemberPresenceListener</tt> that is able to handle all the
+ * members already present in a chat room at once, when the room is joined.
+ * Chat rooms deliver the initial member list to listeners which don't
+ * implement this interface as one <tt>MEMBER_JOINED</tt> event per member,
+ * with the reason {@link ChatRoomMemberPresenceChangeEvent#REASON_USER_LIST}.
+ */
+public interface ChatRoomMembersLoadedListener
+    extends ChatRoomMemberPresenceListener
+{
+    /**
+     * Called when the members that were present in a chat room before the
+     * local user joined it have all been received.
+     *
+     * @param evt the <tt>ChatRoomMembersLoadedEvent</tt> containing the
+     * source chat room and its members
+     */
+    public void membersLoaded(ChatRoomMembersLoadedEvent evt);
+}
@@ -45,6 +45,18 @@
      */
     private long timestamp;
 
+    /**
+     * The current throughput of the file transfer in bytes per second or
+     * <tt>-1</tt> if it is unknown.
+     */
+    private final long throughput;
+
+    /**
+     * The estimated time in milliseconds until the file transfer completes
+     * or <tt>-1</tt> if it is unknown.
+     */
+    private final long estimatedTimeLeft;
+
     /**
      * Creates a <tt>FileTransferProgressEvent</tt> by specifying the source
      * file transfer object, that triggered the event and the new progress
@@ -58,11 +70,36 @@
     public FileTransferProgressEvent(   FileTransfer fileTransfer,
                                         long timestamp,
                                         long progress)
+    {
+        this(fileTransfer, timestamp, progress, -1, -1);
+    }
+
+    /**
+     * Creates a <tt>FileTransferProgressEvent</tt> by specifying the source
+     * file transfer object, that triggered the event, the new progress value
+     * and the throughput and remaining time computed by the protocol.
+     *
+     * @param fileTransfer the source file transfer object, that triggered the
+     * event
+     * @param timestamp when this event occured
+     * @param progress the new progress value
+     * @param throughput the current throughput in bytes per second or
+     * <tt>-1</tt> if it is unknown
+     * @param estimatedTimeLeft the estimated time in milliseconds until the
+     * transfer completes or <tt>-1</tt> if it is unknown
+     */
+    public FileTransferProgressEvent(   FileTransfer fileTransfer,
+                                        long timestamp,
+                                        long progress,
+                                        long throughput,
+                                        long estimatedTimeLeft)
     {
         super(fileTransfer);
 
         this.timestamp = timestamp;
         this.progress = progress;
+        this.throughput = throughput;
+        this.estimatedTimeLeft = estimatedTimeLeft;
     }
 
     /**
@@ -94,4 +131,26 @@ public long getTimestamp()
     {
         return timestamp;
     }
+
+    /**
+     * Returns the current throughput of the file transfer.
+     *
+     * @return the throughput in bytes per second or <tt>-1</tt> if the
+     * protocol doesn't compute it
+     */
+    public long getThroughput()
+    {
+        return throughput;
+    }
+
+    /**
+     * Returns the estimated time until the file transfer completes.
+     *
+     * @return the estimated time left in milliseconds or <tt>-1</tt> if the
+     * protocol doesn't compute it
+     */
+    public long getEstimatedTimeLeft()
+    {
+        return estimatedTimeLeft;
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.sip;
+
+/**
+ * An immutable snapshot of a latency histogram collected by the
+ * <tt>SipProcessingStatisticsService</tt>. Bucket <tt>i</tt> counts the
+ * samples between 2<sup>i</sup> (inclusive) and 2<sup>i+1</sup> (exclusive)
+ * microseconds, the first bucket also counts faster samples and the last one
+ * slower samples.
+ */
+public class SipLatencyStatistics
+{
+    /**
+     * The name of the measured operation.
+     */
+    private final String name;
+
+    /**
+     * The number of samples.
+     */
+    private final long count;
+
+    /**
+     * The sum of all samples in nanoseconds.
+     */
+    private final long total;
+
+    /**
+     * The largest sample in nanoseconds.
+     */
+    private final long max;
+
+    /**
+     * The number of samples in each bucket.
+     */
+    private final long[] buckets;
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param name the name of the measured operation.
+     * @param count the number of samples.
+     * @param total the sum of all samples in nanoseconds.
+     * @param max the largest sample in nanoseconds.
+     * @param buckets the number of samples in each bucket.
+     */
+    public SipLatencyStatistics(
+        String name, long count, long total, long max, long[] buckets)
+    {
+        this.name = name;
+        this.count = count;
+        this.total = total;
+        this.max = max;
+        this.buckets = buckets;
+    }
+
+    /**
+     * The name of the measured operation.
+     * @return the name of the measured operation.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * The number of samples.
+     * @return the number of samples.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * The sum of all samples in nanoseconds.
+     * @return the sum of all samples in nanoseconds.
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * The largest sample in nanoseconds.
+     * @return the largest sample in nanoseconds.
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * The average sample in nanoseconds.
+     * @return the average sample in nanoseconds.
+     */
+    public long getAverage()
+    {
+        return (count == 0) ? 0 : total / count;
+    }
+
+    /**
+     * The number of samples in each bucket.
+     * @return a copy of the number of samples in each bucket.
+     */
+    public long[] getBuckets()
+    {
+        return buckets.clone();
+    }
+
+    /**
+     * Returns an upper bound of a specific percentile of the samples, i.e.
+     * the exclusive upper limit of the bucket the percentile falls in.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the upper bound of <tt>percentile</tt> in nanoseconds.
+     */
+    public long getPercentile(double percentile)
+    {
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(count * percentile / 100d);
+        long seen = 0;
+
+        for (int i = 0; i < buckets.length; i++)
+        {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.min(max, (1L << (i + 1)) * 1000L);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name
+            + " count=" + count
+            + " avg=" + (getAverage() / 1000) + "us"
+            + " p50<=" + (getPercentile(50) / 1000) + "us"
+            + " p99<=" + (getPercentile(99) / 1000) + "us"
+            + " max=" + (max / 1000) + "us";
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.sip;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Exposes the time spent by the SIP protocol provider processing the requests,
+ * responses and timeouts delivered by the SIP stack: per SIP method and per
+ * registered method processor latency histograms, the delay between the
+ * reception of a message and its dispatch, the number of events and server
+ * transactions in flight and a sample of the slowest handler invocations.
+ */
+public interface SipProcessingStatisticsService
+{
+    /**
+     * The name of the configuration property which enables (the default) or
+     * disables the collection of the statistics.
+     */
+    public static final String ENABLED_PROP
+        = "net.java.sip.communicator.service.protocol.sip"
+            + ".PROCESSING_STATISTICS_ENABLED";
+
+    /**
+     * Whether statistics are being collected.
+     *
+     * @return <tt>true</tt> if statistics are being collected.
+     */
+    public boolean isEnabled();
+
+    /**
+     * Enables or disables the collection of statistics. When disabled the
+     * instrumentation costs a single volatile read per event.
+     *
+     * @param enabled <tt>true</tt> to collect statistics.
+     */
+    public void setEnabled(boolean enabled);
+
+    /**
+     * Returns the latencies of the processing of SIP events per event kind
+     * and SIP method, e.g. "REQUEST INVITE" or "RESPONSE REGISTER".
+     *
+     * @return the per method latencies.
+     */
+    public List<SipLatencyStatistics> getMethodStatistics();
+
+    /**
+     * Returns the latencies of the invocations of each method processor.
+     *
+     * @return the per processor latencies.
+     */
+    public List<SipLatencyStatistics> getProcessorStatistics();
+
+    /**
+     * Returns the delay between the reception of messages by the SIP stack
+     * and their dispatch to the protocol providers.
+     *
+     * @return the dispatch delays.
+     */
+    public SipLatencyStatistics getDispatchDelayStatistics();
+
+    /**
+     * Returns the number of SIP events currently being processed.
+     *
+     * @return the number of SIP events currently being processed.
+     */
+    public int getEventsInFlight();
+
+    /**
+     * Returns the number of server transactions which have not terminated
+     * yet.
+     *
+     * @return the number of server transactions in flight.
+     */
+    public int getServerTransactionsInFlight();
+
+    /**
+     * Returns the slowest handler invocations seen since the last reset,
+     * slowest first.
+     *
+     * @return the slowest handler invocations.
+     */
+    public List<SlowHandlerSample> getSlowestHandlers();
+
+    /**
+     * Writes a human-readable report of all statistics.
+     *
+     * @param out the <tt>Writer</tt> to write the report to.
+     * @throws IOException if writing fails.
+     */
+    public void dump(Writer out)
+        throws IOException;
+
+    /**
+     * Discards all statistics collected so far.
+     */
+    public void reset();
+
+    /**
+     * A single slow handler invocation.
+     */
+    public static class SlowHandlerSample
+    {
+        /**
+         * The name of the handler.
+         */
+        private final String handler;
+
+        /**
+         * The description of the processed event.
+         */
+        private final String event;
+
+        /**
+         * The duration of the invocation in nanoseconds.
+         */
+        private final long duration;
+
+        /**
+         * The time the invocation finished at.
+         */
+        private final long timestamp;
+
+        /**
+         * Creates a new sample.
+         *
+         * @param handler the name of the handler.
+         * @param event the description of the processed event.
+         * @param duration the duration of the invocation in nanoseconds.
+         * @param timestamp the time the invocation finished at.
+         */
+        public SlowHandlerSample(
+            String handler, String event, long duration, long timestamp)
+        {
+            this.handler = handler;
+            this.event = event;
+            this.duration = duration;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * The name of the handler.
+         * @return the name of the handler.
+         */
+        public String getHandler()
+        {
+            return handler;
+        }
+
+        /**
+         * The description of the processed event, e.g. "REQUEST INVITE".
+         * @return the description of the processed event.
+         */
+        public String getEvent()
+        {
+            return event;
+        }
+
+        /**
+         * The duration of the invocation in nanoseconds.
+         * @return the duration of the invocation in nanoseconds.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * The time in milliseconds since the epoch the invocation finished at.
+         * @return the time the invocation finished at.
+         */
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        @Override
+        public String toString()
+        {
+            return handler + " " + event + " "
+                + (duration / 1000) + "us at " + new Date(timestamp);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+
+/**
+ * A logging <tt>Handler</tt> publishing records to another handler, by
+ * default our <tt>FileHandler</tt>, on a dedicated writer thread so that the
+ * threads which log never wait for the formatting and the disk. Records wait
+ * in a bounded queue which producers add to without locking; the caller of a
+ * record is inferred before it is queued as it cannot be inferred from the
+ * writer thread.
+ * <p>
+ * Configured through the <tt>LogManager</tt> properties, prefixed by the
+ * name of this class:
+ * <ul>
+ * <li><tt>target</tt> the class name of the handler the records are
+ * published to, configured by its own properties;</li>
+ * <li><tt>queueSize</tt> the maximum number of records waiting for the writer
+ * thread, 10000 by default;</li>
+ * <li><tt>overflowPolicy</tt> what to do with a record when the queue is
+ * full: <tt>block</tt>, the default, waits for room and <tt>drop</tt> drops
+ * the record. Dropped records are counted and reported in the log once the
+ * writer thread catches up;</li>
+ * <li><tt>level</tt> the level of this handler, the level of the target by
+ * default.</li>
+ * </ul>
+ */
+public class AsyncHandler
+    extends Handler
+{
+    /**
+     * The default maximum number of queued records.
+     */
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    /**
+     * The longest the writer thread sleeps without being woken up, in case
+     * a wake up is missed.
+     */
+    private static final long WRITER_PARK_NANOS
+        = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The time a producer waits before checking again for room in the
+     * queue when blocking.
+     */
+    private static final long PRODUCER_PARK_NANOS
+        = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The handler the records are published to.
+     */
+    private final Handler target;
+
+    /**
+     * The queued records.
+     */
+    private final ConcurrentLinkedQueue<LogRecord> queue
+        = new ConcurrentLinkedQueue<LogRecord>();
+
+    /**
+     * The number of records in {@link #queue}, kept separately as computing
+     * the size of a <tt>ConcurrentLinkedQueue</tt> walks it.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * The maximum number of records in {@link #queue}.
+     */
+    private final int queueSize;
+
+    /**
+     * Whether records are dropped rather than waiting for room in the queue.
+     */
+    private final boolean dropOnOverflow;
+
+    /**
+     * The number of records dropped since this handler was created.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The thread publishing the records to {@link #target}.
+     */
+    private final Thread writer;
+
+    /**
+     * Whether the writer thread is about to sleep or sleeping, so that
+     * producers only wake it up when needed.
+     */
+    private volatile boolean writerSleeping = false;
+
+    /**
+     * Whether this handler is closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a handler configured from the <tt>LogManager</tt> properties.
+     *
+     * @throws Exception if the target handler cannot be created.
+     */
+    public AsyncHandler()
+        throws Exception
+    {
+        this(createTarget(), getQueueSizeProperty(), isDropPolicyProperty());
+
+        String level = getProperty("level");
+
+        if (level != null)
+            setLevel(Level.parse(level.trim()));
+    }
+
+    /**
+     * Creates a handler publishing to <tt>target</tt>.
+     *
+     * @param target the handler the records are published to.
+     * @param queueSize the maximum number of queued records.
+     * @param dropOnOverflow <tt>true</tt> to drop records when the queue is
+     * full, <tt>false</tt> to make the logging thread wait.
+     */
+    public AsyncHandler(Handler target, int queueSize, boolean dropOnOverflow)
+    {
+        this.target = target;
+        this.queueSize = queueSize;
+        this.dropOnOverflow = dropOnOverflow;
+
+        setLevel(target.getLevel());
+
+        writer
+            = new Thread(AsyncHandler.class.getName() + " writer")
+            {
+                @Override
+                public void run()
+                {
+                    runWriter();
+                }
+            };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues <tt>record</tt> to be published by the writer thread.
+     *
+     * @param record the record to publish.
+     */
+    @Override
+    public void publish(LogRecord record)
+    {
+        if (closed || !isLoggable(record))
+            return;
+
+        // the caller can only be found from the thread which logged
+        if (record instanceof ScLogRecord)
+            ((ScLogRecord) record).inferCaller();
+        else
+            record.getSourceClassName();
+
+        if (queued.incrementAndGet() > queueSize)
+        {
+            if (dropOnOverflow)
+            {
+                queued.decrementAndGet();
+                dropped.incrementAndGet();
+                return;
+            }
+
+            do
+            {
+                queued.decrementAndGet();
+                wakeWriter();
+                LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+                if (closed)
+                    return;
+            }
+            while (queued.incrementAndGet() > queueSize);
+        }
+
+        queue.offer(record);
+        if (writerSleeping)
+            wakeWriter();
+    }
+
+    /**
+     * Flushes the target handler. Queued records are not waited for.
+     */
+    @Override
+    public void flush()
+    {
+        target.flush();
+    }
+
+    /**
+     * Publishes the queued records, stops the writer thread and closes the
+     * target handler.
+     */
+    @Override
+    public void close()
+        throws SecurityException
+    {
+        if (closed)
+            return;
+        closed = true;
+
+        wakeWriter();
+        try
+        {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+        target.close();
+    }
+
+    /**
+     * Returns the number of records dropped because the queue was full.
+     *
+     * @return the number of dropped records.
+     */
+    public long getDroppedRecordCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of records waiting for the writer thread.
+     *
+     * @return the number of queued records.
+     */
+    public int getQueuedRecordCount()
+    {
+        return Math.max(0, queued.get());
+    }
+
+    /**
+     * Publishes the queued records until this handler is closed, flushing
+     * the target when the queue runs empty.
+     */
+    private void runWriter()
+    {
+        long reportedDropped = 0;
+
+        while (true)
+        {
+            LogRecord record = queue.poll();
+
+            if (record != null)
+            {
+                queued.decrementAndGet();
+                publishToTarget(record);
+                continue;
+            }
+
+            long droppedNow = dropped.get();
+
+            if (droppedNow != reportedDropped)
+            {
+                LogRecord report
+                    = new LogRecord(
+                            Level.WARNING,
+                            "Dropped " + (droppedNow - reportedDropped)
+                                + " log records because the log queue was"
+                                + " full.");
+
+                report.setLoggerName(AsyncHandler.class.getName());
+                report.setSourceClassName(AsyncHandler.class.getName());
+                report.setSourceMethodName("runWriter");
+                publishToTarget(report);
+                reportedDropped = droppedNow;
+            }
+
+            target.flush();
+
+            if (closed)
+            {
+                if (queue.isEmpty())
+                    break;
+                continue;
+            }
+
+            writerSleeping = true;
+            if (queue.isEmpty() && !closed)
+                LockSupport.parkNanos(this, WRITER_PARK_NANOS);
+            writerSleeping = false;
+        }
+    }
+
+    /**
+     * Publishes a record to the target, reporting failures through the error
+     * manager as a handler is expected to.
+     */
+    private void publishToTarget(LogRecord record)
+    {
+        try
+        {
+            target.publish(record);
+        }
+        catch (RuntimeException ex)
+        {
+            reportError(null, ex, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Wakes the writer thread up.
+     */
+    private void wakeWriter()
+    {
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Returns the value of a <tt>LogManager</tt> property of this handler.
+     *
+     * @param name the name of the property without the class name prefix.
+     * @return the value of the property or <tt>null</tt>.
+     */
+    private static String getProperty(String name)
+    {
+        return LogManager.getLogManager().getProperty(
+                AsyncHandler.class.getName() + "." + name);
+    }
+
+    /**
+     * Creates the target handler named by the <tt>target</tt> property, or
+     * our <tt>FileHandler</tt>.
+     */
+    private static Handler createTarget()
+        throws Exception
+    {
+        String className = getProperty("target");
+
+        if (className == null)
+            return new FileHandler();
+
+        return
+            (Handler)
+                ClassLoader.getSystemClassLoader()
+                    .loadClass(className.trim())
+                        .newInstance();
+    }
+
+    /**
+     * Returns the <tt>queueSize</tt> property or its default value.
+     */
+    private static int getQueueSizeProperty()
+    {
+        String queueSize = getProperty("queueSize");
+
+        try
+        {
+            if (queueSize != null)
+                return Math.max(1, Integer.parseInt(queueSize.trim()));
+        }
+        catch (NumberFormatException ex) {}
+
+        return DEFAULT_QUEUE_SIZE;
+    }
+
+    /**
+     * Returns whether the <tt>overflowPolicy</tt> property is <tt>drop</tt>.
+     */
+    private static boolean isDropPolicyProperty()
+    {
+        String policy = getProperty("overflowPolicy");
+
+        return (policy != null) && policy.trim().equalsIgnoreCase("drop");
+    }
+}
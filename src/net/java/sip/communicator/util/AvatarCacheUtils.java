@@ -26,6 +26,10 @@
 /**
  * The <tt>AvatarCacheUtils</tt> allows to cache an avatar or to obtain the
  * image of a cached avatar by specifying a contact or an account address.
+ * Avatars are kept in a content-addressed {@link AvatarStore} so that an
+ * image shared by several contacts and accounts is stored and loaded only
+ * once. Avatars cached per contact by previous versions are moved to the
+ * store when they are first read.
  *
  * @author Yana Stamcheva
  */
@@ -43,6 +47,12 @@
      */
     private final static String AVATAR_DIR = "avatarcache";
 
+    /**
+     * The name of the directory, inside {@link #AVATAR_DIR}, of the
+     * content-addressed avatar store.
+     */
+    private final static String STORE_DIR = "store";
+
     /**
      *  Characters and their replacement in created folder names
      */
@@ -60,6 +70,16 @@
         {"\\|", "&_pp"}     // the char |
     };
 
+    /**
+     * The content-addressed store of all cached avatars.
+     */
+    private static AvatarStore store;
+
+    /**
+     * Indicates whether we have already tried to create {@link #store}.
+     */
+    private static boolean storeInitialized = false;
+
     /**
      * Returns the bytes of the avatar image stored for the account
      * corresponding to the given protocol provider.
@@ -72,106 +92,225 @@
     public static byte[] getCachedAvatar(
                                     ProtocolProviderService protocolProvider)
     {
-        String avatarPath = getCachedAvatarPath(protocolProvider);
-
-        byte[] cachedAvatar = getLocallyStoredAvatar(avatarPath);
-
-        /*
-         * Caching a zero-length avatar happens but such an avatar isn't
-         * very useful.
-         */
-        if ((cachedAvatar != null) && (cachedAvatar.length > 0))
-            return cachedAvatar;
+        String accountUID
+            = protocolProvider.getAccountID().getAccountUniqueID();
 
-        return null;
+        return getCachedAvatar(accountUID, accountUID);
     }
 
     /**
      * Returns the bytes of the avatar image stored for the account
      * corresponding to the given protocol provider.
      *
-     * @param protocolProvider the <tt>ProtocolProviderService</tt>, which
-     * account avatar image we're looking for
-     * @return the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider
+     * @param protocolContact the <tt>Contact</tt>, which avatar image we're
+     * looking for
+     * @return the bytes of the avatar image stored for the given contact
      */
     public static byte[] getCachedAvatar(Contact protocolContact)
     {
-        String avatarPath = getCachedAvatarPath(protocolContact);
+        return getCachedAvatar(
+            protocolContact
+                .getProtocolProvider().getAccountID().getAccountUniqueID(),
+            protocolContact.getAddress());
+    }
 
-        byte[] cachedAvatar = getLocallyStoredAvatar(avatarPath);
+    /**
+     * Returns the bytes of the avatar image stored for the given account and
+     * address, moving an avatar cached by a previous version to the store.
+     *
+     * @param accountUID the unique identifier of the account
+     * @param address the address of the contact or the account
+     * @return the bytes of the avatar image or <tt>null</tt> if there isn't
+     * any
+     */
+    private static byte[] getCachedAvatar(String accountUID, String address)
+    {
+        String reference = getReference(accountUID, address);
+        AvatarStore store = getStore();
+
+        if (store != null)
+        {
+            byte[] cachedAvatar = store.get(reference);
+
+            if (cachedAvatar != null)
+                return cachedAvatar;
+        }
+
+        String legacyPath = getLegacyPath(accountUID, address);
+        byte[] cachedAvatar = getLocallyStoredAvatar(legacyPath);
 
         /*
          * Caching a zero-length avatar happens but such an avatar isn't
          * very useful.
          */
-        if ((cachedAvatar != null) && (cachedAvatar.length > 0))
-            return cachedAvatar;
+        if ((cachedAvatar == null) || (cachedAvatar.length == 0))
+            return null;
 
-        return null;
+        if ((store != null) && (store.put(reference, cachedAvatar) != null))
+        {
+            deleteLocallyStoredAvatar(legacyPath);
+            cachedAvatar = store.get(reference);
+        }
+        return cachedAvatar;
     }
 
     /**
-     * Returns the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider.
+     * Returns the path, relative to the cache directory, of the avatar image
+     * stored for the account corresponding to the given protocol provider.
      *
      * @param protocolProvider the <tt>ProtocolProviderService</tt>, which
      * account avatar image we're looking for
-     * @return the bytes of the avatar image stored for the account
+     * @return the path of the avatar image stored for the account
      * corresponding to the given protocol provider
      */
     public static String getCachedAvatarPath(
                                     ProtocolProviderService protocolProvider)
     {
-        return AVATAR_DIR
-            + File.separator
-            + escapeSpecialCharacters(
-                    protocolProvider.getAccountID().getAccountUniqueID())
-            + File.separator
-            + escapeSpecialCharacters(
-                    protocolProvider.getAccountID().getAccountUniqueID());
+        String accountUID
+            = protocolProvider.getAccountID().getAccountUniqueID();
+
+        return getCachedAvatarPath(accountUID, accountUID);
     }
 
     /**
-     * Returns the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider.
+     * Returns the path, relative to the cache directory, of the avatar image
+     * stored for the given contact.
      *
-     * @param protocolProvider the <tt>ProtocolProviderService</tt>, which
-     * account avatar image we're looking for
-     * @return the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider
+     * @param protocolContact the <tt>Contact</tt>, which avatar image we're
+     * looking for
+     * @return the path of the avatar image stored for the given contact
      */
     public static String getCachedAvatarPath(Contact protocolContact)
     {
-        return AVATAR_DIR
-            + File.separator
-            + escapeSpecialCharacters(
-                protocolContact
-                    .getProtocolProvider()
-                        .getAccountID().getAccountUniqueID())
-            + File.separator
-            + escapeSpecialCharacters(protocolContact.getAddress());
+        return getCachedAvatarPath(
+            protocolContact
+                .getProtocolProvider().getAccountID().getAccountUniqueID(),
+            protocolContact.getAddress());
     }
 
     /**
-     * Returns the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider.
+     * Returns the path, relative to the cache directory, of the avatar image
+     * stored for the given contact address of the account corresponding to
+     * the given protocol provider.
      *
-     * @param protocolProvider the <tt>ProtocolProviderService</tt>, which
-     * account avatar image we're looking for
-     * @return the bytes of the avatar image stored for the account
-     * corresponding to the given protocol provider
+     * @param protocolProvider the <tt>ProtocolProviderService</tt> of the
+     * account the contact belongs to
+     * @param contactAddress the address of the contact
+     * @return the path of the avatar image stored for the given contact
      */
     public static String getCachedAvatarPath(
                                     ProtocolProviderService protocolProvider,
                                     String contactAddress)
+    {
+        return getCachedAvatarPath(
+            protocolProvider.getAccountID().getAccountUniqueID(),
+            contactAddress);
+    }
+
+    /**
+     * Returns the path, relative to the cache directory, of the avatar image
+     * stored for the given account and address.
+     *
+     * @param accountUID the unique identifier of the account
+     * @param address the address of the contact or the account
+     * @return the path of the avatar image in the store or, if it can't be
+     * moved there, the path used by previous versions. The file at the
+     * returned path is kept until the next start even if the avatar changes,
+     * so that it can be referenced by content already displayed.
+     */
+    private static String getCachedAvatarPath(
+                                    String accountUID,
+                                    String address)
+    {
+        AvatarStore store = getStore();
+
+        if (store != null)
+        {
+            String reference = getReference(accountUID, address);
+            String hash = store.getHash(reference);
+
+            // move an avatar cached by a previous version to the store now,
+            // its legacy file is deleted then and must not be handed out
+            if ((hash == null)
+                    && (getCachedAvatar(accountUID, address) != null))
+                hash = store.getHash(reference);
+            if (hash != null)
+                return AVATAR_DIR + File.separator + STORE_DIR
+                    + File.separator + hash;
+        }
+        return getLegacyPath(accountUID, address);
+    }
+
+    /**
+     * Returns the path in which previous versions cached the avatar of the
+     * given account and address.
+     *
+     * @param accountUID the unique identifier of the account
+     * @param address the address of the contact or the account
+     * @return the legacy path of the avatar image
+     */
+    private static String getLegacyPath(String accountUID, String address)
     {
         return AVATAR_DIR
             + File.separator
-            + escapeSpecialCharacters(
-                protocolProvider.getAccountID().getAccountUniqueID())
+            + escapeSpecialCharacters(accountUID)
             + File.separator
-            + escapeSpecialCharacters(contactAddress);
+            + escapeSpecialCharacters(address);
+    }
+
+    /**
+     * Returns the reference under which the avatar of the given account and
+     * address is kept in the store.
+     *
+     * @param accountUID the unique identifier of the account
+     * @param address the address of the contact or the account
+     * @return the store reference of the avatar
+     */
+    private static String getReference(String accountUID, String address)
+    {
+        return escapeSpecialCharacters(accountUID)
+            + '/'
+            + escapeSpecialCharacters(address);
+    }
+
+    /**
+     * Saves the pending changes of the avatar store. The store otherwise
+     * saves them from a daemon timer, which does not outlive the
+     * application.
+     */
+    public static synchronized void flush()
+    {
+        if (store != null)
+            store.flush();
+    }
+
+    /**
+     * Returns the content-addressed avatar store, creating it if necessary.
+     *
+     * @return the avatar store or <tt>null</tt> if it can't be created, in
+     * which case avatars are cached per contact as in previous versions
+     */
+    private static synchronized AvatarStore getStore()
+    {
+        if (!storeInitialized)
+        {
+            storeInitialized = true;
+            try
+            {
+                store
+                    = new AvatarStore(
+                        UtilActivator
+                            .getFileAccessService()
+                                .getPrivatePersistentDirectory(
+                                    AVATAR_DIR + File.separator + STORE_DIR,
+                                    FileCategory.CACHE));
+            }
+            catch (Exception ex)
+            {
+                logger.error("Failed to create the avatar store", ex);
+            }
+        }
+        return store;
     }
 
     /**
@@ -190,29 +329,7 @@ private static byte[] getLocallyStoredAvatar(String avatarPath)
                         .getPrivatePersistentFile(avatarPath,
                             FileCategory.CACHE);
 
-            if(avatarFile.exists())
-            {
-                FileInputStream avatarInputStream
-                    = new FileInputStream(avatarFile);
-                byte[] bs = null;
-
-                try
-                {
-                    int available = avatarInputStream.available();
-
-                    if (available > 0)
-                    {
-                        bs = new byte[available];
-                        avatarInputStream.read(bs);
-                    }
-                }
-                finally
-                {
-                    avatarInputStream.close();
-                }
-                if (bs != null)
-                    return bs;
-            }
+            return AvatarStore.read(avatarFile);
         }
         catch (Exception ex)
         {
@@ -223,6 +340,30 @@ private static byte[] getLocallyStoredAvatar(String avatarPath)
         return null;
     }
 
+    /**
+     * Deletes the avatar image at the given path, if any.
+     *
+     * @param avatarPath the path of the locally stored avatar
+     */
+    private static void deleteLocallyStoredAvatar(String avatarPath)
+    {
+        try
+        {
+            File avatarFile
+                = UtilActivator
+                    .getFileAccessService()
+                        .getPrivatePersistentFile(avatarPath,
+                            FileCategory.CACHE);
+
+            if (avatarFile.exists() && !avatarFile.delete())
+                logger.warn("Failed to delete avatar " + avatarFile);
+        }
+        catch (Exception ex)
+        {
+            logger.error("Could not delete avatar file " + avatarPath, ex);
+        }
+    }
+
     /**
      * Replaces the characters that we must escape used for the created
      * filename.
@@ -252,18 +393,13 @@ private static String escapeSpecialCharacters(String id)
     public static void cacheAvatar( Contact protoContact,
                                     byte[] avatarBytes)
     {
-        String avatarDirPath
-            = AVATAR_DIR
-                + File.separator
-                + escapeSpecialCharacters(
-                        protoContact
-                            .getProtocolProvider()
-                                .getAccountID().getAccountUniqueID());
-        String avatarFileName
-            = escapeSpecialCharacters(protoContact.getAddress());
-
-        cacheAvatar(avatarDirPath, avatarFileName, avatarBytes);
+        storeAvatar(
+            protoContact
+                .getProtocolProvider().getAccountID().getAccountUniqueID(),
+            protoContact.getAddress(),
+            avatarBytes);
     }
+
     /**
      * Stores avatar bytes for the account corresponding to the given
      * <tt>protocolProvider</tt>.
@@ -278,14 +414,41 @@ public static void cacheAvatar( ProtocolProviderService protocolProvider,
         String accountUID
             = protocolProvider.getAccountID().getAccountUniqueID();
 
-        String avatarDirPath
-            = AVATAR_DIR
-                + File.separator
-                + escapeSpecialCharacters(accountUID);
+        storeAvatar(accountUID, accountUID, avatarBytes);
+    }
 
-        String avatarFileName = escapeSpecialCharacters(accountUID);
+    /**
+     * Stores avatar bytes for the given account and address.
+     *
+     * @param accountUID the unique identifier of the account
+     * @param address the address of the contact or the account
+     * @param avatarBytes the avatar image bytes
+     */
+    private static void storeAvatar(String accountUID,
+                                    String address,
+                                    byte[] avatarBytes)
+    {
+        AvatarStore store = getStore();
+
+        if (store != null)
+        {
+            // storing an empty avatar only removes the previous one
+            String hash
+                = store.put(getReference(accountUID, address), avatarBytes);
+
+            if ((hash != null)
+                    || (avatarBytes == null)
+                    || (avatarBytes.length == 0))
+            {
+                deleteLocallyStoredAvatar(getLegacyPath(accountUID, address));
+                return;
+            }
+        }
 
-        cacheAvatar(avatarDirPath, avatarFileName, avatarBytes);
+        cacheAvatar(
+            AVATAR_DIR + File.separator + escapeSpecialCharacters(accountUID),
+            escapeSpecialCharacters(address),
+            avatarBytes);
     }
 
     /**
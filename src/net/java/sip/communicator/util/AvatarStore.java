@@ -0,0 +1,564 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * A content-addressed store of avatar images. Every distinct image is kept
+ * once, in a file named after the SHA-1 hash of its bytes, and contacts and
+ * accounts only hold references to these files. The path of an image file
+ * may already have been handed out, e.g. to a chat conversation showing the
+ * avatar, so an image is not deleted when its last reference is removed or
+ * replaced but when the store is next loaded, i.e. on the next start.
+ * <p>
+ * The mapping of references to hashes is kept in a properties file next to
+ * the images and is saved shortly after it has changed, so that a burst of
+ * avatar updates (e.g. when a big contact list is loaded) results in a single
+ * write.
+ */
+public class AvatarStore
+{
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = Logger.getLogger(AvatarStore.class);
+
+    /**
+     * The name of the file in which the references are kept.
+     */
+    static final String INDEX_FILE_NAME = "references.properties";
+
+    /**
+     * The number of avatar images that are kept in memory so that contacts
+     * sharing the same image also share the same bytes.
+     */
+    private static final int MAX_CACHED_AVATARS = 64;
+
+    /**
+     * The delay in milliseconds after which a modified index is saved.
+     */
+    private static final long SAVE_DELAY = 2000;
+
+    /**
+     * The hexadecimal digits used when encoding hashes.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The timer which saves the modified indexes of all stores.
+     */
+    private static Timer saveTimer;
+
+    /**
+     * The directory in which the images and the index are stored.
+     */
+    private final File storeDir;
+
+    /**
+     * The references (e.g. account and contact addresses) mapped to the hash
+     * of the image they currently use.
+     */
+    private final Map<String, String> references
+        = new HashMap<String, String>();
+
+    /**
+     * The number of references for every stored image hash.
+     */
+    private final Map<String, Integer> referenceCounts
+        = new HashMap<String, Integer>();
+
+    /**
+     * The most recently used images mapped by their hash.
+     */
+    private final Map<String, byte[]> avatars
+        = new LinkedHashMap<String, byte[]>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, byte[]> eldest)
+            {
+                return size() > MAX_CACHED_AVATARS;
+            }
+        };
+
+    /**
+     * Indicates whether the index has already been read from the disk.
+     */
+    private boolean loaded = false;
+
+    /**
+     * Indicates whether a save of the index has already been scheduled.
+     */
+    private boolean saveScheduled = false;
+
+    /**
+     * Creates an <tt>AvatarStore</tt> which keeps its files in the given
+     * directory.
+     *
+     * @param storeDir the directory in which images and references are kept
+     */
+    public AvatarStore(File storeDir)
+    {
+        this.storeDir = storeDir;
+    }
+
+    /**
+     * Returns the SHA-1 hash of the given image bytes as a hexadecimal
+     * string.
+     *
+     * @param bytes the image bytes
+     * @return the hash of <tt>bytes</tt>
+     */
+    public static String getHash(byte[] bytes)
+    {
+        MessageDigest digest;
+
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(ex);
+        }
+
+        byte[] hash = digest.digest(bytes);
+        char[] hex = new char[hash.length * 2];
+
+        for (int i = 0; i < hash.length; i++)
+        {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Stores the given image for the given reference, replacing any image
+     * the reference previously had.
+     *
+     * @param reference the account or contact the image belongs to
+     * @param bytes the image bytes; <tt>null</tt> or empty removes the
+     * reference
+     * @return the hash of the stored image or <tt>null</tt> if nothing has
+     * been stored
+     */
+    public synchronized String put(String reference, byte[] bytes)
+    {
+        if ((bytes == null) || (bytes.length == 0))
+        {
+            remove(reference);
+            return null;
+        }
+
+        load();
+
+        String hash = getHash(bytes);
+
+        if (hash.equals(references.get(reference)))
+            return hash;
+
+        File file = getHashFile(hash);
+
+        if (!file.exists() && !write(file, bytes))
+            return null;
+
+        if (!avatars.containsKey(hash))
+            avatars.put(hash, bytes);
+        release(references.put(reference, hash));
+        Integer count = referenceCounts.get(hash);
+        referenceCounts.put(hash, (count == null) ? 1 : count + 1);
+
+        scheduleSave();
+        return hash;
+    }
+
+    /**
+     * Returns the image currently stored for the given reference. All the
+     * references to the same image get the same byte array as long as it is
+     * kept in memory.
+     *
+     * @param reference the account or contact the image belongs to
+     * @return the image bytes or <tt>null</tt> if there aren't any
+     */
+    public synchronized byte[] get(String reference)
+    {
+        load();
+
+        String hash = references.get(reference);
+
+        if (hash == null)
+            return null;
+
+        byte[] bytes = avatars.get(hash);
+
+        if (bytes == null)
+        {
+            bytes = read(getHashFile(hash));
+            if (bytes == null)
+            {
+                // the file has been removed behind our back (e.g. the cache
+                // has been cleared)
+                remove(reference);
+                return null;
+            }
+            avatars.put(hash, bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the hash of the image currently stored for the given reference.
+     *
+     * @param reference the account or contact the image belongs to
+     * @return the hash of the image or <tt>null</tt> if there isn't any
+     */
+    public synchronized String getHash(String reference)
+    {
+        load();
+
+        return references.get(reference);
+    }
+
+    /**
+     * Returns the file in which the image of the given reference is stored.
+     *
+     * @param reference the account or contact the image belongs to
+     * @return the image file or <tt>null</tt> if there isn't any
+     */
+    public synchronized File getFile(String reference)
+    {
+        String hash = getHash(reference);
+
+        return (hash == null) ? null : getHashFile(hash);
+    }
+
+    /**
+     * Removes the image of the given reference. The image file is deleted on
+     * the next load of the store if no other reference uses it.
+     *
+     * @param reference the account or contact the image belongs to
+     * @return <tt>true</tt> if the reference had an image
+     */
+    public synchronized boolean remove(String reference)
+    {
+        load();
+
+        String hash = references.remove(reference);
+
+        if (hash == null)
+            return false;
+
+        release(hash);
+        scheduleSave();
+        return true;
+    }
+
+    /**
+     * Returns the number of references to the image with the given hash.
+     *
+     * @param hash the hash of the image
+     * @return the number of references to the image
+     */
+    public synchronized int getReferenceCount(String hash)
+    {
+        load();
+
+        Integer count = referenceCounts.get(hash);
+
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Saves the index immediately if it has been modified.
+     */
+    public synchronized void flush()
+    {
+        if (saveScheduled)
+        {
+            saveScheduled = false;
+            save();
+        }
+    }
+
+    /**
+     * Returns the file of the image with the given hash.
+     *
+     * @param hash the hash of the image
+     * @return the file of the image with the given hash
+     */
+    private File getHashFile(String hash)
+    {
+        return new File(storeDir, hash);
+    }
+
+    /**
+     * Decreases the reference count of the given image. The file of an image
+     * which isn't referenced anymore is left for {@link #load()} to delete
+     * since it may still be displayed.
+     *
+     * @param hash the hash of the image or <tt>null</tt>
+     */
+    private void release(String hash)
+    {
+        if (hash == null)
+            return;
+
+        Integer count = referenceCounts.get(hash);
+
+        if ((count == null) || (count <= 1))
+        {
+            referenceCounts.remove(hash);
+            avatars.remove(hash);
+        }
+        else
+            referenceCounts.put(hash, count - 1);
+    }
+
+    /**
+     * Reads the index if it hasn't been read yet and deletes the images
+     * which aren't referenced anymore. If the index can't be read, no image
+     * is deleted since they may all still be referenced.
+     */
+    private void load()
+    {
+        if (loaded)
+            return;
+        loaded = true;
+
+        File indexFile = new File(storeDir, INDEX_FILE_NAME);
+
+        // we may have stopped between the removal of the previous index and
+        // the renaming of the new one
+        if (!indexFile.exists())
+        {
+            File tmpFile = new File(storeDir, INDEX_FILE_NAME + ".tmp");
+
+            if (tmpFile.exists())
+                indexFile = tmpFile;
+        }
+
+        if (indexFile.exists())
+        {
+            Properties index = new Properties();
+
+            try
+            {
+                InputStream in = new FileInputStream(indexFile);
+
+                try
+                {
+                    index.load(in);
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch (IOException ex)
+            {
+                logger.error("Failed to read avatar index " + indexFile, ex);
+                return;
+            }
+
+            for (String reference : index.stringPropertyNames())
+            {
+                String hash = index.getProperty(reference);
+
+                if (!getHashFile(hash).exists())
+                    continue;
+
+                references.put(reference, hash);
+                Integer count = referenceCounts.get(hash);
+                referenceCounts.put(hash, (count == null) ? 1 : count + 1);
+            }
+        }
+
+        File[] files = storeDir.listFiles();
+
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                String name = file.getName();
+
+                if (!name.startsWith(INDEX_FILE_NAME)
+                        && !referenceCounts.containsKey(name)
+                        && !file.delete())
+                    logger.warn("Failed to delete avatar " + file);
+            }
+        }
+    }
+
+    /**
+     * Schedules a save of the index unless one is already pending.
+     */
+    private void scheduleSave()
+    {
+        if (saveScheduled)
+            return;
+        saveScheduled = true;
+
+        synchronized (AvatarStore.class)
+        {
+            if (saveTimer == null)
+                saveTimer = new Timer("AvatarStore", true);
+
+            saveTimer.schedule(
+                new TimerTask()
+                {
+                    @Override
+                    public void run()
+                    {
+                        flush();
+                    }
+                },
+                SAVE_DELAY);
+        }
+    }
+
+    /**
+     * Writes the index to the disk, replacing the previous one.
+     */
+    private void save()
+    {
+        Properties index = new Properties();
+
+        for (Map.Entry<String, String> e : references.entrySet())
+            index.setProperty(e.getKey(), e.getValue());
+
+        File indexFile = new File(storeDir, INDEX_FILE_NAME);
+        File tmpFile = new File(storeDir, INDEX_FILE_NAME + ".tmp");
+
+        try
+        {
+            OutputStream out = new FileOutputStream(tmpFile);
+
+            try
+            {
+                index.store(out, null);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if ((indexFile.exists() && !indexFile.delete())
+                    || !tmpFile.renameTo(indexFile))
+                throw new IOException("Failed to replace " + indexFile);
+        }
+        catch (IOException ex)
+        {
+            logger.error("Failed to save avatar index " + indexFile, ex);
+        }
+    }
+
+    /**
+     * Writes the given bytes to the given file.
+     *
+     * @param file the file to write
+     * @param bytes the bytes to write
+     * @return <tt>true</tt> if the file has been written
+     */
+    private boolean write(File file, byte[] bytes)
+    {
+        try
+        {
+            if (!storeDir.exists() && !storeDir.mkdirs())
+            {
+                throw new IOException(
+                        "Failed to create directory: "
+                            + storeDir.getAbsolutePath());
+            }
+
+            OutputStream out = new FileOutputStream(file);
+
+            try
+            {
+                out.write(bytes);
+                out.flush();
+            }
+            finally
+            {
+                out.close();
+            }
+            return true;
+        }
+        catch (IOException ex)
+        {
+            logger.error("Failed to store avatar " + file, ex);
+            file.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the whole given file.
+     *
+     * @param file the file to read
+     * @return the bytes of the file or <tt>null</tt> if it doesn't exist,
+     * is empty or can't be read
+     */
+    static byte[] read(File file)
+    {
+        if (!file.exists())
+            return null;
+
+        try
+        {
+            InputStream in = new FileInputStream(file);
+
+            try
+            {
+                byte[] bytes = new byte[(int) file.length()];
+                int offset = 0;
+
+                while (offset < bytes.length)
+                {
+                    int read = in.read(bytes, offset, bytes.length - offset);
+
+                    if (read < 0)
+                        break;
+                    offset += read;
+                }
+
+                if (offset == 0)
+                    return null;
+
+                return (offset == bytes.length)
+                    ? bytes
+                    : Arrays.copyOf(bytes, offset);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            logger.error("Could not read avatar image from file " + file, ex);
+            return null;
+        }
+    }
+}
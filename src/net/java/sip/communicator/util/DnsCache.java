@@ -0,0 +1,943 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.java.sip.communicator.service.dns.*;
+
+import org.jitsi.service.configuration.*;
+import org.xbill.DNS.*;
+
+/**
+ * A process-wide cache of the answers obtained through the dnsjava
+ * <tt>Lookup</tt> infrastructure by {@link NetworkUtils}. SIP proxy routing,
+ * XMPP connection establishment, STUN/TURN discovery and re-registrations
+ * all repeat the same NAPTR, SRV, A and AAAA queries, so instead of running a
+ * new <tt>Lookup</tt> every time we keep the answers until their TTL expires.
+ * <p>
+ * Answers for names or types that do not exist are cached as well (for
+ * {@link #PNAME_NEGATIVE_TTL} seconds) so that we don't hammer the resolvers
+ * with queries for records that are known to be missing. Entries that are
+ * requested repeatedly ("hot" entries) are refreshed in the background shortly
+ * before they expire and may be served stale for a short while
+ * ({@link #PNAME_MAX_STALE}) when the refresh did not complete in time. The
+ * number of entries is bounded by {@link #PNAME_MAX_ENTRIES}, the least
+ * recently used ones being evicted first.
+ * <p>
+ * {@link #lookupAsync(String, int, boolean, DnsResultListener, Executor)}
+ * fills and uses the same cache without blocking the caller, provided that
+ * the default resolver supports <tt>Resolver.sendAsync</tt>.
+ */
+public class DnsCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>DnsCache</tt> class and its instances
+     * for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(DnsCache.class);
+
+    /**
+     * The name of the property that sets the maximum number of answers kept
+     * in the cache.
+     */
+    public static final String PNAME_MAX_ENTRIES
+        = "net.java.sip.communicator.util.dns.CACHE_MAX_ENTRIES";
+
+    /**
+     * The default value of {@link #PNAME_MAX_ENTRIES}.
+     */
+    public static final int PDEFAULT_MAX_ENTRIES = 512;
+
+    /**
+     * The name of the property that sets the number of seconds for which we
+     * remember that a name or a record type does not exist.
+     */
+    public static final String PNAME_NEGATIVE_TTL
+        = "net.java.sip.communicator.util.dns.CACHE_NEGATIVE_TTL";
+
+    /**
+     * The default value of {@link #PNAME_NEGATIVE_TTL}.
+     */
+    public static final int PDEFAULT_NEGATIVE_TTL = 60;
+
+    /**
+     * The name of the property that caps the TTL (in seconds) of cached
+     * answers regardless of what the DNS server returned.
+     */
+    public static final String PNAME_MAX_TTL
+        = "net.java.sip.communicator.util.dns.CACHE_MAX_TTL";
+
+    /**
+     * The default value of {@link #PNAME_MAX_TTL}.
+     */
+    public static final int PDEFAULT_MAX_TTL = 86400;
+
+    /**
+     * The name of the property that sets the number of seconds after their
+     * expiration during which hot entries may still be served while they are
+     * being refreshed in the background. <tt>0</tt> disables serving stale
+     * answers.
+     */
+    public static final String PNAME_MAX_STALE
+        = "net.java.sip.communicator.util.dns.CACHE_MAX_STALE";
+
+    /**
+     * The default value of {@link #PNAME_MAX_STALE}.
+     */
+    public static final int PDEFAULT_MAX_STALE = 30;
+
+    /**
+     * The number of hits after which an entry is considered hot and gets
+     * refreshed in the background before it expires.
+     */
+    static final int PREFETCH_MIN_HITS = 2;
+
+    /**
+     * The part of its TTL that an entry has left when we start refreshing it
+     * in the background.
+     */
+    private static final int PREFETCH_TTL_DIVISOR = 10;
+
+    /**
+     * The maximum number of CNAMEs we follow within a single response before
+     * falling back to a full <tt>Lookup</tt>.
+     */
+    private static final int MAX_CNAME_HOPS = 8;
+
+    /**
+     * Returned by {@link #toEntry(Message, Name, int)} when a response cannot
+     * be turned into an answer on its own, i.e. because it ends with a CNAME
+     * pointing outside of it.
+     */
+    private static final Entry INCOMPLETE = new Entry(null, 0, 0);
+
+    /**
+     * The cached answers, in least recently used order.
+     */
+    private final LinkedHashMap<String, Entry> entries
+        = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Incremented every time the cache is cleared so that the answers of
+     * queries sent before are not stored. Guarded by {@link #entries}.
+     */
+    private int generation = 0;
+
+    /**
+     * The keys of the entries currently being refreshed in the background.
+     */
+    private final Set<String> pendingRefreshes
+        = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * The executor running the background refreshes. Created when first
+     * needed.
+     */
+    private ThreadPoolExecutor refreshExecutor;
+
+    /**
+     * The number of lookups answered from fresh cache entries.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of lookups answered from cached negative entries. These are
+     * also counted as {@link #hits}.
+     */
+    private final AtomicLong negativeHits = new AtomicLong();
+
+    /**
+     * The number of lookups answered from expired entries while they were
+     * being refreshed.
+     */
+    private final AtomicLong staleHits = new AtomicLong();
+
+    /**
+     * The number of lookups that had to wait for the DNS.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of background refreshes that were started.
+     */
+    private final AtomicLong prefetches = new AtomicLong();
+
+    /**
+     * The number of queries sent to the DNS, including background refreshes.
+     */
+    private final AtomicLong queries = new AtomicLong();
+
+    /**
+     * The total time in nanoseconds spent waiting for the DNS.
+     */
+    private final AtomicLong queryTime = new AtomicLong();
+
+    /**
+     * Returns the records of type <tt>type</tt> for <tt>domain</tt>, from the
+     * cache when possible.
+     *
+     * @param domain the name of the domain we'd like to resolve.
+     * @param type the type of the records we'd like to obtain.
+     * @param useCache <tt>false</tt> to always query the DNS, i.e. when
+     * testing DNS connectivity. The answer still replaces the cached one.
+     *
+     * @return the records returned by the DNS server or <tt>null</tt> if there
+     * are none (the same as <tt>Lookup.run()</tt>).
+     *
+     * @throws TextParseException if <tt>domain</tt> is not a valid domain name.
+     * @throws DnssecRuntimeException when a DNSSEC validation failure occurred.
+     */
+    public Record[] lookup(String domain, int type, boolean useCache)
+        throws TextParseException
+    {
+        String key = getKey(domain, type);
+
+        if (useCache)
+        {
+            Entry entry = getUsableEntry(key, domain, type);
+
+            if (entry != null)
+                return entry.getRecords();
+        }
+
+        misses.incrementAndGet();
+
+        int generation = getGeneration();
+        Entry entry = resolve(domain, type);
+
+        if (entry != null)
+        {
+            put(key, entry, generation);
+            return entry.getRecords();
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the records of type <tt>type</tt> for <tt>domain</tt> without
+     * blocking the caller: answers found in the cache are handed to
+     * <tt>listener</tt> through <tt>executor</tt>, other queries are sent with
+     * <tt>Resolver.sendAsync</tt>. When the default resolver doesn't support
+     * asynchronous queries (i.e. the DNSSEC validating one) or when the
+     * response isn't complete on its own, the lookup is performed by
+     * {@link #lookup(String, int, boolean)} on <tt>executor</tt>.
+     * <p>
+     * As with {@link #lookup(String, int, boolean)}, <tt>listener</tt> gets
+     * <tt>null</tt> records if there are none or the query timed out.
+     *
+     * @param domain the name of the domain we'd like to resolve.
+     * @param type the type of the records we'd like to obtain.
+     * @param useCache <tt>false</tt> to always query the DNS.
+     * @param listener the listener to notify of the records or of a
+     * <tt>TextParseException</tt> or <tt>DnssecRuntimeException</tt>.
+     * @param executor the executor running the notifications of cached answers
+     * and the fallback lookups.
+     */
+    public void lookupAsync(
+            final String domain,
+            final int type,
+            final boolean useCache,
+            final DnsResultListener<Record[]> listener,
+            final Executor executor)
+    {
+        final String key = getKey(domain, type);
+
+        if (useCache)
+        {
+            final Entry entry = getUsableEntry(key, domain, type);
+
+            if (entry != null)
+            {
+                executor.execute(
+                        new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                listener.lookupCompleted(entry.getRecords());
+                            }
+                        });
+                return;
+            }
+        }
+
+        misses.incrementAndGet();
+
+        final Runnable fallback
+            = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Record[] records;
+
+                    try
+                    {
+                        records = lookup(domain, type, useCache);
+                    }
+                    catch (Exception e)
+                    {
+                        listener.lookupFailed(e);
+                        return;
+                    }
+                    listener.lookupCompleted(records);
+                }
+            };
+
+        // Leave relative names to the search path handling of Lookup.
+        if (domain.indexOf('.') < 0)
+        {
+            executor.execute(fallback);
+            return;
+        }
+
+        final Name name;
+
+        try
+        {
+            name = Name.fromString(domain, Name.root);
+        }
+        catch (final TextParseException tpe)
+        {
+            executor.execute(
+                    new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            listener.lookupFailed(tpe);
+                        }
+                    });
+            return;
+        }
+
+        Message query
+            = Message.newQuery(Record.newRecord(name, type, DClass.IN));
+        final long start = System.nanoTime();
+        final int generation = getGeneration();
+
+        try
+        {
+            Lookup.getDefaultResolver().sendAsync(
+                    query,
+                    new ResolverListener()
+                    {
+                        @Override
+                        public void receiveMessage(Object id, Message response)
+                        {
+                            queries.incrementAndGet();
+                            queryTime.addAndGet(System.nanoTime() - start);
+
+                            Entry entry = toEntry(response, name, type);
+
+                            if (entry == INCOMPLETE)
+                            {
+                                executor.execute(fallback);
+                                return;
+                            }
+                            if (entry != null)
+                                put(key, entry, generation);
+                            listener.lookupCompleted(
+                                    (entry == null)
+                                        ? null
+                                        : entry.getRecords());
+                        }
+
+                        @Override
+                        public void handleException(Object id, Exception e)
+                        {
+                            queries.incrementAndGet();
+                            queryTime.addAndGet(System.nanoTime() - start);
+
+                            if (e instanceof RuntimeException)
+                            {
+                                listener.lookupFailed(e);
+                                return;
+                            }
+                            if (logger.isDebugEnabled())
+                            {
+                                logger.debug(
+                                        "Async " + Type.string(type)
+                                            + " lookup of " + domain
+                                            + " failed",
+                                        e);
+                            }
+                            listener.lookupCompleted(null);
+                        }
+                    });
+        }
+        catch (UnsupportedOperationException uoe)
+        {
+            executor.execute(fallback);
+        }
+    }
+
+    /**
+     * Returns the entry stored under <tt>key</tt> if it may be served, i.e.
+     * it hasn't expired or it is hot and only slightly stale, and triggers
+     * its background refresh when appropriate.
+     *
+     * @param key the key of the entry.
+     * @param domain the name of the domain of the entry.
+     * @param type the type of the records of the entry.
+     * @return the entry or <tt>null</tt> if the DNS has to be queried.
+     */
+    private Entry getUsableEntry(String key, String domain, int type)
+    {
+        Entry entry;
+        boolean hot;
+
+        synchronized (entries)
+        {
+            entry = entries.get(key);
+            hot = (entry != null) && (++entry.hits >= PREFETCH_MIN_HITS);
+        }
+
+        if (entry != null)
+        {
+            long now = System.currentTimeMillis();
+
+            if (now < entry.expires)
+            {
+                hits.incrementAndGet();
+                if (entry.records == null)
+                    negativeHits.incrementAndGet();
+                if (hot && now >= entry.refreshAt)
+                    refresh(key, domain, type);
+                return entry;
+            }
+            else if (hot
+                    && now < entry.expires
+                            + getConfigInt(
+                                    PNAME_MAX_STALE,
+                                    PDEFAULT_MAX_STALE)
+                                * 1000L)
+            {
+                staleHits.incrementAndGet();
+                refresh(key, domain, type);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Turns a response to a query for the records of type <tt>type</tt> for
+     * <tt>name</tt> into a cache entry the way <tt>Lookup</tt> would, following
+     * the CNAMEs contained in the response.
+     *
+     * @param response the response to the query.
+     * @param name the name that was queried.
+     * @param type the type that was queried.
+     * @return the entry, <tt>null</tt> if the response is an error that must
+     * not be cached or {@link #INCOMPLETE} if a full <tt>Lookup</tt> is needed.
+     */
+    private Entry toEntry(Message response, Name name, int type)
+    {
+        long now = System.currentTimeMillis();
+        int rcode = response.getRcode();
+
+        if (rcode == Rcode.NXDOMAIN)
+            return createNegativeEntry(now);
+        if (rcode != Rcode.NOERROR)
+            return null;
+
+        Record[] answers = response.getSectionArray(Section.ANSWER);
+        Name current = name;
+
+        for (int hop = 0; hop <= MAX_CNAME_HOPS; hop++)
+        {
+            List<Record> records = new ArrayList<Record>();
+            Name cname = null;
+
+            for (Record answer : answers)
+            {
+                if (!answer.getName().equals(current))
+                    continue;
+                if (answer.getType() == type)
+                    records.add(answer);
+                else if (answer.getType() == Type.CNAME)
+                    cname = ((CNAMERecord) answer).getTarget();
+            }
+
+            if (!records.isEmpty())
+            {
+                return
+                    createPositiveEntry(
+                            records.toArray(new Record[records.size()]),
+                            now);
+            }
+            else if (cname != null)
+            {
+                current = cname;
+            }
+            else
+            {
+                // NODATA for the name itself, otherwise the CNAME target
+                // lives outside of this response
+                return
+                    (current == name) ? createNegativeEntry(now) : INCOMPLETE;
+            }
+        }
+        return INCOMPLETE;
+    }
+
+    /**
+     * Creates the entry of a successful answer.
+     *
+     * @param records the records of the answer.
+     * @param now the current time.
+     * @return the entry, valid for the lowest TTL of <tt>records</tt>.
+     */
+    private static Entry createPositiveEntry(Record[] records, long now)
+    {
+        long ttl = getConfigInt(PNAME_MAX_TTL, PDEFAULT_MAX_TTL);
+
+        for (Record record : records)
+            ttl = Math.min(ttl, record.getTTL());
+        return new Entry(records, ttl * 1000L, now);
+    }
+
+    /**
+     * Creates the entry of an answer saying that the name or the type does
+     * not exist.
+     *
+     * @param now the current time.
+     * @return the entry.
+     */
+    private static Entry createNegativeEntry(long now)
+    {
+        return
+            new Entry(
+                    null,
+                    getConfigInt(PNAME_NEGATIVE_TTL, PDEFAULT_NEGATIVE_TTL)
+                        * 1000L,
+                    now);
+    }
+
+    /**
+     * Queries the DNS for the records of type <tt>type</tt> for
+     * <tt>domain</tt>.
+     *
+     * @param domain the name of the domain we'd like to resolve.
+     * @param type the type of the records we'd like to obtain.
+     *
+     * @return an <tt>Entry</tt> holding the answer or <tt>null</tt> if the
+     * lookup failed for a reason other than the name or the type not existing
+     * (i.e. a timeout).
+     *
+     * @throws TextParseException if <tt>domain</tt> is not a valid domain name.
+     * @throws DnssecRuntimeException when a DNSSEC validation failure occurred.
+     */
+    protected Entry resolve(String domain, int type)
+        throws TextParseException
+    {
+        Lookup lookup = NetworkUtils.createLookup(domain, type);
+
+        // We are the cache: a private dnsjava cache makes sure that we see
+        // the TTLs as sent by the server rather than those of answers that
+        // have already spent some time in the default dnsjava cache.
+        lookup.setCache(new Cache());
+
+        long start = System.nanoTime();
+        Record[] records;
+
+        try
+        {
+            records = lookup.run();
+        }
+        finally
+        {
+            queries.incrementAndGet();
+            queryTime.addAndGet(System.nanoTime() - start);
+        }
+
+        long now = System.currentTimeMillis();
+
+        switch (lookup.getResult())
+        {
+        case Lookup.SUCCESSFUL:
+            return createPositiveEntry(records, now);
+        case Lookup.HOST_NOT_FOUND:
+        case Lookup.TYPE_NOT_FOUND:
+            return createNegativeEntry(now);
+        default:
+            if (logger.isDebugEnabled())
+            {
+                logger.debug(
+                        "Not caching " + Type.string(type) + " lookup of "
+                            + domain + ": " + lookup.getErrorString());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the current generation of the cache, to be passed to
+     * {@link #put(String, Entry, int)} with the answer of a query sent now.
+     *
+     * @return the current generation of the cache.
+     */
+    private int getGeneration()
+    {
+        synchronized (entries)
+        {
+            return generation;
+        }
+    }
+
+    /**
+     * Stores <tt>entry</tt> under <tt>key</tt> and evicts the least recently
+     * used entries if the cache has grown too large. The entry is dropped if
+     * the cache has been cleared since its query was sent.
+     *
+     * @param key the key of the entry.
+     * @param entry the entry to store.
+     * @param generation the generation of the cache when the query of
+     * <tt>entry</tt> was sent.
+     */
+    private void put(String key, Entry entry, int generation)
+    {
+        if (entry.expires <= entry.created)
+            return;
+
+        int maxEntries = getConfigInt(PNAME_MAX_ENTRIES, PDEFAULT_MAX_ENTRIES);
+
+        synchronized (entries)
+        {
+            if (generation != this.generation)
+                return;
+
+            Entry previous = entries.put(key, entry);
+
+            // A refreshed entry is as hot as the one it replaces.
+            if (previous != null)
+                entry.hits = previous.hits;
+
+            Iterator<String> iter = entries.keySet().iterator();
+
+            while (entries.size() > maxEntries && iter.hasNext())
+            {
+                iter.next();
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Refreshes the entry stored under <tt>key</tt> in the background unless
+     * it is already being refreshed.
+     *
+     * @param key the key of the entry.
+     * @param domain the name of the domain we'd like to resolve.
+     * @param type the type of the records we'd like to obtain.
+     */
+    private void refresh(final String key, final String domain, final int type)
+    {
+        if (!pendingRefreshes.add(key))
+            return;
+
+        prefetches.incrementAndGet();
+
+        final int generation = getGeneration();
+
+        try
+        {
+            getRefreshExecutor().execute(
+                    new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try
+                            {
+                                Entry entry = resolve(domain, type);
+
+                                if (entry != null)
+                                    put(key, entry, generation);
+                            }
+                            catch (DnssecRuntimeException e)
+                            {
+                                // Let the next lookup fail in the caller's
+                                // thread rather than keep serving the answer.
+                                synchronized (entries)
+                                {
+                                    entries.remove(key);
+                                }
+                            }
+                            catch (Throwable t)
+                            {
+                                if (t instanceof ThreadDeath)
+                                    throw (ThreadDeath) t;
+                                logger.debug(
+                                        "Failed to refresh " + Type.string(type)
+                                            + " records of " + domain,
+                                        t);
+                            }
+                            finally
+                            {
+                                pendingRefreshes.remove(key);
+                            }
+                        }
+                    });
+        }
+        catch (RejectedExecutionException ree)
+        {
+            pendingRefreshes.remove(key);
+        }
+    }
+
+    /**
+     * Returns the executor running the background refreshes, creating it if
+     * necessary.
+     *
+     * @return the executor running the background refreshes.
+     */
+    private synchronized ThreadPoolExecutor getRefreshExecutor()
+    {
+        if (refreshExecutor == null)
+        {
+            refreshExecutor
+                = new ThreadPoolExecutor(
+                        1, 1,
+                        60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory()
+                        {
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread t
+                                    = new Thread(r, DnsCache.class.getName());
+
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+            refreshExecutor.allowCoreThreadTimeOut(true);
+        }
+        return refreshExecutor;
+    }
+
+    /**
+     * Removes all entries from the cache, i.e. because the DNS configuration
+     * of the system has changed.
+     */
+    public void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+            generation++;
+        }
+    }
+
+    /**
+     * Returns the number of entries currently in the cache.
+     *
+     * @return the number of entries currently in the cache.
+     */
+    public int getSize()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered from fresh cache entries,
+     * including negative ones.
+     *
+     * @return the number of lookups answered from fresh cache entries.
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups answered from cached negative entries.
+     *
+     * @return the number of lookups answered from cached negative entries.
+     */
+    public long getNegativeHitCount()
+    {
+        return negativeHits.get();
+    }
+
+    /**
+     * Returns the number of lookups answered from expired entries while they
+     * were being refreshed.
+     *
+     * @return the number of lookups answered from expired entries.
+     */
+    public long getStaleHitCount()
+    {
+        return staleHits.get();
+    }
+
+    /**
+     * Returns the number of lookups that had to wait for the DNS.
+     *
+     * @return the number of lookups that had to wait for the DNS.
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of background refreshes that were started.
+     *
+     * @return the number of background refreshes that were started.
+     */
+    public long getPrefetchCount()
+    {
+        return prefetches.get();
+    }
+
+    /**
+     * Returns the average time spent waiting for the DNS per query, including
+     * background refreshes.
+     *
+     * @return the average time in milliseconds spent waiting for the DNS per
+     * query or <tt>0</tt> if no query was sent yet.
+     */
+    public double getAverageQueryTime()
+    {
+        long count = queries.get();
+
+        return (count == 0) ? 0 : queryTime.get() / (count * 1000000.0);
+    }
+
+    /**
+     * Returns a human readable summary of the statistics of this cache.
+     *
+     * @return a human readable summary of the statistics of this cache.
+     */
+    @Override
+    public String toString()
+    {
+        return
+            "DnsCache[size=" + getSize()
+                + ", hits=" + getHitCount()
+                + ", negativeHits=" + getNegativeHitCount()
+                + ", staleHits=" + getStaleHitCount()
+                + ", misses=" + getMissCount()
+                + ", prefetches=" + getPrefetchCount()
+                + ", avgQueryTime=" + getAverageQueryTime() + "ms]";
+    }
+
+    /**
+     * Returns the key of the entry holding the records of type <tt>type</tt>
+     * for <tt>domain</tt>.
+     *
+     * @param domain the name of the domain.
+     * @param type the type of the records.
+     * @return the key of the entry.
+     */
+    private static String getKey(String domain, int type)
+    {
+        return domain.toLowerCase() + '/' + type;
+    }
+
+    /**
+     * Returns the value of an integer configuration property, or
+     * <tt>defaultValue</tt> when the configuration is not available (yet).
+     *
+     * @param pname the name of the property.
+     * @param defaultValue the default value of the property.
+     * @return the value of the property.
+     */
+    private static int getConfigInt(String pname, int defaultValue)
+    {
+        ConfigurationService cfg
+            = (UtilActivator.bundleContext == null)
+                ? null
+                : UtilActivator.getConfigurationService();
+
+        return (cfg == null) ? defaultValue : cfg.getInt(pname, defaultValue);
+    }
+
+    /**
+     * A cached answer.
+     */
+    static class Entry
+    {
+        /**
+         * The records of the answer or <tt>null</tt> if the name or the type
+         * does not exist.
+         */
+        final Record[] records;
+
+        /**
+         * The time at which this entry was created.
+         */
+        final long created;
+
+        /**
+         * The time at which this entry expires.
+         */
+        final long expires;
+
+        /**
+         * The time after which a hot entry gets refreshed in the background.
+         */
+        final long refreshAt;
+
+        /**
+         * The number of times this entry was served. Guarded by the map of
+         * entries.
+         */
+        int hits;
+
+        /**
+         * Creates a new cache entry.
+         *
+         * @param records the records of the answer or <tt>null</tt> if the name
+         * or the type does not exist.
+         * @param ttl the time to live of the entry in milliseconds.
+         * @param now the current time.
+         */
+        Entry(Record[] records, long ttl, long now)
+        {
+            this.records = records;
+            this.created = now;
+            this.expires = now + ttl;
+            this.refreshAt = expires - ttl / PREFETCH_TTL_DIVISOR;
+        }
+
+        /**
+         * Returns a copy of the records of this entry so that callers cannot
+         * modify the cached answer.
+         *
+         * @return a copy of the records of this entry or <tt>null</tt>.
+         */
+        Record[] getRecords()
+        {
+            return (records == null) ? null : records.clone();
+        }
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Establishes TCP connections to hosts that resolve to several addresses the
+ * way RFC 8305 ("Happy Eyeballs") recommends: the addresses of the two IP
+ * families are interleaved and connection attempts are started one after the
+ * other with a short delay (or as soon as the previous attempt failed) instead
+ * of waiting for each of them to time out. The first attempt that succeeds
+ * wins and all others are cancelled, so a broken IPv6 (or IPv4) path no longer
+ * costs a full connect timeout before we fall back to the other family.
+ */
+public class HappyEyeballsConnector
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>HappyEyeballsConnector</tt> class
+     * for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HappyEyeballsConnector.class);
+
+    /**
+     * The name of the property that sets the number of milliseconds we wait
+     * for a connection attempt before starting the next one.
+     */
+    public static final String PNAME_CONNECTION_ATTEMPT_DELAY
+        = "net.java.sip.communicator.util.HAPPY_EYEBALLS_ATTEMPT_DELAY";
+
+    /**
+     * The default value of {@link #PNAME_CONNECTION_ATTEMPT_DELAY}, as
+     * recommended by RFC 8305.
+     */
+    public static final int PDEFAULT_CONNECTION_ATTEMPT_DELAY = 250;
+
+    /**
+     * The name of the property that sets the number of milliseconds after
+     * which a single connection attempt is abandoned.
+     */
+    public static final String PNAME_CONNECT_TIMEOUT
+        = "net.java.sip.communicator.util.HAPPY_EYEBALLS_CONNECT_TIMEOUT";
+
+    /**
+     * The default value of {@link #PNAME_CONNECT_TIMEOUT}.
+     */
+    public static final int PDEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /**
+     * The executor running the connection attempts.
+     */
+    private static final ExecutorService executor
+        = Executors.newCachedThreadPool(
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t
+                            = new Thread(
+                                    r,
+                                    HappyEyeballsConnector.class.getName());
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+    /**
+     * The number of connections established through this class.
+     */
+    private static final AtomicLong connectCount = new AtomicLong();
+
+    /**
+     * The total time in milliseconds it took to establish the connections
+     * counted by {@link #connectCount}.
+     */
+    private static final AtomicLong connectTime = new AtomicLong();
+
+    /**
+     * The addresses to connect to, in the order in which the attempts are
+     * started.
+     */
+    private final InetSocketAddress[] addresses;
+
+    /**
+     * The number of milliseconds between the starts of two attempts.
+     */
+    private final long attemptDelay;
+
+    /**
+     * The number of milliseconds after which an attempt is abandoned.
+     */
+    private final int connectTimeout;
+
+    /**
+     * The number of milliseconds after which we stop waiting for any of the
+     * attempts to succeed.
+     */
+    private final long raceTimeout;
+
+    /**
+     * The sockets of the attempts started so far.
+     */
+    private final List<Socket> sockets = new ArrayList<Socket>();
+
+    /**
+     * The number of attempts that failed so far.
+     */
+    private int failures;
+
+    /**
+     * The last exception thrown by a failed attempt.
+     */
+    private IOException lastException;
+
+    /**
+     * The socket of the attempt that succeeded first.
+     */
+    private Socket winner;
+
+    /**
+     * Creates a new connector for the specified addresses.
+     *
+     * @param addresses the addresses to connect to.
+     * @param attemptDelay the number of milliseconds between the starts of two
+     * attempts.
+     * @param connectTimeout the number of milliseconds after which an attempt
+     * is abandoned.
+     * @param raceTimeout the number of milliseconds after which we stop
+     * waiting for any of the attempts to succeed.
+     */
+    HappyEyeballsConnector(
+            InetSocketAddress[] addresses,
+            long attemptDelay,
+            int connectTimeout,
+            long raceTimeout)
+    {
+        this.addresses = sortAddresses(addresses);
+        this.attemptDelay = attemptDelay;
+        this.connectTimeout = connectTimeout;
+        this.raceTimeout = raceTimeout;
+    }
+
+    /**
+     * Connects a new <tt>Socket</tt> to the first of <tt>addresses</tt> that
+     * accepts the connection, racing the attempts as described by RFC 8305.
+     *
+     * @param addresses the addresses of the host we'd like to connect to, i.e.
+     * as returned by {@link NetworkUtils#getAandAAAARecords(String, int)}.
+     *
+     * @return a <tt>Socket</tt> connected to one of <tt>addresses</tt>.
+     *
+     * @throws IOException if none of the addresses accepted the connection.
+     * The exception is the one thrown by the last attempt that failed.
+     */
+    public static Socket connect(InetSocketAddress[] addresses)
+        throws IOException
+    {
+        int connectTimeout
+            = getConfigInt(PNAME_CONNECT_TIMEOUT, PDEFAULT_CONNECT_TIMEOUT);
+
+        return connect(addresses, connectTimeout, connectTimeout);
+    }
+
+    /**
+     * Connects a new <tt>Socket</tt> to the first of <tt>addresses</tt> that
+     * accepts the connection within <tt>raceTimeout</tt> milliseconds, racing
+     * the attempts as described by RFC 8305. Meant for callers which only
+     * want to learn which address to use and must not block for a full
+     * connect timeout.
+     *
+     * @param addresses the addresses of the host we'd like to connect to.
+     * @param raceTimeout the number of milliseconds after which we stop
+     * waiting for any of the attempts to succeed.
+     *
+     * @return a <tt>Socket</tt> connected to one of <tt>addresses</tt>.
+     *
+     * @throws IOException if none of the addresses accepted the connection
+     * in time. All attempts still in progress are cancelled.
+     */
+    public static Socket connect(InetSocketAddress[] addresses,
+                                 long raceTimeout)
+        throws IOException
+    {
+        int connectTimeout
+            = getConfigInt(PNAME_CONNECT_TIMEOUT, PDEFAULT_CONNECT_TIMEOUT);
+
+        return connect(
+                addresses,
+                (int) Math.min(connectTimeout, raceTimeout),
+                raceTimeout);
+    }
+
+    /**
+     * Races the connection attempts to <tt>addresses</tt> with the configured
+     * delay between attempts.
+     *
+     * @param addresses the addresses of the host we'd like to connect to.
+     * @param connectTimeout the number of milliseconds after which an attempt
+     * is abandoned.
+     * @param raceTimeout the number of milliseconds after which we stop
+     * waiting for any of the attempts to succeed.
+     * @return a <tt>Socket</tt> connected to one of <tt>addresses</tt>.
+     * @throws IOException if none of the addresses accepted the connection.
+     */
+    private static Socket connect(InetSocketAddress[] addresses,
+                                  int connectTimeout,
+                                  long raceTimeout)
+        throws IOException
+    {
+        return
+            new HappyEyeballsConnector(
+                    addresses,
+                    getConfigInt(
+                            PNAME_CONNECTION_ATTEMPT_DELAY,
+                            PDEFAULT_CONNECTION_ATTEMPT_DELAY),
+                    connectTimeout,
+                    raceTimeout)
+                .connect();
+    }
+
+    /**
+     * Determines whether <tt>addresses</tt> contains both IPv4 and IPv6
+     * addresses.
+     *
+     * @param addresses the addresses to check.
+     * @return <tt>true</tt> if <tt>addresses</tt> contains addresses of both
+     * families.
+     */
+    public static boolean isDualStack(InetSocketAddress[] addresses)
+    {
+        boolean v4 = false, v6 = false;
+
+        for (InetSocketAddress address : addresses)
+        {
+            if (address.getAddress() instanceof Inet6Address)
+                v6 = true;
+            else
+                v4 = true;
+        }
+        return v4 && v6;
+    }
+
+    /**
+     * Interleaves the IPv4 and IPv6 addresses of <tt>addresses</tt>, starting
+     * with the family of the first address so that the preference expressed by
+     * the order of the DNS lookups is kept (RFC 8305, section 4). The order of
+     * the addresses of each family is preserved.
+     *
+     * @param addresses the addresses to sort.
+     * @return a new array with the interleaved addresses.
+     */
+    public static InetSocketAddress[] sortAddresses(
+            InetSocketAddress[] addresses)
+    {
+        if (addresses.length == 0)
+            return addresses;
+
+        boolean firstIsV6 = addresses[0].getAddress() instanceof Inet6Address;
+        List<InetSocketAddress> first = new ArrayList<InetSocketAddress>();
+        List<InetSocketAddress> second = new ArrayList<InetSocketAddress>();
+
+        for (InetSocketAddress address : addresses)
+        {
+            if ((address.getAddress() instanceof Inet6Address) == firstIsV6)
+                first.add(address);
+            else
+                second.add(address);
+        }
+
+        InetSocketAddress[] sorted = new InetSocketAddress[addresses.length];
+        int i = 0;
+
+        for (int j = 0; j < Math.max(first.size(), second.size()); j++)
+        {
+            if (j < first.size())
+                sorted[i++] = first.get(j);
+            if (j < second.size())
+                sorted[i++] = second.get(j);
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the number of connections established through this class.
+     *
+     * @return the number of connections established through this class.
+     */
+    public static long getConnectCount()
+    {
+        return connectCount.get();
+    }
+
+    /**
+     * Returns the average time it took to establish the connections counted by
+     * {@link #getConnectCount()}.
+     *
+     * @return the average time-to-connect in milliseconds or <tt>0</tt> if no
+     * connection was established yet.
+     */
+    public static double getAverageConnectTime()
+    {
+        long count = connectCount.get();
+
+        return (count == 0) ? 0 : connectTime.get() / (double) count;
+    }
+
+    /**
+     * Races the connection attempts to the addresses of this connector.
+     *
+     * @return the <tt>Socket</tt> of the attempt that succeeded first.
+     *
+     * @throws IOException if all attempts failed or none succeeded within the
+     * race timeout of this connector.
+     */
+    Socket connect()
+        throws IOException
+    {
+        if (addresses.length == 0)
+            throw new ConnectException("No address to connect to");
+
+        long start = System.currentTimeMillis();
+        long deadline = start + raceTimeout;
+
+        try
+        {
+            synchronized (this)
+            {
+                long nextAttempt = start;
+
+                while (winner == null)
+                {
+                    long now = System.currentTimeMillis();
+                    int started = sockets.size();
+
+                    if (failures < addresses.length && now >= deadline)
+                    {
+                        throw new SocketTimeoutException(
+                                "None of " + Arrays.toString(addresses)
+                                    + " accepted a connection within "
+                                    + raceTimeout + "ms");
+                    }
+                    else if (started < addresses.length
+                            && (now >= nextAttempt || failures == started))
+                    {
+                        startAttempt(addresses[started]);
+                        nextAttempt = now + attemptDelay;
+                    }
+                    else if (failures == addresses.length)
+                    {
+                        throw lastException;
+                    }
+                    else if (started < addresses.length)
+                    {
+                        wait(Math.min(nextAttempt, deadline) - now);
+                    }
+                    else
+                    {
+                        wait(deadline - now);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while connecting to "
+                        + Arrays.toString(addresses));
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                // Cancel the attempts which are still in progress.
+                for (Socket socket : sockets)
+                {
+                    if (socket != winner)
+                        closeQuietly(socket);
+                }
+            }
+        }
+
+        long duration = System.currentTimeMillis() - start;
+
+        connectCount.incrementAndGet();
+        connectTime.addAndGet(duration);
+        if (logger.isInfoEnabled())
+        {
+            logger.info(
+                    "Connected to " + winner.getRemoteSocketAddress()
+                        + " in " + duration + "ms (" + sockets.size()
+                        + " of " + addresses.length + " attempts started)");
+        }
+        return winner;
+    }
+
+    /**
+     * Starts an attempt to connect to <tt>address</tt>. Must be called while
+     * holding the lock of this connector.
+     *
+     * @param address the address to connect to.
+     */
+    private void startAttempt(final InetSocketAddress address)
+    {
+        final Socket socket = new Socket();
+
+        sockets.add(socket);
+        try
+        {
+            executor.execute(
+                    new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            attempt(socket, address);
+                        }
+                    });
+        }
+        catch (RejectedExecutionException ree)
+        {
+            failures++;
+            lastException = new IOException(ree.getMessage());
+        }
+    }
+
+    /**
+     * Connects <tt>socket</tt> to <tt>address</tt> and reports the outcome.
+     *
+     * @param socket the socket to connect.
+     * @param address the address to connect to.
+     */
+    private void attempt(Socket socket, InetSocketAddress address)
+    {
+        IOException exception = null;
+
+        try
+        {
+            socket.connect(address, connectTimeout);
+        }
+        catch (IOException ioe)
+        {
+            exception = ioe;
+            if (logger.isDebugEnabled())
+                logger.debug("Failed to connect to " + address, ioe);
+        }
+
+        synchronized (this)
+        {
+            if (exception != null)
+            {
+                failures++;
+                lastException = exception;
+            }
+            else if (winner == null)
+            {
+                winner = socket;
+            }
+            else
+            {
+                // Lost the race.
+                closeQuietly(socket);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Closes <tt>socket</tt>, ignoring errors.
+     *
+     * @param socket the socket to close.
+     */
+    private static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException ioe)
+        {
+        }
+    }
+
+    /**
+     * Returns the value of an integer configuration property, or
+     * <tt>defaultValue</tt> when the configuration is not available (yet).
+     *
+     * @param pname the name of the property.
+     * @param defaultValue the default value of the property.
+     * @return the value of the property.
+     */
+    private static int getConfigInt(String pname, int defaultValue)
+    {
+        ConfigurationService cfg
+            = (UtilActivator.bundleContext == null)
+                ? null
+                : UtilActivator.getConfigurationService();
+
+        return (cfg == null) ? defaultValue : cfg.getInt(pname, defaultValue);
+    }
+}
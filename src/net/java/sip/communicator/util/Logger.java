@@ -129,7 +129,7 @@ public boolean isTraceEnabled()
      */
     public void trace(Object msg)
     {
-        loggerDelegate.finer(msg!=null?msg.toString():"null");
+        log(Level.FINER, msg, null);
     }
 
     /**
@@ -140,7 +140,7 @@ public void trace(Object msg)
      */
     public void trace(Object msg, Throwable t)
     {
-        loggerDelegate.log(Level.FINER, msg!=null?msg.toString():"null", t);
+        log(Level.FINER, msg, t);
     }
 
     /**
@@ -165,7 +165,7 @@ public boolean isDebugEnabled()
      */
     public void debug(Object msg)
     {
-        loggerDelegate.fine(msg!=null?msg.toString():"null");
+        log(Level.FINE, msg, null);
     }
 
     /**
@@ -176,7 +176,7 @@ public void debug(Object msg)
      */
     public void debug(Object msg, Throwable t)
     {
-        loggerDelegate.log(Level.FINE, msg!=null?msg.toString():"null", t);
+        log(Level.FINE, msg, t);
     }
 
     /**
@@ -201,7 +201,7 @@ public boolean isInfoEnabled()
      */
     public void info(Object msg)
     {
-        loggerDelegate.info(msg!=null?msg.toString():"null");
+        log(Level.INFO, msg, null);
     }
 
     /**
@@ -212,7 +212,7 @@ public void info(Object msg)
      */
     public void info(Object msg, Throwable t)
     {
-        loggerDelegate.log(Level.INFO, msg!=null?msg.toString():"null", t);
+        log(Level.INFO, msg, t);
     }
 
     /**
@@ -226,7 +226,7 @@ public void info(Object msg, Throwable t)
      */
     public void warn(Object msg)
     {
-        loggerDelegate.warning(msg!=null?msg.toString():"null");
+        log(Level.WARNING, msg, null);
     }
 
     /**
@@ -237,7 +237,7 @@ public void warn(Object msg)
      */
     public void warn(Object msg, Throwable t)
     {
-        loggerDelegate.log(Level.WARNING, msg!=null?msg.toString():"null", t);
+        log(Level.WARNING, msg, t);
     }
 
     /**
@@ -251,7 +251,7 @@ public void warn(Object msg, Throwable t)
      */
     public void error(Object msg)
     {
-        loggerDelegate.severe(msg!=null?msg.toString():"null");
+        log(Level.SEVERE, msg, null);
     }
 
     /**
@@ -262,7 +262,7 @@ public void error(Object msg)
      */
     public void error(Object msg, Throwable t)
     {
-        loggerDelegate.log(Level.SEVERE, msg!=null?msg.toString():"null", t);
+        log(Level.SEVERE, msg, t);
     }
 
     /**
@@ -276,7 +276,7 @@ public void error(Object msg, Throwable t)
      */
     public void fatal(Object msg)
     {
-        loggerDelegate.severe(msg!=null?msg.toString():"null");
+        log(Level.SEVERE, msg, null);
     }
 
     /**
@@ -287,7 +287,29 @@ public void fatal(Object msg)
      */
     public void fatal(Object msg, Throwable t)
     {
-        loggerDelegate.log(Level.SEVERE, msg!=null?msg.toString():"null", t);
+        log(Level.SEVERE, msg, t);
+    }
+
+    /**
+     * Logs a message through our own <tt>LogRecord</tt> which can carry the
+     * line of its caller to a formatter running on another thread.
+     *
+     * @param level the level of the message.
+     * @param msg the message, <tt>null</tt> is logged as "null".
+     * @param t the throwable to log with the message, or <tt>null</tt>.
+     */
+    private void log(Level level, Object msg, Throwable t)
+    {
+        if (!loggerDelegate.isLoggable(level))
+            return;
+
+        ScLogRecord record
+            = new ScLogRecord(level, (msg != null) ? msg.toString() : "null");
+
+        record.setLoggerName(loggerDelegate.getName());
+        if (t != null)
+            record.setThrown(t);
+        loggerDelegate.log(record);
     }
 
     /**
@@ -20,6 +20,7 @@
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.dns.*;
 
@@ -110,6 +111,37 @@
      */
     private static final Random random = new Random();
 
+    /**
+     * The process-wide cache of the answers to the DNS queries made by this
+     * class.
+     */
+    private static final DnsCache dnsCache = new DnsCache();
+
+    /**
+     * The health of the targets of the SRV records, used to order them.
+     */
+    private static final SrvTargetHealth srvTargetHealth
+        = new SrvTargetHealth();
+
+    /**
+     * The executor running the lookups that are performed concurrently, i.e.
+     * the A and AAAA lookups of {@link #getAandAAAARecords(String, int)}, and
+     * the notifications of asynchronous lookups answered from the cache.
+     */
+    private static final ExecutorService lookupExecutor
+        = Executors.newCachedThreadPool(
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, NetworkUtils.class.getName());
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
     static
     {
         String prefer6 = System.getProperty("java.net.preferIPv6Addresses");
@@ -543,14 +575,9 @@ public static SRVRecord[] getSRVRecords(
         Record[] records = null;
         try
         {
-            Lookup lookup = createLookup(domain, Type.SRV);
-            // Disables the DNS cache: i.e. useful when testing DNS
-            // connectivity.
-            if(!useDNSCache)
-            {
-                lookup.setCache(new Cache());
-            }
-            records = lookup.run();
+            // Bypasses the DNS cache when requested: i.e. useful when testing
+            // DNS connectivity.
+            records = dnsCache.lookup(domain, Type.SRV, useDNSCache);
         }
         catch (TextParseException tpe)
         {
@@ -561,6 +588,20 @@ public static SRVRecord[] getSRVRecords(
         {
             throw new DnssecException(e);
         }
+        return toSRVRecords(records, domain);
+    }
+
+    /**
+     * Converts the SRV records returned by the DNS for <tt>domain</tt> and
+     * sorts them by priority and weight.
+     *
+     * @param records the records returned by the DNS or <tt>null</tt>.
+     * @param domain the domain the records were returned for.
+     * @return the sorted records or <tt>null</tt> if <tt>records</tt> is
+     * <tt>null</tt>.
+     */
+    private static SRVRecord[] toSRVRecords(Record[] records, String domain)
+    {
         if (records == null)
         {
             return null;
@@ -695,8 +736,7 @@ public static String[][] getNAPTRRecords(String domain)
         Record[] records = null;
         try
         {
-            Lookup lookup = createLookup(domain, Type.NAPTR);
-            records = lookup.run();
+            records = dnsCache.lookup(domain, Type.NAPTR, true);
         }
         catch (TextParseException tpe)
         {
@@ -707,6 +747,20 @@ public static String[][] getNAPTRRecords(String domain)
         {
             throw new DnssecException(e);
         }
+        return toNAPTRRecords(records, domain);
+    }
+
+    /**
+     * Converts the NAPTR records returned by the DNS for <tt>domain</tt> into
+     * the format returned by {@link #getNAPTRRecords(String)}.
+     *
+     * @param records the records returned by the DNS or <tt>null</tt>.
+     * @param domain the domain the records were returned for.
+     * @return the sorted values or <tt>null</tt> if <tt>records</tt> is
+     * <tt>null</tt>.
+     */
+    private static String[][] toNAPTRRecords(Record[] records, String domain)
+    {
         if (records == null)
         {
 
@@ -925,58 +979,304 @@ public static InetSocketAddress[] getAandAAAARecords(String domain, int port)
         List<InetSocketAddress> addresses = new LinkedList<InetSocketAddress>();
         boolean v6lookup = Boolean.getBoolean("java.net.preferIPv6Addresses");
 
+        // resolve the other family concurrently so that a slow or unanswered
+        // query for one of them doesn't delay the other
+        Future<Record[]> otherLookup
+            = lookupAsync(domain, v6lookup ? Type.A : Type.AAAA);
+
         for(int i = 0; i < 2; i++)
         {
-            Lookup lookup;
+            Record[] records = null;
             try
             {
-                lookup = createLookup(domain, v6lookup ? Type.AAAA : Type.A);
+                if(i == 0)
+                {
+                    records
+                        = dnsCache.lookup(
+                                domain,
+                                v6lookup ? Type.AAAA : Type.A,
+                                true);
+                }
+                else
+                {
+                    records = getLookupResult(otherLookup);
+                }
             }
             catch (TextParseException tpe)
             {
                 logger.error("Failed to parse domain <" + domain + ">", tpe);
                 throw new ParseException(tpe.getMessage(), 0);
             }
-            Record[] records = null;
+            catch(DnssecRuntimeException e)
+            {
+                throw new DnssecException(e);
+            }
+            addAddresses(addresses, records, domain, port, v6lookup);
+            v6lookup = !v6lookup;
+        }
+        if(logger.isTraceEnabled())
+            logger.trace("A or AAAA addresses: " + addresses);
+        return addresses.toArray(new InetSocketAddress[0]);
+    }
+
+    /**
+     * Adds the addresses of the A or AAAA <tt>records</tt> returned by the DNS
+     * for <tt>domain</tt> to <tt>addresses</tt>.
+     *
+     * @param addresses the list to add the addresses to.
+     * @param records the A or AAAA records or <tt>null</tt>.
+     * @param domain the domain the records were returned for.
+     * @param port the port number of the added addresses.
+     * @param v6 <tt>true</tt> if <tt>records</tt> are AAAA records.
+     */
+    private static void addAddresses(
+            List<InetSocketAddress> addresses,
+            Record[] records,
+            String domain,
+            int port,
+            boolean v6)
+    {
+        if(records == null)
+            return;
+
+        for(Record r : records)
+        {
             try
             {
-                records = lookup.run();
+                addresses.add(
+                    new InetSocketAddress(
+                        // create a new InetAddress filled with the
+                        // domain name to avoid PTR queries
+                        InetAddress.getByAddress(
+                            domain,
+                            v6
+                              ? ((AAAARecord)r).getAddress().getAddress()
+                              : ((ARecord)r).getAddress().getAddress()
+                        ),
+                        port
+                    )
+                );
             }
-            catch(DnssecRuntimeException e)
+            catch (UnknownHostException e)
             {
-                throw new DnssecException(e);
+                logger.error("Invalid record returned from DNS", e);
             }
-            if(records != null)
+        }
+    }
+
+    /**
+     * Resolves the SRV records of <tt>service</tt> over <tt>proto</tt> for
+     * <tt>domain</tt> without blocking the caller. The asynchronous
+     * counterpart of {@link #getSRVRecords(String, String, String)}.
+     *
+     * @param service the service that we are trying to get a record for.
+     * @param proto the protocol that we'd like <tt>service</tt> on.
+     * @param domain the name of the domain we'd like to resolve.
+     * @param listener the listener to notify of the sorted records, or of
+     * <tt>null</tt> if there are none.
+     */
+    public static void getSRVRecordsAsync(
+            String service,
+            String proto,
+            String domain,
+            final DnsResultListener<SRVRecord[]> listener)
+    {
+        final String srvDomain = "_" + service + "._" + proto + "." + domain;
+
+        dnsCache.lookupAsync(
+                srvDomain,
+                Type.SRV,
+                true,
+                new DnsResultListener<Record[]>()
+                {
+                    @Override
+                    public void lookupCompleted(Record[] records)
+                    {
+                        SRVRecord[] srvRecords
+                            = toSRVRecords(records, srvDomain);
+
+                        listener.lookupCompleted(
+                                (srvRecords == null || srvRecords.length == 0)
+                                    ? null
+                                    : srvRecords);
+                    }
+
+                    @Override
+                    public void lookupFailed(Exception cause)
+                    {
+                        listener.lookupFailed(toLookupException(cause));
+                    }
+                },
+                lookupExecutor);
+    }
+
+    /**
+     * Makes a NAPTR query for <tt>domain</tt> without blocking the caller. The
+     * asynchronous counterpart of {@link #getNAPTRRecords(String)}.
+     *
+     * @param domain the name of the domain we'd like to resolve.
+     * @param listener the listener to notify of the values, or of
+     * <tt>null</tt> if no records were found.
+     */
+    public static void getNAPTRRecordsAsync(
+            final String domain,
+            final DnsResultListener<String[][]> listener)
+    {
+        dnsCache.lookupAsync(
+                domain,
+                Type.NAPTR,
+                true,
+                new DnsResultListener<Record[]>()
+                {
+                    @Override
+                    public void lookupCompleted(Record[] records)
+                    {
+                        listener.lookupCompleted(
+                                toNAPTRRecords(records, domain));
+                    }
+
+                    @Override
+                    public void lookupFailed(Exception cause)
+                    {
+                        listener.lookupFailed(toLookupException(cause));
+                    }
+                },
+                lookupExecutor);
+    }
+
+    /**
+     * Resolves the A and AAAA records of <tt>domain</tt> concurrently without
+     * blocking the caller. The asynchronous counterpart of
+     * {@link #getAandAAAARecords(String, int)}: the addresses of the preferred
+     * family come first.
+     *
+     * @param domain the name of the domain we'd like to resolve.
+     * @param port the port number of the resulting addresses.
+     * @param listener the listener to notify of the addresses.
+     */
+    public static void getAandAAAARecordsAsync(
+            final String domain,
+            final int port,
+            final DnsResultListener<InetSocketAddress[]> listener)
+    {
+        byte[] address = null;
+        if((address = strToIPv4(domain)) != null
+            || (address = strToIPv6(domain)) != null)
+        {
+            final byte[] literal = address;
+
+            lookupExecutor.execute(new Runnable()
             {
-                for(Record r : records)
+                @Override
+                public void run()
                 {
                     try
                     {
-                        addresses.add(
-                            new InetSocketAddress(
-                                // create a new InetAddress filled with the
-                                // domain name to avoid PTR queries
-                                InetAddress.getByAddress(
-                                    domain,
-                                    v6lookup
-                                      ? ((AAAARecord)r).getAddress().getAddress()
-                                      : ((ARecord)r).getAddress().getAddress()
-                                ),
-                                port
-                            )
-                        );
+                        listener.lookupCompleted(
+                            new InetSocketAddress[]
+                            {
+                                new InetSocketAddress(
+                                    InetAddress.getByAddress(domain, literal),
+                                    port)
+                            });
                     }
                     catch (UnknownHostException e)
                     {
-                        logger.error("Invalid record returned from DNS", e);
+                        listener.lookupFailed(e);
                     }
                 }
-            }
-            v6lookup = !v6lookup;
+            });
+            return;
         }
-        if(logger.isTraceEnabled())
-            logger.trace("A or AAAA addresses: " + addresses);
-        return addresses.toArray(new InetSocketAddress[0]);
+
+        final boolean v6first
+            = Boolean.getBoolean("java.net.preferIPv6Addresses");
+        final Record[][] results = new Record[2][];
+        final boolean[] completed = new boolean[2];
+        final Exception[] failure = new Exception[1];
+
+        for(int i = 0; i < 2; i++)
+        {
+            final int index = i;
+            boolean v6 = (i == 0) == v6first;
+
+            dnsCache.lookupAsync(
+                    domain,
+                    v6 ? Type.AAAA : Type.A,
+                    true,
+                    new DnsResultListener<Record[]>()
+                    {
+                        @Override
+                        public void lookupCompleted(Record[] records)
+                        {
+                            completed(records, null);
+                        }
+
+                        @Override
+                        public void lookupFailed(Exception cause)
+                        {
+                            completed(null, cause);
+                        }
+
+                        private void completed(Record[] records, Exception e)
+                        {
+                            synchronized(results)
+                            {
+                                results[index] = records;
+                                completed[index] = true;
+                                if(e != null && failure[0] == null)
+                                    failure[0] = e;
+                                if(!completed[0] || !completed[1])
+                                    return;
+                            }
+
+                            if(failure[0] != null)
+                            {
+                                listener.lookupFailed(
+                                        toLookupException(failure[0]));
+                                return;
+                            }
+
+                            List<InetSocketAddress> addresses
+                                = new LinkedList<InetSocketAddress>();
+
+                            addAddresses(
+                                    addresses, results[0], domain, port,
+                                    v6first);
+                            addAddresses(
+                                    addresses, results[1], domain, port,
+                                    !v6first);
+                            if(logger.isTraceEnabled())
+                            {
+                                logger.trace(
+                                        "A or AAAA addresses: " + addresses);
+                            }
+                            listener.lookupCompleted(
+                                    addresses.toArray(
+                                            new InetSocketAddress[0]));
+                        }
+                    },
+                    lookupExecutor);
+        }
+    }
+
+    /**
+     * Converts an exception raised by an asynchronous lookup of the
+     * {@link DnsCache} into the checked exception thrown by the corresponding
+     * synchronous method of this class.
+     *
+     * @param cause the exception raised by the lookup.
+     * @return a <tt>ParseException</tt> for an invalid domain name, a
+     * <tt>DnssecException</tt> for a DNSSEC validation failure or
+     * <tt>cause</tt> itself.
+     */
+    private static Exception toLookupException(Exception cause)
+    {
+        if(cause instanceof TextParseException)
+            return new ParseException(cause.getMessage(), 0);
+        else if(cause instanceof DnssecRuntimeException)
+            return new DnssecException((DnssecRuntimeException) cause);
+        return cause;
     }
 
     /**
@@ -1016,8 +1316,7 @@ public static InetSocketAddress getARecord(String domain, int port)
             //for starters we'd like to make sure that it works well enough
             //with SRV and NAPTR queries. We may then also adopt it for As
             //and AAAAs once it proves to be reliable (posted on: 2010-11-24)
-            Lookup lookup = createLookup(domain, Type.A);
-            records = lookup.run();
+            records = dnsCache.lookup(domain, Type.A, true);
         }
         catch (TextParseException tpe)
         {
@@ -1090,8 +1389,7 @@ public static InetSocketAddress getAAAARecord(String domain, int port)
             //for starters we'd like to make sure that it works well enough
             //with SRV and NAPTR queries. We may then also adopt it for As
             //and AAAAs once it proves to be reliable (posted on: 2010-11-24)
-            Lookup lookup = createLookup(domain, Type.AAAA);
-            records = lookup.run();
+            records = dnsCache.lookup(domain, Type.AAAA, true);
         }
         catch (TextParseException tpe)
         {
@@ -1235,6 +1533,70 @@ private static boolean isMappedIPv4Addr(byte[] address)
         return false;
     }
 
+    /**
+     * Starts looking up the records of type <tt>type</tt> for <tt>domain</tt>
+     * in the background.
+     *
+     * @param domain the domain we will be resolving
+     * @param type the type of the records we will be trying to obtain.
+     *
+     * @return the <tt>Future</tt> of the records, as returned by
+     * {@link DnsCache#lookup(String, int, boolean)}.
+     */
+    private static Future<Record[]> lookupAsync(
+            final String domain,
+            final int type)
+    {
+        return lookupExecutor.submit(
+                new Callable<Record[]>()
+                {
+                    @Override
+                    public Record[] call()
+                        throws TextParseException
+                    {
+                        return dnsCache.lookup(domain, type, true);
+                    }
+                });
+    }
+
+    /**
+     * Waits for the result of a lookup started by
+     * {@link #lookupAsync(String, int)}.
+     *
+     * @param lookup the <tt>Future</tt> of the lookup.
+     *
+     * @return the records returned by the lookup or <tt>null</tt> if there are
+     * none or the current thread was interrupted.
+     *
+     * @throws TextParseException if the domain is not a valid domain name.
+     * @throws DnssecRuntimeException when a DNSSEC validation failure occurred.
+     */
+    private static Record[] getLookupResult(Future<Record[]> lookup)
+        throws TextParseException
+    {
+        try
+        {
+            return lookup.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if(cause instanceof TextParseException)
+                throw (TextParseException) cause;
+            else if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if(cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
     /**
      * Creates a new {@link Lookup} instance.
      *
@@ -1245,7 +1607,7 @@ private static boolean isMappedIPv4Addr(byte[] address)
      *
      * @throws TextParseException if <tt>domain</tt> is not a valid domain name.
      */
-    private static Lookup createLookup(String domain, int type)
+    static Lookup createLookup(String domain, int type)
         throws TextParseException
     {
         // make domain name absolute if requested
@@ -1327,6 +1689,9 @@ public int compare(SRVRecord obj1, SRVRecord obj2)
      */
     private static void sortSrvRecordByWeight(SRVRecord[] srvRecords)
     {
+        if(srvRecords.length == 0)
+            return;
+
         int currentPriority = srvRecords[0].getPriority();
         int startIndex = 0;
 
@@ -1341,11 +1706,18 @@ private static void sortSrvRecordByWeight(SRVRecord[] srvRecords)
                 currentPriority = srvRecords[i].getPriority();
             }
         }
+        // Sort the last priority.
+        sortSrvRecordPriorityByWeight(
+                srvRecords,
+                startIndex,
+                srvRecords.length);
     }
 
     /**
      * Sorts SRV record list for a given priority: this priority is sorted with
-     * the probabilty given by the weight attribute.
+     * the probabilty given by the weight attribute, scaled by the connect
+     * time of the targets, and the targets backed off after failures are
+     * moved after the others.
      *
      * @param srvRecords The list of SRV records already sorted by priority.
      * @param startIndex The first index (included) for the current priority.
@@ -1356,49 +1728,70 @@ private static void sortSrvRecordPriorityByWeight(
             int startIndex,
             int endIndex)
     {
+        int[] weights
+            = srvTargetHealth.getSelectionWeights(
+                    srvRecords,
+                    startIndex,
+                    endIndex);
         int randomWeight;
 
         // Loops over the items of the current priority.
-        while(startIndex < endIndex)
+        for(int i = startIndex; i < endIndex; ++i)
         {
             // Compute a random number in [0...totalPriorityWeight].
-            randomWeight = getRandomWeight(srvRecords, startIndex, endIndex);
+            randomWeight = getRandomWeight(weights, i - startIndex);
 
             // Move the selected item on top of the unsorted items for this
             // priority.
             moveSelectedSRVRecord(
                     srvRecords,
+                    weights,
+                    i,
                     startIndex,
-                    endIndex,
                     randomWeight);
+        }
+
+        // Keep the order of the targets backed off after failures but try
+        // them last.
+        List<SRVRecord> backedOff = new ArrayList<SRVRecord>();
+        int next = startIndex;
+
+        for(int i = startIndex; i < endIndex; ++i)
+        {
+            SRVRecord srvRecord = srvRecords[i];
 
-            // Move to next index.
-            ++startIndex;
+            if(srvTargetHealth.isBackedOff(
+                    srvRecord.getTarget(),
+                    srvRecord.getPort()))
+                backedOff.add(srvRecord);
+            else
+                srvRecords[next++] = srvRecord;
         }
+        for(SRVRecord srvRecord : backedOff)
+            srvRecords[next++] = srvRecord;
     }
 
     /**
      * Compute a random number in [0...totalPriorityWeight] with
-     * totalPriorityWeight the sum of all weight for the current priority.
+     * totalPriorityWeight the sum of the weights of the unsorted items for
+     * the current priority.
      *
-     * @param srvRecords The list of SRV records already sorted by priority.
-     * @param startIndex The first index (included) for the current priority.
-     * @param endIndex The last index (excluded) for the current priority.
+     * @param weights The selection weights of the items of the current
+     * priority.
+     * @param startIndex The first unsorted index (included) in
+     * <tt>weights</tt>.
      *
      * @return A random number in [0...totalPriorityWeight] with
      * totalPriorityWeight the sum of all weight for the current priority.
      */
-    private static int getRandomWeight(
-            SRVRecord[] srvRecords,
-            int startIndex,
-            int endIndex)
+    private static int getRandomWeight(int[] weights, int startIndex)
     {
         int totalPriorityWeight = 0;
 
         // Compute the max born.
-        for(int i = startIndex; i < endIndex; ++i)
+        for(int i = startIndex; i < weights.length; ++i)
         {
-            totalPriorityWeight += srvRecords[i].getWeight();
+            totalPriorityWeight += weights[i];
         }
 
         // Compute a random number in [0...totalPriorityWeight].
@@ -1407,36 +1800,45 @@ private static int getRandomWeight(
 
     /**
      * Moves the selected SRV record in top of the unsorted items for this
-     * priority.
+     * priority, along with its weight.
      *
      * @param srvRecords The list of SRV records already sorted by priority.
-     * @param startIndex The first unsorted index (included) for the current
+     * @param weights The selection weights of the items of the current
      * priority.
-     * @param endIndex The last unsorted index (excluded) for the current
+     * @param startIndex The first unsorted index (included) for the current
      * priority.
+     * @param priorityIndex The index of the first item of the current
+     * priority, i.e. of the first item of <tt>weights</tt>.
      * @param selectedWeight The selected weight used to design the selected
      * item to move.
      */
     private static void moveSelectedSRVRecord(
             SRVRecord[] srvRecords,
+            int[] weights,
             int startIndex,
-            int endIndex,
+            int priorityIndex,
             int selectedWeight)
     {
         SRVRecord tmpSrvRecord;
+        int tmpWeight;
         int totalPriorityWeight = 0;
 
-        for(int i = startIndex; i < endIndex; ++i)
+        for(int i = startIndex - priorityIndex; i < weights.length; ++i)
         {
-            totalPriorityWeight += srvRecords[i].getWeight();
+            totalPriorityWeight += weights[i];
 
             // If we found the selecting record.
             if(totalPriorityWeight >= selectedWeight)
             {
+                int j = startIndex - priorityIndex;
+
                 // Switch between startIndex and j.
                 tmpSrvRecord = srvRecords[startIndex];
-                srvRecords[startIndex] = srvRecords[i];
-                srvRecords[i] = tmpSrvRecord;
+                srvRecords[startIndex] = srvRecords[priorityIndex + i];
+                srvRecords[priorityIndex + i] = tmpSrvRecord;
+                tmpWeight = weights[j];
+                weights[j] = weights[i];
+                weights[i] = tmpWeight;
                 // Break the loop;
                 return;
             }
@@ -1444,11 +1846,36 @@ private static void moveSelectedSRVRecord(
     }
 
     /**
-     * Clears the default DNS cache.
+     * Returns the health of the targets of SRV records the records returned
+     * by this class are ordered with. The protocols report to it whether
+     * connecting to the targets succeeded.
+     *
+     * @return the health of the targets of SRV records.
+     */
+    public static SrvTargetHealth getSrvTargetHealth()
+    {
+        return srvTargetHealth;
+    }
+
+    /**
+     * Clears the default DNS cache as well as the answers cached by
+     * {@link #getDnsCache()}.
      */
     public static void clearDefaultDNSCache()
     {
         Cache defaultCache = Lookup.getDefaultCache(DClass.IN);
         defaultCache.clearCache();
+        dnsCache.clear();
+    }
+
+    /**
+     * Returns the process-wide cache of the DNS answers obtained through the
+     * record lookup methods of this class.
+     *
+     * @return the process-wide cache of DNS answers.
+     */
+    public static DnsCache getDnsCache()
+    {
+        return dnsCache;
     }
 }
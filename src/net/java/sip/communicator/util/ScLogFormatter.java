@@ -18,7 +18,6 @@
 package net.java.sip.communicator.util;
 
 import java.io.*;
-import java.text.*;
 import java.util.*;
 import java.util.logging.*;
 
@@ -26,6 +25,10 @@
  * Print a brief summary of the LogRecord in a human readable. The summary will
  * typically be on a single line (unless it's too long :) ... what I meant to
  * say is that we don't add any line breaks).
+ * <p>
+ * Thread-safe without locking: the date and time up to the second are
+ * formatted once per second and shared, only the milliseconds are formatted
+ * per record.
  *
  * @author Emil Ivov
  */
@@ -51,14 +54,11 @@
     private static String lineSeparator = System.getProperty("line.separator");
     
     /**
-     * Two digit <tt>DecimalFormat</tt> instance, used to format datetime
+     * The formatted date and time of the second the last formatted record
+     * was logged in.
      */
-    private static DecimalFormat twoDigFmt = new DecimalFormat("00");
-
-    /**
-     * Three digit <tt>DecimalFormat</tt> instance, used to format datetime
-     */
-    private static DecimalFormat threeDigFmt = new DecimalFormat("000");
+    private static volatile CachedTimestamp cachedTimestamp
+        = new CachedTimestamp(Long.MIN_VALUE, null);
 
     /**
      * The application name used to generate this log
@@ -85,11 +85,10 @@ public ScLogFormatter()
      * @return a formatted log record
      */
     @Override
-    public synchronized String format(LogRecord record)
+    public String format(LogRecord record)
     {
-        StringBuffer sb = new StringBuffer();
-        
-        
+        StringBuilder sb = new StringBuilder(128);
+
         if (programName != null)
         {
             // Program name
@@ -100,23 +99,25 @@ public synchronized String format(LogRecord record)
 
         if(!timestampDisabled)
         {
-            //current time
-            Calendar cal = Calendar.getInstance();
-            int year = cal.get(Calendar.YEAR);
-            int month = cal.get(Calendar.MONTH) + 1;
-            int day = cal.get(Calendar.DAY_OF_MONTH);
-            int hour = cal.get(Calendar.HOUR_OF_DAY);
-            int minutes = cal.get(Calendar.MINUTE);
-            int seconds = cal.get(Calendar.SECOND);
-            int millis = cal.get(Calendar.MILLISECOND);
-
-            sb.append(year).append('-');
-            sb.append(twoDigFmt.format(month)).append('-');
-            sb.append(twoDigFmt.format(day)).append(' ');
-            sb.append(twoDigFmt.format(hour)).append(':');
-            sb.append(twoDigFmt.format(minutes)).append(':');
-            sb.append(twoDigFmt.format(seconds)).append('.');
-            sb.append(threeDigFmt.format(millis)).append(' ');
+            // the time the record was logged, which may be well before now
+            // when it is formatted asynchronously
+            long time = record.getMillis();
+            long second = time / 1000L;
+            int millis = (int) (time % 1000L);
+            CachedTimestamp timestamp = cachedTimestamp;
+
+            if (timestamp.second != second)
+            {
+                timestamp = new CachedTimestamp(second, formatSecond(time));
+                cachedTimestamp = timestamp;
+            }
+
+            sb.append(timestamp.formatted);
+            if (millis < 100)
+                sb.append('0');
+            if (millis < 10)
+                sb.append('0');
+            sb.append(millis).append(' ');
         }
 
         //log level
@@ -124,10 +125,20 @@ public synchronized String format(LogRecord record)
         sb.append(": ");
 
         // Thread ID
-        sb.append("[" + record.getThreadID() + "] ");
+        sb.append('[').append(record.getThreadID()).append("] ");
 
         //caller method
-        int lineNumber = inferCaller(record);
+        int lineNumber;
+
+        if (record instanceof ScLogRecord)
+        {
+            ScLogRecord scRecord = (ScLogRecord) record;
+
+            scRecord.inferCaller();
+            lineNumber = scRecord.getLineNumber();
+        }
+        else
+            lineNumber = inferCaller(record);
         String loggerName = record.getLoggerName();
 
         if(loggerName == null)
@@ -148,7 +159,7 @@ public synchronized String format(LogRecord record)
 
             //include the line number if we have it.
             if(lineNumber != -1)
-                sb.append("().").append(Integer.toString(lineNumber));
+                sb.append("().").append(lineNumber);
             else
                 sb.append("()");
         }
@@ -172,6 +183,40 @@ public synchronized String format(LogRecord record)
         return sb.toString();
     }
 
+    /**
+     * Formats the date and time of <tt>time</tt> down to the second, followed
+     * by the dot preceding the milliseconds.
+     *
+     * @param time the time in milliseconds.
+     * @return the formatted date and time.
+     */
+    private static String formatSecond(long time)
+    {
+        Calendar cal = Calendar.getInstance();
+
+        cal.setTimeInMillis(time);
+
+        StringBuilder sb = new StringBuilder(24);
+
+        sb.append(cal.get(Calendar.YEAR)).append('-');
+        appendTwoDigits(sb, cal.get(Calendar.MONTH) + 1).append('-');
+        appendTwoDigits(sb, cal.get(Calendar.DAY_OF_MONTH)).append(' ');
+        appendTwoDigits(sb, cal.get(Calendar.HOUR_OF_DAY)).append(':');
+        appendTwoDigits(sb, cal.get(Calendar.MINUTE)).append(':');
+        appendTwoDigits(sb, cal.get(Calendar.SECOND)).append('.');
+        return sb.toString();
+    }
+
+    /**
+     * Appends <tt>value</tt>, in the range 0 to 99, on two digits.
+     */
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value)
+    {
+        if (value < 10)
+            sb.append('0');
+        return sb.append(value);
+    }
+
     /**
      * Try to extract the name of the class and method that called the current
      * log statement.
@@ -180,7 +225,7 @@ public synchronized String format(LogRecord record)
      *
      * @return the line number that the call was made from in the caller.
      */
-    private int inferCaller(LogRecord record)
+    static int inferCaller(LogRecord record)
     {
         // Get the stack trace.
         StackTraceElement stack[] = (new Throwable()).getStackTrace();
@@ -250,5 +295,27 @@ private static void loadProgramNameProperty()
         String cname = ScLogFormatter.class.getName();
         programName = manager.getProperty(cname + PROGRAM_NAME_PROPERTY);
     }
-    
+
+    /**
+     * The formatted date and time of a second.
+     */
+    private static class CachedTimestamp
+    {
+        /**
+         * The second since the epoch.
+         */
+        final long second;
+
+        /**
+         * The date and time of {@link #second}, followed by a dot.
+         */
+        final String formatted;
+
+        CachedTimestamp(long second, String formatted)
+        {
+            this.second = second;
+            this.formatted = formatted;
+        }
+    }
+
 }
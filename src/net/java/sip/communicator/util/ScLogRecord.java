@@ -0,0 +1,80 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.logging.*;
+
+/**
+ * The <tt>LogRecord</tt> our <tt>Logger</tt> publishes. Remembers the line
+ * its caller logged it from, so that the caller can be inferred on the
+ * logging thread when the record is formatted on another one, i.e. by the
+ * writer thread of an <tt>AsyncHandler</tt>.
+ */
+class ScLogRecord
+    extends LogRecord
+{
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * Whether the caller has been inferred.
+     */
+    private boolean callerInferred = false;
+
+    /**
+     * The line number the caller logged this record from, -1 if unknown.
+     */
+    private int lineNumber = -1;
+
+    /**
+     * Creates a record.
+     *
+     * @param level the level of the record.
+     * @param msg the message of the record.
+     */
+    ScLogRecord(Level level, String msg)
+    {
+        super(level, msg);
+    }
+
+    /**
+     * Sets the source class and method of this record to the caller of our
+     * <tt>Logger</tt> and remembers the line number, unless already done.
+     * Must be called on the thread which logged the record.
+     */
+    void inferCaller()
+    {
+        if (!callerInferred)
+        {
+            lineNumber = ScLogFormatter.inferCaller(this);
+            callerInferred = true;
+        }
+    }
+
+    /**
+     * Returns the line number the caller logged this record from.
+     *
+     * @return the line number, -1 if unknown.
+     */
+    int getLineNumber()
+    {
+        return lineNumber;
+    }
+}
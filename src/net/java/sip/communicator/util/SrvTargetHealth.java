@@ -0,0 +1,523 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.dns.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Keeps the smoothed connect time and the consecutive failures of the
+ * targets of SRV records, persisted in the configuration, and provides the
+ * weights <tt>NetworkUtils</tt> uses to order the targets of a priority.
+ * The weight of a target is its SRV weight scaled by how much slower than
+ * the fastest known target of its priority it is, so that the weights
+ * published by the domain still spread the load, but the targets we connect
+ * to faster are picked more often. Targets which failed recently are backed
+ * off and tried after the others of their priority. Changes are saved
+ * {@link #SAVE_DELAY} after the first unsaved one, not on every report, and
+ * when the configuration is unset on stop.
+ */
+public class SrvTargetHealth
+    implements SrvTargetHealthService
+{
+    /**
+     * Our class logger.
+     */
+    private static final Logger logger
+        = Logger.getLogger(SrvTargetHealth.class);
+
+    /**
+     * The name of the property the health of the targets is persisted in.
+     */
+    public static final String PNAME_SRV_TARGET_HEALTH
+        = "net.java.sip.communicator.util.dns.SRV_TARGET_HEALTH";
+
+    /**
+     * The maximum number of targets we keep, the least recently used ones
+     * are forgotten first.
+     */
+    static final int MAX_TARGETS = 128;
+
+    /**
+     * The time after which we forget a target we haven't used, in
+     * milliseconds.
+     */
+    static final long MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The time a target is backed off after its first failure, in
+     * milliseconds. Doubles with each further consecutive failure.
+     */
+    static final long INITIAL_BACKOFF = 30 * 1000;
+
+    /**
+     * The maximum time a target is backed off, in milliseconds.
+     */
+    static final long MAX_BACKOFF = 60 * 60 * 1000;
+
+    /**
+     * The time we wait after a change before saving the health of the
+     * targets, in milliseconds, so that the reports of a burst of
+     * connections are saved together.
+     */
+    static final long SAVE_DELAY = 10 * 1000;
+
+    /**
+     * The weight of a new sample in the smoothed connect time.
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * The health of the targets, by {@link #getKey(String, int)}, least
+     * recently used first.
+     */
+    private final LinkedHashMap<String, TargetHealth> targets
+        = new LinkedHashMap<String, TargetHealth>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, TargetHealth> eldest)
+            {
+                return size() > MAX_TARGETS;
+            }
+        };
+
+    /**
+     * The configuration the health of the targets is persisted in,
+     * <tt>null</tt> if it isn't persisted.
+     */
+    private ConfigurationService configurationService;
+
+    /**
+     * Whether the health of the targets changed since it was last saved.
+     */
+    private boolean dirty;
+
+    /**
+     * The timer running {@link #saveTask}, created when the first change is
+     * to be saved.
+     */
+    private Timer saveTimer;
+
+    /**
+     * The task saving the health of the targets {@link #SAVE_DELAY} after
+     * the first unsaved change, <tt>null</tt> if no save is scheduled.
+     */
+    private TimerTask saveTask;
+
+    /**
+     * Sets the configuration the health of the targets is persisted in and
+     * loads the health saved in it. The changes not saved yet are saved to
+     * the previous configuration first.
+     *
+     * @param configurationService the configuration, <tt>null</tt> to stop
+     * persisting.
+     */
+    public synchronized void setConfigurationService(
+            ConfigurationService configurationService)
+    {
+        flush();
+        if (saveTimer != null)
+        {
+            saveTimer.cancel();
+            saveTimer = null;
+            saveTask = null;
+        }
+
+        this.configurationService = configurationService;
+        if (configurationService != null)
+        {
+            parse(configurationService.getString(PNAME_SRV_TARGET_HEALTH),
+                System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reportConnected(String target, int port, long connectTime)
+    {
+        if (target == null || connectTime < 0)
+            return;
+
+        reportConnected(target, port, connectTime, System.currentTimeMillis());
+    }
+
+    /**
+     * Reports a connection to a target established at <tt>now</tt>.
+     */
+    synchronized void reportConnected(
+            String target, int port, long connectTime, long now)
+    {
+        TargetHealth health = getOrCreate(target, port);
+
+        if (health.connectTime < 0)
+            health.connectTime = connectTime;
+        else
+        {
+            health.connectTime
+                = Math.round(
+                        ALPHA * connectTime
+                            + (1 - ALPHA) * health.connectTime);
+        }
+        health.failures = 0;
+        health.lastFailure = 0;
+        health.lastUsed = now;
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(
+                "Connected to " + getKey(target, port) + " in " + connectTime
+                    + "ms, smoothed connect time " + health.connectTime
+                    + "ms");
+        }
+        save();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reportFailed(String target, int port)
+    {
+        if (target == null)
+            return;
+
+        reportFailed(target, port, System.currentTimeMillis());
+    }
+
+    /**
+     * Reports a failure of a target at <tt>now</tt>.
+     */
+    synchronized void reportFailed(String target, int port, long now)
+    {
+        TargetHealth health = getOrCreate(target, port);
+
+        health.failures++;
+        health.lastFailure = now;
+        health.lastUsed = now;
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info(
+                "Connecting to " + getKey(target, port) + " failed, "
+                    + health.failures + " consecutive failure(s), backing off"
+                    + " for " + getBackoff(health.failures) + "ms");
+        }
+        save();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getConnectTime(String target, int port)
+    {
+        TargetHealth health = targets.get(getKey(target, port));
+
+        return (health == null) ? -1 : health.connectTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getFailureCount(String target, int port)
+    {
+        TargetHealth health = targets.get(getKey(target, port));
+
+        return (health == null) ? 0 : health.failures;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBackedOff(String target, int port)
+    {
+        return isBackedOff(target, port, System.currentTimeMillis());
+    }
+
+    /**
+     * Checks whether a target is backed off at <tt>now</tt>.
+     */
+    synchronized boolean isBackedOff(String target, int port, long now)
+    {
+        TargetHealth health = targets.get(getKey(target, port));
+
+        return
+            health != null
+                && health.failures > 0
+                && now - health.lastFailure < getBackoff(health.failures);
+    }
+
+    /**
+     * Returns the weights to pick the records of a priority with. When we
+     * know the connect time of none of the targets, the weights are the SRV
+     * weights. Otherwise the weight of each record is its SRV weight divided
+     * by how many times slower than the fastest target of the priority it
+     * is. The targets we don't know yet are considered as fast as the
+     * fastest so that they get a chance to be measured.
+     *
+     * @param srvRecords the records sorted by priority.
+     * @param startIndex the first index (included) of the priority.
+     * @param endIndex the last index (excluded) of the priority.
+     * @return the weights of the records from <tt>startIndex</tt> to
+     * <tt>endIndex</tt>.
+     */
+    synchronized int[] getSelectionWeights(
+            SRVRecord[] srvRecords,
+            int startIndex,
+            int endIndex)
+    {
+        int count = endIndex - startIndex;
+        int[] weights = new int[count];
+        long[] connectTimes = new long[count];
+        long fastest = Long.MAX_VALUE;
+
+        for (int i = 0; i < count; i++)
+        {
+            SRVRecord srvRecord = srvRecords[startIndex + i];
+            TargetHealth health
+                = targets.get(
+                        getKey(srvRecord.getTarget(), srvRecord.getPort()));
+
+            weights[i] = srvRecord.getWeight();
+            connectTimes[i] = (health == null) ? -1 : health.connectTime;
+            if (connectTimes[i] >= 0)
+                fastest = Math.min(fastest, Math.max(connectTimes[i], 1));
+        }
+
+        if (fastest == Long.MAX_VALUE)
+            return weights;
+
+        // Without weights, all the targets are equally likely to be picked,
+        // only the connect times make the difference.
+        boolean noWeights = true;
+
+        for (int weight : weights)
+        {
+            if (weight != 0)
+            {
+                noWeights = false;
+                break;
+            }
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            long weight = noWeights ? 100 : weights[i] * 100L;
+
+            if (weight == 0)
+                continue;
+
+            if (connectTimes[i] > fastest)
+                weight = weight * fastest / connectTimes[i];
+            weights[i] = (int) Math.max(weight, 1);
+        }
+        return weights;
+    }
+
+    /**
+     * Returns the string the health of the targets is persisted as: the
+     * targets separated by semicolons, each as the target and port followed
+     * by the connect time, the failure count, the time of the last failure
+     * and the time the target was last used, separated by commas.
+     *
+     * @return the serialized health of the targets.
+     */
+    synchronized String serialize()
+    {
+        StringBuilder s = new StringBuilder();
+
+        for (Map.Entry<String, TargetHealth> e : targets.entrySet())
+        {
+            TargetHealth health = e.getValue();
+
+            if (s.length() > 0)
+                s.append(';');
+            s.append(e.getKey())
+                .append(',').append(health.connectTime)
+                .append(',').append(health.failures)
+                .append(',').append(health.lastFailure)
+                .append(',').append(health.lastUsed);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Loads the health of the targets from a string returned by
+     * {@link #serialize()}, forgetting the targets not used since
+     * {@link #MAX_AGE}. Malformed entries are ignored.
+     *
+     * @param s the serialized health, can be <tt>null</tt>.
+     * @param now the current time.
+     */
+    synchronized void parse(String s, long now)
+    {
+        targets.clear();
+        if (s == null || s.length() == 0)
+            return;
+
+        for (String entry : s.split(";"))
+        {
+            String[] fields = entry.split(",");
+
+            if (fields.length != 5)
+                continue;
+
+            try
+            {
+                TargetHealth health = new TargetHealth();
+
+                health.connectTime = Long.parseLong(fields[1]);
+                health.failures = Integer.parseInt(fields[2]);
+                health.lastFailure = Long.parseLong(fields[3]);
+                health.lastUsed = Long.parseLong(fields[4]);
+                if (now - health.lastUsed <= MAX_AGE)
+                    targets.put(fields[0], health);
+            }
+            catch (NumberFormatException nfe)
+            {
+                logger.warn("Ignoring malformed SRV target health " + entry);
+            }
+        }
+    }
+
+    /**
+     * Marks the health of the targets as changed and, if we have a
+     * configuration, schedules its saving unless it already is.
+     */
+    private void save()
+    {
+        dirty = true;
+        if (configurationService == null || saveTask != null)
+            return;
+
+        if (saveTimer == null)
+            saveTimer = new Timer(SrvTargetHealth.class.getName(), true);
+        saveTask
+            = new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (SrvTargetHealth.this)
+                    {
+                        if (saveTask != this)
+                            return;
+                        saveTask = null;
+                        flush();
+                    }
+                }
+            };
+        saveTimer.schedule(saveTask, SAVE_DELAY);
+    }
+
+    /**
+     * Persists the health of the targets if it changed since it was last
+     * saved and we have a configuration.
+     */
+    synchronized void flush()
+    {
+        if (dirty && configurationService != null)
+        {
+            configurationService.setProperty(
+                    PNAME_SRV_TARGET_HEALTH,
+                    serialize());
+            dirty = false;
+        }
+    }
+
+    /**
+     * Returns the health of a target, creating it if we don't have it.
+     */
+    private TargetHealth getOrCreate(String target, int port)
+    {
+        String key = getKey(target, port);
+        TargetHealth health = targets.get(key);
+
+        if (health == null)
+        {
+            health = new TargetHealth();
+            targets.put(key, health);
+        }
+        return health;
+    }
+
+    /**
+     * Returns the time a target is backed off after <tt>failures</tt>
+     * consecutive failures.
+     */
+    static long getBackoff(int failures)
+    {
+        if (failures <= 0)
+            return 0;
+
+        // Past 2^7 times the initial backoff, we're over the maximum anyway.
+        return
+            Math.min(
+                    INITIAL_BACKOFF << Math.min(failures - 1, 7),
+                    MAX_BACKOFF);
+    }
+
+    /**
+     * Returns the key of a target: its host name in lower case without the
+     * trailing dot, and its port.
+     */
+    private static String getKey(String target, int port)
+    {
+        String host = target.toLowerCase();
+
+        if (host.endsWith("."))
+            host = host.substring(0, host.length() - 1);
+        return host + ":" + port;
+    }
+
+    /**
+     * The health of one target.
+     */
+    private static class TargetHealth
+    {
+        /**
+         * The smoothed connect time in milliseconds, -1 if unknown.
+         */
+        long connectTime = -1;
+
+        /**
+         * The number of failures since the last successful connection.
+         */
+        int failures;
+
+        /**
+         * The time of the last failure.
+         */
+        long lastFailure;
+
+        /**
+         * The time the target was last connected to or failed.
+         */
+        long lastUsed;
+    }
+}
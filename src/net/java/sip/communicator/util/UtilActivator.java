@@ -127,7 +127,7 @@ public void uncaughtException(Thread thread, Throwable exc)
     }
 
     /**
-     * Doesn't do anything.
+     * Saves the pending changes of the avatar cache.
      *
      * @param context The execution context of the bundle being stopped.
      * @throws Exception If this method throws an exception, the bundle is
@@ -138,6 +138,7 @@ public void uncaughtException(Thread thread, Throwable exc)
     public void stop(BundleContext context)
         throws Exception
     {
+        AvatarCacheUtils.flush();
     }
 
     /**
@@ -304,6 +305,19 @@ public static AccountManager getAccountManager()
         return accountManager;
     }
 
+    /**
+     * Returns the <tt>LoginOrchestrator</tt> obtained from the bundle context.
+     * The service is looked up on every call rather than cached because it
+     * is disposed of when the protocol bundle stops.
+     *
+     * @return the <tt>LoginOrchestrator</tt> obtained from the bundle context
+     * or <tt>null</tt> if it is not available.
+     */
+    public static LoginOrchestrator getLoginOrchestrator()
+    {
+        return ServiceUtils.getService(bundleContext, LoginOrchestrator.class);
+    }
+
     /**
      * Returns the <tt>MetaContactListService</tt> obtained from the bundle
      * context.
@@ -63,7 +63,9 @@ public LoginManager(LoginRenderer loginRenderer)
     }
 
     /**
-     * Registers the given protocol provider.
+     * Registers the given protocol provider. The registration is scheduled
+     * by the <tt>LoginOrchestrator</tt>, if available, so that logging in
+     * many accounts at once does not stall the application.
      *
      * @param protocolProvider the ProtocolProviderService to register.
      */
@@ -71,8 +73,21 @@ public void login(ProtocolProviderService protocolProvider)
     {
         loginRenderer.startConnectingUI(protocolProvider);
 
-        new RegisterProvider(protocolProvider,
-            loginRenderer.getSecurityAuthorityImpl(protocolProvider)).start();
+        SecurityAuthority secAuth
+            = loginRenderer.getSecurityAuthorityImpl(protocolProvider);
+
+        if (secAuth != null)
+            secAuth = new PromptingSecurityAuthority(secAuth);
+
+        RegisterProvider registerProvider
+            = new RegisterProvider(protocolProvider, secAuth);
+        LoginOrchestrator loginOrchestrator
+            = UtilActivator.getLoginOrchestrator();
+
+        if (loginOrchestrator != null)
+            loginOrchestrator.submitLogin(protocolProvider, registerProvider);
+        else
+            new Thread(registerProvider).start();
     }
 
     /**
@@ -400,10 +415,11 @@ public void setManuallyDisconnected(boolean manuallyDisconnected)
     }
 
     /**
-     * Registers a protocol provider in a separate thread.
+     * Registers a protocol provider, either in a separate thread or on a
+     * thread of the <tt>LoginOrchestrator</tt>.
      */
     private class RegisterProvider
-        extends Thread
+        implements Runnable
     {
         private final ProtocolProviderService protocolProvider;
 
@@ -426,7 +442,6 @@ public void setManuallyDisconnected(boolean manuallyDisconnected)
          * Registers the contained protocol provider and process all possible
          * errors that may occur during the registration process.
          */
-        @Override
         public void run()
         {
             try
@@ -435,22 +450,39 @@ public void run()
             }
             catch (OperationFailedException ex)
             {
-                handleOperationFailedException(ex);
+                LoginOrchestrator.beginUserInteraction();
+                try
+                {
+                    handleOperationFailedException(ex);
+                }
+                finally
+                {
+                    LoginOrchestrator.endUserInteraction();
+                }
             }
             catch (Throwable ex)
             {
                 logger.error("Failed to register protocol provider. ", ex);
 
                 AccountID accountID = protocolProvider.getAccountID();
-                UtilActivator.getAlertUIService().showAlertDialog(
-                    UtilActivator.getResources()
-                        .getI18NString("service.gui.ERROR"),
-                    UtilActivator.getResources()
-                        .getI18NString("service.gui.LOGIN_GENERAL_ERROR",
-                    new String[]
-                    { accountID.getUserID(),
-                      accountID.getProtocolName(),
-                      accountID.getService() }));
+
+                LoginOrchestrator.beginUserInteraction();
+                try
+                {
+                    UtilActivator.getAlertUIService().showAlertDialog(
+                        UtilActivator.getResources()
+                            .getI18NString("service.gui.ERROR"),
+                        UtilActivator.getResources()
+                            .getI18NString("service.gui.LOGIN_GENERAL_ERROR",
+                        new String[]
+                        { accountID.getUserID(),
+                          accountID.getProtocolName(),
+                          accountID.getService() }));
+                }
+                finally
+                {
+                    LoginOrchestrator.endUserInteraction();
+                }
             }
         }
 
@@ -588,4 +620,72 @@ else if (errorCode == OperationFailedException.NETWORK_FAILURE)
             }
         }
     }
+
+    /**
+     * Asks the user for credentials through another <tt>SecurityAuthority</tt>
+     * and lets the <tt>LoginOrchestrator</tt> run other logins while the user
+     * is being prompted.
+     */
+    private static class PromptingSecurityAuthority
+        implements SecurityAuthority
+    {
+        /**
+         * The <tt>SecurityAuthority</tt> prompting the user.
+         */
+        private final SecurityAuthority secAuth;
+
+        /**
+         * Creates a <tt>SecurityAuthority</tt> prompting the user through
+         * <tt>secAuth</tt>.
+         *
+         * @param secAuth the <tt>SecurityAuthority</tt> prompting the user.
+         */
+        PromptingSecurityAuthority(SecurityAuthority secAuth)
+        {
+            this.secAuth = secAuth;
+        }
+
+        @Override
+        public UserCredentials obtainCredentials(
+            String realm, UserCredentials defaultValues, int reasonCode)
+        {
+            LoginOrchestrator.beginUserInteraction();
+            try
+            {
+                return
+                    secAuth.obtainCredentials(realm, defaultValues, reasonCode);
+            }
+            finally
+            {
+                LoginOrchestrator.endUserInteraction();
+            }
+        }
+
+        @Override
+        public UserCredentials obtainCredentials(
+            String realm, UserCredentials defaultValues)
+        {
+            LoginOrchestrator.beginUserInteraction();
+            try
+            {
+                return secAuth.obtainCredentials(realm, defaultValues);
+            }
+            finally
+            {
+                LoginOrchestrator.endUserInteraction();
+            }
+        }
+
+        @Override
+        public void setUserNameEditable(boolean isUserNameEditable)
+        {
+            secAuth.setUserNameEditable(isUserNameEditable);
+        }
+
+        @Override
+        public boolean isUserNameEditable()
+        {
+            return secAuth.isUserNameEditable();
+        }
+    }
 }
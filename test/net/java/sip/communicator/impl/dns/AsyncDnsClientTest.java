@@ -0,0 +1,271 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+import org.xbill.DNS.*;
+
+public class AsyncDnsClientTest
+    extends TestCase
+{
+    /**
+     * A DNS server on the loopback interface answering every A query with
+     * 192.0.2.1, unless told to stay silent or to answer another question.
+     */
+    private static class TestServer
+        extends Thread
+    {
+        final DatagramSocket socket;
+
+        volatile boolean silent;
+
+        volatile boolean wrongQuestion;
+
+        final List<Integer> sourcePorts
+            = Collections.synchronizedList(new ArrayList<Integer>());
+
+        TestServer()
+            throws IOException
+        {
+            socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            setDaemon(true);
+            start();
+        }
+
+        InetSocketAddress getAddress()
+        {
+            return (InetSocketAddress) socket.getLocalSocketAddress();
+        }
+
+        @Override
+        public void run()
+        {
+            byte[] buf = new byte[512];
+
+            while (!socket.isClosed())
+            {
+                try
+                {
+                    DatagramPacket p = new DatagramPacket(buf, buf.length);
+
+                    socket.receive(p);
+                    sourcePorts.add(p.getPort());
+                    if (silent)
+                        continue;
+
+                    byte[] data = new byte[p.getLength()];
+                    System.arraycopy(buf, 0, data, 0, data.length);
+
+                    Message query = new Message(data);
+                    Record question = query.getQuestion();
+
+                    if (wrongQuestion)
+                    {
+                        question
+                            = Record.newRecord(
+                                    Name.fromString("other.example.com."),
+                                    Type.A,
+                                    DClass.IN);
+                    }
+
+                    Message response = new Message(query.getHeader().getID());
+
+                    response.getHeader().setFlag(Flags.QR);
+                    response.addRecord(question, Section.QUESTION);
+                    response.addRecord(
+                            new ARecord(
+                                    question.getName(),
+                                    DClass.IN,
+                                    60,
+                                    InetAddress.getByName("192.0.2.1")),
+                            Section.ANSWER);
+
+                    byte[] wire = response.toWire();
+                    socket.send(
+                            new DatagramPacket(
+                                    wire, wire.length, p.getSocketAddress()));
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a query.
+     */
+    private static class TestListener
+        implements AsyncDnsClient.ResponseListener
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Message response;
+
+        IOException cause;
+
+        @Override
+        public void responseReceived(Message response, InetSocketAddress s)
+        {
+            this.response = response;
+            latch.countDown();
+        }
+
+        @Override
+        public void queryFailed(IOException cause, InetSocketAddress server)
+        {
+            this.cause = cause;
+            latch.countDown();
+        }
+    }
+
+    private static Message query()
+        throws Exception
+    {
+        Message query
+            = Message.newQuery(
+                    Record.newRecord(
+                            Name.fromString("example.com."),
+                            Type.A,
+                            DClass.IN));
+
+        query.getHeader().setID(1234);
+        return query;
+    }
+
+    //@Test
+    public void testResponseIsMatchedToQuery()
+        throws Exception
+    {
+        TestServer server = new TestServer();
+        AsyncDnsClient client = new AsyncDnsClient();
+        TestListener listener = new TestListener();
+
+        try
+        {
+            client.send(query(), server.getAddress(), 5000, listener);
+            assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+            assertNull(listener.cause);
+            assertEquals(1234, listener.response.getHeader().getID());
+            assertEquals(
+                    1,
+                    listener.response.getSectionArray(Section.ANSWER).length);
+        }
+        finally
+        {
+            server.socket.close();
+        }
+    }
+
+    //@Test
+    public void testUnansweredQueryTimesOut()
+        throws Exception
+    {
+        TestServer server = new TestServer();
+        AsyncDnsClient client = new AsyncDnsClient();
+        TestListener listener = new TestListener();
+
+        server.silent = true;
+        try
+        {
+            client.send(query(), server.getAddress(), 200, listener);
+            assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+            assertTrue(listener.cause instanceof SocketTimeoutException);
+        }
+        finally
+        {
+            server.socket.close();
+        }
+    }
+
+    //@Test
+    public void testResponseToOtherQuestionIsIgnored()
+        throws Exception
+    {
+        TestServer server = new TestServer();
+        AsyncDnsClient client = new AsyncDnsClient();
+        TestListener listener = new TestListener();
+
+        server.wrongQuestion = true;
+        try
+        {
+            client.send(query(), server.getAddress(), 300, listener);
+            assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+            assertNull(listener.response);
+            assertTrue(listener.cause instanceof SocketTimeoutException);
+        }
+        finally
+        {
+            server.socket.close();
+        }
+    }
+
+    //@Test
+    public void testQueriesAreSentFromDifferentPorts()
+        throws Exception
+    {
+        TestServer server = new TestServer();
+        AsyncDnsClient client = new AsyncDnsClient();
+
+        try
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                TestListener listener = new TestListener();
+
+                client.send(query(), server.getAddress(), 5000, listener);
+                assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+                assertNotNull(listener.response);
+            }
+            assertEquals(3, server.sourcePorts.size());
+            assertTrue(
+                    server.sourcePorts.toString(),
+                    new HashSet<Integer>(server.sourcePorts).size() > 1);
+        }
+        finally
+        {
+            server.socket.close();
+        }
+    }
+
+    //@Test
+    public void testScheduledTaskRuns()
+        throws Exception
+    {
+        AsyncDnsClient client = new AsyncDnsClient();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        client.schedule(
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        latch.countDown();
+                    }
+                },
+                50);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.dns;
+
+import java.net.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.xbill.DNS.*;
+
+public class ValidatedAnswerCacheTest
+    extends TestCase
+{
+    private static final Name NAME = Name.fromConstantString("example.com.");
+
+    private static Message query()
+    {
+        return Message.newQuery(Record.newRecord(NAME, Type.A, DClass.IN));
+    }
+
+    /**
+     * Creates a secure answer with one A record of <tt>ttl</tt> seconds,
+     * signed until <tt>sigExpire</tt> if not <tt>null</tt>.
+     */
+    private static SecureMessage answer(long ttl, Date sigExpire, int rcode)
+        throws Exception
+    {
+        Message response = new Message(query().getHeader().getID());
+
+        response.getHeader().setFlag(Flags.QR);
+        response.getHeader().setFlag(Flags.AD);
+        response.getHeader().setRcode(rcode);
+        response.addRecord(query().getQuestion(), Section.QUESTION);
+        response.addRecord(
+                new ARecord(NAME, DClass.IN, ttl,
+                    InetAddress.getByName("192.0.2.1")),
+                Section.ANSWER);
+        if (sigExpire != null)
+        {
+            response.addRecord(
+                    new RRSIGRecord(NAME, DClass.IN, ttl, Type.A, 8, ttl,
+                        sigExpire, new Date(0), 1, NAME, new byte[16]),
+                    Section.ANSWER);
+        }
+        return new SecureMessage(response);
+    }
+
+    //@Test
+    public void testAnswerIsCachedWithDecreasingTtl()
+        throws Exception
+    {
+        ValidatedAnswerCache cache = new ValidatedAnswerCache(16, 86400);
+        Message query = query();
+
+        assertNull(cache.get(query, 1000));
+        assertTrue(cache.put(answer(300, null, Rcode.NOERROR), 1000));
+
+        SecureMessage cached = cache.get(query, 61000);
+
+        assertNotNull(cached);
+        assertTrue(cached.isSecure());
+        assertEquals(query.getHeader().getID(), cached.getHeader().getID());
+        assertEquals(240,
+            cached.getSectionArray(Section.ANSWER)[0].getTTL());
+        assertNull(cache.get(query, 301000));
+    }
+
+    //@Test
+    public void testSignatureExpiryBoundsLifetime()
+        throws Exception
+    {
+        ValidatedAnswerCache cache = new ValidatedAnswerCache(16, 86400);
+        Message query = query();
+
+        assertTrue(cache.put(answer(300, new Date(11000), Rcode.NOERROR),
+            1000));
+        assertNotNull(cache.get(query, 10999));
+        assertNull(cache.get(query, 11000));
+
+        // already expired signatures are not cached
+        assertFalse(cache.put(answer(300, new Date(500), Rcode.NOERROR),
+            1000));
+    }
+
+    //@Test
+    public void testMaxTtlAndSize()
+        throws Exception
+    {
+        ValidatedAnswerCache cache = new ValidatedAnswerCache(1, 10);
+        Message query = query();
+
+        assertTrue(cache.put(answer(300, null, Rcode.NOERROR), 0));
+        assertNull(cache.get(query, 10000));
+
+        Message other
+            = Message.newQuery(Record.newRecord(NAME, Type.AAAA, DClass.IN));
+        Message response = answer(300, null, Rcode.NOERROR);
+
+        response.removeAllRecords(Section.QUESTION);
+        response.addRecord(other.getQuestion(), Section.QUESTION);
+        assertTrue(cache.put(answer(300, null, Rcode.NOERROR), 0));
+        assertTrue(cache.put(new SecureMessage(response), 0));
+        assertEquals(1, cache.getSize());
+        assertNull(cache.get(query, 0));
+    }
+
+    //@Test
+    public void testFailuresAreNotCached()
+        throws Exception
+    {
+        ValidatedAnswerCache cache = new ValidatedAnswerCache(16, 86400);
+        Message bogus = new Message(query().getHeader().getID());
+
+        bogus.getHeader().setRcode(Rcode.SERVFAIL);
+        bogus.addRecord(query().getQuestion(), Section.QUESTION);
+        assertFalse(cache.put(new SecureMessage(bogus), 0));
+        assertFalse(cache.put(answer(300, null, Rcode.REFUSED), 0));
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+import java.nio.*;
+import java.util.*;
+
+import junit.framework.*;
+
+public class NetlinkRouteMonitorTest
+    extends TestCase
+{
+    private final Map<Integer, Integer> linkStates
+        = new HashMap<Integer, Integer>();
+
+    /**
+     * Appends a netlink message with an <tt>ifinfomsg</tt> payload for
+     * link messages and an empty 8 bytes payload otherwise.
+     */
+    private static void putMessage(
+            ByteBuffer buf,
+            int type,
+            int index,
+            int flags)
+    {
+        boolean link
+            = type == NetlinkRouteMonitor.RTM_NEWLINK
+                || type == NetlinkRouteMonitor.RTM_DELLINK;
+        int length = 16 + (link ? 16 : 8);
+
+        buf.putInt(length);
+        buf.putShort((short) type);
+        buf.putShort((short) 0);
+        buf.putInt(0);
+        buf.putInt(0);
+        if (link)
+        {
+            buf.put((byte) 0);
+            buf.put((byte) 0);
+            buf.putShort((short) 1);
+            buf.putInt(index);
+            buf.putInt(flags);
+            buf.putInt(0);
+        }
+        else
+        {
+            buf.putLong(0);
+        }
+    }
+
+    private boolean isChange(int... messages)
+    {
+        ByteBuffer buf
+            = ByteBuffer.allocate(1024).order(ByteOrder.nativeOrder());
+
+        for (int i = 0; i < messages.length; i += 3)
+            putMessage(buf, messages[i], messages[i + 1], messages[i + 2]);
+        buf.flip();
+        return NetlinkRouteMonitor.isConfigurationChange(buf, linkStates);
+    }
+
+    //@Test
+    public void testAddressAndRouteMessagesAreChanges()
+    {
+        assertTrue(isChange(NetlinkRouteMonitor.RTM_NEWADDR, 0, 0));
+        assertTrue(isChange(NetlinkRouteMonitor.RTM_DELADDR, 0, 0));
+        assertTrue(isChange(NetlinkRouteMonitor.RTM_NEWROUTE, 0, 0));
+        assertTrue(isChange(NetlinkRouteMonitor.RTM_DELROUTE, 0, 0));
+    }
+
+    //@Test
+    public void testLinkMessagesCountOnlyWhenTheStateChanges()
+    {
+        int up = 0x1 | 0x40 | 0x10000;
+
+        assertTrue(isChange(NetlinkRouteMonitor.RTM_NEWLINK, 3, up));
+        // statistics or wireless updates, same state
+        assertFalse(isChange(NetlinkRouteMonitor.RTM_NEWLINK, 3, up | 0x1000));
+        assertFalse(isChange(NetlinkRouteMonitor.RTM_NEWLINK, 3, up));
+        // carrier lost
+        assertTrue(isChange(NetlinkRouteMonitor.RTM_NEWLINK, 3, 0x1));
+        assertTrue(isChange(NetlinkRouteMonitor.RTM_DELLINK, 3, 0));
+        assertFalse(linkStates.containsKey(3));
+    }
+
+    //@Test
+    public void testMessagesAfterTheFirstAreRead()
+    {
+        int up = 0x1 | 0x40 | 0x10000;
+
+        isChange(NetlinkRouteMonitor.RTM_NEWLINK, 2, up);
+        assertTrue(
+                isChange(
+                        NetlinkRouteMonitor.RTM_NEWLINK, 2, up,
+                        NetlinkRouteMonitor.RTM_NEWADDR, 0, 0));
+        assertFalse(isChange(3 /* NLMSG_DONE */, 0, 0));
+    }
+
+    //@Test
+    public void testTruncatedMessageIsIgnored()
+    {
+        ByteBuffer buf
+            = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+
+        putMessage(buf, NetlinkRouteMonitor.RTM_NEWADDR, 0, 0);
+        buf.flip();
+        buf.limit(20);
+        assertFalse(NetlinkRouteMonitor.isConfigurationChange(buf, linkStates));
+    }
+}
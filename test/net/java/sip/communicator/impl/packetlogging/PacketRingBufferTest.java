@@ -0,0 +1,152 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.util.*;
+
+import junit.framework.*;
+
+public class PacketRingBufferTest
+    extends TestCase
+{
+    private static final byte[] SRC = new byte[] { 10, 0, 0, 1 };
+
+    private static final byte[] DST = new byte[] { 10, 0, 0, 2 };
+
+    /**
+     * Adds a packet whose content is <tt>length</tt> times <tt>value</tt>.
+     */
+    private static boolean add(
+            PacketRingBuffer ring, long timestamp, int value, int length)
+    {
+        byte[] content = new byte[length + 2];
+
+        Arrays.fill(content, 1, length + 1, (byte) value);
+        return ring.add(
+                timestamp, SRC, 5060, DST, 5061, false, true, content, 1,
+                length);
+    }
+
+    //@Test
+    public void testPacketsAreReturnedInOrder()
+        throws Exception
+    {
+        PacketRingBuffer ring = new PacketRingBuffer(1024, 0);
+
+        assertTrue(add(ring, 1, 1, 10));
+        assertTrue(add(ring, 2, 2, 20));
+
+        List<PacketRingBuffer.RecordedPacket> packets = ring.snapshot(3);
+
+        assertEquals(2, packets.size());
+        assertEquals(1, packets.get(0).timestamp);
+        assertEquals(10, packets.get(0).content.length);
+        assertEquals(1, packets.get(0).content[9]);
+        assertEquals(5060, packets.get(0).sourcePort);
+        assertEquals(5061, packets.get(0).destinationPort);
+        assertTrue(packets.get(0).sender);
+        assertFalse(packets.get(0).tcp);
+        assertTrue(Arrays.equals(DST, packets.get(1).destinationAddress));
+        assertEquals(2, packets.get(1).content[19]);
+    }
+
+    //@Test
+    public void testOldestPacketsAreEvictedWhenFull()
+        throws Exception
+    {
+        // each record takes 19 + 8 + 50 = 77 bytes
+        PacketRingBuffer ring = new PacketRingBuffer(300, 0);
+
+        for (int i = 0; i < 20; i++)
+            assertTrue(add(ring, i, i, 50));
+
+        List<PacketRingBuffer.RecordedPacket> packets = ring.snapshot(20);
+
+        assertEquals(3, packets.size());
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(17 + i, packets.get(i).timestamp);
+            assertEquals(17 + i, packets.get(i).content[49]);
+        }
+    }
+
+    //@Test
+    public void testVariableSizesAcrossWraps()
+        throws Exception
+    {
+        PacketRingBuffer ring = new PacketRingBuffer(500, 0);
+        Random random = new Random(42);
+        List<Integer> lengths = new ArrayList<Integer>();
+
+        for (int i = 0; i < 1000; i++)
+        {
+            int length = random.nextInt(200);
+
+            assertTrue(add(ring, i, i, length));
+            lengths.add(length);
+
+            List<PacketRingBuffer.RecordedPacket> packets = ring.snapshot(i);
+            int used = 0;
+
+            assertFalse(packets.isEmpty());
+            assertEquals(packets.size(), ring.size());
+            for (int j = 0; j < packets.size(); j++)
+            {
+                PacketRingBuffer.RecordedPacket p = packets.get(j);
+                long expected = i - packets.size() + 1 + j;
+
+                assertEquals(expected, p.timestamp);
+                assertEquals(
+                        (int) lengths.get((int) expected),
+                        p.content.length);
+                for (byte b : p.content)
+                    assertEquals((byte) expected, b);
+                used += 27 + p.content.length;
+            }
+            assertTrue(used <= 500);
+        }
+    }
+
+    //@Test
+    public void testExpiredPacketsAreEvicted()
+        throws Exception
+    {
+        PacketRingBuffer ring = new PacketRingBuffer(1024, 1000);
+
+        add(ring, 1000, 1, 10);
+        add(ring, 1500, 2, 10);
+        add(ring, 2200, 3, 10);
+
+        List<PacketRingBuffer.RecordedPacket> packets = ring.snapshot(2400);
+
+        assertEquals(2, packets.size());
+        assertEquals(2200, packets.get(1).timestamp);
+        assertEquals(0, ring.snapshot(5000).size());
+    }
+
+    //@Test
+    public void testTooLargePacketIsRejected()
+        throws Exception
+    {
+        PacketRingBuffer ring = new PacketRingBuffer(100, 0);
+
+        assertTrue(add(ring, 1, 1, 10));
+        assertFalse(add(ring, 2, 2, 100));
+        assertEquals(1, ring.snapshot(3).size());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.packetlogging;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import junit.framework.*;
+
+public class PcapngWriterTest
+    extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile("packetlogging", ".pcapng");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Reads the blocks of the file, checking that the leading and trailing
+     * lengths of every block match.
+     */
+    private List<ByteBuffer> readBlocks()
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] data = new byte[(int) raf.length()];
+
+        try
+        {
+            raf.readFully(data);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+
+        while (buf.hasRemaining())
+        {
+            int start = buf.position();
+            int length = buf.getInt(start + 4);
+
+            assertEquals(0, length % 4);
+            assertEquals(length, buf.getInt(start + length - 4));
+
+            ByteBuffer block = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            block.limit(start + length);
+            blocks.add(block.slice().order(ByteOrder.LITTLE_ENDIAN));
+            buf.position(start + length);
+        }
+        return blocks;
+    }
+
+    //@Test
+    public void testHeaderAndInterfaces()
+        throws Exception
+    {
+        PcapngWriter writer = new PcapngWriter(1024);
+
+        writer.open(file, new String[] { "SIP", "JABBER" });
+        writer.close();
+
+        List<ByteBuffer> blocks = readBlocks();
+
+        assertEquals(3, blocks.size());
+        assertEquals(0x0A0D0D0A, blocks.get(0).getInt(0));
+        assertEquals(0x1A2B3C4D, blocks.get(0).getInt(8));
+        assertEquals(1, blocks.get(1).getInt(0));
+        assertEquals(1, blocks.get(1).getShort(8));
+        assertEquals(1, blocks.get(2).getInt(0));
+        assertEquals(file.length(), writer.size());
+    }
+
+    //@Test
+    public void testPacketsAreBufferedUntilFlushed()
+        throws Exception
+    {
+        PcapngWriter writer = new PcapngWriter(4096);
+        byte[] header = new byte[] { 1, 2, 3 };
+        byte[] content = new byte[] { 9, 9, 4, 5, 6, 7, 9 };
+
+        writer.open(file, new String[] { "SIP", "JABBER" });
+        writer.flush();
+
+        long headerSize = file.length();
+
+        writer.writePacket(1, 1500L, header, header.length, content, 2, 4);
+        assertEquals(headerSize, file.length());
+
+        writer.flush();
+        assertEquals(writer.size(), file.length());
+        writer.close();
+
+        ByteBuffer epb = readBlocks().get(3);
+
+        assertEquals(6, epb.getInt(0));
+        assertEquals(1, epb.getInt(8));
+        assertEquals(1500000L, epb.getInt(16) & 0xffffffffL);
+        assertEquals(7, epb.getInt(20));
+        assertEquals(7, epb.getInt(24));
+        for (int i = 0; i < 7; i++)
+            assertEquals(i + 1, epb.get(28 + i));
+    }
+
+    //@Test
+    public void testPayloadLargerThanBuffer()
+        throws Exception
+    {
+        PcapngWriter writer = new PcapngWriter(256);
+        byte[] content = new byte[1001];
+
+        Arrays.fill(content, (byte) 7);
+        writer.open(file, new String[] { "SIP" });
+        writer.writePacket(0, 0L, new byte[14], 14, content, 0, 600);
+        writer.writePacket(0, 0L, new byte[14], 14, content, 0, 1001);
+        writer.close();
+
+        List<ByteBuffer> blocks = readBlocks();
+
+        assertEquals(4, blocks.size());
+        assertEquals(1015, blocks.get(3).getInt(20));
+        assertEquals(7, blocks.get(3).get(28 + 14 + 1000));
+        assertEquals(file.length(), writer.size());
+    }
+}
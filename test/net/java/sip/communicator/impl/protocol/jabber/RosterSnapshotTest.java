@@ -0,0 +1,92 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jivesoftware.smack.packet.*;
+
+public class RosterSnapshotTest
+    extends TestCase
+{
+    private static String signature(String name, String... groups)
+    {
+        return RosterSnapshot.getSignature(
+            name,
+            RosterPacket.ItemType.both,
+            null,
+            Arrays.asList(groups));
+    }
+
+    //@Test
+    public void testFirstRosterIsNotADelta()
+    {
+        RosterSnapshot snapshot = new RosterSnapshot();
+        assertFalse(snapshot.isInitialized());
+
+        Map<String, String> roster = new HashMap<String, String>();
+        roster.put("alice@example.com", signature("Alice", "Friends"));
+        snapshot.reset(roster);
+
+        assertTrue(snapshot.isInitialized());
+        assertEquals(1, snapshot.size());
+
+        snapshot.clear();
+        assertFalse(snapshot.isInitialized());
+    }
+
+    //@Test
+    public void testDelta()
+    {
+        RosterSnapshot snapshot = new RosterSnapshot();
+        Map<String, String> roster = new LinkedHashMap<String, String>();
+        roster.put("alice@example.com", signature("Alice", "Friends"));
+        roster.put("bob@example.com", signature("Bob", "Work"));
+        roster.put("carol@example.com", signature("Carol"));
+        snapshot.reset(roster);
+
+        Map<String, String> newRoster = new LinkedHashMap<String, String>();
+        // group order does not matter
+        newRoster.put(
+            "Alice@example.com", signature("Alice", "Friends"));
+        newRoster.put("bob@example.com", signature("Bob", "Family"));
+        newRoster.put("dave@example.com", signature("Dave"));
+
+        RosterSnapshot.Delta delta = snapshot.apply(newRoster);
+
+        assertEquals(
+            Collections.singletonList("dave@example.com"), delta.added);
+        assertEquals(
+            Collections.singletonList("bob@example.com"), delta.updated);
+        assertEquals(
+            Collections.singletonList("carol@example.com"), delta.deleted);
+
+        assertTrue(snapshot.apply(newRoster).isEmpty());
+        assertEquals(3, snapshot.size());
+    }
+
+    //@Test
+    public void testGroupOrderIgnored()
+    {
+        assertEquals(
+            signature("Alice", "A", "B"), signature("Alice", "B", "A"));
+        assertFalse(signature("Alice").equals(signature("Alicia")));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.protocol.ServerStoredDetails.*;
+
+public class VCardCacheTest
+    extends TestCase
+{
+    private static List<GenericDetail> details(String name)
+    {
+        List<GenericDetail> details = new LinkedList<GenericDetail>();
+        details.add(new DisplayNameDetail(name));
+        return details;
+    }
+
+    private static VCardCache newCache(File dir)
+    {
+        return new VCardCache(
+            dir,
+            VCardCache.DEFAULT_MAX_CACHED_VCARDS,
+            VCardCache.DEFAULT_MAX_STORED_VCARDS,
+            VCardCache.DEFAULT_VCARD_TTL);
+    }
+
+    //@Test
+    public void testHitsAndMisses()
+    {
+        VCardCache cache = newCache(null);
+
+        assertNull(cache.get("alice@example.com"));
+        assertNull(cache.load("alice@example.com"));
+        assertEquals(1, cache.getMisses());
+
+        List<GenericDetail> alice = details("Alice");
+        cache.put("alice@example.com", alice, "", null);
+
+        assertSame(alice, cache.get("alice@example.com"));
+        assertEquals(1, cache.getHits());
+    }
+
+    //@Test
+    public void testBounded()
+    {
+        VCardCache cache = newCache(null);
+        int max = VCardCache.DEFAULT_MAX_CACHED_VCARDS;
+
+        for (int i = 0; i <= max; i++)
+            cache.put("user" + i + "@example.com", details("" + i), "", null);
+
+        assertEquals(max, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("user0@example.com"));
+        assertNotNull(cache.get("user" + max + "@example.com"));
+    }
+
+    //@Test
+    public void testPhotoHashInvalidation()
+    {
+        VCardCache cache = newCache(null);
+
+        cache.put("alice@example.com", details("Alice"), "abc", null);
+
+        assertFalse(cache.photoHashReceived("alice@example.com", "abc"));
+        assertNotNull(cache.get("alice@example.com"));
+
+        assertTrue(cache.photoHashReceived("alice@example.com", "def"));
+        assertNull(cache.get("alice@example.com"));
+
+        // unknown contacts have nothing to invalidate
+        assertFalse(cache.photoHashReceived("bob@example.com", "abc"));
+    }
+
+    //@Test
+    public void testNormalizedKeys()
+    {
+        VCardCache cache = newCache(null);
+        List<GenericDetail> alice = details("Alice");
+
+        cache.put("Alice@Example.com", alice, "abc", null);
+
+        assertSame(alice, cache.get("alice@example.com"));
+        assertFalse(cache.photoHashReceived("ALICE@example.com", "abc"));
+        assertTrue(cache.photoHashReceived("alice@example.COM", "def"));
+        assertNull(cache.get("Alice@Example.com"));
+
+        // chat room occupants keep their nickname
+        assertEquals(
+            "room@conference.example.com/Nick",
+            VCardCache.getKey("Room@Conference.example.com/Nick"));
+    }
+
+    //@Test
+    public void testStoredAcrossInstances() throws Exception
+    {
+        File dir = File.createTempFile("vcards", "");
+        assertTrue(dir.delete() && dir.mkdir());
+
+        try
+        {
+            String xml = "<vCard xmlns='vcard-temp'><NICKNAME>al</NICKNAME>"
+                + "</vCard>";
+
+            newCache(dir).put(
+                "Alice@example.com", details("Alice"), "abc", xml);
+
+            VCardCache cache = newCache(dir);
+            assertNull(cache.get("alice@example.com"));
+            assertEquals(xml, cache.load("alice@example.com"));
+            assertEquals(1, cache.getDiskHits());
+
+            // a changed photo drops the stored vCard too
+            assertTrue(cache.photoHashReceived("alice@example.com", ""));
+            assertNull(newCache(dir).load("alice@example.com"));
+        }
+        finally
+        {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import net.java.sip.communicator.impl.protocol.jabber.extensions.colibri.*;
+import net.java.sip.communicator.impl.protocol.jabber.extensions.jingle.*;
+
+import org.jivesoftware.smack.packet.*;
+import org.xmlpull.mxp1.*;
+import org.xmlpull.v1.*;
+
+/**
+ * Tests the serialization of <tt>AbstractPacketExtension</tt> trees and
+ * measures it for large Jingle and COLIBRI stanzas.
+ */
+public class AbstractPacketExtensionTest
+    extends TestCase
+{
+    /**
+     * The number of times the large stanzas are serialized when measuring.
+     */
+    private static final int ITERATIONS = 2000;
+
+    /**
+     * Creates a new <tt>AbstractPacketExtension</tt> with a specific element
+     * name and namespace.
+     */
+    private static AbstractPacketExtension createExtension(
+            String namespace,
+            String elementName)
+    {
+        return new AbstractPacketExtension(namespace, elementName)
+        {
+        };
+    }
+
+    /**
+     * Creates a <tt>session-initiate</tt> with a number of contents, each of
+     * which has payload types and candidates.
+     */
+    static JingleIQ createJingleIQ(int contentCount)
+    {
+        JingleIQ iq = new JingleIQ();
+
+        iq.setAction(JingleAction.SESSION_INITIATE);
+        iq.setSID(JingleIQ.generateSID());
+        iq.setInitiator("alice@example.com/jitsi");
+        for (int c = 0; c < contentCount; c++)
+        {
+            ContentPacketExtension content
+                = new ContentPacketExtension(
+                        ContentPacketExtension.CreatorEnum.initiator,
+                        "content" + c);
+            RtpDescriptionPacketExtension description
+                = new RtpDescriptionPacketExtension();
+
+            description.setMedia((c % 2 == 0) ? "audio" : "video");
+            for (int p = 0; p < 16; p++)
+            {
+                PayloadTypePacketExtension payloadType
+                    = new PayloadTypePacketExtension();
+
+                payloadType.setId(96 + p);
+                payloadType.setName("codec" + p);
+                payloadType.setClockrate(90000);
+                payloadType.addParameter(
+                        new ParameterPacketExtension("profile-level-id", "42e01f"));
+                payloadType.addParameter(
+                        new ParameterPacketExtension("packetization-mode", "1"));
+                description.addPayloadType(payloadType);
+            }
+            content.addChildExtension(description);
+
+            IceUdpTransportPacketExtension transport
+                = new IceUdpTransportPacketExtension();
+
+            transport.setUfrag("117916df");
+            transport.setPassword("15929b4d44ae40fbcc6d51b6e4a468aa");
+            for (int i = 0; i < 8; i++)
+            {
+                CandidatePacketExtension candidate
+                    = new CandidatePacketExtension();
+
+                candidate.setComponent(1);
+                candidate.setFoundation(Integer.toString(i));
+                candidate.setIP("10.0.0." + i);
+                candidate.setPort(10000 + i);
+                candidate.setPriority(2130706431L - i);
+                candidate.setProtocol("udp");
+                candidate.setType(CandidateType.host);
+                transport.addCandidate(candidate);
+            }
+            content.addChildExtension(transport);
+            iq.addContent(content);
+        }
+        iq.setReason(new ReasonPacketExtension(Reason.SUCCESS, "done", null));
+        return iq;
+    }
+
+    /**
+     * Creates a COLIBRI conference with a number of channels, each of which
+     * has payload types and sources.
+     */
+    private static ColibriConferenceIQ createColibriConferenceIQ(
+            int channelCount)
+    {
+        ColibriConferenceIQ iq = new ColibriConferenceIQ();
+
+        iq.setID("cce6f2fe74002273");
+        for (String contentName : new String[] { "audio", "video" })
+        {
+            ColibriConferenceIQ.Content content
+                = iq.getOrCreateContent(contentName);
+
+            for (int c = 0; c < channelCount; c++)
+            {
+                ColibriConferenceIQ.Channel channel
+                    = new ColibriConferenceIQ.Channel();
+
+                channel.setID(contentName + c);
+                channel.setEndpoint("endpoint" + c);
+                for (int p = 0; p < 4; p++)
+                {
+                    PayloadTypePacketExtension payloadType
+                        = new PayloadTypePacketExtension();
+
+                    payloadType.setId(100 + p);
+                    payloadType.setName("VP8");
+                    payloadType.setClockrate(90000);
+                    channel.addPayloadType(payloadType);
+                }
+                for (int s = 0; s < 3; s++)
+                {
+                    SourcePacketExtension source = new SourcePacketExtension();
+
+                    source.setSSRC(246878015L + c * 3 + s);
+                    source.addParameter(
+                            new ParameterPacketExtension(
+                                    "msid",
+                                    "404a72b1-a51a-a545 135dd87a-1c7a-fb4d"));
+                    channel.addSource(source);
+                }
+                content.addChannel(channel);
+            }
+        }
+        return iq;
+    }
+
+    /**
+     * Parses a specific XML string with a new namespace aware parser and
+     * returns it positioned at the root element.
+     */
+    static XmlPullParser parse(String xml)
+        throws Exception
+    {
+        XmlPullParser parser = new MXParser();
+
+        parser.setFeature(
+                "http://xmlpull.org/v1/doc/features.html#process-namespaces",
+                true);
+        parser.setInput(new StringReader(xml));
+        parser.next();
+        return parser;
+    }
+
+    //@Test
+    public void testEscaping()
+        throws Exception
+    {
+        AbstractPacketExtension ext = createExtension("urn:test", "test");
+
+        ext.setAttribute("name", "a'b\"c<d>&e");
+        ext.setText("1 < 2 & 'x'");
+
+        String xml = ext.toXML();
+
+        assertEquals(
+                "<test xmlns='urn:test' name='a&apos;b&quot;c&lt;d&gt;&amp;e'>"
+                    + "1 &lt; 2 &amp; &apos;x&apos;</test>",
+                xml);
+
+        XmlPullParser parser = parse(xml);
+
+        assertEquals("a'b\"c<d>&e", parser.getAttributeValue("", "name"));
+        assertEquals("1 < 2 & 'x'", parser.nextText());
+    }
+
+    //@Test
+    public void testAppendXML()
+    {
+        AbstractPacketExtension parent = createExtension("urn:test", "parent");
+        AbstractPacketExtension child = createExtension(null, "child");
+
+        child.setAttribute("id", 1);
+        parent.addChildExtension(child);
+        // ReasonPacketExtension overrides toXML() and is delegated to.
+        parent.addChildExtension(
+                new ReasonPacketExtension(Reason.SUCCESS, null, null));
+
+        StringBuilder bldr = new StringBuilder("<iq>");
+
+        parent.appendXML(bldr);
+        bldr.append("</iq>");
+
+        assertEquals("<iq>" + parent.toXML() + "</iq>", bldr.toString());
+        assertEquals(
+                "<parent xmlns='urn:test'><child  id='1'/>"
+                    + "<reason><success/></reason></parent>",
+                parent.toXML());
+
+        bldr.setLength(0);
+        AbstractPacketExtension.appendXML(bldr, new DefaultPacketExtension(
+                "other", "urn:other"));
+        assertEquals(
+                new DefaultPacketExtension("other", "urn:other").toXML(),
+                bldr.toString());
+    }
+
+    //@Test
+    public void testLargeStanzasSerializeAsBefore()
+    {
+        JingleIQ jingleIQ = createJingleIQ(8);
+
+        for (ContentPacketExtension content : jingleIQ.getContentList())
+        {
+            assertSerializedAsBefore(content);
+            assertTrue(jingleIQ.toXML().contains(content.toXML()));
+        }
+
+        ColibriConferenceIQ colibriIQ = createColibriConferenceIQ(16);
+
+        for (ColibriConferenceIQ.Content content : colibriIQ.getContents())
+        {
+            for (ColibriConferenceIQ.Channel channel : content.getChannels())
+            {
+                for (PacketExtension payloadType : channel.getPayloadTypes())
+                    assertSerializedAsBefore(payloadType);
+                for (PacketExtension source : channel.getSources())
+                    assertSerializedAsBefore(source);
+            }
+        }
+    }
+
+    //@Test
+    public void testSerializeLargeStanzas()
+    {
+        measure("Jingle session-initiate", createJingleIQ(8));
+        measure("COLIBRI conference", createColibriConferenceIQ(16));
+    }
+
+    /**
+     * Serializes a specific <tt>IQ</tt> {@link #ITERATIONS} times and prints
+     * the throughput. Does not assert anything so that slow machines do not
+     * fail the build.
+     */
+    private static void measure(String name, IQ iq)
+    {
+        String xml = iq.toXML();
+        long bytes = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++)
+            bytes += iq.toXML().length();
+
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        System.out.println(
+                name + ": " + xml.length() + " chars, "
+                    + (ITERATIONS * 1000000000L / elapsed) + " stanzas/s, "
+                    + (bytes * 1000L / elapsed) + " chars/us");
+    }
+
+    /**
+     * Asserts that both <tt>toXML()</tt> and <tt>appendXML()</tt> serialize
+     * a specific extension exactly as <tt>toXML()</tt> did before it
+     * appended its descendants to a single buffer.
+     */
+    private static void assertSerializedAsBefore(PacketExtension extension)
+    {
+        String expected = toXMLAsBefore(extension);
+        StringBuilder bldr = new StringBuilder();
+
+        AbstractPacketExtension.appendXML(bldr, extension);
+        assertEquals(expected, bldr.toString());
+        assertEquals(expected, extension.toXML());
+    }
+
+    /**
+     * Serializes a specific extension the way
+     * <tt>AbstractPacketExtension.toXML()</tt> did when every element built
+     * its own string. Does not escape, like it did not.
+     */
+    private static String toXMLAsBefore(PacketExtension extension)
+    {
+        if (!(extension instanceof AbstractPacketExtension)
+                || overridesToXML(extension))
+            return extension.toXML();
+
+        AbstractPacketExtension ext = (AbstractPacketExtension) extension;
+        StringBuilder bldr = new StringBuilder();
+
+        bldr.append("<").append(ext.getElementName()).append(" ");
+        if (ext.getNamespace() != null)
+            bldr.append("xmlns='").append(ext.getNamespace()).append("'");
+        for (String name : ext.getAttributeNames())
+        {
+            bldr.append(" ").append(name).append("='")
+                .append(ext.getAttribute(name)).append("'");
+        }
+
+        List<? extends PacketExtension> children = ext.getChildExtensions();
+        List<Packet> packets = ext.getPackets();
+        String text = ext.getText();
+
+        if (children.isEmpty() && packets.isEmpty()
+                && ((text == null) || (text.length() == 0)))
+            return bldr.append("/>").toString();
+
+        bldr.append(">");
+        for (PacketExtension child : children)
+            bldr.append(toXMLAsBefore(child));
+        for (Packet packet : packets)
+            bldr.append(packet.toXML());
+        if ((text != null) && (text.trim().length() > 0))
+            bldr.append(text);
+        bldr.append("</").append(ext.getElementName()).append(">");
+        return bldr.toString();
+    }
+
+    /**
+     * Determines whether the class of a specific extension overrides
+     * <tt>toXML()</tt> of <tt>AbstractPacketExtension</tt>.
+     */
+    private static boolean overridesToXML(PacketExtension extension)
+    {
+        try
+        {
+            return extension.getClass().getMethod("toXML").getDeclaringClass()
+                != AbstractPacketExtension.class;
+        }
+        catch (NoSuchMethodException ex)
+        {
+            throw new AssertionFailedError(ex.toString());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import net.java.sip.communicator.impl.protocol.jabber.*;
+import net.java.sip.communicator.impl.protocol.jabber.extensions.jingle.*;
+import net.java.sip.communicator.service.protocol.jabber.*;
+
+import org.jivesoftware.smack.packet.*;
+
+/**
+ * Tests the parsing of packet extensions by
+ * <tt>DefaultPacketExtensionProvider</tt> and measures it for a large Jingle
+ * stanza.
+ */
+public class DefaultPacketExtensionProviderTest
+    extends TestCase
+{
+    /**
+     * The number of times the large stanza is parsed when measuring.
+     */
+    private static final int ITERATIONS = 1000;
+
+    /**
+     * The provider of Jingle IQs, which registers the providers of their
+     * extensions.
+     */
+    private JingleIQProvider jingleIQProvider;
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        AbstractSmackInteroperabilityLayer.setImplementationClass(
+                SmackV3InteroperabilityLayer.class);
+        jingleIQProvider = new JingleIQProvider();
+    }
+
+    //@Test
+    public void testParseJingle()
+        throws Exception
+    {
+        JingleIQ iq = AbstractPacketExtensionTest.createJingleIQ(2);
+        String xml = iq.getChildElementXML();
+        JingleIQ parsed
+            = jingleIQProvider.parseIQ(AbstractPacketExtensionTest.parse(xml));
+
+        assertEquals(JingleAction.SESSION_INITIATE, parsed.getAction());
+        assertEquals(iq.getSID(), parsed.getSID());
+
+        List<ContentPacketExtension> contents = parsed.getContentList();
+
+        assertEquals(2, contents.size());
+        assertEquals(
+                8,
+                contents.get(0)
+                    .getFirstChildOfType(IceUdpTransportPacketExtension.class)
+                        .getCandidateList().size());
+
+        List<PayloadTypePacketExtension> payloadTypes0
+            = contents.get(0)
+                .getFirstChildOfType(RtpDescriptionPacketExtension.class)
+                    .getPayloadTypes();
+        List<PayloadTypePacketExtension> payloadTypes1
+            = contents.get(1)
+                .getFirstChildOfType(RtpDescriptionPacketExtension.class)
+                    .getPayloadTypes();
+
+        assertEquals(16, payloadTypes0.size());
+        assertEquals(96, payloadTypes0.get(0).getID());
+
+        // Attribute names are shared by all parsed extensions.
+        assertSame(
+                payloadTypes0.get(0).getAttributeNames().get(0),
+                payloadTypes1.get(0).getAttributeNames().get(0));
+    }
+
+    //@Test
+    public void testParseLargeStanza()
+        throws Exception
+    {
+        String xml = AbstractPacketExtensionTest.createJingleIQ(8)
+            .getChildElementXML();
+
+        // Warm up the parsers before measuring.
+        for (int i = 0; i < ITERATIONS / 10; i++)
+            jingleIQProvider.parseIQ(AbstractPacketExtensionTest.parse(xml));
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++)
+            jingleIQProvider.parseIQ(AbstractPacketExtensionTest.parse(xml));
+
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        System.out.println(
+                "Jingle session-initiate: " + xml.length() + " chars, "
+                    + (ITERATIONS * 1000000000L / elapsed) + " stanzas/s");
+    }
+
+    //@Test
+    public void testFactoriesParseAsReflection()
+        throws Exception
+    {
+        String xml = AbstractPacketExtensionTest.createJingleIQ(8)
+            .getChildElementXML();
+        AbstractSmackInteroperabilityLayer smack
+            = AbstractSmackInteroperabilityLayer.getInstance();
+
+        // Create the most frequent elements with Class.newInstance(), as
+        // before the factories.
+        smack.addExtensionProvider(
+                PayloadTypePacketExtension.ELEMENT_NAME,
+                RtpDescriptionPacketExtension.NAMESPACE,
+                newReflectionProvider(PayloadTypePacketExtension.class));
+        smack.addExtensionProvider(
+                ParameterPacketExtension.ELEMENT_NAME,
+                RtpDescriptionPacketExtension.NAMESPACE,
+                newReflectionProvider(ParameterPacketExtension.class));
+        smack.addExtensionProvider(
+                CandidatePacketExtension.ELEMENT_NAME,
+                IceUdpTransportPacketExtension.NAMESPACE,
+                newReflectionProvider(CandidatePacketExtension.class));
+
+        JingleIQ byReflection
+            = jingleIQProvider.parseIQ(AbstractPacketExtensionTest.parse(xml));
+
+        // Registers the factories again.
+        jingleIQProvider = new JingleIQProvider();
+
+        JingleIQ byFactories
+            = jingleIQProvider.parseIQ(AbstractPacketExtensionTest.parse(xml));
+
+        assertEquals(
+                byReflection.getContentList().size(),
+                byFactories.getContentList().size());
+        for (int i = 0; i < byReflection.getContentList().size(); i++)
+        {
+            assertSameTree(
+                    byReflection.getContentList().get(i),
+                    byFactories.getContentList().get(i));
+        }
+        assertEquals(
+                byReflection.getChildElementXML(),
+                byFactories.getChildElementXML());
+    }
+
+    /**
+     * Creates a provider which creates its extensions with
+     * <tt>Class.newInstance()</tt>.
+     */
+    private static <C extends AbstractPacketExtension>
+        DefaultPacketExtensionProvider<C> newReflectionProvider(
+            final Class<C> c)
+    {
+        return new DefaultPacketExtensionProvider<C>(
+                c,
+                new DefaultPacketExtensionProvider.Factory<C>()
+                {
+                    @Override
+                    public C create()
+                        throws Exception
+                    {
+                        return c.newInstance();
+                    }
+                });
+    }
+
+    /**
+     * Asserts that two parsed extension trees have the same classes,
+     * elements, attributes and texts, and that they share the instances of
+     * their attribute names.
+     */
+    private static void assertSameTree(
+            PacketExtension expected,
+            PacketExtension actual)
+    {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getElementName(), actual.getElementName());
+        assertEquals(expected.getNamespace(), actual.getNamespace());
+        if (!(expected instanceof AbstractPacketExtension))
+            return;
+
+        AbstractPacketExtension expectedExt
+            = (AbstractPacketExtension) expected;
+        AbstractPacketExtension actualExt = (AbstractPacketExtension) actual;
+        List<String> expectedNames = expectedExt.getAttributeNames();
+        List<String> actualNames = actualExt.getAttributeNames();
+
+        assertEquals(expectedNames.size(), actualNames.size());
+        for (int i = 0; i < expectedNames.size(); i++)
+        {
+            String name = expectedNames.get(i);
+
+            assertSame(name, actualNames.get(i));
+            assertEquals(
+                    expectedExt.getAttributeAsString(name),
+                    actualExt.getAttributeAsString(name));
+        }
+        assertEquals(expectedExt.getText(), actualExt.getText());
+
+        List<? extends PacketExtension> expectedChildren
+            = expectedExt.getChildExtensions();
+        List<? extends PacketExtension> actualChildren
+            = actualExt.getChildExtensions();
+
+        assertEquals(expectedChildren.size(), actualChildren.size());
+        for (int i = 0; i < expectedChildren.size(); i++)
+            assertSameTree(expectedChildren.get(i), actualChildren.get(i));
+    }
+}
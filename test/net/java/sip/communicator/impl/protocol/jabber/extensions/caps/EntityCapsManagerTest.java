@@ -0,0 +1,162 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions.caps;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.easymock.*;
+import org.jitsi.service.configuration.*;
+import org.jivesoftware.smackx.packet.*;
+import org.osgi.framework.*;
+
+public class EntityCapsManagerTest
+    extends TestCase
+{
+    private final Map<String, Object> properties
+        = new HashMap<String, Object>();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void setUp()
+    {
+        ServiceReference<ConfigurationService> reference
+            = EasyMock.createMock(ServiceReference.class);
+        BundleContext bundleContext
+            = EasyMock.createMock(BundleContext.class);
+
+        EasyMock.expect(
+                bundleContext.getServiceReference(ConfigurationService.class))
+            .andReturn(reference).anyTimes();
+        EasyMock.expect(bundleContext.getService(reference))
+            .andReturn(mapConfiguration(properties)).anyTimes();
+        EasyMock.replay(reference, bundleContext);
+
+        EntityCapsManager.setBundleContext(bundleContext);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        EntityCapsManager.setBundleContext(null);
+    }
+
+    private static DiscoverInfo discoverInfo(String feature)
+    {
+        DiscoverInfo info = new DiscoverInfo();
+
+        info.addFeature(feature);
+        return info;
+    }
+
+    //@Test
+    public void testResourcesDoNotShareFeatures()
+    {
+        EntityCapsManager.addDiscoverInfoByEntity(
+            "alice@example.com/desktop", discoverInfo("urn:example:video"));
+        EntityCapsManager.addDiscoverInfoByEntity(
+            "alice@example.com/phone", discoverInfo("urn:example:audio"));
+
+        assertNull(
+            EntityCapsManager.getDiscoverInfoByEntity(
+                "alice@example.com/desktop"));
+        assertNull(
+            EntityCapsManager.getDiscoverInfoByEntity(
+                "alice@example.com/phone"));
+        assertNull(
+            EntityCapsManager.getDiscoverInfoByEntity("alice@example.com"));
+        assertTrue(properties.isEmpty());
+    }
+
+    //@Test
+    public void testBareAndServerJidsArePersisted()
+    {
+        EntityCapsManager.addDiscoverInfoByEntity(
+            "Alice@example.com", discoverInfo("urn:example:audio"));
+        EntityCapsManager.addDiscoverInfoByEntity(
+            "conference.example.com", discoverInfo("urn:example:muc"));
+
+        DiscoverInfo bare
+            = EntityCapsManager.getDiscoverInfoByEntity("alice@example.com");
+        DiscoverInfo server
+            = EntityCapsManager.getDiscoverInfoByEntity(
+                    "conference.example.com");
+
+        assertTrue(bare.containsFeature("urn:example:audio"));
+        assertFalse(bare.containsFeature("urn:example:muc"));
+        assertTrue(server.containsFeature("urn:example:muc"));
+        assertNull(
+            EntityCapsManager.getDiscoverInfoByEntity(
+                "alice@example.com/desktop"));
+        assertEquals(2, properties.size());
+    }
+
+    /**
+     * Returns a configuration keeping its properties in a specific map.
+     */
+    private static ConfigurationService mapConfiguration(
+            final Map<String, Object> properties)
+    {
+        return
+            (ConfigurationService)
+                Proxy.newProxyInstance(
+                        ConfigurationService.class.getClassLoader(),
+                        new Class<?>[] { ConfigurationService.class },
+                        new InvocationHandler()
+                        {
+                            @Override
+                            public Object invoke(
+                                    Object proxy,
+                                    Method method,
+                                    Object[] args)
+                            {
+                                String name = method.getName();
+
+                                if (name.equals("setProperty"))
+                                    properties.put((String) args[0], args[1]);
+                                else if (name.equals("removeProperty"))
+                                    properties.remove(args[0]);
+                                else if (name.equals("getString"))
+                                {
+                                    Object value = properties.get(args[0]);
+
+                                    return
+                                        (value == null)
+                                            ? null
+                                            : value.toString();
+                                }
+                                else if (name.equals(
+                                        "getPropertyNamesByPrefix"))
+                                {
+                                    List<String> names
+                                        = new ArrayList<String>();
+
+                                    for (String key : properties.keySet())
+                                    {
+                                        if (key.startsWith((String) args[0]))
+                                            names.add(key);
+                                    }
+                                    return names;
+                                }
+                                return null;
+                            }
+                        });
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.util.*;
+
+import junit.framework.*;
+
+public class DialogInfoParserTest
+    extends TestCase
+{
+    private static final String DIALOG_INFO
+        = "<?xml version=\"1.0\"?>"
+        + "<dialog-info xmlns=\"urn:ietf:params:xml:ns:dialog-info\""
+        + " version=\"1\" state=\"full\" entity=\"sip:101@example.com\">"
+        + "<dialog id=\"as7d900as8\" call-id=\"a84b4c76e66710\""
+        + " local-tag=\"1928301774\" remote-tag=\"456887766\""
+        + " direction=\"initiator\">"
+        + "<state>confirmed</state>"
+        + "<local><identity>sip:101@example.com</identity></local>"
+        + "</dialog>"
+        + "</dialog-info>";
+
+    private static final String RLMI
+        = "<?xml version=\"1.0\"?>"
+        + "<list xmlns=\"urn:ietf:params:xml:ns:rlmi\""
+        + " uri=\"sip:lines@example.com\" version=\"1\" fullState=\"true\">"
+        + "<resource uri=\"sip:101@example.com\">"
+        + "<instance id=\"1\" state=\"active\" cid=\"part1@example.com\"/>"
+        + "</resource>"
+        + "<resource uri=\"sip:102@example.com\">"
+        + "<instance id=\"2\" state=\"terminated\" reason=\"rejected\"/>"
+        + "</resource>"
+        + "</list>";
+
+    public void testParseDialogInfo()
+        throws Exception
+    {
+        DialogInfoParser.DialogInfo info
+            = DialogInfoParser.parseDialogInfo(DIALOG_INFO.getBytes("UTF-8"));
+
+        Assert.assertEquals("sip:101@example.com", info.entity);
+        Assert.assertEquals("full", info.state);
+        Assert.assertEquals(1, info.dialogs.size());
+
+        DialogInfoParser.Dialog dialog = info.dialogs.get(0);
+        Assert.assertEquals("as7d900as8", dialog.id);
+        Assert.assertEquals("a84b4c76e66710", dialog.callID);
+        Assert.assertEquals("1928301774", dialog.localTag);
+        Assert.assertEquals("456887766", dialog.remoteTag);
+        Assert.assertEquals("initiator", dialog.direction);
+        Assert.assertEquals("confirmed", dialog.state);
+    }
+
+    public void testParseEmptyDialogInfo()
+        throws Exception
+    {
+        DialogInfoParser.DialogInfo info
+            = DialogInfoParser.parseDialogInfo(
+                ("<dialog-info xmlns=\"urn:ietf:params:xml:ns:dialog-info\""
+                    + " version=\"2\" state=\"full\""
+                    + " entity=\"sip:102@example.com\"/>").getBytes("UTF-8"));
+
+        Assert.assertEquals("sip:102@example.com", info.entity);
+        Assert.assertTrue(info.dialogs.isEmpty());
+    }
+
+    public void testParseRlmi()
+        throws Exception
+    {
+        Map<String, String> resources
+            = DialogInfoParser.parseRlmi(RLMI.getBytes("UTF-8"));
+
+        Assert.assertEquals(2, resources.size());
+        Assert.assertEquals("active", resources.get("sip:101@example.com"));
+        Assert.assertEquals(
+            "terminated", resources.get("sip:102@example.com"));
+    }
+
+    public void testSplitMultipart()
+        throws Exception
+    {
+        String body
+            = "--50UBfW7LSCVLtggUPytvvAeeR\r\n"
+            + "Content-Transfer-Encoding: binary\r\n"
+            + "Content-ID: <nXYxAE@example.com>\r\n"
+            + "Content-Type: application/rlmi+xml;charset=\"UTF-8\"\r\n"
+            + "\r\n"
+            + RLMI + "\r\n"
+            + "--50UBfW7LSCVLtggUPytvvAeeR\r\n"
+            + "Content-Transfer-Encoding: binary\r\n"
+            + "Content-ID: <part1@example.com>\r\n"
+            + "Content-Type: application/dialog-info+xml;charset=\"UTF-8\"\r\n"
+            + "\r\n"
+            + DIALOG_INFO + "\r\n"
+            + "--50UBfW7LSCVLtggUPytvvAeeR--\r\n";
+
+        List<DialogInfoParser.BodyPart> parts
+            = DialogInfoParser.splitMultipart(
+                body.getBytes("UTF-8"), "50UBfW7LSCVLtggUPytvvAeeR");
+
+        Assert.assertEquals(2, parts.size());
+        Assert.assertEquals(DialogInfoParser.RLMI_TYPE, parts.get(0).type);
+        Assert.assertEquals(RLMI, new String(parts.get(0).content, "UTF-8"));
+        Assert.assertEquals(
+            DialogInfoParser.DIALOG_INFO_TYPE, parts.get(1).type);
+        Assert.assertEquals(
+            DIALOG_INFO, new String(parts.get(1).content, "UTF-8"));
+    }
+
+    public void testSplitNestedMultipart()
+        throws Exception
+    {
+        String nested
+            = "--inner\r\n"
+            + "Content-Type: application/dialog-info+xml\r\n"
+            + "\r\n"
+            + DIALOG_INFO + "\r\n"
+            + "--inner--\r\n";
+        String body
+            = "--outer\r\n"
+            + "Content-Type: multipart/related;type=\"application/rlmi+xml\";"
+            + "boundary=\"inner\"\r\n"
+            + "\r\n"
+            + nested + "\r\n"
+            + "--outer--\r\n";
+
+        List<DialogInfoParser.BodyPart> parts
+            = DialogInfoParser.splitMultipart(body.getBytes("UTF-8"), "outer");
+
+        Assert.assertEquals(1, parts.size());
+        Assert.assertEquals(
+            DialogInfoParser.DIALOG_INFO_TYPE, parts.get(0).type);
+    }
+}
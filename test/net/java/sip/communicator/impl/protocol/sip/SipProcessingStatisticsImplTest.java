@@ -0,0 +1,114 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.protocol.sip.*;
+
+public class SipProcessingStatisticsImplTest
+    extends TestCase
+{
+    private final SipProcessingStatisticsImpl statistics
+        = new SipProcessingStatisticsImpl();
+
+    public void testEventsAreRecordedPerMethod()
+        throws Exception
+    {
+        long start = statistics.eventStarted(null);
+        assertEquals(1, statistics.getEventsInFlight());
+
+        Thread.sleep(2);
+        statistics.eventFinished(
+            SipProcessingStatisticsImpl.REQUEST, "INVITE", start);
+
+        assertEquals(0, statistics.getEventsInFlight());
+
+        List<SipLatencyStatistics> methods
+            = statistics.getMethodStatistics();
+        assertEquals(1, methods.size());
+
+        SipLatencyStatistics invite = methods.get(0);
+        assertEquals("REQUEST INVITE", invite.getName());
+        assertEquals(1, invite.getCount());
+        assertTrue(invite.getMax() >= 2000000L);
+        assertTrue(invite.getPercentile(50) >= 2000000L);
+        assertEquals(1, statistics.getSlowestHandlers().size());
+    }
+
+    public void testDisabledStatisticsRecordNothing()
+    {
+        statistics.setEnabled(false);
+
+        long start = statistics.eventStarted(null);
+        assertEquals(0, start);
+
+        statistics.eventFinished(
+            SipProcessingStatisticsImpl.RESPONSE, "REGISTER", start);
+        statistics.processorFinished(
+            new MethodProcessorAdapter(),
+            SipProcessingStatisticsImpl.RESPONSE,
+            "REGISTER",
+            statistics.start());
+
+        assertEquals(0, statistics.getEventsInFlight());
+        assertTrue(statistics.getMethodStatistics().isEmpty());
+        assertTrue(statistics.getProcessorStatistics().isEmpty());
+    }
+
+    public void testSlowestHandlersAreBoundedAndSorted()
+    {
+        for (int i = 0; i < 40; i++)
+        {
+            statistics.processorFinished(
+                new MethodProcessorAdapter(),
+                SipProcessingStatisticsImpl.REQUEST,
+                "MESSAGE",
+                System.nanoTime() - i * 1000000L);
+        }
+
+        List<SipProcessingStatisticsService.SlowHandlerSample> slowest
+            = statistics.getSlowestHandlers();
+        assertEquals(16, slowest.size());
+        for (int i = 1; i < slowest.size(); i++)
+        {
+            assertTrue(slowest.get(i - 1).getDuration()
+                >= slowest.get(i).getDuration());
+        }
+        assertTrue(slowest.get(0).getDuration() >= 39000000L);
+        assertEquals(40,
+            statistics.getProcessorStatistics().get(0).getCount());
+
+        StringWriter report = new StringWriter();
+        try
+        {
+            statistics.dump(report);
+        }
+        catch (IOException ex)
+        {
+            fail(ex.toString());
+        }
+        assertTrue(report.toString().contains("MethodProcessorAdapter"));
+
+        statistics.reset();
+        assertTrue(statistics.getProcessorStatistics().isEmpty());
+        assertTrue(statistics.getSlowestHandlers().isEmpty());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip.security;
+
+import javax.sip.*;
+import javax.sip.header.*;
+
+import junit.framework.*;
+
+public class DigestChallengeStateTest
+    extends TestCase
+{
+    private HeaderFactory headerFactory;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        headerFactory = SipFactory.getInstance().createHeaderFactory();
+    }
+
+    private WWWAuthenticateHeader challenge(String nonce, String qop)
+        throws Exception
+    {
+        WWWAuthenticateHeader challenge
+            = headerFactory.createWWWAuthenticateHeader("Digest");
+
+        challenge.setRealm("example.com");
+        challenge.setNonce(nonce);
+        if (qop != null)
+            challenge.setQop(qop);
+        return challenge;
+    }
+
+    //@Test
+    public void testNonceCountIsEightHexDigits()
+    {
+        assertEquals("00000001", DigestChallengeState.formatNonceCount(1));
+        assertEquals("0000000a", DigestChallengeState.formatNonceCount(10));
+        assertEquals("000001ff", DigestChallengeState.formatNonceCount(511));
+        assertEquals("7fffffff",
+            DigestChallengeState.formatNonceCount(Integer.MAX_VALUE));
+    }
+
+    //@Test
+    public void testNonceCountIncrementsPerNonce()
+        throws Exception
+    {
+        DigestChallengeState first
+            = new DigestChallengeState(challenge("n1", "auth"), "example.com");
+
+        assertEquals(1, first.nextNonceCount());
+        assertEquals(2, first.nextNonceCount());
+        assertEquals(3, first.nextNonceCount());
+
+        // a new nonce starts counting again
+        DigestChallengeState second
+            = new DigestChallengeState(challenge("n2", "auth"), "example.com");
+
+        assertEquals(1, second.nextNonceCount());
+        assertEquals(4, first.nextNonceCount());
+    }
+
+    //@Test
+    public void testCnonceAndQop()
+        throws Exception
+    {
+        DigestChallengeState auth
+            = new DigestChallengeState(
+                    challenge("n1", "auth,auth-int"),
+                    "example.com");
+
+        assertEquals("auth", auth.qop);
+        assertNotNull(auth.cnonce);
+        assertTrue(auth.cnonce.length() > 0);
+        assertFalse(auth.cnonce.equals(
+            new DigestChallengeState(challenge("n1", "auth"), "example.com")
+                .cnonce));
+
+        assertNull(
+            new DigestChallengeState(challenge("n1", null), "example.com")
+                .qop);
+    }
+
+    //@Test
+    public void testReusableChallenges()
+        throws Exception
+    {
+        assertTrue(DigestChallengeState.isReusable(challenge("n", null)));
+        assertTrue(DigestChallengeState.isReusable(
+            challenge("n", "auth-int, auth")));
+        assertFalse(DigestChallengeState.isReusable(
+            challenge("n", "auth-int")));
+
+        WWWAuthenticateHeader basic
+            = headerFactory.createWWWAuthenticateHeader("Basic");
+
+        basic.setRealm("example.com");
+        assertFalse(DigestChallengeState.isReusable(basic));
+    }
+
+    //@Test
+    public void testCacheReplacesChallengeOfSameServer()
+        throws Exception
+    {
+        CredentialsCache cache = new CredentialsCache();
+
+        cache.cacheChallenge(
+            new DigestChallengeState(challenge("n1", "auth"), "example.com"));
+        cache.cacheChallenge(
+            new DigestChallengeState(challenge("n2", "auth"), "example.com"));
+
+        assertEquals(1, cache.getChallenges("example.com").size());
+        assertEquals("n2", cache.getChallenges("EXAMPLE.com").get(0).nonce);
+        assertTrue(cache.getChallenges("example.org").isEmpty());
+        assertNull(cache.getChallengeByNonce("n1"));
+
+        ProxyAuthenticateHeader proxy
+            = headerFactory.createProxyAuthenticateHeader("Digest");
+
+        proxy.setRealm("proxy");
+        proxy.setNonce("p1");
+        cache.cacheChallenge(new DigestChallengeState(proxy, "example.com"));
+        // proxy challenges apply to every request
+        assertEquals(1, cache.getChallenges("example.org").size());
+        assertEquals(2, cache.getChallenges("example.com").size());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip.security;
+
+import java.util.*;
+
+import javax.sip.*;
+import javax.sip.address.*;
+import javax.sip.header.*;
+import javax.sip.message.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.protocol.*;
+
+public class SipSecurityManagerTest
+    extends TestCase
+{
+    private HeaderFactory headerFactory;
+
+    private AddressFactory addressFactory;
+
+    private MessageFactory messageFactory;
+
+    private SipSecurityManager securityManager;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        SipFactory sipFactory = SipFactory.getInstance();
+
+        headerFactory = sipFactory.createHeaderFactory();
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        Map<String, String> properties = new HashMap<String, String>();
+
+        properties.put(
+            SipSecurityManager.PREEMPTIVE_AUTHENTICATION_ENABLED, "true");
+
+        AccountID accountID
+            = new AccountID("alice", properties, "SIP", "example.com")
+            {
+            };
+
+        securityManager = new SipSecurityManager(accountID, null);
+        securityManager.setHeaderFactory(headerFactory);
+
+        UserCredentials credentials = new UserCredentials();
+
+        credentials.setUserName("alice");
+        credentials.setPassword("secret".toCharArray());
+        securityManager.cacheCredentials("example.com", credentials);
+    }
+
+    private Request createRequest(String method)
+        throws Exception
+    {
+        SipURI uri = addressFactory.createSipURI("bob", "example.com");
+        Address from
+            = addressFactory.createAddress(
+                    addressFactory.createSipURI("alice", "example.com"));
+        List<ViaHeader> vias = new ArrayList<ViaHeader>();
+
+        vias.add(
+            headerFactory.createViaHeader("127.0.0.1", 5060, "udp", "z9hG4bK1"));
+
+        return
+            messageFactory.createRequest(
+                    uri,
+                    method,
+                    headerFactory.createCallIdHeader("1@127.0.0.1"),
+                    headerFactory.createCSeqHeader(1L, method),
+                    headerFactory.createFromHeader(from, "1"),
+                    headerFactory.createToHeader(
+                        addressFactory.createAddress(uri), null),
+                    vias,
+                    headerFactory.createMaxForwardsHeader(70));
+    }
+
+    private WWWAuthenticateHeader challenge(String nonce)
+        throws Exception
+    {
+        WWWAuthenticateHeader challenge
+            = headerFactory.createWWWAuthenticateHeader("Digest");
+
+        challenge.setRealm("example.com");
+        challenge.setNonce(nonce);
+        challenge.setOpaque("opaque");
+        challenge.setQop("auth");
+        return challenge;
+    }
+
+    //@Test
+    public void testNothingToReuseWithoutChallenge()
+        throws Exception
+    {
+        Request request = createRequest(Request.MESSAGE);
+
+        assertFalse(securityManager.preAuthenticateRequest(request));
+        assertNull(request.getHeader(AuthorizationHeader.NAME));
+    }
+
+    //@Test
+    public void testPreemptiveHeaderReusesCachedChallenge()
+        throws Exception
+    {
+        securityManager.rememberChallenge(
+            challenge("n1"), createRequest(Request.REGISTER));
+
+        Request request = createRequest(Request.MESSAGE);
+
+        assertTrue(securityManager.preAuthenticateRequest(request));
+
+        AuthorizationHeader authorization
+            = (AuthorizationHeader) request.getHeader(AuthorizationHeader.NAME);
+
+        assertNotNull(authorization);
+        assertEquals("n1", authorization.getNonce());
+        assertEquals("example.com", authorization.getRealm());
+        assertEquals("opaque", authorization.getOpaque());
+        assertEquals("alice", authorization.getUsername());
+        assertEquals("auth", authorization.getQop());
+        assertEquals(1, authorization.getNonceCount());
+        assertNotNull(authorization.getCNonce());
+        assertTrue(request.toString().contains("nc=00000001"));
+        assertEquals(
+            MessageDigestAlgorithm.calculateResponse(
+                null, "alice", "example.com", "secret", "n1", "00000001",
+                authorization.getCNonce(), Request.MESSAGE,
+                request.getRequestURI().toString(), "", "auth"),
+            authorization.getResponse());
+
+        // the next request with the same nonce counts up
+        Request next = createRequest(Request.MESSAGE);
+
+        assertTrue(securityManager.preAuthenticateRequest(next));
+        authorization
+            = (AuthorizationHeader) next.getHeader(AuthorizationHeader.NAME);
+        assertEquals(2, authorization.getNonceCount());
+        assertTrue(next.toString().contains("nc=00000002"));
+
+        // authenticating again replaces the header instead of adding one
+        assertTrue(securityManager.preAuthenticateRequest(next));
+
+        ListIterator<?> headers = next.getHeaders(AuthorizationHeader.NAME);
+
+        headers.next();
+        assertFalse(headers.hasNext());
+
+        // a new challenge replaces the nonce and restarts the count
+        securityManager.rememberChallenge(
+            challenge("n2"), createRequest(Request.REGISTER));
+        next = createRequest(Request.MESSAGE);
+        assertTrue(securityManager.preAuthenticateRequest(next));
+        authorization
+            = (AuthorizationHeader) next.getHeader(AuthorizationHeader.NAME);
+        assertEquals("n2", authorization.getNonce());
+        assertEquals(1, authorization.getNonceCount());
+        assertEquals(4, securityManager.getPreemptiveAuthorizationCount());
+    }
+
+    //@Test
+    public void testChallengeForOtherHostIsNotReused()
+        throws Exception
+    {
+        securityManager.rememberChallenge(
+            challenge("n1"), createRequest(Request.REGISTER));
+
+        SipURI other = addressFactory.createSipURI("bob", "example.org");
+        Request request = createRequest(Request.MESSAGE);
+
+        request.setRequestURI(other);
+        assertFalse(securityManager.preAuthenticateRequest(request));
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.protocol.event.*;
+
+import org.easymock.*;
+
+public class LoginOrchestratorTest
+    extends TestCase
+{
+    private LoginOrchestrator orchestrator;
+
+    private ProtocolProviderService providerMock;
+
+    private Capture<RegistrationStateChangeListener> listeners;
+
+    //@before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+        this.orchestrator = new LoginOrchestrator(1, 0, 50);
+        this.listeners = new Capture<RegistrationStateChangeListener>(
+            CaptureType.ALL);
+        this.providerMock
+            = EasyMock.createNiceMock(ProtocolProviderService.class);
+        EasyMock.expect(this.providerMock.getAccountID())
+            .andReturn(EasyMock.createNiceMock(AccountID.class)).anyTimes();
+        this.providerMock.addRegistrationStateChangeListener(
+            EasyMock.capture(this.listeners));
+        EasyMock.expectLastCall().anyTimes();
+        EasyMock.replay(this.providerMock);
+    }
+
+    //@after
+    public void tearDown() throws Exception
+    {
+        this.orchestrator.dispose();
+        super.tearDown();
+    }
+
+    //@Test
+    public void testTelephonyLoginsRunFirst() throws Exception
+    {
+        final List<String> order
+            = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+
+        this.orchestrator.submitLogin(this.providerMock, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                }
+                order.add("first");
+                done.countDown();
+            }
+        });
+        this.orchestrator.submitLogin(
+            this.providerMock,
+            LoginOrchestrator.PRIORITY_DEFAULT,
+            new Recorder(order, "default", done));
+        this.orchestrator.submitLogin(
+            this.providerMock,
+            LoginOrchestrator.PRIORITY_TELEPHONY,
+            new Recorder(order, "telephony", done));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "telephony", "default"), order);
+    }
+
+    //@Test
+    public void testIdleTasksWaitForRegistration() throws Exception
+    {
+        final CountDownLatch idle = new CountDownLatch(1);
+
+        this.orchestrator.submitLogin(this.providerMock, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        });
+        this.orchestrator.runWhenIdle(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                idle.countDown();
+            }
+        });
+
+        assertFalse(idle.await(300, TimeUnit.MILLISECONDS));
+        assertEquals(1, this.orchestrator.getPendingLoginCount());
+
+        for (RegistrationStateChangeListener l : this.listeners.getValues())
+        {
+            l.registrationStateChanged(
+                new RegistrationStateChangeEvent(
+                    this.providerMock,
+                    RegistrationState.REGISTERING,
+                    RegistrationState.REGISTERED,
+                    RegistrationStateChangeEvent.REASON_NOT_SPECIFIED,
+                    null));
+        }
+
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+        assertEquals(0, this.orchestrator.getPendingLoginCount());
+        assertTrue(
+            this.orchestrator.getLoginMetrics().iterator().next()
+                .getTimeToRegistered() >= 0);
+    }
+
+    //@Test
+    public void testDisposeRemovesRegistrationListeners() throws Exception
+    {
+        ProtocolProviderService provider
+            = EasyMock.createNiceMock(ProtocolProviderService.class);
+        Capture<RegistrationStateChangeListener> added
+            = new Capture<RegistrationStateChangeListener>();
+
+        EasyMock.expect(provider.getAccountID())
+            .andReturn(EasyMock.createNiceMock(AccountID.class)).anyTimes();
+        provider.addRegistrationStateChangeListener(EasyMock.capture(added));
+        EasyMock.expectLastCall().once();
+        provider.removeRegistrationStateChangeListener(
+            EasyMock.<RegistrationStateChangeListener>anyObject());
+        EasyMock.expectLastCall().once();
+        EasyMock.replay(provider);
+
+        this.orchestrator.submitLogin(provider, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        });
+        this.orchestrator.dispose();
+
+        EasyMock.verify(provider);
+        assertEquals(0, this.orchestrator.getPendingLoginCount());
+    }
+
+    //@Test
+    public void testLoginsWaitingForUserGiveUpTheirSlot() throws Exception
+    {
+        final List<String> order
+            = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch answer = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+
+        this.orchestrator.submitLogin(this.providerMock, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                LoginOrchestrator.beginUserInteraction();
+                try
+                {
+                    answer.await();
+                }
+                catch (InterruptedException e)
+                {
+                }
+                finally
+                {
+                    LoginOrchestrator.endUserInteraction();
+                }
+                order.add("prompting");
+                done.countDown();
+            }
+        });
+        this.orchestrator.submitLogin(
+            this.providerMock, new Recorder(order, "other", done));
+
+        // the other login runs while the first one waits for the user.
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (order.isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(Arrays.asList("other"), order);
+        assertEquals(2, this.orchestrator.getLoginPoolSize());
+
+        answer.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("other", "prompting"), order);
+
+        deadline = System.currentTimeMillis() + 5000;
+        while (this.orchestrator.getLoginPoolSize() != 1
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, this.orchestrator.getLoginPoolSize());
+    }
+
+    //@Test
+    public void testUserInteractionOutsideLoginsIsIgnored()
+    {
+        LoginOrchestrator.beginUserInteraction();
+        LoginOrchestrator.endUserInteraction();
+
+        assertEquals(1, this.orchestrator.getLoginPoolSize());
+    }
+
+    private static class Recorder
+        implements Runnable
+    {
+        private final List<String> order;
+        private final String name;
+        private final CountDownLatch done;
+
+        Recorder(List<String> order, String name, CountDownLatch done)
+        {
+            this.order = order;
+            this.name = name;
+            this.done = done;
+        }
+
+        @Override
+        public void run()
+        {
+            order.add(name);
+            done.countDown();
+        }
+    }
+}
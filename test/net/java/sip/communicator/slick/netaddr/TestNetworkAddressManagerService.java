@@ -19,9 +19,12 @@
 
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import junit.framework.*;
 import net.java.sip.communicator.service.netaddr.*;
+import net.java.sip.communicator.util.*;
 
 import org.jitsi.service.configuration.*;
 import org.osgi.framework.*;
@@ -35,6 +38,18 @@
 public class TestNetworkAddressManagerService
     extends TestCase
 {
+    /**
+     * The <tt>Logger</tt> used by the <tt>TestNetworkAddressManagerService</tt>
+     * class for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(TestNetworkAddressManagerService.class);
+
+    /**
+     * The number of milliseconds each round of the <tt>getLocalHost</tt>
+     * benchmark runs for.
+     */
+    private static final long BENCHMARK_DURATION = 2000;
     /**
      * The NetworkAddressManagerService that we will be testing.
      */
@@ -152,6 +167,88 @@ public void testDummyTest()
         //we gotta have at least one test otherwise we have an error
     }
 
+    /**
+     * Measures the throughput of <tt>getLocalHost</tt> with an increasing
+     * number of concurrent callers asking for a set of destinations, the way
+     * SIP does when building Via/Contact headers and SDP for many requests,
+     * and logs the calls per second for each number of callers.
+     *
+     * @throws Exception if anything goes wrong.
+     */
+    public void testConcurrentGetLocalHostThroughput()
+        throws Exception
+    {
+        final InetAddress[] destinations
+            = new InetAddress[]
+            {
+                InetAddress.getByName("127.0.0.1"),
+                InetAddress.getByName("192.0.2.10"),
+                InetAddress.getByName("198.51.100.20"),
+                InetAddress.getByName("203.0.113.30")
+            };
+        StringBuilder report = new StringBuilder();
+
+        for (int callers = 1; callers <= 16; callers *= 2)
+        {
+            final AtomicLong calls = new AtomicLong();
+            final AtomicReference<Throwable> failure
+                = new AtomicReference<Throwable>();
+            final CountDownLatch start = new CountDownLatch(1);
+            final long[] end = new long[1];
+            Thread[] threads = new Thread[callers];
+
+            for (int i = 0; i < callers; i++)
+            {
+                final int offset = i;
+
+                threads[i] = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+
+                            long n = offset;
+
+                            while (System.currentTimeMillis() < end[0])
+                            {
+                                InetAddress dst
+                                    = destinations[
+                                        (int) (n++ % destinations.length)];
+
+                                assertNotNull(
+                                    networkAddressManagerService
+                                        .getLocalHost(dst));
+                                calls.incrementAndGet();
+                            }
+                        }
+                        catch (Throwable t)
+                        {
+                            failure.compareAndSet(null, t);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+
+            end[0] = System.currentTimeMillis() + BENCHMARK_DURATION;
+            start.countDown();
+            for (Thread thread : threads)
+                thread.join();
+
+            if (failure.get() != null)
+                throw new Exception(failure.get());
+
+            report.append(callers).append(" callers: ")
+                .append(calls.get() * 1000 / BENCHMARK_DURATION)
+                .append(" calls/s\n");
+        }
+
+        logger.info("getLocalHost throughput:\n" + report);
+    }
+
     /**
      * This test will specify all local address one by one as "preferred
      * address" and  test the returned address.
@@ -0,0 +1,784 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.slick.protocol.sip.load;
+
+import java.io.*;
+import java.net.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.sip.*;
+import javax.sip.address.*;
+import javax.sip.address.URI;
+import javax.sip.header.*;
+import javax.sip.message.*;
+
+import net.java.sip.communicator.util.*;
+
+/**
+ * A minimal in-process SIP server running its own JAIN-SIP stack on the
+ * loopback interface. It acts as a registrar accepting all REGISTER requests
+ * without authentication, as a presence agent accepting PUBLISH requests and
+ * notifying the subscribers of the presence event package, and as a
+ * stateless proxy forwarding all other requests (e.g. MESSAGE) to the
+ * registered contact of their target.
+ * <p>
+ * Users are identified by the user part of their address only, all accounts
+ * served by an instance are expected to share a single domain.
+ */
+public class LocalSipServer
+    implements SipListener
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>LocalSipServer</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(LocalSipServer.class);
+
+    /**
+     * The name of the presence event package.
+     */
+    private static final String PRESENCE_EVENT = "presence";
+
+    /**
+     * The expiration we grant when a request does not specify one.
+     */
+    private static final int DEFAULT_EXPIRES = 3600;
+
+    /**
+     * The prefix of the branches of forwarded requests, starting with the
+     * RFC 3261 magic cookie.
+     */
+    private static final String BRANCH_PREFIX = "z9hG4bKlss";
+
+    /**
+     * The transport we listen on.
+     */
+    private static final String TRANSPORT = ListeningPoint.UDP;
+
+    /**
+     * The address we listen on.
+     */
+    private final String host;
+
+    /**
+     * The port we listen on.
+     */
+    private final int port;
+
+    /**
+     * The JAIN-SIP stack of this server.
+     */
+    private SipStack stack;
+
+    /**
+     * The provider we send and receive messages through.
+     */
+    private SipProvider provider;
+
+    /**
+     * The factory used to create addresses.
+     */
+    private AddressFactory addressFactory;
+
+    /**
+     * The factory used to create headers.
+     */
+    private HeaderFactory headerFactory;
+
+    /**
+     * The factory used to create messages.
+     */
+    private MessageFactory messageFactory;
+
+    /**
+     * The registered contacts per user.
+     */
+    private final Map<String, URI> bindings
+        = new ConcurrentHashMap<String, URI>();
+
+    /**
+     * The last PIDF document published per user.
+     */
+    private final Map<String, String> publishedPresence
+        = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The presence subscriptions per watched user.
+     */
+    private final ConcurrentMap<String, List<Subscription>> subscriptions
+        = new ConcurrentHashMap<String, List<Subscription>>();
+
+    /**
+     * The presence subscriptions per dialog.
+     */
+    private final Map<Dialog, Subscription> subscriptionsByDialog
+        = new ConcurrentHashMap<Dialog, Subscription>();
+
+    /**
+     * Generates unique branches, tags and entity tags.
+     */
+    private final AtomicLong idGenerator = new AtomicLong();
+
+    /**
+     * The number of processed REGISTER requests.
+     */
+    private final AtomicLong registerCount = new AtomicLong();
+
+    /**
+     * The number of processed PUBLISH requests.
+     */
+    private final AtomicLong publishCount = new AtomicLong();
+
+    /**
+     * The number of sent NOTIFY requests.
+     */
+    private final AtomicLong notifyCount = new AtomicLong();
+
+    /**
+     * The number of forwarded requests.
+     */
+    private final AtomicLong forwardCount = new AtomicLong();
+
+    /**
+     * Creates a server which is to listen on a specific port of the loopback
+     * address.
+     *
+     * @param port the port to listen on or 0 to pick a free one.
+     * @throws IOException if no free port could be found.
+     */
+    public LocalSipServer(int port)
+        throws IOException
+    {
+        this.host = "127.0.0.1";
+
+        if (port == 0)
+        {
+            DatagramSocket socket
+                = new DatagramSocket(0, InetAddress.getByName(host));
+
+            port = socket.getLocalPort();
+            socket.close();
+        }
+        this.port = port;
+    }
+
+    /**
+     * Creates the JAIN-SIP stack of this server and starts listening.
+     *
+     * @throws Exception if the stack fails to start.
+     */
+    public void start()
+        throws Exception
+    {
+        SipFactory sipFactory = SipFactory.getInstance();
+
+        sipFactory.setPathName("gov.nist");
+
+        Properties properties = new Properties();
+
+        // the name has to differ from the one of the stack of the protocol
+        // providers or the factory would give us their stack.
+        properties.setProperty(
+            "javax.sip.STACK_NAME", "LocalSipServer-" + port);
+        properties.setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "8");
+        properties.setProperty("gov.nist.javax.sip.REENTRANT_LISTENER", "true");
+        properties.setProperty("gov.nist.javax.sip.LOG_MESSAGE_CONTENT", "false");
+
+        stack = sipFactory.createSipStack(properties);
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        ListeningPoint listeningPoint
+            = stack.createListeningPoint(host, port, TRANSPORT);
+
+        provider = stack.createSipProvider(listeningPoint);
+        provider.addSipListener(this);
+        stack.start();
+
+        if (logger.isInfoEnabled())
+            logger.info("Local SIP server listening on " + host + ":" + port);
+    }
+
+    /**
+     * Stops the stack of this server and forgets all state.
+     */
+    public void stop()
+    {
+        if (stack != null)
+        {
+            provider.removeSipListener(this);
+            stack.stop();
+            stack = null;
+        }
+        bindings.clear();
+        publishedPresence.clear();
+        subscriptions.clear();
+        subscriptionsByDialog.clear();
+    }
+
+    /**
+     * Returns the address this server listens on.
+     *
+     * @return the address this server listens on.
+     */
+    public String getHost()
+    {
+        return host;
+    }
+
+    /**
+     * Returns the port this server listens on.
+     *
+     * @return the port this server listens on.
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * Returns the number of users with a registered contact.
+     *
+     * @return the number of users with a registered contact.
+     */
+    public int getBindingCount()
+    {
+        return bindings.size();
+    }
+
+    /**
+     * Returns a short summary of the traffic handled by this server.
+     *
+     * @return a short summary of the traffic handled by this server.
+     */
+    public String getTrafficSummary()
+    {
+        return "REGISTER=" + registerCount
+            + " PUBLISH=" + publishCount
+            + " NOTIFY=" + notifyCount
+            + " forwarded=" + forwardCount;
+    }
+
+    /**
+     * Dispatches a received request to the registrar, the presence agent or
+     * the proxy.
+     *
+     * @param event the received request.
+     */
+    @Override
+    public void processRequest(RequestEvent event)
+    {
+        Request request = event.getRequest();
+        String method = request.getMethod();
+
+        try
+        {
+            if (Request.REGISTER.equals(method))
+                processRegister(request);
+            else if (Request.PUBLISH.equals(method))
+                processPublish(request);
+            else if (Request.SUBSCRIBE.equals(method))
+                processSubscribe(event);
+            else if (bindings.containsKey(getUser(request.getRequestURI())))
+                forward(request);
+            else if (Request.OPTIONS.equals(method))
+                respond(request, Response.OK);
+            else if (!Request.ACK.equals(method))
+                respond(request, Response.NOT_FOUND);
+        }
+        catch (Exception ex)
+        {
+            logger.error("Failed to process " + method, ex);
+        }
+    }
+
+    /**
+     * Relays responses to forwarded requests and cleans up subscriptions
+     * rejected by their subscribers.
+     *
+     * @param event the received response.
+     */
+    @Override
+    public void processResponse(ResponseEvent event)
+    {
+        Response response = event.getResponse();
+
+        try
+        {
+            if (event.getClientTransaction() == null)
+            {
+                // a response to a request we have forwarded statelessly.
+                Response relayed = (Response) response.clone();
+
+                relayed.removeFirst(ViaHeader.NAME);
+                if (relayed.getHeader(ViaHeader.NAME) != null)
+                    provider.sendResponse(relayed);
+            }
+            else if (response.getStatusCode()
+                        == Response.CALL_OR_TRANSACTION_DOES_NOT_EXIST)
+            {
+                removeSubscription(event.getDialog());
+            }
+        }
+        catch (SipException ex)
+        {
+            logger.error("Failed to relay response", ex);
+        }
+    }
+
+    /**
+     * Drops the subscription of a NOTIFY which timed out.
+     *
+     * @param event the timeout.
+     */
+    @Override
+    public void processTimeout(TimeoutEvent event)
+    {
+        if (!event.isServerTransaction())
+            removeSubscription(event.getClientTransaction().getDialog());
+    }
+
+    /**
+     * Not used.
+     *
+     * @param event the event.
+     */
+    @Override
+    public void processIOException(IOExceptionEvent event)
+    {
+    }
+
+    /**
+     * Not used.
+     *
+     * @param event the event.
+     */
+    @Override
+    public void processTransactionTerminated(TransactionTerminatedEvent event)
+    {
+    }
+
+    /**
+     * Drops the subscription of a terminated dialog.
+     *
+     * @param event the event.
+     */
+    @Override
+    public void processDialogTerminated(DialogTerminatedEvent event)
+    {
+        removeSubscription(event.getDialog());
+    }
+
+    /**
+     * Updates the binding of the user of a REGISTER request.
+     *
+     * @param request the REGISTER request.
+     * @throws Exception if creating or sending the response fails.
+     */
+    private void processRegister(Request request)
+        throws Exception
+    {
+        registerCount.incrementAndGet();
+
+        String user = getUser(((ToHeader) request.getHeader(ToHeader.NAME))
+                .getAddress().getURI());
+        ContactHeader contact
+            = (ContactHeader) request.getHeader(ContactHeader.NAME);
+        int expires = getExpires(request, contact);
+        Response response = createResponse(request, Response.OK);
+
+        if (contact == null || contact.getAddress().isWildcard()
+            || expires == 0)
+        {
+            bindings.remove(user);
+        }
+        else
+        {
+            bindings.put(user, contact.getAddress().getURI());
+
+            ContactHeader granted = (ContactHeader) contact.clone();
+
+            granted.setExpires(expires);
+            response.addHeader(granted);
+            response.addHeader(headerFactory.createExpiresHeader(expires));
+        }
+        provider.sendResponse(response);
+    }
+
+    /**
+     * Stores the presence document of a PUBLISH request and notifies the
+     * watchers of its publisher.
+     *
+     * @param request the PUBLISH request.
+     * @throws Exception if creating or sending the response fails.
+     */
+    private void processPublish(Request request)
+        throws Exception
+    {
+        publishCount.incrementAndGet();
+
+        EventHeader eventHeader
+            = (EventHeader) request.getHeader(EventHeader.NAME);
+
+        if (eventHeader == null
+            || !PRESENCE_EVENT.equals(eventHeader.getEventType()))
+        {
+            respond(request, Response.BAD_EVENT);
+            return;
+        }
+
+        String user = getUser(request.getRequestURI());
+        int expires = getExpires(request, null);
+        byte[] content = request.getRawContent();
+
+        if (expires == 0)
+            publishedPresence.remove(user);
+        else if (content != null && content.length > 0)
+            publishedPresence.put(user, new String(content, "UTF-8"));
+
+        Response response = createResponse(request, Response.OK);
+
+        response.addHeader(
+            headerFactory.createSIPETagHeader(
+                    Long.toHexString(idGenerator.incrementAndGet())));
+        response.addHeader(headerFactory.createExpiresHeader(expires));
+        provider.sendResponse(response);
+
+        List<Subscription> watchers = subscriptions.get(user);
+
+        if (watchers != null)
+        {
+            for (Subscription subscription : watchers)
+                sendNotify(subscription, false);
+        }
+    }
+
+    /**
+     * Creates, refreshes or terminates a subscription to the presence of a
+     * user and sends the corresponding NOTIFY.
+     *
+     * @param event the SUBSCRIBE request.
+     * @throws Exception if creating or sending the messages fails.
+     */
+    private void processSubscribe(RequestEvent event)
+        throws Exception
+    {
+        Request request = event.getRequest();
+        EventHeader eventHeader
+            = (EventHeader) request.getHeader(EventHeader.NAME);
+
+        if (eventHeader == null
+            || !PRESENCE_EVENT.equals(eventHeader.getEventType()))
+        {
+            respond(request, Response.BAD_EVENT);
+            return;
+        }
+
+        ServerTransaction transaction = event.getServerTransaction();
+
+        if (transaction == null)
+            transaction = provider.getNewServerTransaction(request);
+
+        int expires = getExpires(request, null);
+        Response response = createResponse(request, Response.OK);
+
+        response.addHeader(headerFactory.createExpiresHeader(expires));
+        response.addHeader(
+            headerFactory.createContactHeader(
+                    addressFactory.createAddress(
+                            addressFactory.createSipURI(null, host + ":" + port))));
+        transaction.sendResponse(response);
+
+        Dialog dialog = transaction.getDialog();
+        Subscription subscription = subscriptionsByDialog.get(dialog);
+
+        if (subscription == null)
+        {
+            subscription
+                = new Subscription(getUser(request.getRequestURI()), dialog);
+
+            List<Subscription> watchers = subscriptions.get(subscription.user);
+
+            if (watchers == null)
+            {
+                watchers = new CopyOnWriteArrayList<Subscription>();
+
+                List<Subscription> existing
+                    = subscriptions.putIfAbsent(subscription.user, watchers);
+
+                if (existing != null)
+                    watchers = existing;
+            }
+            watchers.add(subscription);
+            subscriptionsByDialog.put(dialog, subscription);
+        }
+        subscription.expires = expires;
+
+        sendNotify(subscription, expires == 0);
+        if (expires == 0)
+            removeSubscription(dialog);
+    }
+
+    /**
+     * Sends a NOTIFY with the current presence of the user watched through a
+     * subscription.
+     *
+     * @param subscription the subscription.
+     * @param terminated whether the subscription is terminated.
+     */
+    private void sendNotify(Subscription subscription, boolean terminated)
+    {
+        // serialize the NOTIFYs in a dialog so that their CSeqs get sent in
+        // order.
+        synchronized (subscription)
+        {
+            try
+            {
+                Request notify
+                    = subscription.dialog.createRequest(Request.NOTIFY);
+
+                notify.addHeader(headerFactory.createEventHeader(PRESENCE_EVENT));
+
+                SubscriptionStateHeader state;
+
+                if (terminated)
+                {
+                    state
+                        = headerFactory.createSubscriptionStateHeader(
+                                SubscriptionStateHeader.TERMINATED);
+                    state.setReasonCode(SubscriptionStateHeader.TIMEOUT);
+                }
+                else
+                {
+                    state
+                        = headerFactory.createSubscriptionStateHeader(
+                                SubscriptionStateHeader.ACTIVE);
+                    state.setExpires(subscription.expires);
+                }
+                notify.addHeader(state);
+                notify.setContent(
+                    getPresence(subscription.user),
+                    headerFactory.createContentTypeHeader(
+                            "application", "pidf+xml"));
+
+                ClientTransaction transaction
+                    = provider.getNewClientTransaction(notify);
+
+                subscription.dialog.sendRequest(transaction);
+                notifyCount.incrementAndGet();
+            }
+            catch (Exception ex)
+            {
+                logger.error("Failed to notify " + subscription.user, ex);
+            }
+        }
+    }
+
+    /**
+     * Returns the presence document of a user, a closed basic status if the
+     * user has not published one.
+     *
+     * @param user the user.
+     * @return the presence document of <tt>user</tt>.
+     */
+    private String getPresence(String user)
+    {
+        String presence = publishedPresence.get(user);
+
+        if (presence == null)
+        {
+            presence
+                = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                    + "<presence xmlns=\"urn:ietf:params:xml:ns:pidf\""
+                    + " entity=\"sip:" + user + "@" + host + "\">"
+                    + "<tuple id=\"" + user + "\"><status><basic>closed"
+                    + "</basic></status></tuple></presence>";
+        }
+        return presence;
+    }
+
+    /**
+     * Forwards a request statelessly to the registered contact of its
+     * target.
+     *
+     * @param request the request to forward.
+     * @throws Exception if creating or sending the request fails.
+     */
+    private void forward(Request request)
+        throws Exception
+    {
+        URI contact = bindings.get(getUser(request.getRequestURI()));
+
+        if (contact == null)
+            return;
+
+        Request forwarded = (Request) request.clone();
+        MaxForwardsHeader maxForwards
+            = (MaxForwardsHeader) forwarded.getHeader(MaxForwardsHeader.NAME);
+
+        if (maxForwards != null)
+        {
+            if (maxForwards.getMaxForwards() <= 0)
+            {
+                respond(request, Response.TOO_MANY_HOPS);
+                return;
+            }
+            maxForwards.decrementMaxForwards();
+        }
+
+        RouteHeader route = (RouteHeader) forwarded.getHeader(RouteHeader.NAME);
+
+        if (route != null
+            && route.getAddress().getURI() instanceof SipURI
+            && host.equals(((SipURI) route.getAddress().getURI()).getHost()))
+        {
+            forwarded.removeFirst(RouteHeader.NAME);
+        }
+
+        forwarded.setRequestURI((URI) contact.clone());
+        forwarded.addFirst(
+            headerFactory.createViaHeader(
+                    host,
+                    port,
+                    TRANSPORT,
+                    BRANCH_PREFIX
+                        + Long.toHexString(idGenerator.incrementAndGet())));
+
+        provider.sendRequest(forwarded);
+        forwardCount.incrementAndGet();
+    }
+
+    /**
+     * Sends a response statelessly.
+     *
+     * @param request the request to respond to.
+     * @param statusCode the status code of the response.
+     * @throws Exception if creating or sending the response fails.
+     */
+    private void respond(Request request, int statusCode)
+        throws Exception
+    {
+        provider.sendResponse(createResponse(request, statusCode));
+    }
+
+    /**
+     * Creates a response with a To tag.
+     *
+     * @param request the request to respond to.
+     * @param statusCode the status code of the response.
+     * @return the created response.
+     * @throws ParseException if creating the response fails.
+     */
+    private Response createResponse(Request request, int statusCode)
+        throws ParseException
+    {
+        Response response = messageFactory.createResponse(statusCode, request);
+        ToHeader to = (ToHeader) response.getHeader(ToHeader.NAME);
+
+        if (to.getTag() == null)
+            to.setTag(Long.toHexString(idGenerator.incrementAndGet()));
+        return response;
+    }
+
+    /**
+     * Returns the expiration requested by a request.
+     *
+     * @param request the request.
+     * @param contact the contact whose expires parameter takes precedence or
+     * <tt>null</tt>.
+     * @return the requested expiration in seconds.
+     */
+    private static int getExpires(Request request, ContactHeader contact)
+    {
+        if (contact != null && contact.getExpires() >= 0)
+            return contact.getExpires();
+
+        ExpiresHeader expires = request.getExpires();
+
+        return (expires == null) ? DEFAULT_EXPIRES : expires.getExpires();
+    }
+
+    /**
+     * Returns the user part of a URI.
+     *
+     * @param uri the URI.
+     * @return the user part of <tt>uri</tt> or <tt>null</tt> if it has none.
+     */
+    private static String getUser(URI uri)
+    {
+        return (uri instanceof SipURI) ? ((SipURI) uri).getUser() : null;
+    }
+
+    /**
+     * Forgets the subscription established by a dialog.
+     *
+     * @param dialog the dialog.
+     */
+    private void removeSubscription(Dialog dialog)
+    {
+        if (dialog == null)
+            return;
+
+        Subscription subscription = subscriptionsByDialog.remove(dialog);
+
+        if (subscription != null)
+        {
+            List<Subscription> watchers = subscriptions.get(subscription.user);
+
+            if (watchers != null)
+                watchers.remove(subscription);
+        }
+    }
+
+    /**
+     * A subscription to the presence of a user.
+     */
+    private static class Subscription
+    {
+        /**
+         * The watched user.
+         */
+        final String user;
+
+        /**
+         * The dialog established by the SUBSCRIBE.
+         */
+        final Dialog dialog;
+
+        /**
+         * The granted expiration in seconds.
+         */
+        int expires;
+
+        /**
+         * Creates a new subscription.
+         *
+         * @param user the watched user.
+         * @param dialog the dialog established by the SUBSCRIBE.
+         */
+        Subscription(String user, Dialog dialog)
+        {
+            this.user = user;
+            this.dialog = dialog;
+        }
+    }
+}
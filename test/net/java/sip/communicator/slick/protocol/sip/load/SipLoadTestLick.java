@@ -0,0 +1,131 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.slick.protocol.sip.load;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.osgi.framework.*;
+
+/**
+ * Load tests of the SIP protocol provider. Unlike the
+ * <tt>SipProtocolProviderServiceLick</tt> it needs no real accounts: it
+ * starts a <tt>LocalSipServer</tt> and installs as many accounts against it
+ * as requested. It is not part of the default test list and is meant to be
+ * run on demand with
+ * <tt>ant test -Dtest.name=SipLoadTestLick</tt>.
+ */
+public class SipLoadTestLick
+    extends    TestSuite
+    implements BundleActivator
+{
+    /**
+     * The prefix of the system properties configuring the load tests.
+     */
+    public static final String PROPERTY_PREFIX = "accounts.sip.load.";
+
+    /**
+     * The name of the system property specifying the number of accounts to
+     * create.
+     */
+    public static final String ACCOUNT_COUNT_PROPERTY_NAME
+        = PROPERTY_PREFIX + "ACCOUNT_COUNT";
+
+    /**
+     * The name of the system property specifying the number of messages each
+     * account sends.
+     */
+    public static final String MESSAGE_COUNT_PROPERTY_NAME
+        = PROPERTY_PREFIX + "MESSAGE_COUNT";
+
+    /**
+     * The name of the system property specifying the port of the local
+     * server, a free one is picked if missing.
+     */
+    public static final String SERVER_PORT_PROPERTY_NAME
+        = PROPERTY_PREFIX + "SERVER_PORT";
+
+    /**
+     * The name of the system property specifying how long, in seconds, to
+     * wait for each phase of the test.
+     */
+    public static final String TIMEOUT_PROPERTY_NAME
+        = PROPERTY_PREFIX + "TIMEOUT";
+
+    /**
+     * To be set by the slick itself upon activation.
+     */
+    static BundleContext bc = null;
+
+    /**
+     * Initializes and registers all tests that we'll run as a part of this
+     * slick.
+     *
+     * @param context a currently valid bundle context.
+     */
+    @Override
+    public void start(BundleContext context)
+    {
+        setName("SipLoadTestLick");
+
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        properties.put("service.pid", getName());
+
+        bc = context;
+
+        addTest(TestSipLoad.suite());
+
+        context.registerService(getClass().getName(), this, properties);
+    }
+
+    /**
+     * Prepares the slick for shutdown.
+     *
+     * @param context a currently valid bundle context.
+     */
+    @Override
+    public void stop(BundleContext context)
+    {
+    }
+
+    /**
+     * Returns the value of an integer system property.
+     *
+     * @param name the name of the property.
+     * @param defaultValue the value to return if the property is missing or
+     * invalid.
+     * @return the value of the property named <tt>name</tt>.
+     */
+    static int getIntProperty(String name, int defaultValue)
+    {
+        String value = System.getProperty(name);
+
+        if (value != null)
+        {
+            try
+            {
+                return Integer.parseInt(value.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+            }
+        }
+        return defaultValue;
+    }
+}
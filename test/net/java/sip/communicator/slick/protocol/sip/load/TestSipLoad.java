@@ -0,0 +1,699 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.slick.protocol.sip.load;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import junit.framework.*;
+
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+import net.java.sip.communicator.util.*;
+
+import org.osgi.framework.*;
+
+/**
+ * Drives a configurable number of SIP protocol providers against a
+ * <tt>LocalSipServer</tt> and reports registration times, the throughput of
+ * presence notifications fanning in to a single watcher, MESSAGE round-trip
+ * latencies and the memory used per account. The tests depend on each other
+ * and have to run in the order defined by {@link #suite()}.
+ */
+public class TestSipLoad
+    extends TestCase
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>TestSipLoad</tt> class for logging
+     * output.
+     */
+    private static final Logger logger = Logger.getLogger(TestSipLoad.class);
+
+    /**
+     * The user name prefix of the test accounts.
+     */
+    private static final String USER_PREFIX = "loadtest";
+
+    /**
+     * The local server the accounts register with.
+     */
+    private static LocalSipServer server;
+
+    /**
+     * The SIP provider factory.
+     */
+    private static ProtocolProviderFactory providerFactory;
+
+    /**
+     * The installed accounts.
+     */
+    private static final List<AccountID> accounts
+        = new ArrayList<AccountID>();
+
+    /**
+     * The providers of the installed accounts, in the order of
+     * <tt>accounts</tt>.
+     */
+    private static final List<ProtocolProviderService> providers
+        = new ArrayList<ProtocolProviderService>();
+
+    /**
+     * The used heap before the installation of the accounts.
+     */
+    private static long memoryBefore;
+
+    /**
+     * The report accumulated by the tests.
+     */
+    private static final StringBuilder report = new StringBuilder();
+
+    /**
+     * The number of accounts to create.
+     */
+    private final int accountCount
+        = Math.max(2, SipLoadTestLick.getIntProperty(
+                SipLoadTestLick.ACCOUNT_COUNT_PROPERTY_NAME, 20));
+
+    /**
+     * The number of messages each account sends.
+     */
+    private final int messageCount
+        = SipLoadTestLick.getIntProperty(
+                SipLoadTestLick.MESSAGE_COUNT_PROPERTY_NAME, 10);
+
+    /**
+     * How long, in seconds, to wait for each phase.
+     */
+    private final int timeout
+        = SipLoadTestLick.getIntProperty(
+                SipLoadTestLick.TIMEOUT_PROPERTY_NAME, 60);
+
+    /**
+     * Creates a test for a specific test method.
+     *
+     * @param name the name of the test method.
+     */
+    public TestSipLoad(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Creates the suite running the tests in the order they depend on each
+     * other.
+     *
+     * @return the suite of load tests.
+     */
+    public static Test suite()
+    {
+        TestSuite suite = new TestSuite();
+
+        suite.addTest(new TestSipLoad("testInstallAccounts"));
+        suite.addTest(new TestSipLoad("testRegistration"));
+        suite.addTest(new TestSipLoad("testPresenceFanIn"));
+        suite.addTest(new TestSipLoad("testMessageRoundTrip"));
+        suite.addTest(new TestSipLoad("testUninstallAccounts"));
+        return suite;
+    }
+
+    /**
+     * Starts the local server and installs the test accounts against it.
+     *
+     * @throws Exception if the server fails to start.
+     */
+    public void testInstallAccounts()
+        throws Exception
+    {
+        server = new LocalSipServer(
+                SipLoadTestLick.getIntProperty(
+                        SipLoadTestLick.SERVER_PORT_PROPERTY_NAME, 0));
+        server.start();
+
+        String osgiFilter = "(" + ProtocolProviderFactory.PROTOCOL
+                            + "=" + ProtocolNames.SIP + ")";
+        ServiceReference[] serRefs
+            = SipLoadTestLick.bc.getServiceReferences(
+                    ProtocolProviderFactory.class.getName(), osgiFilter);
+
+        assertTrue(
+            "Failed to find a provider factory service for protocol SIP",
+            serRefs != null && serRefs.length > 0);
+
+        providerFactory = (ProtocolProviderFactory)
+            SipLoadTestLick.bc.getService(serRefs[0]);
+
+        memoryBefore = getUsedMemory();
+
+        for (int i = 0; i < accountCount; i++)
+        {
+            Hashtable<String, String> properties = getAccountProperties(i);
+            AccountID accountID
+                = providerFactory.installAccount(
+                        properties.get(ProtocolProviderFactory.USER_ID),
+                        properties);
+            ServiceReference<ProtocolProviderService> providerRef
+                = providerFactory.getProviderForAccount(accountID);
+
+            assertNotNull(
+                "No provider registered for " + accountID, providerRef);
+
+            accounts.add(accountID);
+            providers.add(SipLoadTestLick.bc.getService(providerRef));
+        }
+    }
+
+    /**
+     * Registers all accounts at once and reports the time it took each of
+     * them to get registered and the memory used per account.
+     *
+     * @throws Exception if registering fails.
+     */
+    public void testRegistration()
+        throws Exception
+    {
+        final CountDownLatch registered = new CountDownLatch(providers.size());
+        final List<Long> latencies
+            = Collections.synchronizedList(new ArrayList<Long>());
+        long start = System.nanoTime();
+
+        for (ProtocolProviderService provider : providers)
+        {
+            final long registrationStart = System.nanoTime();
+
+            provider.addRegistrationStateChangeListener(
+                new RegistrationStateChangeListener()
+                {
+                    private boolean done = false;
+
+                    @Override
+                    public synchronized void registrationStateChanged(
+                        RegistrationStateChangeEvent evt)
+                    {
+                        if (!done
+                            && RegistrationState.REGISTERED.equals(
+                                    evt.getNewState()))
+                        {
+                            done = true;
+                            latencies.add(
+                                System.nanoTime() - registrationStart);
+                            registered.countDown();
+                        }
+                    }
+                });
+            provider.register(new SecurityAuthorityImpl());
+        }
+
+        boolean allRegistered = registered.await(timeout, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+
+        report("Registration", latencies, elapsed);
+        report.append("Registered bindings on server: ")
+            .append(server.getBindingCount()).append('\n');
+        report.append("Memory per account: ")
+            .append((getUsedMemory() - memoryBefore) / providers.size() / 1024)
+            .append(" KiB\n");
+
+        assertTrue(
+            registered.getCount() + " accounts failed to register",
+            allRegistered);
+    }
+
+    /**
+     * Makes the first account watch all the others, then has all others
+     * change their status at once and reports how fast the notifications
+     * reach the watcher.
+     *
+     * @throws Exception if subscribing or publishing fails.
+     */
+    public void testPresenceFanIn()
+        throws Exception
+    {
+        OperationSetPersistentPresence watcher = getPresence(0);
+        final PresenceStatus awayStatus = findAwayStatus(watcher);
+
+        assertNotNull("No away status supported", awayStatus);
+
+        final int contactCount = providers.size() - 1;
+        final CountDownLatch online = new CountDownLatch(contactCount);
+        final CountDownLatch away = new CountDownLatch(contactCount);
+        final Map<String, Long> onlineTimes
+            = new ConcurrentHashMap<String, Long>();
+        final Map<String, Long> awayTimes
+            = new ConcurrentHashMap<String, Long>();
+
+        watcher.addContactPresenceStatusListener(
+            new ContactPresenceStatusListener()
+            {
+                @Override
+                public void contactPresenceStatusChanged(
+                    ContactPresenceStatusChangeEvent evt)
+                {
+                    String address = evt.getSourceContact().getAddress();
+                    PresenceStatus status = evt.getNewStatus();
+                    Long now = System.nanoTime();
+
+                    if (awayStatus.equals(status))
+                    {
+                        if (awayTimes.put(address, now) == null)
+                            away.countDown();
+                    }
+                    else if (status.isOnline())
+                    {
+                        if (onlineTimes.put(address, now) == null)
+                            online.countDown();
+                    }
+                }
+            });
+
+        // the watcher subscribes to everybody, everybody else to the next
+        // account so that they have a contact to send messages to.
+        long start = System.nanoTime();
+
+        for (int i = 1; i < providers.size(); i++)
+            watcher.subscribe(getUserID(i));
+        for (int i = 1; i < providers.size(); i++)
+            getPresence(i).subscribe(getUserID((i + 1) % providers.size()));
+
+        boolean allOnline = online.await(timeout, TimeUnit.SECONDS);
+
+        report("Initial presence fan-in", toLatencies(onlineTimes, start),
+            System.nanoTime() - start);
+        assertTrue(online.getCount() + " contacts never got online", allOnline);
+
+        start = System.nanoTime();
+        for (int i = 1; i < providers.size(); i++)
+            getPresence(i).publishPresenceStatus(awayStatus, "load test");
+
+        boolean allAway = away.await(timeout, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+
+        report("Presence change fan-in", toLatencies(awayTimes, start),
+            elapsed);
+        report.append("Presence fan-in throughput: ")
+            .append(awayTimes.size() * 1000000000L / Math.max(1, elapsed))
+            .append(" notifications/s\n");
+        assertTrue(away.getCount() + " status changes were lost", allAway);
+    }
+
+    /**
+     * Has each account send messages to the next one and reports the time
+     * between sending a MESSAGE and receiving its final response.
+     *
+     * @throws Exception if sending fails.
+     */
+    public void testMessageRoundTrip()
+        throws Exception
+    {
+        final int total = (providers.size() - 1) * messageCount;
+        final CountDownLatch done = new CountDownLatch(total);
+        final Map<String, Long> sendTimes = new ConcurrentHashMap<String, Long>();
+        final List<Long> latencies
+            = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger received = new AtomicInteger();
+
+        MessageListener listener = new MessageListener()
+        {
+            @Override
+            public void messageReceived(MessageReceivedEvent evt)
+            {
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void messageDelivered(MessageDeliveredEvent evt)
+            {
+                Long sent
+                    = sendTimes.remove(evt.getSourceMessage().getMessageUID());
+
+                if (sent != null)
+                {
+                    latencies.add(System.nanoTime() - sent);
+                    done.countDown();
+                }
+            }
+
+            @Override
+            public void messageDeliveryFailed(MessageDeliveryFailedEvent evt)
+            {
+                if (sendTimes.remove(evt.getSourceMessage().getMessageUID())
+                        != null)
+                {
+                    failed.incrementAndGet();
+                    done.countDown();
+                }
+            }
+        };
+
+        for (ProtocolProviderService provider : providers)
+            getMessaging(provider).addMessageListener(listener);
+
+        long start = System.nanoTime();
+
+        for (int k = 0; k < messageCount; k++)
+        {
+            for (int i = 1; i < providers.size(); i++)
+            {
+                OperationSetBasicInstantMessaging messaging
+                    = getMessaging(providers.get(i));
+                Contact to
+                    = findContact(
+                            getPresence(i),
+                            getUserID((i + 1) % providers.size()));
+
+                assertNotNull("No contact for the next account", to);
+
+                net.java.sip.communicator.service.protocol.Message message
+                    = messaging.createMessage("load test message " + k);
+
+                sendTimes.put(message.getMessageUID(), System.nanoTime());
+                messaging.sendInstantMessage(to, message);
+            }
+        }
+
+        boolean allDone = done.await(timeout, TimeUnit.SECONDS);
+
+        report("MESSAGE round trip", latencies, System.nanoTime() - start);
+        report.append("MESSAGE received=").append(received)
+            .append(" failed=").append(failed).append('\n');
+
+        for (ProtocolProviderService provider : providers)
+            getMessaging(provider).removeMessageListener(listener);
+
+        assertTrue(done.getCount() + " messages got no response", allDone);
+        assertEquals("Failed messages", 0, failed.get());
+    }
+
+    /**
+     * Unregisters and uninstalls the test accounts, stops the local server
+     * and logs the report.
+     *
+     * @throws Exception if unregistering fails.
+     */
+    public void testUninstallAccounts()
+        throws Exception
+    {
+        try
+        {
+            for (ProtocolProviderService provider : providers)
+            {
+                if (provider.isRegistered())
+                    provider.unregister();
+            }
+            for (AccountID accountID : accounts)
+                providerFactory.uninstallAccount(accountID);
+        }
+        finally
+        {
+            accounts.clear();
+            providers.clear();
+
+            if (server != null)
+            {
+                report.append("Server traffic: ")
+                    .append(server.getTrafficSummary()).append('\n');
+                server.stop();
+                server = null;
+            }
+
+            logger.info("SIP load test report (" + accountCount
+                + " accounts):\n" + report);
+            report.setLength(0);
+        }
+    }
+
+    /**
+     * Returns the properties of a test account.
+     *
+     * @param index the index of the account.
+     * @return the properties of the account with index <tt>index</tt>.
+     */
+    private Hashtable<String, String> getAccountProperties(int index)
+    {
+        Hashtable<String, String> table = new Hashtable<String, String>();
+        String port = Integer.toString(server.getPort());
+
+        table.put(ProtocolProviderFactory.USER_ID, getUserID(index));
+        table.put(ProtocolProviderFactory.DISPLAY_NAME, "Load Test " + index);
+        table.put(ProtocolProviderFactory.PASSWORD, USER_PREFIX);
+        table.put(ProtocolProviderFactory.SERVER_ADDRESS, server.getHost());
+        table.put(ProtocolProviderFactory.SERVER_PORT, port);
+        table.put(ProtocolProviderFactory.PROXY_AUTO_CONFIG,
+            Boolean.FALSE.toString());
+        table.put(ProtocolProviderFactory.PROXY_ADDRESS, server.getHost());
+        table.put(ProtocolProviderFactory.PROXY_PORT, port);
+        table.put(ProtocolProviderFactory.PREFERRED_TRANSPORT, "UDP");
+        table.put(ProtocolProviderFactory.IS_PRESENCE_ENABLED,
+            Boolean.TRUE.toString());
+        table.put(ProtocolProviderFactory.FORCE_P2P_MODE,
+            Boolean.FALSE.toString());
+        return table;
+    }
+
+    /**
+     * Returns the address of a test account.
+     *
+     * @param index the index of the account.
+     * @return the address of the account with index <tt>index</tt>.
+     */
+    private static String getUserID(int index)
+    {
+        return USER_PREFIX + index + "@" + server.getHost();
+    }
+
+    /**
+     * Returns the presence operation set of a test account.
+     *
+     * @param index the index of the account.
+     * @return the presence operation set of the account.
+     */
+    private static OperationSetPersistentPresence getPresence(int index)
+    {
+        return providers.get(index).getOperationSet(
+                OperationSetPersistentPresence.class);
+    }
+
+    /**
+     * Returns the instant messaging operation set of a provider.
+     *
+     * @param provider the provider.
+     * @return the instant messaging operation set of <tt>provider</tt>.
+     */
+    private static OperationSetBasicInstantMessaging getMessaging(
+        ProtocolProviderService provider)
+    {
+        return provider.getOperationSet(
+                OperationSetBasicInstantMessaging.class);
+    }
+
+    /**
+     * Finds a contact in the root group of a contact list.
+     *
+     * @param presence the presence operation set owning the contact list.
+     * @param userID the address of the contact without scheme.
+     * @return the contact or <tt>null</tt> if there is no such contact.
+     */
+    private static Contact findContact(
+        OperationSetPersistentPresence presence, String userID)
+    {
+        Iterator<Contact> contacts
+            = presence.getServerStoredContactListRoot().contacts();
+
+        while (contacts.hasNext())
+        {
+            Contact contact = contacts.next();
+
+            if (contact.getAddress().endsWith(userID))
+                return contact;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a supported status which is away but not offline.
+     *
+     * @param presence the presence operation set.
+     * @return an away status or <tt>null</tt> if none is supported.
+     */
+    private static PresenceStatus findAwayStatus(
+        OperationSetPresence presence)
+    {
+        Iterator<PresenceStatus> statuses = presence.getSupportedStatusSet();
+
+        while (statuses.hasNext())
+        {
+            PresenceStatus status = statuses.next();
+
+            if (status.getStatus() >= PresenceStatus.AWAY_THRESHOLD
+                && status.getStatus() < PresenceStatus.AVAILABLE_THRESHOLD)
+                return status;
+        }
+        return null;
+    }
+
+    /**
+     * Converts the times events occurred at into latencies.
+     *
+     * @param times the times in nanoseconds the events occurred at.
+     * @param start the time in nanoseconds the measurement started at.
+     * @return the latencies of the events.
+     */
+    private static List<Long> toLatencies(Map<String, Long> times, long start)
+    {
+        List<Long> latencies = new ArrayList<Long>(times.size());
+
+        for (Long time : times.values())
+            latencies.add(time - start);
+        return latencies;
+    }
+
+    /**
+     * Adds a summary of latencies to the report.
+     *
+     * @param name the name of the measurement.
+     * @param latencies the latencies in nanoseconds.
+     * @param elapsed the total duration of the measurement in nanoseconds.
+     */
+    private static void report(String name, List<Long> latencies, long elapsed)
+    {
+        List<Long> sorted;
+
+        synchronized (latencies)
+        {
+            sorted = new ArrayList<Long>(latencies);
+        }
+        Collections.sort(sorted);
+
+        report.append(name).append(": count=").append(sorted.size())
+            .append(" total=").append(toMillis(elapsed)).append("ms");
+        if (!sorted.isEmpty())
+        {
+            long sum = 0;
+
+            for (Long latency : sorted)
+                sum += latency;
+            report.append(" avg=").append(toMillis(sum / sorted.size()))
+                .append("ms p50=").append(toMillis(percentile(sorted, 50)))
+                .append("ms p95=").append(toMillis(percentile(sorted, 95)))
+                .append("ms max=")
+                .append(toMillis(sorted.get(sorted.size() - 1)))
+                .append("ms");
+        }
+        report.append('\n');
+    }
+
+    /**
+     * Returns a percentile of sorted values.
+     *
+     * @param sorted the values sorted in ascending order.
+     * @param percentile the percentile.
+     * @return the value at <tt>percentile</tt>.
+     */
+    private static long percentile(List<Long> sorted, int percentile)
+    {
+        int index = (int) Math.ceil(sorted.size() * percentile / 100d) - 1;
+
+        return sorted.get(Math.max(0, index));
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds.
+     *
+     * @param nanos the nanoseconds.
+     * @return <tt>nanos</tt> in milliseconds.
+     */
+    private static long toMillis(long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Returns the used heap after trying to collect garbage.
+     *
+     * @return the used heap in bytes.
+     */
+    private static long getUsedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * A security authority returning the password of the test accounts.
+     */
+    private static class SecurityAuthorityImpl
+        implements SecurityAuthority
+    {
+        /**
+         * Returns the password of the test accounts.
+         *
+         * @param realm The realm that the credentials are needed for.
+         * @param defaultValues the values to propose the user by default
+         * @param reasonCode the reason for which we're obtaining the
+         * credentials.
+         * @return the credentials of the test accounts.
+         */
+        @Override
+        public UserCredentials obtainCredentials(String          realm,
+                                                 UserCredentials defaultValues,
+                                                 int reasonCode)
+        {
+            return obtainCredentials(realm, defaultValues);
+        }
+
+        /**
+         * Returns the password of the test accounts.
+         *
+         * @param realm The realm that the credentials are needed for.
+         * @param defaultValues the values to propose the user by default
+         * @return the credentials of the test accounts.
+         */
+        @Override
+        public UserCredentials obtainCredentials(String          realm,
+                                                 UserCredentials defaultValues)
+        {
+            defaultValues.setPassword(USER_PREFIX.toCharArray());
+            return defaultValues;
+        }
+
+        /**
+         * Not used.
+         *
+         * @param isUserNameEditable ignored.
+         */
+        @Override
+        public void setUserNameEditable(boolean isUserNameEditable)
+        {
+        }
+
+        /**
+         * Not used.
+         *
+         * @return <tt>false</tt>
+         */
+        @Override
+        public boolean isUserNameEditable()
+        {
+            return false;
+        }
+    }
+}
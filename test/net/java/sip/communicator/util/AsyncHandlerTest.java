@@ -0,0 +1,168 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.util.*;
+import java.util.logging.*;
+
+import junit.framework.*;
+
+public class AsyncHandlerTest
+    extends TestCase
+{
+    /**
+     * A handler keeping the formatted records, slowly.
+     */
+    private static class SlowHandler
+        extends Handler
+    {
+        final List<String> records
+            = Collections.synchronizedList(new ArrayList<String>());
+
+        final ScLogFormatter formatter = new ScLogFormatter();
+
+        @Override
+        public void publish(LogRecord record)
+        {
+            records.add(formatter.format(record));
+            try
+            {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException ie)
+            {
+            }
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    private java.util.logging.Logger julLogger;
+
+    private Logger logger;
+
+    private SlowHandler target;
+
+    @Override
+    protected void setUp()
+    {
+        julLogger = java.util.logging.Logger.getLogger(
+                AsyncHandlerTest.class.getName());
+        julLogger.setUseParentHandlers(false);
+        julLogger.setLevel(Level.INFO);
+        logger = Logger.getLogger(AsyncHandlerTest.class);
+        target = new SlowHandler();
+    }
+
+    private AsyncHandler install(boolean dropOnOverflow)
+    {
+        AsyncHandler handler = new AsyncHandler(target, 5, dropOnOverflow);
+
+        julLogger.addHandler(handler);
+        return handler;
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (Handler handler : julLogger.getHandlers())
+        {
+            julLogger.removeHandler(handler);
+            handler.close();
+        }
+        julLogger.setUseParentHandlers(true);
+    }
+
+    //@Test
+    public void testBlockingKeepsAllRecordsAndCaller()
+    {
+        AsyncHandler handler = install(false);
+
+        for (int i = 0; i < 50; i++)
+            logger.info("message " + i);
+        handler.close();
+
+        assertEquals(0, handler.getDroppedRecordCount());
+        assertEquals(50, target.records.size());
+        for (int i = 0; i < 50; i++)
+        {
+            String record = target.records.get(i);
+
+            assertTrue(record, record.contains("message " + i));
+            assertTrue(
+                    record,
+                    record.contains(
+                            "AsyncHandlerTest"
+                                + ".testBlockingKeepsAllRecordsAndCaller()"));
+        }
+    }
+
+    //@Test
+    public void testDroppedRecordsAreReported()
+    {
+        AsyncHandler handler = install(true);
+
+        for (int i = 0; i < 200; i++)
+            logger.info("message " + i);
+        handler.close();
+
+        long dropped = handler.getDroppedRecordCount();
+
+        int kept = 0;
+        long reported = 0;
+
+        for (String record : target.records)
+        {
+            if (record.contains("message "))
+                kept++;
+            else
+            {
+                String count
+                    = record.replaceFirst(".*Dropped (\\d+) .*\\s*", "$1");
+
+                reported += Long.parseLong(count);
+            }
+        }
+
+        assertTrue(dropped > 0);
+        assertEquals(200 - dropped, kept);
+        assertEquals(dropped, reported);
+    }
+
+    //@Test
+    public void testRecordsBelowLevelAreNotQueued()
+    {
+        AsyncHandler handler = install(false);
+
+        handler.setLevel(Level.WARNING);
+        logger.info("ignored");
+        logger.warn("kept");
+        handler.close();
+
+        assertEquals(1, target.records.size());
+        assertTrue(target.records.get(0).contains("kept"));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+
+import junit.framework.*;
+
+public class AvatarStoreTest
+    extends TestCase
+{
+    private File dir;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        dir = File.createTempFile("avatarstore", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    private int countImages()
+    {
+        return dir.list().length
+            - (new File(dir, AvatarStore.INDEX_FILE_NAME).exists() ? 1 : 0);
+    }
+
+    //@Test
+    public void testSharedImageIsStoredOnce()
+    {
+        AvatarStore store = new AvatarStore(dir);
+        byte[] image = new byte[] { 1, 2, 3 };
+
+        String hash = store.put("acc/alice", image);
+        assertEquals(hash, store.put("acc/bob", new byte[] { 1, 2, 3 }));
+
+        assertEquals(1, countImages());
+        assertEquals(2, store.getReferenceCount(hash));
+        assertSame(store.get("acc/alice"), store.get("acc/bob"));
+        assertEquals(new File(dir, hash), store.getFile("acc/bob"));
+    }
+
+    //@Test
+    public void testUnreferencedImageIsDeleted()
+    {
+        AvatarStore store = new AvatarStore(dir);
+
+        String oldHash = store.put("acc/alice", new byte[] { 1 });
+        store.put("acc/bob", new byte[] { 1 });
+        String newHash = store.put("acc/alice", new byte[] { 2 });
+
+        assertEquals(1, store.getReferenceCount(oldHash));
+        assertEquals(2, countImages());
+
+        store.remove("acc/bob");
+        assertEquals(0, store.getReferenceCount(oldHash));
+
+        store.put("acc/alice", null);
+        assertEquals(0, store.getReferenceCount(newHash));
+        assertNull(store.get("acc/alice"));
+
+        // the files may still be displayed until the next start
+        assertTrue(new File(dir, oldHash).exists());
+        assertEquals(2, countImages());
+
+        store.flush();
+        assertEquals(0, new AvatarStore(dir).getReferenceCount(oldHash));
+        assertEquals(0, countImages());
+    }
+
+    //@Test
+    public void testReplacedImageStaysReadable()
+    {
+        AvatarStore store = new AvatarStore(dir);
+
+        store.put("acc/alice", new byte[] { 1 });
+        File oldFile = store.getFile("acc/alice");
+        store.put("acc/alice", new byte[] { 2 });
+
+        assertFalse(oldFile.equals(store.getFile("acc/alice")));
+        assertEquals(1, AvatarStore.read(oldFile).length);
+        assertEquals(1, AvatarStore.read(oldFile)[0]);
+
+        store.put("acc/bob", new byte[] { 2 });
+        store.flush();
+
+        AvatarStore reloaded = new AvatarStore(dir);
+
+        assertEquals(2, reloaded.get("acc/bob")[0]);
+        assertFalse(oldFile.exists());
+    }
+
+    //@Test
+    public void testIndexIsPersisted()
+    {
+        AvatarStore store = new AvatarStore(dir);
+
+        String hash = store.put("acc/alice", new byte[] { 4, 5 });
+        store.flush();
+
+        AvatarStore reloaded = new AvatarStore(dir);
+
+        assertEquals(hash, reloaded.getHash("acc/alice"));
+        assertEquals(2, reloaded.get("acc/alice").length);
+        assertEquals(1, reloaded.getReferenceCount(hash));
+    }
+
+    //@Test
+    public void testImagesAreKeptIfIndexIsUnreadable()
+    {
+        AvatarStore store = new AvatarStore(dir);
+
+        String hash = store.put("acc/alice", new byte[] { 4, 5 });
+
+        // an index which can't be opened
+        assertTrue(new File(dir, AvatarStore.INDEX_FILE_NAME).mkdir());
+
+        assertEquals(0, new AvatarStore(dir).getReferenceCount(hash));
+        assertTrue(new File(dir, hash).exists());
+    }
+
+    //@Test
+    public void testIndexIsRecoveredFromTemporaryFile()
+    {
+        AvatarStore store = new AvatarStore(dir);
+
+        String hash = store.put("acc/alice", new byte[] { 4, 5 });
+        store.flush();
+
+        File indexFile = new File(dir, AvatarStore.INDEX_FILE_NAME);
+        assertTrue(indexFile.renameTo(
+            new File(dir, AvatarStore.INDEX_FILE_NAME + ".tmp")));
+
+        AvatarStore reloaded = new AvatarStore(dir);
+
+        assertEquals(1, reloaded.getReferenceCount(hash));
+        assertTrue(new File(dir, hash).exists());
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+import org.xbill.DNS.*;
+
+public class DnsCacheTest
+    extends TestCase
+{
+    /**
+     * A cache answering from a map instead of the DNS.
+     */
+    private static class TestCache
+        extends DnsCache
+    {
+        final Map<String, Record[]> zone = new HashMap<String, Record[]>();
+
+        long ttl = 60000;
+
+        int queries;
+
+        @Override
+        protected Entry resolve(String domain, int type)
+        {
+            synchronized (this)
+            {
+                queries++;
+                notifyAll();
+            }
+            return new Entry(zone.get(domain), ttl, System.currentTimeMillis());
+        }
+
+        synchronized void waitForQueries(int count)
+            throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 5000;
+
+            while (queries < count && System.currentTimeMillis() < end)
+                wait(100);
+        }
+    }
+
+    private static Record[] a(String name, String address)
+        throws Exception
+    {
+        return
+            new Record[]
+            {
+                new ARecord(
+                        Name.fromString(name),
+                        DClass.IN,
+                        60,
+                        InetAddress.getByName(address))
+            };
+    }
+
+    //@Test
+    public void testPositiveAnswerIsCached()
+        throws Exception
+    {
+        TestCache cache = new TestCache();
+        cache.zone.put("example.com.", a("example.com.", "192.0.2.1"));
+
+        assertEquals(1, cache.lookup("example.com.", Type.A, true).length);
+        assertEquals(1, cache.lookup("EXAMPLE.com.", Type.A, true).length);
+        assertEquals(1, cache.queries);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.lookup("example.com.", Type.A, false);
+        assertEquals(2, cache.queries);
+    }
+
+    //@Test
+    public void testNegativeAnswerIsCached()
+        throws Exception
+    {
+        TestCache cache = new TestCache();
+
+        assertNull(cache.lookup("missing.example.com.", Type.SRV, true));
+        assertNull(cache.lookup("missing.example.com.", Type.SRV, true));
+        assertEquals(1, cache.queries);
+        assertEquals(1, cache.getNegativeHitCount());
+    }
+
+    //@Test
+    public void testExpiredEntryIsQueriedAgain()
+        throws Exception
+    {
+        TestCache cache = new TestCache();
+        cache.ttl = 0;
+        cache.zone.put("example.com.", a("example.com.", "192.0.2.1"));
+
+        cache.lookup("example.com.", Type.A, true);
+        cache.lookup("example.com.", Type.A, true);
+        assertEquals(2, cache.queries);
+        assertEquals(0, cache.getSize());
+    }
+
+    //@Test
+    public void testHotEntryIsRefreshedInBackground()
+        throws Exception
+    {
+        TestCache cache = new TestCache();
+        cache.ttl = 200;
+        cache.zone.put("example.com.", a("example.com.", "192.0.2.1"));
+
+        for (int i = 0; i < DnsCache.PREFETCH_MIN_HITS + 1; i++)
+            cache.lookup("example.com.", Type.A, true);
+
+        // the entry enters its refresh window during the last tenth of its TTL
+        Thread.sleep(190);
+        cache.zone.put("example.com.", a("example.com.", "192.0.2.2"));
+        assertEquals(
+                "192.0.2.1",
+                ((ARecord) cache.lookup("example.com.", Type.A, true)[0])
+                    .getAddress().getHostAddress());
+
+        cache.waitForQueries(2);
+        assertEquals(1, cache.getPrefetchCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    //@Test
+    public void testAnswerSentBeforeClearIsNotCached()
+        throws Exception
+    {
+        final CountDownLatch resolving = new CountDownLatch(1);
+        final CountDownLatch cleared = new CountDownLatch(1);
+        final DnsCache cache = new DnsCache()
+        {
+            @Override
+            protected Entry resolve(String domain, int type)
+            {
+                resolving.countDown();
+                try
+                {
+                    cleared.await();
+                }
+                catch (InterruptedException e)
+                {
+                }
+                return new Entry(null, 60000, System.currentTimeMillis());
+            }
+        };
+        Thread lookup = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    cache.lookup("example.com.", Type.A, true);
+                }
+                catch (TextParseException e)
+                {
+                }
+            }
+        };
+
+        lookup.start();
+        assertTrue(resolving.await(5, TimeUnit.SECONDS));
+        cache.clear();
+        cleared.countDown();
+        lookup.join(5000);
+
+        assertEquals(0, cache.getSize());
+    }
+
+    //@Test
+    public void testSizeIsBounded()
+        throws Exception
+    {
+        TestCache cache = new TestCache();
+
+        for (int i = 0; i < DnsCache.PDEFAULT_MAX_ENTRIES + 10; i++)
+            cache.lookup("host" + i + ".example.com.", Type.A, true);
+        assertEquals(DnsCache.PDEFAULT_MAX_ENTRIES, cache.getSize());
+
+        // the least recently used entries were evicted
+        cache.lookup("host0.example.com.", Type.A, true);
+        assertEquals(DnsCache.PDEFAULT_MAX_ENTRIES + 11, cache.queries);
+    }
+}
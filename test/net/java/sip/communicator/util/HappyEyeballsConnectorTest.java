@@ -0,0 +1,328 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import junit.framework.*;
+
+public class HappyEyeballsConnectorTest
+    extends TestCase
+{
+    private final List<Closeable> resources = new ArrayList<Closeable>();
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        for (Closeable resource : resources)
+            resource.close();
+        resources.clear();
+    }
+
+    private static InetSocketAddress address(String literal, int port)
+        throws UnknownHostException
+    {
+        return new InetSocketAddress(InetAddress.getByName(literal), port);
+    }
+
+    private ServerSocket listen()
+        throws IOException
+    {
+        ServerSocket server
+            = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        resources.add(server);
+        return server;
+    }
+
+    private InetSocketAddress closedPort()
+        throws IOException
+    {
+        ServerSocket server
+            = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        InetSocketAddress address
+            = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+
+        server.close();
+        return address;
+    }
+
+    /**
+     * Returns an address connections to which neither succeed nor fail, i.e.
+     * a listener whose backlog is full, or <tt>null</tt> if the platform
+     * refuses such connections instead.
+     */
+    private InetSocketAddress blackHole()
+        throws IOException
+    {
+        ServerSocket server
+            = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        InetSocketAddress address
+            = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+
+        resources.add(server);
+        for (int i = 0; i < 10; i++)
+        {
+            Socket filler = new Socket();
+
+            resources.add(filler);
+            try
+            {
+                filler.connect(address, 200);
+            }
+            catch (SocketTimeoutException ste)
+            {
+                return address;
+            }
+            catch (IOException ioe)
+            {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    //@Test
+    public void testSortAddressesInterleavesFamilies()
+        throws Exception
+    {
+        InetSocketAddress a4 = address("192.0.2.1", 5060);
+        InetSocketAddress b4 = address("192.0.2.2", 5060);
+        InetSocketAddress c4 = address("192.0.2.3", 5060);
+        InetSocketAddress a6 = address("2001:db8::1", 5060);
+        InetSocketAddress b6 = address("2001:db8::2", 5060);
+
+        assertEquals(
+            Arrays.asList(a4, a6, b4, b6, c4),
+            Arrays.asList(
+                HappyEyeballsConnector.sortAddresses(
+                    new InetSocketAddress[] { a4, b4, c4, a6, b6 })));
+        assertEquals(
+            Arrays.asList(a6, a4, b6, b4, c4),
+            Arrays.asList(
+                HappyEyeballsConnector.sortAddresses(
+                    new InetSocketAddress[] { a6, a4, b4, c4, b6 })));
+    }
+
+    //@Test
+    public void testSortAddressesOfOneFamily()
+        throws Exception
+    {
+        InetSocketAddress a4 = address("192.0.2.1", 5060);
+        InetSocketAddress b4 = address("192.0.2.2", 5060);
+
+        assertEquals(
+            Arrays.asList(b4, a4),
+            Arrays.asList(
+                HappyEyeballsConnector.sortAddresses(
+                    new InetSocketAddress[] { b4, a4 })));
+        assertEquals(
+            0,
+            HappyEyeballsConnector.sortAddresses(
+                new InetSocketAddress[0]).length);
+        assertFalse(
+            HappyEyeballsConnector.isDualStack(
+                new InetSocketAddress[] { b4, a4 }));
+        assertTrue(
+            HappyEyeballsConnector.isDualStack(
+                new InetSocketAddress[] { b4, address("2001:db8::1", 5060) }));
+    }
+
+    //@Test
+    public void testFirstSuccessWinsAndLosersAreClosed()
+        throws Exception
+    {
+        ServerSocket server = listen();
+        InetSocketAddress listening
+            = new InetSocketAddress(
+                    server.getInetAddress(), server.getLocalPort());
+        InetSocketAddress refused = closedPort();
+
+        // no delay: all attempts are started at once and all but the one
+        // that won must be closed
+        Socket socket
+            = new HappyEyeballsConnector(
+                    new InetSocketAddress[]
+                        { refused, listening, listening, listening },
+                    0, 5000, 5000)
+                .connect();
+
+        resources.add(socket);
+        assertTrue(socket.isConnected());
+        assertFalse(socket.isClosed());
+        assertEquals(listening, socket.getRemoteSocketAddress());
+
+        server.setSoTimeout(1000);
+        for (int i = 0; i < 3; i++)
+        {
+            Socket accepted;
+
+            try
+            {
+                accepted = server.accept();
+            }
+            catch (SocketTimeoutException ste)
+            {
+                // the attempt was cancelled before it connected
+                continue;
+            }
+            resources.add(accepted);
+            if (accepted.getPort() == socket.getLocalPort())
+                continue;
+
+            accepted.setSoTimeout(1000);
+            assertEquals(
+                "a losing attempt was not closed",
+                -1,
+                accepted.getInputStream().read());
+        }
+    }
+
+    //@Test
+    public void testFallsBackWhenAttemptFails()
+        throws Exception
+    {
+        ServerSocket server = listen();
+        InetSocketAddress listening
+            = new InetSocketAddress(
+                    server.getInetAddress(), server.getLocalPort());
+        long start = System.currentTimeMillis();
+
+        // the second attempt starts as soon as the first one is refused,
+        // not after the delay
+        Socket socket
+            = new HappyEyeballsConnector(
+                    new InetSocketAddress[] { closedPort(), listening },
+                    5000, 5000, 10000)
+                .connect();
+
+        resources.add(socket);
+        assertEquals(listening, socket.getRemoteSocketAddress());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    //@Test
+    public void testAllFailuresRethrowLastException()
+    {
+        try
+        {
+            new HappyEyeballsConnector(
+                    new InetSocketAddress[] { closedPort(), closedPort() },
+                    250, 5000, 5000)
+                .connect();
+            fail("Connected to a closed port");
+        }
+        catch (ConnectException ce)
+        {
+            // expected
+        }
+        catch (IOException ioe)
+        {
+            fail("Unexpected " + ioe);
+        }
+    }
+
+    //@Test
+    public void testNoAddress()
+        throws Exception
+    {
+        try
+        {
+            new HappyEyeballsConnector(new InetSocketAddress[0], 250, 5000, 5000)
+                .connect();
+            fail("Connected without an address");
+        }
+        catch (ConnectException ce)
+        {
+            // expected
+        }
+    }
+
+    //@Test
+    public void testRaceTimeout()
+        throws Exception
+    {
+        InetSocketAddress blackHole = blackHole();
+
+        if (blackHole == null)
+            return;
+
+        long start = System.currentTimeMillis();
+
+        try
+        {
+            new HappyEyeballsConnector(
+                    new InetSocketAddress[] { blackHole },
+                    250, 10000, 300)
+                .connect();
+            fail("Connected to a full backlog");
+        }
+        catch (SocketTimeoutException ste)
+        {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    //@Test
+    public void testInterrupt()
+        throws Exception
+    {
+        InetSocketAddress blackHole = blackHole();
+
+        if (blackHole == null)
+            return;
+
+        final HappyEyeballsConnector connector
+            = new HappyEyeballsConnector(
+                    new InetSocketAddress[] { blackHole, blackHole },
+                    250, 10000, 10000);
+        final Object[] result = new Object[2];
+        Thread thread
+            = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        result[0] = connector.connect();
+                    }
+                    catch (IOException ioe)
+                    {
+                        result[0] = ioe;
+                    }
+                    result[1] = Thread.currentThread().isInterrupted();
+                }
+            };
+
+        thread.start();
+        Thread.sleep(500);
+        thread.interrupt();
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        assertTrue(
+            String.valueOf(result[0]),
+            result[0] instanceof InterruptedIOException);
+        assertEquals(Boolean.TRUE, result[1]);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.util;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jitsi.service.configuration.*;
+import org.xbill.DNS.*;
+
+public class SrvTargetHealthTest
+    extends TestCase
+{
+    private static SRVRecord srv(String target, int weight)
+        throws Exception
+    {
+        return
+            new SRVRecord(
+                    new org.xbill.DNS.SRVRecord(
+                            Name.fromString("_sip._tcp.example.com."),
+                            DClass.IN,
+                            60,
+                            10,
+                            weight,
+                            5060,
+                            Name.fromString(target)));
+    }
+
+    //@Test
+    public void testBackoffGrowsWithFailures()
+    {
+        SrvTargetHealth health = new SrvTargetHealth();
+
+        health.reportFailed("sip1.example.com.", 5060, 1000);
+        assertEquals(1, health.getFailureCount("SIP1.example.com", 5060));
+        assertTrue(health.isBackedOff("sip1.example.com", 5060, 1000
+            + SrvTargetHealth.INITIAL_BACKOFF - 1));
+        assertFalse(health.isBackedOff("sip1.example.com", 5060, 1000
+            + SrvTargetHealth.INITIAL_BACKOFF));
+        assertFalse(health.isBackedOff("sip1.example.com", 5061, 1000));
+
+        health.reportFailed("sip1.example.com", 5060, 2000);
+        assertTrue(health.isBackedOff("sip1.example.com", 5060, 2000
+            + 2 * SrvTargetHealth.INITIAL_BACKOFF - 1));
+
+        assertEquals(SrvTargetHealth.MAX_BACKOFF,
+            SrvTargetHealth.getBackoff(1000));
+    }
+
+    //@Test
+    public void testSuccessResetsFailures()
+    {
+        SrvTargetHealth health = new SrvTargetHealth();
+
+        health.reportFailed("sip1.example.com", 5060, 1000);
+        health.reportConnected("sip1.example.com", 5060, 200, 1500);
+        assertEquals(0, health.getFailureCount("sip1.example.com", 5060));
+        assertFalse(health.isBackedOff("sip1.example.com", 5060, 1500));
+        assertEquals(200, health.getConnectTime("sip1.example.com", 5060));
+
+        health.reportConnected("sip1.example.com", 5060, 300, 1600);
+        assertEquals(230, health.getConnectTime("sip1.example.com", 5060));
+    }
+
+    //@Test
+    public void testPersistence()
+    {
+        SrvTargetHealth health = new SrvTargetHealth();
+
+        health.reportConnected("sip1.example.com", 5060, 200, 1000);
+        health.reportFailed("sip2.example.com", 5060, 2000);
+
+        SrvTargetHealth loaded = new SrvTargetHealth();
+
+        loaded.parse(health.serialize() + ";garbage;x,1,2,3,y", 3000);
+        assertEquals(200, loaded.getConnectTime("sip1.example.com", 5060));
+        assertEquals(1, loaded.getFailureCount("sip2.example.com", 5060));
+        assertTrue(loaded.isBackedOff("sip2.example.com", 5060, 3000));
+
+        loaded.parse(health.serialize(), 1500 + SrvTargetHealth.MAX_AGE);
+        assertEquals(-1, loaded.getConnectTime("sip1.example.com", 5060));
+        assertEquals(1, loaded.getFailureCount("sip2.example.com", 5060));
+    }
+
+    /**
+     * Returns a configuration without properties which records the values
+     * set in it.
+     */
+    private static ConfigurationService recordingConfiguration(
+            final List<Object> values)
+    {
+        return
+            (ConfigurationService)
+                Proxy.newProxyInstance(
+                        ConfigurationService.class.getClassLoader(),
+                        new Class<?>[] { ConfigurationService.class },
+                        new InvocationHandler()
+                        {
+                            @Override
+                            public Object invoke(
+                                    Object proxy,
+                                    Method method,
+                                    Object[] args)
+                            {
+                                if (method.getName().equals("setProperty")
+                                        && SrvTargetHealth
+                                            .PNAME_SRV_TARGET_HEALTH
+                                                .equals(args[0]))
+                                    values.add(args[1]);
+                                return null;
+                            }
+                        });
+    }
+
+    //@Test
+    public void testSavesAreDeferredUntilFlushed()
+    {
+        List<Object> values = new ArrayList<Object>();
+        SrvTargetHealth health = new SrvTargetHealth();
+
+        health.setConfigurationService(recordingConfiguration(values));
+        health.reportConnected("sip1.example.com", 5060, 200, 1000);
+        health.reportFailed("sip2.example.com", 5060, 2000);
+        health.reportConnected("sip1.example.com", 5060, 300, 3000);
+        assertTrue(values.isEmpty());
+
+        // stopping saves the pending changes once
+        health.setConfigurationService(null);
+        assertEquals(1, values.size());
+        assertEquals(health.serialize(), values.get(0));
+
+        health.reportFailed("sip2.example.com", 5060, 4000);
+        health.flush();
+        assertEquals(1, values.size());
+    }
+
+    //@Test
+    public void testSelectionWeights()
+        throws Exception
+    {
+        SrvTargetHealth health = new SrvTargetHealth();
+        SRVRecord[] records
+            = new SRVRecord[]
+            {
+                srv("sip1.example.com.", 10),
+                srv("sip2.example.com.", 10),
+                srv("sip3.example.com.", 10),
+                srv("sip4.example.com.", 0)
+            };
+
+        // no timings, the SRV weights
+        int[] weights = health.getSelectionWeights(records, 0, 4);
+
+        assertEquals(10, weights[0]);
+        assertEquals(0, weights[3]);
+
+        health.reportConnected("sip1.example.com", 5060, 100, 1000);
+        health.reportConnected("sip2.example.com", 5060, 400, 1000);
+        weights = health.getSelectionWeights(records, 0, 4);
+
+        assertEquals(1000, weights[0]);
+        assertEquals(250, weights[1]);
+        // unknown, as fast as the fastest
+        assertEquals(1000, weights[2]);
+        assertEquals(0, weights[3]);
+
+        // without weights, only the timings count
+        weights = health.getSelectionWeights(records, 3, 4);
+        assertEquals(0, weights[0]);
+        records[0] = srv("sip1.example.com.", 0);
+        records[1] = srv("sip2.example.com.", 0);
+        weights = health.getSelectionWeights(records, 0, 2);
+        assertEquals(100, weights[0]);
+        assertEquals(25, weights[1]);
+    }
+}